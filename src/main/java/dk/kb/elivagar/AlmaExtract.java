@@ -1,14 +1,23 @@
 package dk.kb.elivagar;
 
 import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.metadata.AlmaBulkExtractor;
 import dk.kb.elivagar.metadata.AlmaMetadataRetriever;
+import dk.kb.elivagar.metadata.ModsRecordWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Extracts the MODS metadata from alma.
@@ -16,6 +25,12 @@ import java.io.OutputStream;
  * Usage:
  * dk.kb.elivagar.AlmaExtract /PATH/TO/elivagar.yml [ISBN]+
  * 
+ * Or in bulk, with the ISBN numbers read one per line from a file, or from stdin when the input is '-':
+ * dk.kb.elivagar.AlmaExtract /PATH/TO/elivagar.yml --input (FILE|-) [--output (DIR|FILE.zip|FILE.jsonl)]
+ *     [--threads N] [--batch-size N]
+ * 
+ * The bulk output is written as individual MODS files in the output directory (default the current directory),
+ * or streamed to a single zip archive or JSON Lines file.
  */
 public class AlmaExtract {
     /** The logger.*/
@@ -24,6 +39,19 @@ public class AlmaExtract {
     /** The output directory.*/
     protected static File outputDir = new File(".");
 
+    /** The option for the input with the ISBN numbers in bulk mode.*/
+    protected static final String OPTION_INPUT = "--input";
+    /** The option for the output in bulk mode.*/
+    protected static final String OPTION_OUTPUT = "--output";
+    /** The option for the number of concurrent Alma searches in bulk mode.*/
+    protected static final String OPTION_THREADS = "--threads";
+    /** The option for the number of ISBN numbers in each Alma search in bulk mode.*/
+    protected static final String OPTION_BATCH_SIZE = "--batch-size";
+    /** The input for reading the ISBN numbers from stdin.*/
+    protected static final String STDIN_INPUT = "-";
+    /** The default number of concurrent Alma searches in bulk mode.*/
+    protected static final int DEFAULT_THREADS = 4;
+
     /**
      * Requires at least the two arguments the configuration file and a list of ISBN of books to retrieve.
      * @param args The arguments.
@@ -32,7 +60,9 @@ public class AlmaExtract {
         if(args.length < 2) {
             System.err.println("Needs at least two arguments: ");
             System.err.println(" * The configuration file.");
-            System.err.println(" * List of ISBN of books to retrieve.");
+            System.err.println(" * List of ISBN of books to retrieve, or the bulk options: ");
+            System.err.println("   " + OPTION_INPUT + " (FILE|-) [" + OPTION_OUTPUT + " (DIR|FILE.zip|FILE.jsonl)] ["
+                    + OPTION_THREADS + " N] [" + OPTION_BATCH_SIZE + " N]");
             System.exit(-1);
         }
         String confPath = args[0];
@@ -40,15 +70,19 @@ public class AlmaExtract {
         
         try {
             Configuration conf = Configuration.createFromYAMLFile(confFile);
-            HttpClient httpClient = new HttpClient();
-            
-            AlmaMetadataRetriever almaMetadataRetriever = new AlmaMetadataRetriever(conf, httpClient);
-            for(int i = 1; i < args.length; i++) {
-                String isbn = args[i];
-                try {
-                    retrieveMetadataForIsbn(conf, almaMetadataRetriever, isbn);
-                } catch (IOException e) {
-                    log.warn("Issue occured when retrieving the metadata for ISBN: '" + isbn + "'", e);
+            try (HttpClient httpClient = new HttpClient(conf.getHttpConfiguration())) {
+                AlmaMetadataRetriever almaMetadataRetriever = new AlmaMetadataRetriever(conf, httpClient);
+                if(args[1].startsWith("--")) {
+                    extractInBulk(almaMetadataRetriever, parseOptions(args));
+                    return;
+                }
+                for(int i = 1; i < args.length; i++) {
+                    String isbn = args[i];
+                    try {
+                        retrieveMetadataForIsbn(conf, almaMetadataRetriever, isbn);
+                    } catch (IOException e) {
+                        log.warn("Issue occured when retrieving the metadata for ISBN: '" + isbn + "'", e);
+                    }
                 }
             }
         } catch (Exception e ) {
@@ -71,4 +105,68 @@ public class AlmaExtract {
         }
         log.info("Metadata for ISBN '" + isbn + "' can be found at: " + modsMetadataFile.getAbsolutePath());
     }
+
+    /**
+     * Parses the bulk options; pairs of option and value after the configuration file.
+     * @param args The arguments.
+     * @return The values mapped by their option.
+     */
+    protected static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> res = new HashMap<String, String>();
+        for(int i = 1; i < args.length; i += 2) {
+            String option = args[i];
+            if(!option.equals(OPTION_INPUT) && !option.equals(OPTION_OUTPUT) && !option.equals(OPTION_THREADS)
+                    && !option.equals(OPTION_BATCH_SIZE)) {
+                throw new IllegalArgumentException("Unknown option: " + option);
+            }
+            if(i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for the option: " + option);
+            }
+            res.put(option, args[i + 1]);
+        }
+        if(!res.containsKey(OPTION_INPUT)) {
+            throw new IllegalArgumentException("Missing the option: " + OPTION_INPUT);
+        }
+        return res;
+    }
+
+    /**
+     * Extracts the MODS records in bulk, for the ISBN numbers from a file or stdin.
+     * @param almaMetadataRetriever The Alma metadata retriever.
+     * @param options The bulk options.
+     * @throws IOException If the ISBN numbers cannot be read, or the MODS records cannot be written.
+     */
+    protected static void extractInBulk(AlmaMetadataRetriever almaMetadataRetriever, Map<String, String> options)
+            throws IOException {
+        String input = options.get(OPTION_INPUT);
+        File output = options.containsKey(OPTION_OUTPUT) ? new File(options.get(OPTION_OUTPUT)) : outputDir;
+        int threads = options.containsKey(OPTION_THREADS) ? Integer.parseInt(options.get(OPTION_THREADS))
+                : DEFAULT_THREADS;
+        int batchSize = options.containsKey(OPTION_BATCH_SIZE) ? Integer.parseInt(options.get(OPTION_BATCH_SIZE))
+                : AlmaMetadataRetriever.MAX_ISBNS_PER_SEARCH;
+
+        long total = -1L;
+        if(!input.equals(STDIN_INPUT)) {
+            try (BufferedReader reader = createReader(new FileInputStream(input))) {
+                total = AlmaBulkExtractor.countIsbns(reader);
+            }
+        }
+        log.info("Extracting the MODS records for " + (total < 0 ? "the" : total) + " ISBN numbers from '" 
+                + input + "' to '" + output.getAbsolutePath() + "'");
+        try (ModsRecordWriter writer = ModsRecordWriter.create(output);
+                BufferedReader reader = createReader(input.equals(STDIN_INPUT) ? System.in 
+                        : new FileInputStream(input))) {
+            AlmaBulkExtractor extractor = new AlmaBulkExtractor(almaMetadataRetriever, writer, threads, batchSize,
+                    System.out);
+            extractor.extract(reader, total);
+        }
+    }
+
+    /**
+     * @param in The input stream with the ISBN numbers.
+     * @return The reader of the ISBN numbers.
+     */
+    protected static BufferedReader createReader(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,186 @@
+package dk.kb.elivagar;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.exception.CircuitOpenException;
+
+/**
+ * Circuit breaker for the outbound HTTP requests, with a separate circuit for each host.
+ *
+ * When the requests to a host have failed a number of times in a row, then the circuit for the host is opened,
+ * and the requests to the host fail immediately, instead of waiting for the host to time out.
+ * When the circuit has been open for the reset time, then a single trial request is let through. If it succeeds,
+ * then the circuit is closed again, otherwise it stays open for another reset time.
+ * Every request, which is let through, must therefore register its result; a success, a failure, or that it was
+ * aborted before it reached the host.
+ */
+public class CircuitBreaker {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /** The number of consecutive failures, which opens the circuit. 0 for never opening the circuit.*/
+    protected final int failureThreshold;
+    /** The time in millis the circuit stays open, before a trial request is let through.*/
+    protected final long resetTime;
+    /** The circuit for each host, mapped by the host name.*/
+    protected final Map<String, Circuit> circuits;
+    /** The number of requests, which failed immediately because the circuit was open.*/
+    protected final AtomicLong rejectedCount;
+
+    /**
+     * Constructor.
+     * @param failureThreshold The number of consecutive failures, which opens the circuit. 0 for never opening
+     * the circuit.
+     * @param resetTime The time in millis the circuit stays open, before a trial request is let through.
+     */
+    public CircuitBreaker(int failureThreshold, long resetTime) {
+        ArgumentCheck.checkNotNegativeInt(failureThreshold, "int failureThreshold");
+        ArgumentCheck.checkNotNegativeLong(resetTime, "long resetTime");
+        this.failureThreshold = failureThreshold;
+        this.resetTime = resetTime;
+        this.circuits = new ConcurrentHashMap<String, Circuit>();
+        this.rejectedCount = new AtomicLong();
+    }
+
+    /**
+     * Checks whether a request may be made to the host.
+     * The result of the request must be registered afterwards, as either a success, a failure or aborted.
+     * @param host The name of the host.
+     * @throws CircuitOpenException If the circuit for the host is open.
+     */
+    public void checkRequest(String host) throws CircuitOpenException {
+        if(failureThreshold <= 0) {
+            return;
+        }
+        Circuit circuit = getCircuit(host);
+        synchronized(circuit) {
+            if(circuit.openedAt < 0) {
+                return;
+            }
+            if(currentTimeMillis() - circuit.openedAt >= resetTime && !circuit.trialInProgress) {
+                log.info("Trying a request to the host '" + host + "' again, after its circuit has been open.");
+                circuit.trialInProgress = true;
+                return;
+            }
+        }
+        rejectedCount.incrementAndGet();
+        throw new CircuitOpenException("The circuit for the host '" + host + "' is open, after it has failed "
+                + failureThreshold + " times in a row.");
+    }
+
+    /**
+     * Registers a successful request to the host, which closes its circuit.
+     * @param host The name of the host.
+     */
+    public void registerSuccess(String host) {
+        if(failureThreshold <= 0) {
+            return;
+        }
+        Circuit circuit = getCircuit(host);
+        synchronized(circuit) {
+            if(circuit.openedAt >= 0) {
+                log.info("Closing the circuit for the host '" + host + "'.");
+            }
+            circuit.consecutiveFailures = 0;
+            circuit.openedAt = -1L;
+            circuit.trialInProgress = false;
+        }
+    }
+
+    /**
+     * Registers a failed request to the host. It opens the circuit, if the host has failed too many times in a
+     * row, or if it was the trial request of an open circuit.
+     * @param host The name of the host.
+     */
+    public void registerFailure(String host) {
+        if(failureThreshold <= 0) {
+            return;
+        }
+        Circuit circuit = getCircuit(host);
+        synchronized(circuit) {
+            circuit.consecutiveFailures++;
+            if(circuit.trialInProgress || (circuit.openedAt < 0 && circuit.consecutiveFailures >= failureThreshold)) {
+                if(circuit.openedAt < 0) {
+                    log.warn("Opening the circuit for the host '" + host + "' for " + resetTime + " ms, after "
+                            + circuit.consecutiveFailures + " failures in a row.");
+                }
+                circuit.openedAt = currentTimeMillis();
+                circuit.trialInProgress = false;
+            }
+        }
+    }
+
+    /**
+     * Registers a request to the host, which was given up before the host was reached, e.g. when no local
+     * connection was available. It counts as neither a success nor a failure of the host, but if it was the trial
+     * request of an open circuit, then another trial request is let through.
+     * @param host The name of the host.
+     */
+    public void registerAborted(String host) {
+        if(failureThreshold <= 0) {
+            return;
+        }
+        Circuit circuit = getCircuit(host);
+        synchronized(circuit) {
+            circuit.trialInProgress = false;
+        }
+    }
+
+    /**
+     * @param host The name of the host.
+     * @return Whether the circuit for the host is open.
+     */
+    public boolean isOpen(String host) {
+        Circuit circuit = circuits.get(getKey(host));
+        if(circuit == null) {
+            return false;
+        }
+        synchronized(circuit) {
+            return circuit.openedAt >= 0;
+        }
+    }
+
+    /** @return The number of requests, which failed immediately because the circuit was open.*/
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @param host The name of the host.
+     * @return The circuit for the host. It is created the first time the host is used.
+     */
+    protected Circuit getCircuit(String host) {
+        return circuits.computeIfAbsent(getKey(host), h -> new Circuit());
+    }
+
+    /**
+     * @param host The name of the host.
+     * @return The key for the circuit of the host.
+     */
+    protected String getKey(String host) {
+        return host == null ? "" : host.toLowerCase();
+    }
+
+    /** @return The current time in millis.*/
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * The circuit for a single host.
+     */
+    protected static class Circuit {
+        /** The number of requests to the host, which have failed in a row.*/
+        protected int consecutiveFailures = 0;
+        /** The time in millis, when the circuit was opened. -1 if it is closed.*/
+        protected long openedAt = -1L;
+        /** Whether a trial request is being made, while the circuit is open.*/
+        protected boolean trialInProgress = false;
+    }
+}
@@ -1,14 +1,23 @@
 package dk.kb.elivagar;
 
+import dk.kb.elivagar.characterization.AsyncCharacterizationHandler;
 import dk.kb.elivagar.characterization.CharacterizationHandler;
 import dk.kb.elivagar.characterization.EpubCheckerCharacterizer;
 import dk.kb.elivagar.characterization.FitsCharacterizer;
+import dk.kb.elivagar.characterization.FitsServiceCharacterizer;
 import dk.kb.elivagar.config.Configuration;
 import dk.kb.elivagar.metadata.AlmaPacker;
 import dk.kb.elivagar.metadata.AlmaMetadataRetriever;
+import dk.kb.elivagar.pipeline.ElivagarPipeline;
+import dk.kb.elivagar.pubhub.AsyncImageDownloader;
+import dk.kb.elivagar.pubhub.ImageDownloader;
 import dk.kb.elivagar.pubhub.PubhubMetadataRetriever;
 import dk.kb.elivagar.pubhub.PubhubPacker;
 import dk.kb.elivagar.pubhub.PubhubWorkflow;
+import dk.kb.elivagar.state.AlmaNegativeCache;
+import dk.kb.elivagar.state.HighWaterMark;
+import dk.kb.elivagar.state.RefreshSchedule;
+import dk.kb.elivagar.state.SourceFileSnapshot;
 import dk.kb.elivagar.transfer.TransferWorkflow;
 import dk.kb.elivagar.utils.CalendarUtils;
 import org.slf4j.Logger;
@@ -30,6 +39,8 @@ import java.util.Date;
  *     <ul>
  *       <li>Must be in number of milliseconds ago.</li>
  *       <li>Use -1 (or less) for all books, or 0 for no books.</li>
+ *       <li>Use 'incremental' for the books modified since the last successful incremental run (requires the
+ *       state_dir). The first incremental run retrieves all books.</li>
  *     </ul>
  *   </li>
  *   <li>Max downloads (OPTIONAL)</li>
@@ -42,6 +53,16 @@ import java.util.Date;
  * 
  * The two last options only deals with the metadata retrieval/packaging. 
  * All the book files will be packed.
+ * 
+ * In the incremental mode, the time when the run began is kept as a high-water mark in the state directory.
+ * The next incremental run requests the books modified since the mark, with a small overlap.
+ * The mark is only advanced, when all the retrieved books have been packed, and there was no maximum on the
+ * number of books; otherwise the next run retries from the previous mark.
+ * 
+ * The books are handled in a pipeline, so each book is packed, has its Alma metadata retrieved and is
+ * transferred, while the next books are being retrieved and packed.
+ * The characterization of the book files is performed asynchronously by separate pools of worker threads.
+ * So is the download of the images for the books.
  */
 public class Elivagar {
     /** The logger.*/
@@ -49,6 +70,12 @@ public class Elivagar {
     
     /** One minute in milliseconds.*/
     protected static final long ONE_MINUTE_IN_MILLIS = 60000L;
+    /** The argument for the incremental retrieval of the modified books.*/
+    protected static final String INCREMENTAL_ARGUMENT = "incremental";
+    /** The overlap for the incremental retrieval, in milliseconds (one hour).*/
+    protected static final long INCREMENTAL_OVERLAP_IN_MILLIS = 60 * ONE_MINUTE_IN_MILLIS;
+    /** The name of the state file with the high-water mark for the incremental retrieval.*/
+    protected static final String PUBHUB_SYNC_MARK_NAME = "pubhub_sync_mark.txt";
     
     /**
      * Main method.
@@ -68,7 +95,12 @@ public class Elivagar {
         }
         log.debug("[ARG1] Using configuration file: " + confPath);
         long modifyDate = -1;
-        if(args.length > 1) {
+        boolean incremental = false;
+        if(args.length > 1 && args[1].equalsIgnoreCase(INCREMENTAL_ARGUMENT)) {
+            incremental = true;
+            log.debug("[ARG2] Only extracting metadata for books, which has been modified since the last "
+                    + "incremental run.");
+        } else if(args.length > 1) {
             modifyDate = Long.parseLong(args[1]);
             if(modifyDate == 0L) {
                 log.debug("[ARG2] Not extracting any metadata for books.");
@@ -93,45 +125,158 @@ public class Elivagar {
         try {
             long beginDate = System.currentTimeMillis() - ONE_MINUTE_IN_MILLIS;
             Configuration conf = Configuration.createFromYAMLFile(confFile);
-            PubhubMetadataRetriever retriever = new PubhubMetadataRetriever(conf.getLicenseKey());
-            FitsCharacterizer fitsCharacterizer = null;
-            if(conf.getCharacterizationScriptFile() != null) {
-                fitsCharacterizer = new FitsCharacterizer(conf.getCharacterizationScriptFile()); 
+            HighWaterMark syncMark = null;
+            if(incremental) {
+                if(conf.getStateDir() == null) {
+                    throw new IllegalStateException("The incremental retrieval requires the state_dir.");
+                }
+                syncMark = new HighWaterMark(conf.getStateDir(), PUBHUB_SYNC_MARK_NAME);
             }
-            EpubCheckerCharacterizer epubCharacterizer = new EpubCheckerCharacterizer();
-            CharacterizationHandler characterizer = new CharacterizationHandler(fitsCharacterizer, epubCharacterizer);
-            HttpClient httpClient = new HttpClient();
-            PubhubPacker packer = new PubhubPacker(conf, retriever.getServiceNamespace(), characterizer, httpClient);
+            try (HttpClient httpClient = new HttpClient(conf.getHttpConfiguration()); 
+                    HttpClient fitsClient = createFitsServiceClient(conf)) {
+                PubhubMetadataRetriever retriever = new PubhubMetadataRetriever(conf.getLicenseKey(), httpClient);
+                FitsCharacterizer fitsCharacterizer = null;
+                if(conf.getCharacterizationScriptFile() != null) {
+                    if(conf.getFitsServiceUrl() != null) {
+                        fitsCharacterizer = new FitsServiceCharacterizer(conf.getCharacterizationScriptFile(), 
+                                conf.getFitsServiceUrl(), fitsClient);
+                    } else {
+                        fitsCharacterizer = new FitsCharacterizer(conf.getCharacterizationScriptFile());
+                    }
+                }
+                EpubCheckerCharacterizer epubCharacterizer = new EpubCheckerCharacterizer();
+                CharacterizationHandler characterizer = new AsyncCharacterizationHandler(fitsCharacterizer, 
+                        epubCharacterizer, conf.getCharacterizationFitsThreads(), 
+                        conf.getCharacterizationEpubCheckThreads(), conf.getCharacterizationQueueSize());
+                ImageDownloader imageDownloader = new AsyncImageDownloader(httpClient, conf.getStateDir(), 
+                        conf.getImageDownloadThreads(), conf.getPipelineQueueSize());
+                PubhubPacker packer = new PubhubPacker(conf, retriever.getServiceNamespace(), characterizer, 
+                        imageDownloader);
 
-            PubhubWorkflow pubhubWorkflow = new PubhubWorkflow(conf, retriever, characterizer, packer);
-            
-            AlmaMetadataRetriever almaMetadataRetriever = new AlmaMetadataRetriever(conf, new HttpClient());
-            AlmaPacker almaWorkflow = new AlmaPacker(conf, almaMetadataRetriever);
+                SourceFileSnapshot snapshot = null;
+                if(conf.getStateDir() != null) {
+                    snapshot = new SourceFileSnapshot(conf.getStateDir());
+                }
+                PubhubWorkflow pubhubWorkflow = new PubhubWorkflow(conf, retriever, characterizer, packer, 
+                        snapshot);
 
-            TransferWorkflow transferWorkflow = new TransferWorkflow(conf);
-            
-            if(modifyDate < 0) {
-                pubhubWorkflow.retrieveAllBooks(maxDownloads);
-            } else if(modifyDate > 0) {
-                Date d = new Date(System.currentTimeMillis() - modifyDate);
-                pubhubWorkflow.retrieveModifiedBooks(d, maxDownloads);
-            } else {
-                log.debug("No data retrieval.");
-            }
-            pubhubWorkflow.packFilesForBooks();
-            almaWorkflow.packAlmaMetadataForBooks();
-            transferWorkflow.run();
-            
-            File statisticsFile = new File(conf.getStatisticsDir(), 
-                    CalendarUtils.getDateAsString(new Date()) + ".xml");
-            try (PrintStream ps = new PrintStream(statisticsFile)) {
-                pubhubWorkflow.makeStatistics(ps, beginDate);                
+                AlmaMetadataRetriever almaMetadataRetriever = new AlmaMetadataRetriever(conf, httpClient);
+                AlmaNegativeCache almaNegativeCache = new AlmaNegativeCache(conf.getStateDir(), 
+                        AlmaPacker.NEGATIVE_CACHE_NAME, conf.getAlmaNegativeCacheTtl(), 
+                        conf.getAlmaNegativeCacheMaxTtl());
+                AlmaPacker almaWorkflow = new AlmaPacker(conf, almaMetadataRetriever, almaNegativeCache, 
+                        new RefreshSchedule(conf.getStateDir(), AlmaPacker.REFRESH_SCHEDULE_NAME));
+                almaWorkflow.selectMetadataForRefresh(conf.getAlmaRefreshCount());
+
+                TransferWorkflow transferWorkflow = new TransferWorkflow(conf);
+
+                ElivagarPipeline pipeline = new ElivagarPipeline(conf, pubhubWorkflow, packer, almaWorkflow, 
+                        transferWorkflow, characterizer);
+                Date syncDate = new Date();
+                try {
+                    pipeline.start();
+                    if(incremental) {
+                        retrieveIncrementally(pubhubWorkflow, pipeline, syncMark, maxDownloads);
+                    } else if(modifyDate < 0) {
+                        pubhubWorkflow.retrieveAllBooks(maxDownloads, pipeline::submitBook);
+                    } else if(modifyDate > 0) {
+                        Date d = new Date(System.currentTimeMillis() - modifyDate);
+                        pubhubWorkflow.retrieveModifiedBooks(d, maxDownloads, pipeline::submitBook);
+                    } else {
+                        log.debug("No data retrieval.");
+                    }
+                    pipeline.finish();
+                } finally {
+                    characterizer.shutdown();
+                    imageDownloader.shutdown();
+                    pubhubWorkflow.saveSnapshot();
+                    packer.saveState();
+                    almaWorkflow.saveState();
+                }
+                if(incremental) {
+                    advanceSyncMark(pipeline, imageDownloader, characterizer, syncMark, syncDate, maxDownloads);
+                }
+                log.info("Skipped " + almaNegativeCache.getHitCount() + " Alma lookups of ISBN numbers, which "
+                        + "Alma could not resolve before.");
+                log.info("Waited " + httpClient.getRateLimiter().getWaitTime() + " ms for the HTTP rate limits, "
+                        + "and was asked to back off " + httpClient.getRateLimiter().getThrottledCount() 
+                        + " times.");
+
+                File statisticsFile = new File(conf.getStatisticsDir(), 
+                        CalendarUtils.getDateAsString(new Date()) + ".xml");
+                try (PrintStream ps = new PrintStream(statisticsFile)) {
+                    pubhubWorkflow.makeStatistics(ps, beginDate, almaNegativeCache, 
+                            httpClient.getRateLimiter());                
+                }
+                log.info("Finished! Written statistics at " + statisticsFile.getAbsolutePath());
             }
-            log.info("Finished! Written statistics at " + statisticsFile.getAbsolutePath());
         } catch (IOException | JAXBException | RuntimeException e) {
             log.error("Failure to run the workflow. \nThe waters of Elivagar must have frozen over!", e);
             System.exit(1);
         }
     }
-}
 
+    /**
+     * Creates the HTTP client dedicated to the FITS service, with the long timeout for the characterization, and 
+     * without retries.
+     * @param conf The configuration.
+     * @return The HTTP client, or null if the FITS service is not used.
+     */
+    protected static HttpClient createFitsServiceClient(Configuration conf) {
+        if(conf.getCharacterizationScriptFile() == null || conf.getFitsServiceUrl() == null) {
+            return null;
+        }
+        return new HttpClient(conf.getHttpConfiguration().createServiceConfiguration(conf.getFitsServiceTimeout()));
+    }
+
+    /**
+     * Retrieves the books modified since the high-water mark, or all the books if there is no mark.
+     * @param pubhubWorkflow The workflow for retrieving the books.
+     * @param pipeline The pipeline, which the books are submitted to.
+     * @param syncMark The high-water mark.
+     * @param maxDownloads The maximum number of books to retrieve.
+     * @throws JAXBException If the books cannot be retrieved.
+     * @throws IOException If the books cannot be retrieved.
+     */
+    protected static void retrieveIncrementally(PubhubWorkflow pubhubWorkflow, ElivagarPipeline pipeline, 
+            HighWaterMark syncMark, long maxDownloads) throws JAXBException, IOException {
+        Date since = syncMark.getSince(INCREMENTAL_OVERLAP_IN_MILLIS);
+        if(since == null) {
+            log.info("No previous incremental run. Retrieving all books.");
+            pubhubWorkflow.retrieveAllBooks(maxDownloads, pipeline::submitBook);
+        } else {
+            log.info("Retrieving the books modified since '" + since + "'.");
+            pubhubWorkflow.retrieveModifiedBooks(since, maxDownloads, pipeline::submitBook);
+        }
+    }
+
+    /**
+     * Advances the high-water mark to the beginning of the run, if all the retrieved books have been packed.
+     * The books are not packed, if the Pubhub stage or the content stage failed for any of them, or if any
+     * images or characterizations failed, since these failures are only logged.
+     * Must be called after the image downloads and the characterizations have completed.
+     * @param pipeline The finished pipeline.
+     * @param imageDownloader The downloader of the images, which has completed its downloads.
+     * @param characterizer The characterization handler, which has completed its characterizations.
+     * @param syncMark The high-water mark.
+     * @param syncDate The time when the retrieval began.
+     * @param maxDownloads The maximum number of books, which were retrieved.
+     */
+    protected static void advanceSyncMark(ElivagarPipeline pipeline, ImageDownloader imageDownloader, 
+            CharacterizationHandler characterizer, HighWaterMark syncMark, Date syncDate, long maxDownloads) {
+        if(maxDownloads != Long.MAX_VALUE) {
+            log.info("Not advancing the high-water mark, since the number of books was limited.");
+            return;
+        }
+        long failures = pipeline.getPubhubFailureCount() + pipeline.getContentFailureCount() 
+                + imageDownloader.getFailureCount() + characterizer.getFailureCount();
+        if(failures > 0) {
+            log.warn("Not advancing the high-water mark, since " + pipeline.getPubhubFailureCount() 
+                    + " books failed to be packed, " + pipeline.getContentFailureCount() + " content files "
+                    + "failed to be packed, " + imageDownloader.getFailureCount() + " images failed to be "
+                    + "downloaded, and " + characterizer.getFailureCount() + " characterizations failed.");
+        } else {
+            syncMark.advance(syncDate);
+        }
+    }
+}
@@ -104,8 +104,7 @@ public class ElivagarVerification {
      * @return Whether or not it fails.
      */
     protected static boolean verifyAlmaUrl(String serverUrl) {
-        try {
-            HttpClient httpClient = new HttpClient();
+        try (HttpClient httpClient = new HttpClient()) {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             httpClient.retrieveUrlContent(serverUrl, out);
             System.out.println("Alma Server Url (" + serverUrl + ") is responding");
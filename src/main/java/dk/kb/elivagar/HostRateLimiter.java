@@ -0,0 +1,233 @@
+package dk.kb.elivagar;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.config.HostRateLimit;
+import dk.kb.elivagar.config.HttpConfiguration;
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * Rate limiter for the outbound HTTP requests, with separate limits for each host.
+ *
+ * The rate of the requests to a host is limited by a token bucket, which is refilled with the configured number
+ * of requests per second, and which holds at most one second worth of requests. So a short burst is allowed, but
+ * the sustained rate stays below the limit. The number of concurrent requests to a host is limited by a semaphore.
+ * When a host has told us to back off (with 'Retry-After'), then no requests are made to the host until then.
+ *
+ * The time spent waiting for the limits is accumulated, so it can be reported in the statistics.
+ */
+public class HostRateLimiter {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(HostRateLimiter.class);
+
+    /** The number of millis per second.*/
+    protected static final double MILLIS_PER_SECOND = 1000.0;
+
+    /** The configuration with the rate limits.*/
+    protected final HttpConfiguration httpConfiguration;
+    /** The state of the limits for each host, mapped by the host name.*/
+    protected final Map<String, HostState> hosts;
+    /** The total time in millis spent waiting for the limits.*/
+    protected final AtomicLong waitTime;
+    /** The number of requests, which had to wait for the limits.*/
+    protected final AtomicLong waitCount;
+    /** The number of times a host has told us to back off.*/
+    protected final AtomicLong throttledCount;
+
+    /**
+     * Constructor.
+     * @param httpConfiguration The configuration with the rate limits.
+     */
+    public HostRateLimiter(HttpConfiguration httpConfiguration) {
+        ArgumentCheck.checkNotNull(httpConfiguration, "HttpConfiguration httpConfiguration");
+        this.httpConfiguration = httpConfiguration;
+        this.hosts = new ConcurrentHashMap<String, HostState>();
+        this.waitTime = new AtomicLong();
+        this.waitCount = new AtomicLong();
+        this.throttledCount = new AtomicLong();
+    }
+
+    /**
+     * Waits until a request may be made to the host, according to its limits.
+     * The returned permit must be released, when the request is finished.
+     * @param host The name of the host.
+     * @return The permit for the request.
+     * @throws InterruptedIOException If interrupted while waiting.
+     */
+    public Permit acquire(String host) throws InterruptedIOException {
+        HostState state = getState(host);
+        long start = currentTimeMillis();
+        boolean acquired = false;
+        try {
+            if(state.concurrency != null) {
+                state.concurrency.acquire();
+                acquired = true;
+            }
+            long delay = state.reserve(currentTimeMillis());
+            if(delay > 0) {
+                sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            if(acquired) {
+                state.concurrency.release();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rate limit of the host '" + host
+                    + "'");
+        }
+        long waited = currentTimeMillis() - start;
+        if(waited > 0) {
+            waitTime.addAndGet(waited);
+            waitCount.incrementAndGet();
+            log.trace("Waited " + waited + " ms for the rate limit of the host '" + host + "'");
+        }
+        return new Permit(state);
+    }
+
+    /**
+     * Registers that the host has told us to back off, e.g. with a 'Retry-After' header on a 429 (Too Many
+     * Requests) or 503 (Service Unavailable) response. No requests are made to the host until then.
+     * @param host The name of the host.
+     * @param delay The time in millis to back off.
+     */
+    public void registerRetryAfter(String host, long delay) {
+        ArgumentCheck.checkNotNegativeLong(delay, "long delay");
+        throttledCount.incrementAndGet();
+        log.info("The host '" + host + "' asked us to back off for " + delay + " ms.");
+        getState(host).backOff(currentTimeMillis() + delay);
+    }
+
+    /**
+     * @param host The name of the host.
+     * @return The state of the limits for the host. It is created the first time the host is used.
+     */
+    protected HostState getState(String host) {
+        String key = host == null ? "" : host.toLowerCase();
+        return hosts.computeIfAbsent(key, h -> new HostState(httpConfiguration.getRateLimit(h)));
+    }
+
+    /** @return The total time in millis spent waiting for the limits.*/
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    /** @return The number of requests, which had to wait for the limits.*/
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /** @return The number of times a host has told us to back off.*/
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /** @return The current time in millis.*/
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Sleeps for the delay.
+     * @param delay The time in millis to sleep.
+     * @throws InterruptedException If interrupted while sleeping.
+     */
+    protected void sleep(long delay) throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(delay);
+    }
+
+    /**
+     * The state of the limits for a single host.
+     */
+    protected static class HostState {
+        /** The limit for the number of concurrent requests. Null for no limit.*/
+        protected final Semaphore concurrency;
+        /** The number of requests per second. 0 for no limit.*/
+        protected final int requestsPerSecond;
+        /** The number of tokens in the bucket. It is negative, when future requests have reserved the tokens.*/
+        protected double tokens;
+        /** The time in millis, when the bucket was last refilled.*/
+        protected long lastRefill;
+        /** The time in millis, until when the host has told us to back off.*/
+        protected long backOffUntil;
+
+        /**
+         * Constructor.
+         * @param rateLimit The rate limit for the host.
+         */
+        protected HostState(HostRateLimit rateLimit) {
+            this.concurrency = rateLimit.getMaxConcurrentRequests() > 0
+                    ? new Semaphore(rateLimit.getMaxConcurrentRequests(), true) : null;
+            this.requestsPerSecond = rateLimit.getRequestsPerSecond();
+            this.tokens = requestsPerSecond;
+            this.lastRefill = -1L;
+            this.backOffUntil = 0L;
+        }
+
+        /**
+         * Reserves a token for a request.
+         * @param now The current time in millis.
+         * @return The time in millis to wait, before the request may be made.
+         */
+        protected synchronized long reserve(long now) {
+            long delay = Math.max(backOffUntil - now, 0L);
+            if(requestsPerSecond <= 0) {
+                return delay;
+            }
+            if(lastRefill >= 0) {
+                tokens = Math.min(requestsPerSecond,
+                        tokens + (now - lastRefill) * requestsPerSecond / MILLIS_PER_SECOND);
+            }
+            lastRefill = now;
+            tokens -= 1.0;
+            if(tokens < 0) {
+                delay = Math.max(delay, (long) Math.ceil(-tokens * MILLIS_PER_SECOND / requestsPerSecond));
+            }
+            return delay;
+        }
+
+        /**
+         * Backs off from the host until the given time.
+         * @param until The time in millis, when requests may be made again.
+         */
+        protected synchronized void backOff(long until) {
+            backOffUntil = Math.max(backOffUntil, until);
+        }
+    }
+
+    /**
+     * The permit for making a request to a host. It must be released, when the request is finished.
+     */
+    public static class Permit implements AutoCloseable {
+        /** The state of the host, which the request is made to.*/
+        protected final HostState state;
+        /** Whether the permit has been released.*/
+        protected boolean released = false;
+
+        /**
+         * Constructor.
+         * @param state The state of the host, which the request is made to.
+         */
+        protected Permit(HostState state) {
+            this.state = state;
+        }
+
+        /**
+         * Releases the permit, so another request can be made to the host. Only the first release counts.
+         */
+        @Override
+        public synchronized void close() {
+            if(!released && state.concurrency != null) {
+                state.concurrency.release();
+            }
+            released = true;
+        }
+    }
+}
@@ -1,30 +1,148 @@
 package dk.kb.elivagar;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.kb.elivagar.config.HttpConfiguration;
+import dk.kb.elivagar.config.HttpRetryConfiguration;
 import dk.kb.elivagar.exception.ArgumentCheck;
 import dk.kb.elivagar.utils.StreamUtils;
 
 /**
- * Http client for downloading stuff (mostly the cover image files).
+ * Http client for downloading stuff (mostly the cover image files and the Alma metadata).
+ *
+ * It uses a single pool of connections for all the requests, so the connections (and the TLS handshakes) are
+ * reused between the requests to the same host.
+ * The requests are limited by the rate limits of their host, and when a host responds with 429 (Too Many Requests)
+ * or 503 (Service Unavailable), then the requests to the host are held back for the time in its 'Retry-After'.
+ * The GET requests are retried, when the host is temporarily unavailable, and a circuit breaker stops the requests
+ * to a host, which keeps failing.
+ * The client must be closed, when it is no longer used.
  */
-public class HttpClient {
+public class HttpClient implements Closeable {
     /** The logger.*/
     private static final Logger log = LoggerFactory.getLogger(HttpClient.class);
 
+    /** The HTTP status code for too many requests, which is not in HttpStatus.*/
+    protected static final int SC_TOO_MANY_REQUESTS = 429;
+    /** The time in millis to back off, when a host responds with 429 without a 'Retry-After'.*/
+    protected static final long DEFAULT_RETRY_AFTER = 1000L;
+
+    /** The configuration for the HTTP client.*/
+    protected final HttpConfiguration httpConfiguration;
+    /** The configuration for retrying the failed requests.*/
+    protected final HttpRetryConfiguration retryConfiguration;
+    /** The rate limiter for the requests to each host.*/
+    protected final HostRateLimiter rateLimiter;
+    /** The circuit breaker for the requests to each host.*/
+    protected final CircuitBreaker circuitBreaker;
+    /** The actual HTTP client, shared between all the requests.*/
+    protected final CloseableHttpClient client;
+
+    /**
+     * Constructor with the default HTTP configuration.
+     */
+    public HttpClient() {
+        this(new HttpConfiguration());
+    }
+
     /**
      * Constructor.
-     * TODO: does currently nothing!!!
+     * @param httpConfiguration The configuration for the HTTP client.
      */
-    public HttpClient() {}
+    public HttpClient(HttpConfiguration httpConfiguration) {
+        this(httpConfiguration, createClient(httpConfiguration));
+    }
+
+    /**
+     * Constructor.
+     * @param httpConfiguration The configuration for the HTTP client.
+     * @param client The actual HTTP client.
+     */
+    protected HttpClient(HttpConfiguration httpConfiguration, CloseableHttpClient client) {
+        ArgumentCheck.checkNotNull(httpConfiguration, "HttpConfiguration httpConfiguration");
+        ArgumentCheck.checkNotNull(client, "CloseableHttpClient client");
+        this.httpConfiguration = httpConfiguration;
+        this.retryConfiguration = httpConfiguration.getRetryConfiguration();
+        this.rateLimiter = new HostRateLimiter(httpConfiguration);
+        this.circuitBreaker = new CircuitBreaker(retryConfiguration.getCircuitBreakerFailures(), 
+                retryConfiguration.getCircuitBreakerResetTime());
+        this.client = client;
+    }
+
+    /**
+     * Creates the actual HTTP client, with a pool of connections.
+     * The automatic retries of the Apache client are disabled, since the retries are handled by this client.
+     * @param httpConfiguration The configuration for the HTTP client.
+     * @return The HTTP client.
+     */
+    protected static CloseableHttpClient createClient(HttpConfiguration httpConfiguration) {
+        ArgumentCheck.checkNotNull(httpConfiguration, "HttpConfiguration httpConfiguration");
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(httpConfiguration.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(httpConfiguration.getMaxConnectionsPerRoute());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(httpConfiguration.getConnectTimeout())
+                .setSocketTimeout(httpConfiguration.getSocketTimeout())
+                .setConnectionRequestTimeout(httpConfiguration.getConnectionRequestTimeout())
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(getKeepAliveStrategy(httpConfiguration.getKeepAlive()))
+                .disableAutomaticRetries()
+                .evictExpiredConnections()
+                .evictIdleConnections(httpConfiguration.getKeepAlive(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Creates the keep-alive strategy.
+     * Uses the keep-alive time from the server, if it is given, otherwise the configured keep-alive time.
+     * @param keepAlive The configured keep-alive time in millis.
+     * @return The keep-alive strategy.
+     */
+    protected static ConnectionKeepAliveStrategy getKeepAliveStrategy(long keepAlive) {
+        return (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            if(duration > 0) {
+                return duration;
+            }
+            return keepAlive;
+        };
+    }
 
     /**
      * Method for extracting the content of a given URL.
@@ -34,23 +152,338 @@ public class HttpClient {
      * @throws IOException If any connection issues occur.
      */
     public void retrieveUrlContent(String url, OutputStream out) throws IOException {
-        ArgumentCheck.checkNotNullOrEmpty(url, "String url");
         ArgumentCheck.checkNotNull(out, "OutputStream out");
-        
+        processUrlContent(url, in -> {
+            StreamUtils.copyInputStreamToOutputStream(in, out);
+            return null;
+        });
+    }
+
+    /**
+     * Method for processing the content of a given URL directly from the response.
+     * It will throw an exception, if the response status code is not in the 200-299 range.
+     * @param <T> The type of the result of the processing.
+     * @param url The text URL to retrieve.
+     * @param processor The processor of the content.
+     * @return The result of the processor.
+     * @throws IOException If any connection issues occur, or the processing fails.
+     */
+    public <T> T processUrlContent(String url, ContentProcessor<T> processor) throws IOException {
+        ArgumentCheck.checkNotNullOrEmpty(url, "String url");
+        ArgumentCheck.checkNotNull(processor, "ContentProcessor processor");
+
         log.debug("Retrieving content from URL: " + url);
-        try (CloseableHttpClient client = HttpClients.createDefault();) {
-            HttpGet getMethod = new HttpGet(url);
-            
-            CloseableHttpResponse response = client.execute(getMethod);
-            int statusCode = response.getStatusLine().getStatusCode();
-            if(!validateResponseCode(statusCode)) {
-                throw new IllegalStateException("Received erroneous status code for url " + url + ", " + statusCode);
+        return execute(new HttpGet(url), processor);
+    }
+
+    /**
+     * Method for processing the content of a given URL, if it has been modified since it was retrieved with the
+     * given validators. The request is conditional (If-None-Match and If-Modified-Since), so the server does not
+     * send the content again, if it has not been modified.
+     * It will throw an exception, if the response status code is neither in the 200-299 range nor 304 
+     * (Not Modified).
+     * @param url The text URL to retrieve.
+     * @param validators The validators from when the content was last retrieved. May be null, for an 
+     * unconditional request.
+     * @param processor The processor of the content. It is only called, if the content has been modified.
+     * @return The validators of the retrieved content, or null if the content has not been modified.
+     * @throws IOException If any connection issues occur, or the processing fails.
+     */
+    public HttpValidators processUrlContentIfModified(String url, HttpValidators validators, 
+            ContentProcessor<?> processor) throws IOException {
+        ArgumentCheck.checkNotNullOrEmpty(url, "String url");
+        ArgumentCheck.checkNotNull(processor, "ContentProcessor processor");
+
+        HttpGet get = new HttpGet(url);
+        if(validators != null) {
+            if(validators.getETag() != null) {
+                get.setHeader(HttpHeaders.IF_NONE_MATCH, validators.getETag());
+            }
+            if(validators.getLastModified() != null) {
+                get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, validators.getLastModified());
+            }
+        }
+        log.debug("Retrieving content from URL, if modified: " + url);
+        return executeRequest(get, response -> {
+            if(response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                log.debug("The content at URL '" + url + "' has not been modified.");
+                return null;
+            }
+            processResponse(get, response, processor);
+            return HttpValidators.fromResponse(response);
+        });
+    }
+
+    /**
+     * Method for posting content to a given URL, and processing the content of the response directly.
+     * It will throw an exception, if the response status code is not in the 200-299 range.
+     * @param <T> The type of the result of the processing.
+     * @param url The text URL to post to.
+     * @param body The content to post.
+     * @param headers The additional headers for the request.
+     * @param processor The processor of the content of the response.
+     * @return The result of the processor.
+     * @throws IOException If any connection issues occur, or the processing fails.
+     */
+    public <T> T processPostContent(String url, HttpEntity body, Map<String, String> headers, 
+            ContentProcessor<T> processor) throws IOException {
+        ArgumentCheck.checkNotNullOrEmpty(url, "String url");
+        ArgumentCheck.checkNotNull(body, "HttpEntity body");
+        ArgumentCheck.checkNotNull(headers, "Map<String, String> headers");
+        ArgumentCheck.checkNotNull(processor, "ContentProcessor processor");
+
+        log.debug("Posting content to URL: " + url);
+        HttpPost post = new HttpPost(url);
+        post.setEntity(body);
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            post.setHeader(header.getKey(), header.getValue());
+        }
+        return execute(post, processor);
+    }
+
+    /**
+     * Executes the request, validates the response code and processes the content of the response.
+     * @param <T> The type of the result of the processing.
+     * @param request The request to execute.
+     * @param processor The processor of the content.
+     * @return The result of the processor.
+     * @throws IOException If any connection issues occur, or the processing fails.
+     */
+    protected <T> T execute(HttpUriRequest request, ContentProcessor<T> processor) throws IOException {
+        return executeRequest(request, response -> processResponse(request, response, processor));
+    }
+
+    /**
+     * Executes the request, and handles the response.
+     * The request waits for the rate limit of its host, and fails immediately if the circuit for its host is open.
+     * An idempotent request (GET) is retried with an exponential and jittered backoff, when it cannot be executed, 
+     * or when the host responds with a status code, which tells that it is temporarily unavailable. 
+     * A failure while handling the response is never retried, since the content may already be partially 
+     * processed.
+     * Every attempt is registered in the circuit breaker as either a success or a failure of the host, except 
+     * when no connection could be leased from the local pool, which is not a failure of the host.
+     * The response is always released, so the connection can be reused.
+     * @param <T> The type of the result of the handling.
+     * @param request The request to execute.
+     * @param handler The handler of the response.
+     * @return The result of the handler.
+     * @throws IOException If any connection issues occur, or the handling fails.
+     */
+    protected <T> T executeRequest(HttpUriRequest request, ResponseHandler<T> handler) throws IOException {
+        String host = request.getURI().getHost();
+        int maxAttempts = isIdempotent(request) ? retryConfiguration.getMaxRetries() + 1 : 1;
+        for(int attempt = 1; ; attempt++) {
+            if(attempt > 1) {
+                sleepBeforeRetry(attempt - 1);
+            }
+            circuitBreaker.checkRequest(host);
+            HostRateLimiter.Permit permit;
+            try {
+                permit = rateLimiter.acquire(host);
+            } catch (IOException | RuntimeException e) {
+                circuitBreaker.registerAborted(host);
+                throw e;
+            }
+            boolean registered = false;
+            try {
+                CloseableHttpResponse response;
+                try {
+                    response = client.execute(request);
+                } catch (ConnectionPoolTimeoutException e) {
+                    circuitBreaker.registerAborted(host);
+                    registered = true;
+                    throw e;
+                } catch (ClientProtocolException e) {
+                    throw e;
+                } catch (IOException e) {
+                    if(attempt >= maxAttempts) {
+                        throw e;
+                    }
+                    log.info("Attempt " + attempt + " of " + maxAttempts + " failed for the url " 
+                            + request.getURI() + ": " + e);
+                    continue;
+                }
+                try {
+                    int statusCode = response.getStatusLine().getStatusCode();
+                    if(isRetryableResponseCode(statusCode)) {
+                        if(attempt < maxAttempts) {
+                            EntityUtils.consumeQuietly(response.getEntity());
+                            if(!handleRetryAfter(request, response)) {
+                                throw new IOException("The host of the url " + request.getURI() + " responded "
+                                        + "with status code " + statusCode + ", and asked us to back off for "
+                                        + "longer than the maximum backoff of " 
+                                        + retryConfiguration.getRetryMaxBackoff() + " ms.");
+                            }
+                            log.info("Attempt " + attempt + " of " + maxAttempts + " failed for the url " 
+                                    + request.getURI() + " with status code " + statusCode);
+                            continue;
+                        }
+                    } else {
+                        circuitBreaker.registerSuccess(host);
+                        registered = true;
+                    }
+                    return handler.handleResponse(response);
+                } finally {
+                    response.close();
+                }
+            } finally {
+                if(!registered) {
+                    circuitBreaker.registerFailure(host);
+                }
+                permit.close();
+            }
+        }
+    }
+
+    /**
+     * @param request The request.
+     * @return Whether the request is idempotent, and thus may be retried.
+     */
+    protected boolean isIdempotent(HttpUriRequest request) {
+        return HttpGet.METHOD_NAME.equals(request.getMethod());
+    }
+
+    /**
+     * Tells whether the response code tells, that the host is temporarily unable to handle the request, so the
+     * request may succeed, if it is retried.
+     * @param statusCode The response code.
+     * @return Whether the request may be retried.
+     */
+    protected boolean isRetryableResponseCode(int statusCode) {
+        return statusCode == SC_TOO_MANY_REQUESTS 
+                || statusCode == HttpStatus.SC_INTERNAL_SERVER_ERROR 
+                || statusCode == HttpStatus.SC_BAD_GATEWAY 
+                || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE 
+                || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Calculates the time to wait before a retry. The backoff is doubled for each retry, up to the maximum
+     * backoff, and it is jittered between half and the full backoff, so the retries of concurrent requests are
+     * spread out.
+     * @param retry The number of the retry, starting at 1.
+     * @return The time in millis to wait.
+     */
+    protected long getRetryDelay(int retry) {
+        long backoff = retryConfiguration.getRetryBackoff();
+        for(int i = 1; i < retry && backoff < retryConfiguration.getRetryMaxBackoff(); i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, retryConfiguration.getRetryMaxBackoff());
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * Waits before a retry.
+     * @param retry The number of the retry, starting at 1.
+     * @throws IOException If interrupted while waiting.
+     */
+    protected void sleepBeforeRetry(int retry) throws IOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(getRetryDelay(retry));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry the request.");
+        }
+    }
+
+    /**
+     * Validates the response code and processes the content of the response.
+     * @param <T> The type of the result of the processing.
+     * @param request The executed request.
+     * @param response The response to the request.
+     * @param processor The processor of the content.
+     * @return The result of the processor.
+     * @throws IOException If the response has no content, or the processing fails.
+     */
+    protected <T> T processResponse(HttpUriRequest request, HttpResponse response, ContentProcessor<T> processor) 
+            throws IOException {
+        HttpEntity entity = response.getEntity();
+        int statusCode = response.getStatusLine().getStatusCode();
+        if(!validateResponseCode(statusCode)) {
+            EntityUtils.consumeQuietly(entity);
+            if(statusCode == SC_TOO_MANY_REQUESTS || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+                handleRetryAfter(request, response);
+            }
+            throw new IllegalStateException("Received erroneous status code for url " + request.getURI()
+                    + ", " + statusCode);
+        }
+        if(entity == null) {
+            throw new IOException("No content received from url " + request.getURI());
+        }
+
+        try (InputStream in = entity.getContent()) {
+            return processor.processContent(in);
+        } finally {
+            EntityUtils.consumeQuietly(entity);
+        }
+    }
+
+    /**
+     * Holds back the requests to the host of the request, for the time the host has asked for in the 
+     * 'Retry-After' header of the response.
+     * Without the header, the requests are only held back after a 429 (Too Many Requests) response.
+     * The requests are held back for at most the maximum retry backoff, so a host cannot stall the requests
+     * for hours. If the host asks for more than that, then the request should not be retried.
+     * @param request The executed request.
+     * @param response The 429 or 503 response to the request.
+     * @return Whether the request may be retried after the back off, i.e. whether the host asked for at most 
+     * the maximum retry backoff.
+     */
+    protected boolean handleRetryAfter(HttpUriRequest request, HttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        long delay = header == null ? -1L : parseRetryAfter(header.getValue(), System.currentTimeMillis());
+        if(delay < 0 && response.getStatusLine().getStatusCode() == SC_TOO_MANY_REQUESTS) {
+            delay = DEFAULT_RETRY_AFTER;
+        }
+        if(delay < 0) {
+            return true;
+        }
+        long maxDelay = retryConfiguration.getRetryMaxBackoff();
+        if(delay > maxDelay) {
+            log.warn("The host '" + request.getURI().getHost() + "' asked us to back off for " + delay 
+                    + " ms, which is more than the maximum of " + maxDelay + " ms.");
+            rateLimiter.registerRetryAfter(request.getURI().getHost(), maxDelay);
+            return false;
+        }
+        rateLimiter.registerRetryAfter(request.getURI().getHost(), delay);
+        return true;
+    }
+
+    /**
+     * Parses the value of a 'Retry-After' header; either a number of seconds, or a HTTP date.
+     * @param value The value of the header.
+     * @param now The current time in millis.
+     * @return The time in millis to wait, or -1 if the value cannot be parsed.
+     */
+    protected static long parseRetryAfter(String value, long now) {
+        if(value == null || value.trim().isEmpty()) {
+            return -1L;
+        }
+        String trimmed = value.trim();
+        try {
+            return Math.max(Long.parseLong(trimmed), 0L) * 1000L;
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(trimmed);
+            if(date == null) {
+                log.debug("Could not parse the 'Retry-After' value: " + value);
+                return -1L;
             }
-            
-            StreamUtils.copyInputStreamToOutputStream(response.getEntity().getContent(), out);
+            return Math.max(date.getTime() - now, 0L);
         }
     }
-    
+
+    /** @return The rate limiter for the requests to each host.*/
+    public HostRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /** @return The circuit breaker for the requests to each host.*/
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
     /**
      * Validate the response code of an HTTP request.
      * @param statusCode The response code.
@@ -62,4 +495,25 @@ public class HttpClient {
         }
         return true;
     }
+
+    @Override
+    public void close() throws IOException {
+        log.debug("Closing the HTTP client.");
+        client.close();
+    }
+
+    /**
+     * Interface for processing the content of a HTTP response.
+     * @param <T> The type of the result of the processing.
+     */
+    @FunctionalInterface
+    public interface ContentProcessor<T> {
+        /**
+         * Processes the content of a HTTP response.
+         * @param content The content of the response. It will be closed afterwards.
+         * @return The result of the processing.
+         * @throws IOException If it fails to read or process the content.
+         */
+        T processContent(InputStream content) throws IOException;
+    }
 }
@@ -0,0 +1,85 @@
+package dk.kb.elivagar;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+
+/**
+ * The validators of a HTTP resource, as it was retrieved; its ETag, Last-Modified date and Content-Length.
+ * They are used for conditional requests, so the resource is only retrieved again, when it has changed.
+ */
+public class HttpValidators {
+    /** The value for an unknown content length.*/
+    public static final long UNKNOWN_CONTENT_LENGTH = -1L;
+
+    /** The ETag of the resource. May be null.*/
+    protected final String etag;
+    /** The Last-Modified date of the resource, as given by the server. May be null.*/
+    protected final String lastModified;
+    /** The length of the content of the resource, or UNKNOWN_CONTENT_LENGTH.*/
+    protected final long contentLength;
+
+    /**
+     * Constructor.
+     * @param etag The ETag of the resource. May be null.
+     * @param lastModified The Last-Modified date of the resource, as given by the server. May be null.
+     * @param contentLength The length of the content of the resource, or UNKNOWN_CONTENT_LENGTH.
+     */
+    public HttpValidators(String etag, String lastModified, long contentLength) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Extracts the validators from the headers of the response.
+     * @param response The response.
+     * @return The validators of the retrieved resource.
+     */
+    public static HttpValidators fromResponse(HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        long contentLength = entity == null || entity.getContentLength() < 0 ? UNKNOWN_CONTENT_LENGTH
+                : entity.getContentLength();
+        return new HttpValidators(getHeaderValue(response, HttpHeaders.ETAG),
+                getHeaderValue(response, HttpHeaders.LAST_MODIFIED), contentLength);
+    }
+
+    /**
+     * @param response The response.
+     * @param name The name of the header.
+     * @return The value of the first header with the given name, or null if the response does not have the header.
+     */
+    protected static String getHeaderValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if(header == null || header.getValue() == null || header.getValue().trim().isEmpty()) {
+            return null;
+        }
+        return header.getValue().trim();
+    }
+
+    /** @return The ETag of the resource. May be null.*/
+    public String getETag() {
+        return etag;
+    }
+
+    /** @return The Last-Modified date of the resource, as given by the server. May be null.*/
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /** @return The length of the content of the resource, or UNKNOWN_CONTENT_LENGTH.*/
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /** @return Whether the validators can be used for a conditional request.*/
+    public boolean canValidate() {
+        return etag != null || lastModified != null;
+    }
+
+    @Override
+    public String toString() {
+        return "ETag: " + etag + ", Last-Modified: " + lastModified + ", Content-Length: " + contentLength;
+    }
+}
@@ -0,0 +1,173 @@
+package dk.kb.elivagar.characterization;
+
+import java.io.File;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.ExecutorUtils;
+import dk.kb.elivagar.utils.PendingCounter;
+
+/**
+ * The characterization handler, which performs the characterizations asynchronously.
+ *
+ * The FITS and the EpubCheck characterizations are performed by two separate pools of worker threads, so the
+ * number of concurrent characterizations can be limited for each of them.
+ * Each pool has a bounded queue, and the submission of a file blocks while the queue is full.
+ *
+ * It keeps track of the characterizations for each output directory, so it is possible to wait for the
+ * characterizations of a single book to complete (e.g. before transferring it).
+ * The handler must be shut down, when it is no longer used.
+ */
+public class AsyncCharacterizationHandler extends CharacterizationHandler {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(AsyncCharacterizationHandler.class);
+
+    /** The pool for the FITS characterizations.*/
+    protected final ThreadPoolExecutor fitsPool;
+    /** The pool for the EpubCheck characterizations.*/
+    protected final ThreadPoolExecutor epubCheckPool;
+    /** The number of characterizations, which have not yet completed, for each output directory.*/
+    protected final PendingCounter pendingCharacterizations;
+
+    /**
+     * Constructor.
+     * @param fitsScript The script for characterizing the book files. May be null, for no characterization.
+     * @param epubCharacterizer The characterizer for epubs.
+     * @param fitsThreads The maximum number of concurrent FITS characterizations.
+     * @param epubCheckThreads The maximum number of concurrent EpubCheck characterizations.
+     * @param queueSize The maximum number of characterizations waiting for each pool.
+     */
+    public AsyncCharacterizationHandler(FitsCharacterizer fitsScript, EpubCheckerCharacterizer epubCharacterizer,
+            int fitsThreads, int epubCheckThreads, int queueSize) {
+        super(fitsScript, epubCharacterizer);
+        ArgumentCheck.checkPositiveInt(fitsThreads, "int fitsThreads");
+        ArgumentCheck.checkPositiveInt(epubCheckThreads, "int epubCheckThreads");
+        ArgumentCheck.checkPositiveInt(queueSize, "int queueSize");
+        this.fitsPool = ExecutorUtils.createBlockingPool("fits", fitsThreads, queueSize);
+        this.epubCheckPool = ExecutorUtils.createBlockingPool("epubcheck", epubCheckThreads, queueSize);
+        this.pendingCharacterizations = new PendingCounter("characterizations");
+    }
+
+    /**
+     * Submits the file for all the different kinds of characterization, if they are needed.
+     * The characterization is performed asynchronously.
+     * @param inputFile The file to characterize.
+     * @param outputDir The directory, where the characterization output file should be placed.
+     */
+    @Override
+    public void characterize(File inputFile, File outputDir) {
+        characterize(inputFile, outputDir, null);
+    }
+
+    /**
+     * Submits the file for all the different kinds of characterization, if they are needed.
+     * The characterization is performed asynchronously, and the callback is called when it has completed.
+     * @param inputFile The file to characterize.
+     * @param outputDir The directory, where the characterization output file should be placed.
+     * @param callback The callback for when the characterization has completed. May be null.
+     */
+    public void characterize(File inputFile, File outputDir, CharacterizationCallback callback) {
+        ArgumentCheck.checkNotNull(inputFile, "File inputFile");
+        ArgumentCheck.checkNotNull(outputDir, "File outputDir");
+        log.debug("Submitting the file '" + inputFile.getAbsolutePath() + "' for characterization.");
+        boolean runFits = fitsCharacterizer != null;
+        boolean runEpubCheck = epubCharacterizer.hasRequiredExtension(inputFile);
+        int jobs = (runFits ? 1 : 0) + (runEpubCheck ? 1 : 0);
+        if(jobs == 0) {
+            log.debug("No characterization needed for the file '" + inputFile.getAbsolutePath() + "'.");
+            if(callback != null) {
+                callback.characterizationComplete(inputFile, outputDir);
+            }
+            return;
+        }
+
+        AtomicInteger remainingJobs = new AtomicInteger(jobs);
+        pendingCharacterizations.add(outputDir, jobs);
+        if(runFits) {
+            submit(fitsPool, () -> runFitsIfNeeded(inputFile, outputDir), inputFile, outputDir, remainingJobs,
+                    callback);
+        }
+        if(runEpubCheck) {
+            submit(epubCheckPool, () -> runEpubCheckIfNeeded(inputFile, outputDir), inputFile, outputDir,
+                    remainingJobs, callback);
+        }
+    }
+
+    /**
+     * Submits a characterization job to the pool.
+     * @param pool The pool.
+     * @param job The characterization job.
+     * @param inputFile The file to characterize.
+     * @param outputDir The directory, where the characterization output file should be placed.
+     * @param remainingJobs The number of characterization jobs for the file, which have not yet completed.
+     * @param callback The callback for when all the characterization jobs for the file have completed.
+     */
+    protected void submit(ThreadPoolExecutor pool, Runnable job, File inputFile, File outputDir,
+            AtomicInteger remainingJobs, CharacterizationCallback callback) {
+        Runnable task = () -> {
+            try {
+                job.run();
+            } finally {
+                jobCompleted(inputFile, outputDir, remainingJobs, callback);
+            }
+        };
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            jobCompleted(inputFile, outputDir, remainingJobs, callback);
+            throw new IllegalStateException("Could not submit the file '" + inputFile.getAbsolutePath()
+                    + "' for characterization.", e);
+        }
+    }
+
+    /**
+     * Registers that a characterization job has completed, and calls the callback if it was the last job
+     * for the file.
+     * @param inputFile The file, which has been characterized.
+     * @param outputDir The directory, where the characterization output file should be placed.
+     * @param remainingJobs The number of characterization jobs for the file, which have not yet completed.
+     * @param callback The callback for when all the characterization jobs for the file have completed.
+     */
+    protected void jobCompleted(File inputFile, File outputDir, AtomicInteger remainingJobs,
+            CharacterizationCallback callback) {
+        try {
+            if(remainingJobs.decrementAndGet() == 0 && callback != null) {
+                callback.characterizationComplete(inputFile, outputDir);
+            }
+        } catch (RuntimeException e) {
+            failureCount.incrementAndGet();
+            log.warn("Failure in the callback for the characterization of the file '"
+                    + inputFile.getAbsolutePath() + "'.", e);
+        } finally {
+            pendingCharacterizations.add(outputDir, -1);
+        }
+    }
+
+    @Override
+    public void awaitCharacterization(File outputDir) {
+        ArgumentCheck.checkNotNull(outputDir, "File outputDir");
+        pendingCharacterizations.await(outputDir);
+    }
+
+    @Override
+    public void shutdown() {
+        log.info("Waiting for the remaining characterizations to complete.");
+        fitsPool.shutdown();
+        epubCheckPool.shutdown();
+        try {
+            fitsPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            epubCheckPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the characterizations to complete.", e);
+        }
+        log.info("Performed " + fitsPool.getCompletedTaskCount() + " FITS characterizations and "
+                + epubCheckPool.getCompletedTaskCount() + " EpubCheck characterizations.");
+    }
+}
@@ -0,0 +1,16 @@
+package dk.kb.elivagar.characterization;
+
+import java.io.File;
+
+/**
+ * Interface for being notified, when the characterization of a file has completed.
+ */
+@FunctionalInterface
+public interface CharacterizationCallback {
+    /**
+     * Called when all the characterizations of the file have completed (successfully or not).
+     * @param inputFile The file, which has been characterized.
+     * @param outputDir The directory, where the characterization output files are placed.
+     */
+    void characterizationComplete(File inputFile, File outputDir);
+}
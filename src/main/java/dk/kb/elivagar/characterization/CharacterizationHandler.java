@@ -1,6 +1,7 @@
 package dk.kb.elivagar.characterization;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +21,8 @@ public class CharacterizationHandler {
     protected FitsCharacterizer fitsCharacterizer;
     /** The epub characterization. */
     protected final EpubCheckerCharacterizer epubCharacterizer;
+    /** The number of characterizations, which have failed.*/
+    protected final AtomicLong failureCount;
     
     /**
      * Constructor.
@@ -29,6 +32,7 @@ public class CharacterizationHandler {
     public CharacterizationHandler(FitsCharacterizer fitsScript, EpubCheckerCharacterizer epubCharacterizer) {
         this.fitsCharacterizer = fitsScript;
         this.epubCharacterizer = epubCharacterizer;
+        this.failureCount = new AtomicLong();
     }
     
     /**
@@ -42,6 +46,45 @@ public class CharacterizationHandler {
         runEpubCheckIfNeeded(inputFile, outputDir);
     }
     
+    /**
+     * Checks whether all the different kinds of characterization already have been performed for the file.
+     * @param inputFile The file to characterize.
+     * @param outputDir The directory, where the characterization output files are placed.
+     * @return Whether or not no characterization is needed for the file.
+     */
+    public boolean isCharacterized(File inputFile, File outputDir) {
+        if(fitsCharacterizer != null && shouldCharacterize(new File(outputDir, inputFile.getName().toLowerCase() 
+                + Constants.FITS_METADATA_SUFFIX), inputFile)) {
+            return false;
+        }
+        if(epubCharacterizer.hasRequiredExtension(inputFile) && shouldCharacterize(new File(outputDir, 
+                inputFile.getName().toLowerCase() + Constants.EPUBCHECK_METADATA_SUFFIX), inputFile)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits for all the characterizations of the files for the given output directory to complete.
+     * The characterization is performed by the calling thread, so it has always completed.
+     * @param outputDir The directory, where the characterization output files are placed.
+     */
+    public void awaitCharacterization(File outputDir) {}
+    
+    /**
+     * Waits for all the characterizations to complete, and releases any resources.
+     * The characterization is performed by the calling thread, so there is nothing to wait for.
+     */
+    public void shutdown() {}
+
+    /**
+     * @return The number of characterizations, which have failed.
+     * Only gives the final count, after the characterizations have completed.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+    
     /**
      * Check and do the epubcheck chacracterization if it is needed.
      * @param inputFile The file to characterize, if it is needed.
@@ -60,6 +103,7 @@ public class CharacterizationHandler {
             try {
                 epubCharacterizer.characterize(inputFile, outputFile);
             } catch (Throwable e) {
+                failureCount.incrementAndGet();
                 log.warn("Failure when trying to characterize the epub file: " + inputFile.getAbsolutePath(), e);
                 log.info("Trying to cleanup memory. Then continue.");
                 System.gc();
@@ -89,6 +133,7 @@ public class CharacterizationHandler {
             try { 
                 fitsCharacterizer.performCharacterization(inputFile, characterizationOutputFile);
             } catch (Throwable e) {
+                failureCount.incrementAndGet();
                 log.warn("Failure when trying to do the FITS characterization for the file: "
                         + inputFile.getAbsolutePath(), e);
                 FileUtils.deleteFile(characterizationOutputFile);
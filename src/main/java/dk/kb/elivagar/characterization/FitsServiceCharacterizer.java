@@ -0,0 +1,105 @@
+package dk.kb.elivagar.characterization;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.HttpClient;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.exception.CircuitOpenException;
+import dk.kb.elivagar.utils.FileUtils;
+
+/**
+ * Performs the FITS characterization through a resident FITS service (the FITS web service),
+ * instead of starting a new FITS JVM through the script for every file.
+ * The FITS service must run on the same machine (or have the same file system mounted), since it is only
+ * given the path to the file.
+ *
+ * The script is used as fallback, if the service fails to characterize a file.
+ * If the service cannot be reached at all, then it is not tried again, and all the following files are
+ * characterized by the script.
+ *
+ * The HTTP client should be dedicated to the service, with a socket timeout long enough for characterizing the
+ * largest files, and without retries, since the service would characterize the file again for each retry
+ * (see HttpConfiguration#createServiceConfiguration).
+ */
+public class FitsServiceCharacterizer extends FitsCharacterizer {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(FitsServiceCharacterizer.class);
+
+    /** The path of the examine method of the FITS service.*/
+    protected static final String FITS_SERVICE_EXAMINE = "examine?file=";
+
+    /** The base URL of the FITS service.*/
+    protected final String serviceUrl;
+    /** The HTTP client for calling the FITS service.*/
+    protected final HttpClient httpClient;
+    /** Whether the FITS service is still available.*/
+    protected volatile boolean serviceAvailable;
+
+    /**
+     * Constructor.
+     * @param scriptFile The script, used as fallback.
+     * @param serviceUrl The base URL of the FITS service, e.g. http://localhost:8080/fits/
+     * @param httpClient The HTTP client for calling the FITS service. It should be dedicated to the service.
+     */
+    public FitsServiceCharacterizer(File scriptFile, String serviceUrl, HttpClient httpClient) {
+        super(scriptFile);
+        ArgumentCheck.checkNotNullOrEmpty(serviceUrl, "String serviceUrl");
+        ArgumentCheck.checkNotNull(httpClient, "HttpClient httpClient");
+        this.serviceUrl = serviceUrl.endsWith("/") ? serviceUrl : serviceUrl + "/";
+        this.httpClient = httpClient;
+        this.serviceAvailable = true;
+    }
+
+    @Override
+    public void performCharacterization(File inputFile, File outputFile) {
+        ArgumentCheck.checkExistsNormalFile(inputFile, "File inputFile");
+        ArgumentCheck.checkNotNull(outputFile, "File outputFile");
+        if(serviceAvailable) {
+            try {
+                characterizeWithService(inputFile, outputFile);
+                return;
+            } catch (ConnectException | CircuitOpenException e) {
+                serviceAvailable = false;
+                log.warn("Cannot connect to the FITS service at '" + serviceUrl + "'. Using the script for "
+                        + "the rest of the characterizations.", e);
+            } catch (IOException | RuntimeException e) {
+                log.info("The FITS service failed to characterize the file '" + inputFile.getAbsolutePath()
+                        + "'. Trying the script instead.", e);
+            }
+            FileUtils.deleteFile(outputFile);
+        }
+        super.performCharacterization(inputFile, outputFile);
+    }
+
+    /**
+     * Characterizes the file through the FITS service.
+     * @param inputFile The input file, which will be characterized.
+     * @param outputFile The output file, where the characterization results is placed.
+     * @throws IOException If the service cannot be called, or the output file cannot be written.
+     */
+    protected void characterizeWithService(File inputFile, File outputFile) throws IOException {
+        String url = serviceUrl + FITS_SERVICE_EXAMINE
+                + URLEncoder.encode(inputFile.getAbsolutePath(), StandardCharsets.UTF_8.name());
+        try (OutputStream out = new FileOutputStream(outputFile)) {
+            httpClient.retrieveUrlContent(url, out);
+        }
+        if(outputFile.length() < 1L) {
+            throw new IOException("Received no FITS characterization for the file '" + inputFile.getAbsolutePath()
+                    + "'.");
+        }
+    }
+
+    /** @return Whether the FITS service is still used.*/
+    public boolean isServiceAvailable() {
+        return serviceAvailable;
+    }
+}
@@ -3,6 +3,7 @@ package dk.kb.elivagar.config;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,6 +13,7 @@ import org.slf4j.LoggerFactory;
 
 import dk.kb.elivagar.exception.ArgumentCheck;
 import dk.kb.elivagar.utils.FileUtils;
+import dk.kb.elivagar.utils.LinkStrategy;
 import dk.kb.elivagar.utils.LongUtils;
 import dk.kb.elivagar.utils.YamlUtils;
 
@@ -27,8 +29,16 @@ import dk.kb.elivagar.utils.YamlUtils;
  *     <li>ebook_orig_dir: /path/to/orig/book/dir/</li>
  *     <li>audio_orig_dir: /path/to/orig/audio/dir/</li>
  *     <li>license_key: DO_NOT_PUT_LICENSE_IN_GITHUB_FILE</li>
+ *     <li>pubhub_streaming: false (optional)</li>
  *     <li>characterization_script: bin/run_fits.sh (optional)</li>
+ *     <li>fits_service_url: http://localhost:8080/fits/ (optional, requires the characterization_script)</li>
+ *     <li>fits_service_timeout: 3600000 (optional) // TIME IN MILLIS</li>
+ *     <li>characterization_fits_threads: 1 (optional)</li>
+ *     <li>characterization_epubcheck_threads: 1 (optional)</li>
+ *     <li>characterization_queue_size: 100 (optional)</li>
  *     <li>statistics_dir: /path/to/statistics/dir/</li>
+ *     <li>link_strategy: copy (optional, one of: hardlink, reflink, symlink, copy)</li>
+ *     <li>state_dir: /path/to/state/dir/ (optional, required for the incremental retrieval)</li>
  *     <li>ebook_formats:</li>
  *     <ul>
  *       <li>- pdf</li>
@@ -39,6 +49,37 @@ import dk.kb.elivagar.utils.YamlUtils;
  *       <li>- mp3</li>
  *     </ul>
  *     <li>alma_sru_search: $ALMA_SRU_SEARCH</li>
+ *     <li>alma_batch_size: 20 (optional)</li>
+ *     <li>alma_negative_cache_ttl: 86400000 (optional) // TIME IN MILLIS</li>
+ *     <li>alma_negative_cache_max_ttl: 2592000000 (optional) // TIME IN MILLIS</li>
+ *     <li>alma_refresh_count: 0 (optional)</li>
+ *     <li>pipeline_queue_size: 1000 (optional)</li>
+ *     <li>pubhub_packing_threads: 1 (optional)</li>
+ *     <li>image_download_threads: 1 (optional)</li>
+ *     <li>http: (THIS ELEMENT IS NOT REQUIRED, NOR ARE ANY OF ITS SUB-ELEMENTS)</li>
+ *     <ul>
+ *       <li>max_connections: 50</li>
+ *       <li>max_connections_per_route: 10</li>
+ *       <li>connect_timeout: 10000 // TIME IN MILLIS</li>
+ *       <li>socket_timeout: 60000 // TIME IN MILLIS</li>
+ *       <li>connection_request_timeout: 30000 // TIME IN MILLIS</li>
+ *       <li>keep_alive: 30000 // TIME IN MILLIS</li>
+ *       <li>requests_per_second: 0 // PER HOST, 0 FOR NO LIMIT</li>
+ *       <li>max_concurrent_requests: 0 // PER HOST, 0 FOR NO LIMIT</li>
+ *       <li>max_retries: 3</li>
+ *       <li>retry_backoff: 1000 // TIME IN MILLIS, DOUBLED FOR EACH RETRY</li>
+ *       <li>retry_max_backoff: 30000 // TIME IN MILLIS</li>
+ *       <li>circuit_breaker_failures: 5 // 0 FOR NO CIRCUIT BREAKER</li>
+ *       <li>circuit_breaker_reset_time: 60000 // TIME IN MILLIS</li>
+ *       <li>hosts: (THE RATE LIMITS FOR SPECIFIC HOSTS)</li>
+ *       <ul>
+ *         <li>kbdk-kgl.alma.exlibrisgroup.com:</li>
+ *         <ul>
+ *           <li>requests_per_second: 10</li>
+ *           <li>max_concurrent_requests: 4</li>
+ *         </ul>
+ *       </ul>
+ *     </ul>
  *     <li>transfer: (THIS ELEMENT IS NOT REQUIRED)</li>
  *     <ul>
  *       <li>ingest_ebook_path: /transfer/path/root/ingest/ebook/</li>
@@ -56,6 +97,8 @@ import dk.kb.elivagar.utils.YamlUtils;
  *         <li>- mods.xml</li>
  *         <li>- pubhub.xml</li>
  *       </ul>
+ *       <li>central_registry_dir: /path/to/central/registry/dir/ (optional)</li>
+ *       <li>link_strategy: copy (optional, one of: hardlink, reflink, symlink, copy)</li>
  *     </ul>
  *   </ul>
  * </ul>
@@ -72,22 +115,106 @@ public class Configuration {
     public static final String CONF_AUDIO_OUTPUT_DIR = "audio_output_dir";
     /** The configuration name for the license key.*/
     public static final String CONF_LICENSE_KEY = "license_key";
+    /** The configuration name for whether to stream the books from Pubhub, instead of retrieving them at once.*/
+    public static final String CONF_PUBHUB_STREAMING = "pubhub_streaming";
     /** The configuration name for the ebook file directory.*/
     public static final String CONF_EBOOK_FILE_DIR = "ebook_orig_dir";
     /** The configuration name for the audio book file directory.*/
     public static final String CONF_AUDIO_FILE_DIR = "audio_orig_dir";
     /** The configuration name for the characterization script file path.*/
     public static final String CONF_CHARACTERIZATION_SCRIPT = "characterization_script";
+    /** The configuration name for the URL of the resident FITS service.*/
+    public static final String CONF_FITS_SERVICE_URL = "fits_service_url";
+    /** The configuration name for the timeout for waiting for the characterization from the FITS service.*/
+    public static final String CONF_FITS_SERVICE_TIMEOUT = "fits_service_timeout";
+    /** The default timeout for waiting for the characterization from the FITS service, in millis.*/
+    public static final int DEFAULT_FITS_SERVICE_TIMEOUT = 3600000;
+    /** The configuration name for the maximum number of concurrent FITS characterizations.*/
+    public static final String CONF_CHARACTERIZATION_FITS_THREADS = "characterization_fits_threads";
+    /** The configuration name for the maximum number of concurrent EpubCheck characterizations.*/
+    public static final String CONF_CHARACTERIZATION_EPUBCHECK_THREADS = "characterization_epubcheck_threads";
+    /** The configuration name for the maximum number of characterizations waiting for each kind of 
+     * characterization.*/
+    public static final String CONF_CHARACTERIZATION_QUEUE_SIZE = "characterization_queue_size";
+    /** The default maximum number of concurrent characterizations of each kind.*/
+    public static final int DEFAULT_CHARACTERIZATION_THREADS = 1;
+    /** The default maximum number of characterizations waiting for each kind of characterization.*/
+    public static final int DEFAULT_CHARACTERIZATION_QUEUE_SIZE = 100;
     /** The configuration name for the list of formats for the ebooks.*/
     public static final String CONF_EBOOK_FORMATS = "ebook_formats";
     /** The configuration name for the list of formats for the audio books.*/
     public static final String CONF_AUDIO_FORMATS = "audio_formats";
     /** The directory where the output statistics will be placed.*/
     public static final String CONF_STATISTIC_DIR = "statistics_dir";
+    /** The strategy for placing the original content files in the book directories. This is optional.*/
+    public static final String CONF_LINK_STRATEGY = "link_strategy";
+    /** The directory for the state, which is kept between the runs. This is optional.*/
+    public static final String CONF_STATE_DIR = "state_dir";
 
     /** The configuration Alma sru search base url.*/
     public static final String CONF_ALMA_SRU_SEARCH = "alma_sru_search";
 
+    /** The configuration name for the number of ISBN numbers to retrieve from Alma in a single search.*/
+    public static final String CONF_ALMA_BATCH_SIZE = "alma_batch_size";
+    /** The default number of ISBN numbers to retrieve from Alma in a single search.*/
+    public static final int DEFAULT_ALMA_BATCH_SIZE = 20;
+    /** The configuration name for the time before an ISBN number, which Alma could not resolve, is retried.*/
+    public static final String CONF_ALMA_NEGATIVE_CACHE_TTL = "alma_negative_cache_ttl";
+    /** The default time before an ISBN number, which Alma could not resolve, is retried. One day in millis.*/
+    public static final long DEFAULT_ALMA_NEGATIVE_CACHE_TTL = 24L * 60 * 60 * 1000;
+    /** The configuration name for the maximum time before an ISBN number, which Alma could not resolve, is retried.*/
+    public static final String CONF_ALMA_NEGATIVE_CACHE_MAX_TTL = "alma_negative_cache_max_ttl";
+    /** The default maximum time before an ISBN number, which Alma could not resolve, is retried. 30 days in millis.*/
+    public static final long DEFAULT_ALMA_NEGATIVE_CACHE_MAX_TTL = 30L * 24 * 60 * 60 * 1000;
+    /** The configuration name for the number of existing MODS records to retrieve again from Alma in each run.*/
+    public static final String CONF_ALMA_REFRESH_COUNT = "alma_refresh_count";
+    /** The default number of existing MODS records to retrieve again from Alma in each run. None.*/
+    public static final int DEFAULT_ALMA_REFRESH_COUNT = 0;
+
+    /** The configuration name for the maximum number of books waiting between two stages of the pipeline.*/
+    public static final String CONF_PIPELINE_QUEUE_SIZE = "pipeline_queue_size";
+    /** The default maximum number of books waiting between two stages of the pipeline.*/
+    public static final int DEFAULT_PIPELINE_QUEUE_SIZE = 1000;
+    /** The configuration name for the number of books packed concurrently from the Pubhub metadata.*/
+    public static final String CONF_PUBHUB_PACKING_THREADS = "pubhub_packing_threads";
+    /** The default number of books packed concurrently from the Pubhub metadata.*/
+    public static final int DEFAULT_PUBHUB_PACKING_THREADS = 1;
+    /** The configuration name for the maximum number of concurrent downloads of images.*/
+    public static final String CONF_IMAGE_DOWNLOAD_THREADS = "image_download_threads";
+    /** The default maximum number of concurrent downloads of images.*/
+    public static final int DEFAULT_IMAGE_DOWNLOAD_THREADS = 1;
+
+    /** The configuration http element.*/
+    public static final String CONF_HTTP_ROOT = "http";
+    /** The maximum number of connections in the HTTP connection pool.*/
+    public static final String CONF_HTTP_MAX_CONNECTIONS = "max_connections";
+    /** The maximum number of connections per route (host) in the HTTP connection pool.*/
+    public static final String CONF_HTTP_MAX_CONNECTIONS_PER_ROUTE = "max_connections_per_route";
+    /** The timeout for establishing a HTTP connection, in millis.*/
+    public static final String CONF_HTTP_CONNECT_TIMEOUT = "connect_timeout";
+    /** The timeout for waiting for data on a HTTP connection, in millis.*/
+    public static final String CONF_HTTP_SOCKET_TIMEOUT = "socket_timeout";
+    /** The timeout for waiting for a HTTP connection from the pool, in millis.*/
+    public static final String CONF_HTTP_CONNECTION_REQUEST_TIMEOUT = "connection_request_timeout";
+    /** The time to keep an idle HTTP connection alive, in millis.*/
+    public static final String CONF_HTTP_KEEP_ALIVE = "keep_alive";
+    /** The maximum number of HTTP requests per second to a host.*/
+    public static final String CONF_HTTP_REQUESTS_PER_SECOND = "requests_per_second";
+    /** The maximum number of concurrent HTTP requests to a host.*/
+    public static final String CONF_HTTP_MAX_CONCURRENT_REQUESTS = "max_concurrent_requests";
+    /** The rate limits for specific hosts, mapped by the host name.*/
+    public static final String CONF_HTTP_HOSTS = "hosts";
+    /** The maximum number of retries of a failed HTTP request.*/
+    public static final String CONF_HTTP_MAX_RETRIES = "max_retries";
+    /** The time to wait before the first retry of a failed HTTP request, in millis.*/
+    public static final String CONF_HTTP_RETRY_BACKOFF = "retry_backoff";
+    /** The maximum time to wait before a retry of a failed HTTP request, in millis.*/
+    public static final String CONF_HTTP_RETRY_MAX_BACKOFF = "retry_max_backoff";
+    /** The number of consecutive failed HTTP requests to a host, which opens the circuit breaker.*/
+    public static final String CONF_HTTP_CIRCUIT_BREAKER_FAILURES = "circuit_breaker_failures";
+    /** The time the circuit breaker for a host stays open, in millis.*/
+    public static final String CONF_HTTP_CIRCUIT_BREAKER_RESET_TIME = "circuit_breaker_reset_time";
+
     /** The configuration transfer element.*/
     public static final String CONF_TRANSFER_ROOT = "transfer";
     /** The base path for the ingest dir for ebooks.*/
@@ -110,6 +237,10 @@ public class Configuration {
     public static final String CONF_TRANSFER_RETAIN_PUBLICATION_DATE = "retain_pub_date";
     /** The list of required formats for initiating the transfer.*/
     public static final String CONF_TRANSFER_REQUIRED_FORMATS = "required_formats";
+    /** The directory for the central transfer registry. This is optional.*/
+    public static final String CONF_TRANSFER_CENTRAL_REGISTRY_DIR = "central_registry_dir";
+    /** The strategy for placing the content files in the transfer directories. This is optional.*/
+    public static final String CONF_TRANSFER_LINK_STRATEGY = "link_strategy";
     
     /** The output directory for the ebooks.*/
     protected final File ebookOutputDir;
@@ -117,14 +248,30 @@ public class Configuration {
     protected final File abookOutputDir;
     /** The license key for Pubhub.*/
     protected final String licenseKey;
+    /** Whether to stream the books from Pubhub.*/
+    protected final boolean pubhubStreaming;
     /** The directory containing the ebook files.*/
     protected final File ebookFileDir;
     /** The directory containing the audio files.*/
     protected final File audioFileDir;
     /** The script for performing the characterization.*/
     protected File scriptFile;
+    /** The URL for the resident FITS service. This may be null.*/
+    protected final String fitsServiceUrl;
+    /** The timeout for waiting for the characterization from the FITS service, in millis.*/
+    protected final int fitsServiceTimeout;
+    /** The maximum number of concurrent FITS characterizations.*/
+    protected final int characterizationFitsThreads;
+    /** The maximum number of concurrent EpubCheck characterizations.*/
+    protected final int characterizationEpubCheckThreads;
+    /** The maximum number of characterizations waiting for each kind of characterization.*/
+    protected final int characterizationQueueSize;
     /** The directory for the output statistics files.*/
     protected final File statisticsDir;
+    /** The strategy for placing the original content files in the book directories.*/
+    protected final LinkStrategy linkStrategy;
+    /** The directory for the state, which is kept between the runs. May be null.*/
+    protected final File stateDir;
 
     /** The list of formats for the ebooks.*/
     protected List<String> ebookFormats;
@@ -134,6 +281,25 @@ public class Configuration {
     /** The configuration for the alma sru search.*/
     protected final String almaSruSearchConfiguration;
 
+    /** The number of ISBN numbers to retrieve from Alma in a single search.*/
+    protected final int almaBatchSize;
+    /** The time before an ISBN number, which Alma could not resolve, is retried the first time.*/
+    protected final long almaNegativeCacheTtl;
+    /** The maximum time before an ISBN number, which Alma could not resolve, is retried.*/
+    protected final long almaNegativeCacheMaxTtl;
+    /** The number of existing MODS records to retrieve again from Alma in each run.*/
+    protected final int almaRefreshCount;
+
+    /** The maximum number of books waiting between two stages of the pipeline.*/
+    protected final int pipelineQueueSize;
+    /** The number of books packed concurrently from the Pubhub metadata.*/
+    protected final int pubhubPackingThreads;
+    /** The maximum number of concurrent downloads of images.*/
+    protected final int imageDownloadThreads;
+
+    /** The HTTP configuration.*/
+    protected final HttpConfiguration httpConfiguration;
+
     /** The transfer configuration. This may be null.*/
     protected TransferConfiguration transferConfiguration;
     
@@ -159,18 +325,67 @@ public class Configuration {
         ebookOutputDir = FileUtils.createDirectory((String) confMap.get(CONF_EBOOK_OUTPUT_DIR));
         abookOutputDir = FileUtils.createDirectory((String) confMap.get(CONF_AUDIO_OUTPUT_DIR));
         licenseKey = (String) confMap.get(CONF_LICENSE_KEY);
+        pubhubStreaming = getBooleanOrDefault(confMap, CONF_PUBHUB_STREAMING, false);
         ebookFileDir = new File((String) confMap.get(CONF_EBOOK_FILE_DIR));
         audioFileDir = new File((String) confMap.get(CONF_AUDIO_FILE_DIR));
         if(confMap.containsKey(CONF_CHARACTERIZATION_SCRIPT)) {
             scriptFile = new File((String) confMap.get(CONF_CHARACTERIZATION_SCRIPT));
         }
+        fitsServiceUrl = (String) confMap.get(CONF_FITS_SERVICE_URL);
+        fitsServiceTimeout = getIntOrDefault(confMap, CONF_FITS_SERVICE_TIMEOUT, 
+                DEFAULT_FITS_SERVICE_TIMEOUT);
+        ArgumentCheck.checkNotNegativeInt(fitsServiceTimeout, CONF_FITS_SERVICE_TIMEOUT);
+        characterizationFitsThreads = getIntOrDefault(confMap, CONF_CHARACTERIZATION_FITS_THREADS, 
+                DEFAULT_CHARACTERIZATION_THREADS);
+        ArgumentCheck.checkPositiveInt(characterizationFitsThreads, CONF_CHARACTERIZATION_FITS_THREADS);
+        characterizationEpubCheckThreads = getIntOrDefault(confMap, CONF_CHARACTERIZATION_EPUBCHECK_THREADS, 
+                DEFAULT_CHARACTERIZATION_THREADS);
+        ArgumentCheck.checkPositiveInt(characterizationEpubCheckThreads, CONF_CHARACTERIZATION_EPUBCHECK_THREADS);
+        characterizationQueueSize = getIntOrDefault(confMap, CONF_CHARACTERIZATION_QUEUE_SIZE, 
+                DEFAULT_CHARACTERIZATION_QUEUE_SIZE);
+        ArgumentCheck.checkPositiveInt(characterizationQueueSize, CONF_CHARACTERIZATION_QUEUE_SIZE);
         statisticsDir = FileUtils.createDirectory((String) confMap.get(CONF_STATISTIC_DIR));
+        linkStrategy = getLinkStrategy(confMap, CONF_LINK_STRATEGY);
+        if(confMap.containsKey(CONF_STATE_DIR)) {
+            stateDir = FileUtils.createDirectory((String) confMap.get(CONF_STATE_DIR));
+        } else {
+            stateDir = null;
+        }
 
         ebookFormats = (List<String>) confMap.get(CONF_EBOOK_FORMATS);
         audioFormats = (List<String>) confMap.get(CONF_AUDIO_FORMATS);
         
         this.almaSruSearchConfiguration = (String) confMap.get(CONF_ALMA_SRU_SEARCH);
 
+        this.almaBatchSize = getIntOrDefault(confMap, CONF_ALMA_BATCH_SIZE, DEFAULT_ALMA_BATCH_SIZE);
+        ArgumentCheck.checkPositiveInt(almaBatchSize, CONF_ALMA_BATCH_SIZE);
+        this.almaNegativeCacheTtl = getLongOrDefault(confMap, CONF_ALMA_NEGATIVE_CACHE_TTL, 
+                DEFAULT_ALMA_NEGATIVE_CACHE_TTL);
+        ArgumentCheck.checkPositiveLong(almaNegativeCacheTtl, CONF_ALMA_NEGATIVE_CACHE_TTL);
+        this.almaNegativeCacheMaxTtl = getLongOrDefault(confMap, CONF_ALMA_NEGATIVE_CACHE_MAX_TTL, 
+                Math.max(almaNegativeCacheTtl, DEFAULT_ALMA_NEGATIVE_CACHE_MAX_TTL));
+        ArgumentCheck.checkTrue(almaNegativeCacheMaxTtl >= almaNegativeCacheTtl, "The '" 
+                + CONF_ALMA_NEGATIVE_CACHE_MAX_TTL + "' must not be less than the '" + CONF_ALMA_NEGATIVE_CACHE_TTL 
+                + "'.");
+        this.almaRefreshCount = getIntOrDefault(confMap, CONF_ALMA_REFRESH_COUNT, DEFAULT_ALMA_REFRESH_COUNT);
+        ArgumentCheck.checkNotNegativeInt(almaRefreshCount, CONF_ALMA_REFRESH_COUNT);
+
+        this.pipelineQueueSize = getIntOrDefault(confMap, CONF_PIPELINE_QUEUE_SIZE, 
+                DEFAULT_PIPELINE_QUEUE_SIZE);
+        ArgumentCheck.checkPositiveInt(pipelineQueueSize, CONF_PIPELINE_QUEUE_SIZE);
+        this.pubhubPackingThreads = getIntOrDefault(confMap, CONF_PUBHUB_PACKING_THREADS, 
+                DEFAULT_PUBHUB_PACKING_THREADS);
+        ArgumentCheck.checkPositiveInt(pubhubPackingThreads, CONF_PUBHUB_PACKING_THREADS);
+        this.imageDownloadThreads = getIntOrDefault(confMap, CONF_IMAGE_DOWNLOAD_THREADS, 
+                DEFAULT_IMAGE_DOWNLOAD_THREADS);
+        ArgumentCheck.checkPositiveInt(imageDownloadThreads, CONF_IMAGE_DOWNLOAD_THREADS);
+
+        if(confMap.containsKey(CONF_HTTP_ROOT)) {
+            this.httpConfiguration = getHttpConfiguration((Map<String, Object>) confMap.get(CONF_HTTP_ROOT));
+        } else {
+            this.httpConfiguration = new HttpConfiguration();
+        }
+
         if(confMap.containsKey(CONF_TRANSFER_ROOT)) {
             this.transferConfiguration = getTransferConfiguration((Map<String, Object>) 
                     confMap.get(CONF_TRANSFER_ROOT));
@@ -179,6 +394,121 @@ public class Configuration {
         }
     }
 
+    /**
+     * Instantiates the HttpConfiguration from the given map.
+     * The default values are used for the elements, which are not in the map.
+     * @param httpMap The map with the HTTP elements.
+     * @return The HTTP configuration.
+     */
+    @SuppressWarnings("unchecked")
+    protected HttpConfiguration getHttpConfiguration(Map<String, Object> httpMap) {
+        int maxConnections = getIntOrDefault(httpMap, CONF_HTTP_MAX_CONNECTIONS, 
+                HttpConfiguration.DEFAULT_MAX_CONNECTIONS);
+        int maxConnectionsPerRoute = getIntOrDefault(httpMap, CONF_HTTP_MAX_CONNECTIONS_PER_ROUTE, 
+                HttpConfiguration.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        int connectTimeout = getIntOrDefault(httpMap, CONF_HTTP_CONNECT_TIMEOUT, 
+                HttpConfiguration.DEFAULT_CONNECT_TIMEOUT);
+        int socketTimeout = getIntOrDefault(httpMap, CONF_HTTP_SOCKET_TIMEOUT, 
+                HttpConfiguration.DEFAULT_SOCKET_TIMEOUT);
+        int connectionRequestTimeout = getIntOrDefault(httpMap, CONF_HTTP_CONNECTION_REQUEST_TIMEOUT, 
+                HttpConfiguration.DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+        long keepAlive = getLongOrDefault(httpMap, CONF_HTTP_KEEP_ALIVE, HttpConfiguration.DEFAULT_KEEP_ALIVE);
+        HostRateLimit defaultRateLimit = getHostRateLimit(httpMap, HostRateLimit.UNLIMITED);
+        Map<String, HostRateLimit> hostRateLimits = new HashMap<String, HostRateLimit>();
+        if(httpMap.get(CONF_HTTP_HOSTS) instanceof Map) {
+            Map<String, Object> hostsMap = (Map<String, Object>) httpMap.get(CONF_HTTP_HOSTS);
+            for(Map.Entry<String, Object> host : hostsMap.entrySet()) {
+                if(host.getValue() instanceof Map) {
+                    hostRateLimits.put(host.getKey(), getHostRateLimit((Map<String, Object>) host.getValue(), 
+                            defaultRateLimit));
+                } else {
+                    log.warn("Ignoring the rate limit without any values for the host: " + host.getKey());
+                }
+            }
+        }
+        HttpRetryConfiguration retryConfiguration = new HttpRetryConfiguration(
+                getIntOrDefault(httpMap, CONF_HTTP_MAX_RETRIES, HttpRetryConfiguration.DEFAULT_MAX_RETRIES),
+                getLongOrDefault(httpMap, CONF_HTTP_RETRY_BACKOFF, HttpRetryConfiguration.DEFAULT_RETRY_BACKOFF),
+                getLongOrDefault(httpMap, CONF_HTTP_RETRY_MAX_BACKOFF, 
+                        HttpRetryConfiguration.DEFAULT_RETRY_MAX_BACKOFF),
+                getIntOrDefault(httpMap, CONF_HTTP_CIRCUIT_BREAKER_FAILURES, 
+                        HttpRetryConfiguration.DEFAULT_CIRCUIT_BREAKER_FAILURES),
+                getLongOrDefault(httpMap, CONF_HTTP_CIRCUIT_BREAKER_RESET_TIME, 
+                        HttpRetryConfiguration.DEFAULT_CIRCUIT_BREAKER_RESET_TIME));
+        return new HttpConfiguration(maxConnections, maxConnectionsPerRoute, connectTimeout, socketTimeout, 
+                connectionRequestTimeout, keepAlive, defaultRateLimit, hostRateLimits, retryConfiguration);
+    }
+
+    /**
+     * Instantiates the rate limit for a host from the given map.
+     * @param map The map with the rate limit elements.
+     * @param defaults The rate limit with the values for the elements, which are not in the map.
+     * @return The rate limit.
+     */
+    protected HostRateLimit getHostRateLimit(Map<String, Object> map, HostRateLimit defaults) {
+        int requestsPerSecond = getIntOrDefault(map, CONF_HTTP_REQUESTS_PER_SECOND, 
+                defaults.getRequestsPerSecond());
+        int maxConcurrentRequests = getIntOrDefault(map, CONF_HTTP_MAX_CONCURRENT_REQUESTS, 
+                defaults.getMaxConcurrentRequests());
+        return new HostRateLimit(requestsPerSecond, maxConcurrentRequests);
+    }
+
+    /**
+     * Retrieves a numeric value from a map, or the default value if the map does not contain the key.
+     * @param map The map.
+     * @param key The key for the value.
+     * @param defaultValue The default value.
+     * @return The value from the map, or the default value.
+     */
+    protected long getLongOrDefault(Map<String, Object> map, String key, long defaultValue) {
+        if(map != null && map.containsKey(key)) {
+            return LongUtils.getLong(map.get(key));
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Retrieves an integer value from a map, or the default value if the map does not contain the key.
+     * @param map The map.
+     * @param key The key for the value.
+     * @param defaultValue The default value.
+     * @return The value from the map, or the default value.
+     * @throws ArgumentCheck If the value from the map is outside the range of an integer.
+     */
+    protected int getIntOrDefault(Map<String, Object> map, String key, int defaultValue) {
+        long value = getLongOrDefault(map, key, defaultValue);
+        ArgumentCheck.checkTrue(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE, "The value of '" + key 
+                + "' must be within the range of an integer, but is " + value + ".");
+        return (int) value;
+    }
+
+    /**
+     * Retrieves a boolean value from a map, or the default value if the map does not contain the key.
+     * @param map The map.
+     * @param key The key for the value.
+     * @param defaultValue The default value.
+     * @return The value from the map, or the default value.
+     */
+    protected boolean getBooleanOrDefault(Map<String, Object> map, String key, boolean defaultValue) {
+        if(map != null && map.containsKey(key)) {
+            return Boolean.parseBoolean(map.get(key).toString());
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Retrieves the link strategy from a map, or the copy strategy if the map does not contain the key.
+     * @param map The map.
+     * @param key The key for the link strategy.
+     * @return The link strategy.
+     */
+    protected LinkStrategy getLinkStrategy(Map<String, Object> map, String key) {
+        if(map != null && map.containsKey(key)) {
+            return LinkStrategy.fromName(map.get(key).toString());
+        }
+        return LinkStrategy.COPY;
+    }
+
     /**
      * Instantiates the TransferConfiguration from the given map.
      * @param transferMap The map with the Transfer elements.
@@ -220,9 +550,15 @@ public class Configuration {
         Long retainModifyDate = LongUtils.getLong(transferMap.get(CONF_TRANSFER_RETAIN_MODIFY_DATE));
         Long retainPublicationDate = LongUtils.getLong(transferMap.get(CONF_TRANSFER_RETAIN_PUBLICATION_DATE));
         List<String> requiredFormats = (List<String>) transferMap.get(CONF_TRANSFER_REQUIRED_FORMATS);
+        File centralRegistryDir = null;
+        if(transferMap.containsKey(CONF_TRANSFER_CENTRAL_REGISTRY_DIR)) {
+            centralRegistryDir = FileUtils.createDirectory((String) transferMap.get(
+                    CONF_TRANSFER_CENTRAL_REGISTRY_DIR));
+        }
         return new TransferConfiguration(baseIngestEbookDir, baseContentEbookDir, baseMetadataEbookDir, 
                 baseIngestAudioDir, baseContentAudioDir, baseMetadataAudioDir, retainCreateDate, 
-                retainModifyDate, retainPublicationDate, requiredFormats);
+                retainModifyDate, retainPublicationDate, requiredFormats, centralRegistryDir, 
+                getLinkStrategy(transferMap, CONF_TRANSFER_LINK_STRATEGY));
     }
 
     /** @return The alma sru search base.*/
@@ -230,6 +566,46 @@ public class Configuration {
         return almaSruSearchConfiguration;
     }
 
+    /** @return The number of ISBN numbers to retrieve from Alma in a single search.*/
+    public int getAlmaBatchSize() {
+        return almaBatchSize;
+    }
+
+    /** @return The time in millis before an ISBN number, which Alma could not resolve, is retried the first time.*/
+    public long getAlmaNegativeCacheTtl() {
+        return almaNegativeCacheTtl;
+    }
+
+    /** @return The maximum time in millis before an ISBN number, which Alma could not resolve, is retried.*/
+    public long getAlmaNegativeCacheMaxTtl() {
+        return almaNegativeCacheMaxTtl;
+    }
+
+    /** @return The number of existing MODS records to retrieve again from Alma in each run.*/
+    public int getAlmaRefreshCount() {
+        return almaRefreshCount;
+    }
+
+    /** @return The maximum number of books waiting between two stages of the pipeline.*/
+    public int getPipelineQueueSize() {
+        return pipelineQueueSize;
+    }
+
+    /** @return The number of books packed concurrently from the Pubhub metadata.*/
+    public int getPubhubPackingThreads() {
+        return pubhubPackingThreads;
+    }
+
+    /** @return The maximum number of concurrent downloads of images.*/
+    public int getImageDownloadThreads() {
+        return imageDownloadThreads;
+    }
+
+    /** @return The HTTP configuration.*/
+    public HttpConfiguration getHttpConfiguration() {
+        return httpConfiguration;
+    }
+
     /** @return The transfer configuration. */
     public TransferConfiguration getTransferConfiguration() {
         return transferConfiguration;
@@ -250,6 +626,11 @@ public class Configuration {
         return licenseKey;
     }
     
+    /** @return Whether to stream the books from Pubhub. */
+    public boolean isPubhubStreaming() {
+        return pubhubStreaming;
+    }
+    
     /** @return The directory with the files for the ebooks. */
     public File getEbookFileDir() {
         return ebookFileDir;
@@ -265,10 +646,45 @@ public class Configuration {
         return scriptFile;
     }
     
+    /** @return The URL for the resident FITS service. This may be null.*/
+    public String getFitsServiceUrl() {
+        return fitsServiceUrl;
+    }
+    
+    /** @return The timeout for waiting for the characterization from the FITS service, in millis.*/
+    public int getFitsServiceTimeout() {
+        return fitsServiceTimeout;
+    }
+    
+    /** @return The maximum number of concurrent FITS characterizations.*/
+    public int getCharacterizationFitsThreads() {
+        return characterizationFitsThreads;
+    }
+    
+    /** @return The maximum number of concurrent EpubCheck characterizations.*/
+    public int getCharacterizationEpubCheckThreads() {
+        return characterizationEpubCheckThreads;
+    }
+    
+    /** @return The maximum number of characterizations waiting for each kind of characterization.*/
+    public int getCharacterizationQueueSize() {
+        return characterizationQueueSize;
+    }
+    
     /** @return The directory for the output statistics.*/
     public File getStatisticsDir() {
         return statisticsDir;
     }
+
+    /** @return The strategy for placing the original content files in the book directories.*/
+    public LinkStrategy getLinkStrategy() {
+        return linkStrategy;
+    }
+
+    /** @return The directory for the state, which is kept between the runs. Null, if no state is kept.*/
+    public File getStateDir() {
+        return stateDir;
+    }
     
     /** @return The list of formats for the ebooks.*/
     public List<String> getEbookFormats() {
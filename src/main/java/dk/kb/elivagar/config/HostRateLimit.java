@@ -0,0 +1,45 @@
+package dk.kb.elivagar.config;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The limits for the outbound HTTP requests to a single host, so the requests stay below the quota of the host
+ * instead of being throttled.
+ * A limit of 0 means no limit.
+ */
+public class HostRateLimit {
+    /** The rate limit, which does not limit anything.*/
+    public static final HostRateLimit UNLIMITED = new HostRateLimit(0, 0);
+
+    /** The maximum number of requests per second. 0 for no limit.*/
+    protected final int requestsPerSecond;
+    /** The maximum number of concurrent requests. 0 for no limit.*/
+    protected final int maxConcurrentRequests;
+
+    /**
+     * Constructor.
+     * @param requestsPerSecond The maximum number of requests per second. 0 for no limit.
+     * @param maxConcurrentRequests The maximum number of concurrent requests. 0 for no limit.
+     */
+    public HostRateLimit(int requestsPerSecond, int maxConcurrentRequests) {
+        ArgumentCheck.checkNotNegativeInt(requestsPerSecond, "int requestsPerSecond");
+        ArgumentCheck.checkNotNegativeInt(maxConcurrentRequests, "int maxConcurrentRequests");
+        this.requestsPerSecond = requestsPerSecond;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /** @return The maximum number of requests per second. 0 for no limit.*/
+    public int getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /** @return The maximum number of concurrent requests. 0 for no limit.*/
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /** @return Whether this limits the requests at all.*/
+    public boolean isLimited() {
+        return requestsPerSecond > 0 || maxConcurrentRequests > 0;
+    }
+}
@@ -0,0 +1,176 @@
+package dk.kb.elivagar.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * Configuration for the HTTP client, which is shared between the retrieval of the Alma metadata and the
+ * download of the image files.
+ */
+public class HttpConfiguration {
+    /** The default maximum number of connections in the pool.*/
+    public static final int DEFAULT_MAX_CONNECTIONS = 50;
+    /** The default maximum number of connections per route (host).*/
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+    /** The default timeout for establishing a connection, in millis.*/
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    /** The default timeout for waiting for data on a connection, in millis.*/
+    public static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+    /** The default timeout for waiting for a connection from the pool, in millis.*/
+    public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 30000;
+    /** The default time to keep an idle connection alive, in millis.*/
+    public static final long DEFAULT_KEEP_ALIVE = 30000L;
+
+    /** The maximum number of connections in the pool.*/
+    protected final int maxConnections;
+    /** The maximum number of connections per route (host).*/
+    protected final int maxConnectionsPerRoute;
+    /** The timeout for establishing a connection, in millis.*/
+    protected final int connectTimeout;
+    /** The timeout for waiting for data on a connection, in millis.*/
+    protected final int socketTimeout;
+    /** The timeout for waiting for a connection from the pool, in millis.*/
+    protected final int connectionRequestTimeout;
+    /** The time to keep an idle connection alive, when the server does not tell, in millis.*/
+    protected final long keepAlive;
+    /** The rate limit for the hosts, which do not have their own rate limit.*/
+    protected final HostRateLimit defaultRateLimit;
+    /** The rate limits for specific hosts, mapped by the host name.*/
+    protected final Map<String, HostRateLimit> hostRateLimits;
+    /** The configuration for retrying the failed requests, and for the circuit breaker.*/
+    protected final HttpRetryConfiguration retryConfiguration;
+
+    /**
+     * Constructor with the default values.
+     */
+    public HttpConfiguration() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_CONNECT_TIMEOUT,
+                DEFAULT_SOCKET_TIMEOUT, DEFAULT_CONNECTION_REQUEST_TIMEOUT, DEFAULT_KEEP_ALIVE);
+    }
+
+    /**
+     * Constructor.
+     * @param maxConnections The maximum number of connections in the pool.
+     * @param maxConnectionsPerRoute The maximum number of connections per route (host).
+     * @param connectTimeout The timeout for establishing a connection, in millis.
+     * @param socketTimeout The timeout for waiting for data on a connection, in millis.
+     * @param connectionRequestTimeout The timeout for waiting for a connection from the pool, in millis.
+     * @param keepAlive The time to keep an idle connection alive, when the server does not tell, in millis.
+     */
+    public HttpConfiguration(int maxConnections, int maxConnectionsPerRoute, int connectTimeout,
+            int socketTimeout, int connectionRequestTimeout, long keepAlive) {
+        this(maxConnections, maxConnectionsPerRoute, connectTimeout, socketTimeout, connectionRequestTimeout,
+                keepAlive, HostRateLimit.UNLIMITED, new HashMap<String, HostRateLimit>(), 
+                new HttpRetryConfiguration());
+    }
+
+    /**
+     * Constructor.
+     * @param maxConnections The maximum number of connections in the pool.
+     * @param maxConnectionsPerRoute The maximum number of connections per route (host).
+     * @param connectTimeout The timeout for establishing a connection, in millis.
+     * @param socketTimeout The timeout for waiting for data on a connection, in millis.
+     * @param connectionRequestTimeout The timeout for waiting for a connection from the pool, in millis.
+     * @param keepAlive The time to keep an idle connection alive, when the server does not tell, in millis.
+     * @param defaultRateLimit The rate limit for the hosts, which do not have their own rate limit.
+     * @param hostRateLimits The rate limits for specific hosts, mapped by the host name.
+     * @param retryConfiguration The configuration for retrying the failed requests, and for the circuit breaker.
+     */
+    public HttpConfiguration(int maxConnections, int maxConnectionsPerRoute, int connectTimeout,
+            int socketTimeout, int connectionRequestTimeout, long keepAlive, HostRateLimit defaultRateLimit,
+            Map<String, HostRateLimit> hostRateLimits, HttpRetryConfiguration retryConfiguration) {
+        ArgumentCheck.checkPositiveInt(maxConnections, "int maxConnections");
+        ArgumentCheck.checkPositiveInt(maxConnectionsPerRoute, "int maxConnectionsPerRoute");
+        ArgumentCheck.checkNotNegativeInt(connectTimeout, "int connectTimeout");
+        ArgumentCheck.checkNotNegativeInt(socketTimeout, "int socketTimeout");
+        ArgumentCheck.checkNotNegativeInt(connectionRequestTimeout, "int connectionRequestTimeout");
+        ArgumentCheck.checkNotNegativeLong(keepAlive, "long keepAlive");
+        ArgumentCheck.checkNotNull(defaultRateLimit, "HostRateLimit defaultRateLimit");
+        ArgumentCheck.checkNotNull(hostRateLimits, "Map<String, HostRateLimit> hostRateLimits");
+        ArgumentCheck.checkNotNull(retryConfiguration, "HttpRetryConfiguration retryConfiguration");
+
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.connectionRequestTimeout = connectionRequestTimeout;
+        this.keepAlive = keepAlive;
+        this.defaultRateLimit = defaultRateLimit;
+        this.hostRateLimits = new HashMap<String, HostRateLimit>();
+        for(Map.Entry<String, HostRateLimit> entry : hostRateLimits.entrySet()) {
+            this.hostRateLimits.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+        this.retryConfiguration = retryConfiguration;
+    }
+
+    /** @return The maximum number of connections in the pool.*/
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /** @return The maximum number of connections per route (host).*/
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /** @return The timeout for establishing a connection, in millis.*/
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /** @return The timeout for waiting for data on a connection, in millis.*/
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /** @return The timeout for waiting for a connection from the pool, in millis.*/
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    /** @return The time to keep an idle connection alive, when the server does not tell, in millis.*/
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    /** @return The rate limit for the hosts, which do not have their own rate limit.*/
+    public HostRateLimit getDefaultRateLimit() {
+        return defaultRateLimit;
+    }
+
+    /** @return The rate limits for specific hosts, mapped by the host name.*/
+    public Map<String, HostRateLimit> getHostRateLimits() {
+        return Collections.unmodifiableMap(hostRateLimits);
+    }
+
+    /**
+     * @param host The name of the host.
+     * @return The rate limit for the host; its own rate limit, or otherwise the default rate limit.
+     */
+    public HostRateLimit getRateLimit(String host) {
+        HostRateLimit res = host == null ? null : hostRateLimits.get(host.toLowerCase());
+        return res == null ? defaultRateLimit : res;
+    }
+
+    /** @return The configuration for retrying the failed requests, and for the circuit breaker.*/
+    public HttpRetryConfiguration getRetryConfiguration() {
+        return retryConfiguration;
+    }
+
+    /**
+     * Creates the configuration for calling a local service, where a single request may take a long time, 
+     * e.g. the FITS service. It has the same connection settings, but its own socket timeout, no rate limits, 
+     * no retries and no circuit breaker, since a failed request is expensive to repeat, and it is not a failure
+     * of the host, when a single request times out.
+     * @param serviceSocketTimeout The timeout for waiting for data from the service, in millis.
+     * @return The configuration for calling the service.
+     */
+    public HttpConfiguration createServiceConfiguration(int serviceSocketTimeout) {
+        return new HttpConfiguration(maxConnections, maxConnectionsPerRoute, connectTimeout, serviceSocketTimeout,
+                connectionRequestTimeout, keepAlive, HostRateLimit.UNLIMITED, new HashMap<String, HostRateLimit>(),
+                new HttpRetryConfiguration(0, 0L, 0L, 0, 0L));
+    }
+}
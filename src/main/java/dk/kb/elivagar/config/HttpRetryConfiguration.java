@@ -0,0 +1,89 @@
+package dk.kb.elivagar.config;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * Configuration for retrying the failed HTTP requests, and for the circuit breaker, which stops the requests to a
+ * host, which keeps failing.
+ */
+public class HttpRetryConfiguration {
+    /** The default maximum number of retries of a failed request.*/
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    /** The default time in millis to wait before the first retry.*/
+    public static final long DEFAULT_RETRY_BACKOFF = 1000L;
+    /** The default maximum time in millis to wait before a retry.*/
+    public static final long DEFAULT_RETRY_MAX_BACKOFF = 30000L;
+    /** The default number of consecutive failures, which opens the circuit breaker for a host.*/
+    public static final int DEFAULT_CIRCUIT_BREAKER_FAILURES = 5;
+    /** The default time in millis the circuit breaker stays open, before a request is tried again.*/
+    public static final long DEFAULT_CIRCUIT_BREAKER_RESET_TIME = 60000L;
+
+    /** The maximum number of retries of a failed request. 0 for no retries.*/
+    protected final int maxRetries;
+    /** The time in millis to wait before the first retry. It is doubled for each retry.*/
+    protected final long retryBackoff;
+    /** The maximum time in millis to wait before a retry.*/
+    protected final long retryMaxBackoff;
+    /** The number of consecutive failures, which opens the circuit breaker for a host. 0 for no circuit breaker.*/
+    protected final int circuitBreakerFailures;
+    /** The time in millis the circuit breaker stays open, before a request is tried again.*/
+    protected final long circuitBreakerResetTime;
+
+    /**
+     * Constructor with the default values.
+     */
+    public HttpRetryConfiguration() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_RETRY_BACKOFF, DEFAULT_RETRY_MAX_BACKOFF, DEFAULT_CIRCUIT_BREAKER_FAILURES,
+                DEFAULT_CIRCUIT_BREAKER_RESET_TIME);
+    }
+
+    /**
+     * Constructor.
+     * @param maxRetries The maximum number of retries of a failed request. 0 for no retries.
+     * @param retryBackoff The time in millis to wait before the first retry. It is doubled for each retry.
+     * @param retryMaxBackoff The maximum time in millis to wait before a retry.
+     * @param circuitBreakerFailures The number of consecutive failures, which opens the circuit breaker for a host.
+     * 0 for no circuit breaker.
+     * @param circuitBreakerResetTime The time in millis the circuit breaker stays open, before a request is tried
+     * again.
+     */
+    public HttpRetryConfiguration(int maxRetries, long retryBackoff, long retryMaxBackoff,
+            int circuitBreakerFailures, long circuitBreakerResetTime) {
+        ArgumentCheck.checkNotNegativeInt(maxRetries, "int maxRetries");
+        ArgumentCheck.checkNotNegativeLong(retryBackoff, "long retryBackoff");
+        ArgumentCheck.checkTrue(retryMaxBackoff >= retryBackoff,
+                "The maximum retry backoff must not be less than the retry backoff.");
+        ArgumentCheck.checkNotNegativeInt(circuitBreakerFailures, "int circuitBreakerFailures");
+        ArgumentCheck.checkNotNegativeLong(circuitBreakerResetTime, "long circuitBreakerResetTime");
+        this.maxRetries = maxRetries;
+        this.retryBackoff = retryBackoff;
+        this.retryMaxBackoff = retryMaxBackoff;
+        this.circuitBreakerFailures = circuitBreakerFailures;
+        this.circuitBreakerResetTime = circuitBreakerResetTime;
+    }
+
+    /** @return The maximum number of retries of a failed request. 0 for no retries.*/
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /** @return The time in millis to wait before the first retry. It is doubled for each retry.*/
+    public long getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    /** @return The maximum time in millis to wait before a retry.*/
+    public long getRetryMaxBackoff() {
+        return retryMaxBackoff;
+    }
+
+    /** @return The number of consecutive failures, which opens the circuit breaker for a host. 0 for none.*/
+    public int getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    /** @return The time in millis the circuit breaker stays open, before a request is tried again.*/
+    public long getCircuitBreakerResetTime() {
+        return circuitBreakerResetTime;
+    }
+}
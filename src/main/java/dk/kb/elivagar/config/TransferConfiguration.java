@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.List;
 
 import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.LinkStrategy;
 
 /**
  * Configuration for the transfer of data from Elivagar to Preservica pre-ingest area.
@@ -31,6 +32,10 @@ public class TransferConfiguration {
     protected final Long retainPublicationDate;
     /** The list of required formats for initiating the transfer.*/
     protected final List<String> requiredFormats;
+    /** The directory for the central transfer registry. Null, if each book has its own transfer registry.*/
+    protected final File centralRegistryDir;
+    /** The strategy for placing the content files in the transfer directories.*/
+    protected final LinkStrategy linkStrategy;
     
     /**
      * Constructor.
@@ -48,6 +53,30 @@ public class TransferConfiguration {
     public TransferConfiguration(File ingestEbookDir, File updateEbookContentDir, File updateEbookMetadataDir, 
             File ingestAudioDir,  File updateAudioContentDir, File updateAudioMetadataDir, Long retainCreateDate, 
             Long retainModifyDate, Long retainPublicationDate, Collection<String> requiredFormats) {
+        this(ingestEbookDir, updateEbookContentDir, updateEbookMetadataDir, ingestAudioDir, updateAudioContentDir, 
+                updateAudioMetadataDir, retainCreateDate, retainModifyDate, retainPublicationDate, requiredFormats, 
+                null, LinkStrategy.COPY);
+    }
+
+    /**
+     * Constructor.
+     * @param ingestEbookDir The directory for the ingest of ebooks.
+     * @param updateEbookContentDir The base directory for the content files and the technical metadata of ebooks.
+     * @param updateEbookMetadataDir The base directory for the metadata (except technical metadata) of ebooks.
+     * @param ingestAudioDir The directory for the ingest of audio books.
+     * @param updateAudioContentDir The base directory for the content files and the technical metadata of audio books.
+     * @param updateAudioMetadataDir The base directory for the metadata (except technical metadata) of audio books.
+     * @param retainCreateDate The retain interval for the create date, in millis.
+     * @param retainModifyDate The retain interval for the modify data, in millis.
+     * @param retainPublicationDate The retain interval for the publication date, in millis.
+     * @param requiredFormats The list of required formats for initiating the transfer.
+     * @param centralRegistryDir The directory for the central transfer registry. May be null.
+     * @param linkStrategy The strategy for placing the content files in the transfer directories.
+     */
+    public TransferConfiguration(File ingestEbookDir, File updateEbookContentDir, File updateEbookMetadataDir, 
+            File ingestAudioDir,  File updateAudioContentDir, File updateAudioMetadataDir, Long retainCreateDate, 
+            Long retainModifyDate, Long retainPublicationDate, Collection<String> requiredFormats, 
+            File centralRegistryDir, LinkStrategy linkStrategy) {
         ArgumentCheck.checkExistsDirectory(ingestEbookDir, "File ingestEbookDir");
         ArgumentCheck.checkExistsDirectory(updateEbookContentDir, "File baseEbookContentDir");
         ArgumentCheck.checkExistsDirectory(updateEbookMetadataDir, "File baseEbookMetadataDir");
@@ -58,6 +87,7 @@ public class TransferConfiguration {
         ArgumentCheck.checkNotNull(retainModifyDate, "Long retainModifyDate");
         ArgumentCheck.checkNotNull(retainPublicationDate, "Long retainPublicationDate");
         ArgumentCheck.checkNotNullOrEmpty(requiredFormats, "Collection<String> requiredFormats");
+        ArgumentCheck.checkNotNull(linkStrategy, "LinkStrategy linkStrategy");
         
         this.ingestEbookDir = ingestEbookDir;
         this.updateEbookContentDir = updateEbookContentDir;
@@ -69,6 +99,8 @@ public class TransferConfiguration {
         this.retainModifyDate = retainModifyDate;
         this.retainPublicationDate = retainPublicationDate;
         this.requiredFormats = new ArrayList<String>(requiredFormats);
+        this.centralRegistryDir = centralRegistryDir;
+        this.linkStrategy = linkStrategy;
     }
     
     /** @return The base directory for the ingest for the ebooks.*/
@@ -120,4 +152,14 @@ public class TransferConfiguration {
     public List<String> getRequiredFormats() {
         return new ArrayList<String>(requiredFormats);
     }
+
+    /** @return The directory for the central transfer registry. Null, if each book has its own registry.*/
+    public File getCentralRegistryDir() {
+        return centralRegistryDir;
+    }
+
+    /** @return The strategy for placing the content files in the transfer directories.*/
+    public LinkStrategy getLinkStrategy() {
+        return linkStrategy;
+    }
 }
@@ -0,0 +1,20 @@
+package dk.kb.elivagar.exception;
+
+import java.io.IOException;
+
+/**
+ * Exception for a request, which is not made, since the circuit breaker for its host is open.
+ * The host has failed too many times in a row, and is considered to be down for a while.
+ */
+public class CircuitOpenException extends IOException {
+    /** The serial version UID.*/
+    private static final long serialVersionUID = 2573841560321840791L;
+
+    /**
+     * Constructor.
+     * @param message The message of the exception.
+     */
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
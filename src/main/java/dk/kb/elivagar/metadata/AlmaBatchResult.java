@@ -0,0 +1,75 @@
+package dk.kb.elivagar.metadata;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The result of retrieving the MODS records for a batch of ISBN numbers from Alma.
+ * Each ISBN number either has exactly one MODS record, or a reason for the failure to retrieve it.
+ */
+public class AlmaBatchResult {
+    /** The map between the ISBN numbers and their MODS records.*/
+    protected final Map<String, byte[]> records;
+    /** The map between the ISBN numbers and the reason for failing to retrieve their MODS record.*/
+    protected final Map<String, String> failures;
+
+    /**
+     * Constructor.
+     */
+    public AlmaBatchResult() {
+        this.records = new LinkedHashMap<String, byte[]>();
+        this.failures = new LinkedHashMap<String, String>();
+    }
+
+    /**
+     * Adds the MODS record for an ISBN number.
+     * @param isbn The ISBN number.
+     * @param mods The MODS record.
+     */
+    public void addRecord(String isbn, byte[] mods) {
+        ArgumentCheck.checkNotNullOrEmpty(isbn, "String isbn");
+        ArgumentCheck.checkNotNullOrEmpty(mods, "byte[] mods");
+        failures.remove(isbn);
+        records.put(isbn, mods);
+    }
+
+    /**
+     * Adds the reason for failing to retrieve the MODS record for an ISBN number.
+     * @param isbn The ISBN number.
+     * @param reason The reason for the failure.
+     */
+    public void addFailure(String isbn, String reason) {
+        ArgumentCheck.checkNotNullOrEmpty(isbn, "String isbn");
+        records.remove(isbn);
+        failures.put(isbn, reason);
+    }
+
+    /**
+     * @param isbn The ISBN number.
+     * @return The MODS record for the ISBN number, or null if it was not retrieved.
+     */
+    public byte[] getRecord(String isbn) {
+        return records.get(isbn);
+    }
+
+    /**
+     * @param isbn The ISBN number.
+     * @return The reason for failing to retrieve the MODS record for the ISBN number, or null if it did not fail.
+     */
+    public String getFailure(String isbn) {
+        return failures.get(isbn);
+    }
+
+    /** @return The map between the ISBN numbers and their MODS records.*/
+    public Map<String, byte[]> getRecords() {
+        return Collections.unmodifiableMap(records);
+    }
+
+    /** @return The map between the ISBN numbers and the reason for failing to retrieve their MODS record.*/
+    public Map<String, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+}
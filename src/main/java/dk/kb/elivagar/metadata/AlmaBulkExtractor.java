@@ -0,0 +1,271 @@
+package dk.kb.elivagar.metadata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.ExecutorUtils;
+
+/**
+ * Extracts the MODS records for a stream of ISBN numbers from Alma in bulk.
+ *
+ * The ISBN numbers are read one per line, and retrieved in batches, with one SRU search per batch. The lines,
+ * which are not plain ISBN numbers, are skipped and written as failures.
+ * The batches are retrieved concurrently by a pool of worker threads. The pool has a bounded queue, so the
+ * reading of the ISBN numbers blocks while the queue is full, and the ISBN numbers are never all kept in memory.
+ * The progress is printed with the throughput, and with the estimated time left when the total number of ISBN
+ * numbers is known.
+ */
+public class AlmaBulkExtractor {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(AlmaBulkExtractor.class);
+
+    /** The prefix for the comment lines in the input.*/
+    protected static final String COMMENT_PREFIX = "#";
+    /** The reason for skipping a line, which is not a plain ISBN number.*/
+    protected static final String NOT_PLAIN_ISBN_MESSAGE = "Not a plain ISBN number";
+    /** The number of batches, which may wait in the queue for each worker thread.*/
+    protected static final int QUEUED_BATCHES_PER_THREAD = 2;
+    /** The default interval in millis between printing the progress.*/
+    protected static final long DEFAULT_PROGRESS_INTERVAL = 10000L;
+
+    /** The retriever of the MODS records from Alma.*/
+    protected final AlmaMetadataRetriever retriever;
+    /** The writer of the MODS records.*/
+    protected final ModsRecordWriter writer;
+    /** The number of ISBN numbers in each batch.*/
+    protected final int batchSize;
+    /** The pool of worker threads.*/
+    protected final ThreadPoolExecutor pool;
+    /** Where the progress is printed.*/
+    protected final PrintStream progressOut;
+    /** The interval in millis between printing the progress.*/
+    protected long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+    /** The first failure to write a MODS record, if any. It stops the extraction.*/
+    protected final AtomicReference<IOException> failure;
+    /** The number of ISBN numbers, which have been handled.*/
+    protected final AtomicLong processedCount;
+    /** The number of ISBN numbers, which no MODS record could be retrieved for.*/
+    protected final AtomicLong failedCount;
+    /** The time in millis, when the extraction started.*/
+    protected long startTime;
+    /** The time in millis, when the progress was last printed.*/
+    protected long lastProgressTime;
+    /** The total number of ISBN numbers, or -1 if it is unknown.*/
+    protected long total;
+
+    /**
+     * Constructor.
+     * @param retriever The retriever of the MODS records from Alma.
+     * @param writer The writer of the MODS records.
+     * @param numberOfThreads The number of concurrent Alma searches.
+     * @param batchSize The number of ISBN numbers in each Alma search. Between 1 and the maximum number of ISBN
+     * numbers per search.
+     * @param progressOut Where the progress is printed.
+     */
+    public AlmaBulkExtractor(AlmaMetadataRetriever retriever, ModsRecordWriter writer, int numberOfThreads,
+            int batchSize, PrintStream progressOut) {
+        ArgumentCheck.checkNotNull(retriever, "AlmaMetadataRetriever retriever");
+        ArgumentCheck.checkNotNull(writer, "ModsRecordWriter writer");
+        ArgumentCheck.checkPositiveInt(numberOfThreads, "int numberOfThreads");
+        ArgumentCheck.checkPositiveInt(batchSize, "int batchSize");
+        ArgumentCheck.checkTrue(batchSize <= AlmaMetadataRetriever.MAX_ISBNS_PER_SEARCH,
+                "The batch size must be at most " + AlmaMetadataRetriever.MAX_ISBNS_PER_SEARCH);
+        ArgumentCheck.checkNotNull(progressOut, "PrintStream progressOut");
+        this.retriever = retriever;
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.progressOut = progressOut;
+        this.failure = new AtomicReference<IOException>();
+        this.processedCount = new AtomicLong();
+        this.failedCount = new AtomicLong();
+        this.pool = ExecutorUtils.createBlockingPool("alma-extract", numberOfThreads,
+                numberOfThreads * QUEUED_BATCHES_PER_THREAD);
+    }
+
+    /**
+     * Extracts the MODS records for all the ISBN numbers in the input.
+     * Empty lines and lines starting with '#' are ignored.
+     * @param isbnReader The reader of the ISBN numbers, one per line.
+     * @param totalCount The total number of ISBN numbers, or -1 if it is unknown.
+     * @throws IOException If the ISBN numbers cannot be read, or a MODS record cannot be written.
+     */
+    public void extract(BufferedReader isbnReader, long totalCount) throws IOException {
+        ArgumentCheck.checkNotNull(isbnReader, "BufferedReader isbnReader");
+        this.total = totalCount;
+        this.startTime = System.currentTimeMillis();
+        this.lastProgressTime = startTime;
+        try {
+            List<String> batch = new ArrayList<String>();
+            String line;
+            while((line = isbnReader.readLine()) != null && failure.get() == null) {
+                String isbn = line.trim();
+                if(isbn.isEmpty() || isbn.startsWith(COMMENT_PREFIX)) {
+                    continue;
+                }
+                if(!ModsRecordWriter.isPlainIsbn(isbn)) {
+                    log.warn("Skipping the line, which is not a plain ISBN number: '" + isbn + "'");
+                    writer.writeFailure(isbn, NOT_PLAIN_ISBN_MESSAGE);
+                    failedCount.incrementAndGet();
+                    processedCount.incrementAndGet();
+                    continue;
+                }
+                batch.add(isbn);
+                if(batch.size() == batchSize) {
+                    submit(batch);
+                    batch = new ArrayList<String>();
+                }
+            }
+            if(!batch.isEmpty()) {
+                submit(batch);
+            }
+        } finally {
+            finish();
+        }
+        printProgress(System.currentTimeMillis());
+        IOException e = failure.get();
+        if(e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * Counts the ISBN numbers, for estimating the time left of the extraction.
+     * Empty lines and lines starting with '#' are not counted.
+     * @param reader The reader of the ISBN numbers, one per line.
+     * @return The number of ISBN numbers.
+     * @throws IOException If the ISBN numbers cannot be read.
+     */
+    public static long countIsbns(BufferedReader reader) throws IOException {
+        long res = 0L;
+        String line;
+        while((line = reader.readLine()) != null) {
+            String isbn = line.trim();
+            if(!isbn.isEmpty() && !isbn.startsWith(COMMENT_PREFIX)) {
+                res++;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Submits a batch of ISBN numbers to be retrieved by the pool of worker threads.
+     * Blocks while the queue is full.
+     * @param batch The batch of ISBN numbers.
+     */
+    protected void submit(List<String> batch) {
+        pool.execute(() -> {
+            if(failure.get() != null) {
+                return;
+            }
+            try {
+                handleBatch(batch);
+            } catch (IOException e) {
+                log.warn("Failed to write the MODS records for the ISBN numbers: " + batch, e);
+                failure.compareAndSet(null, e);
+            }
+        });
+    }
+
+    /**
+     * Retrieves and writes the MODS records for a batch of ISBN numbers.
+     * @param batch The batch of ISBN numbers.
+     * @throws IOException If a MODS record cannot be written.
+     */
+    protected void handleBatch(List<String> batch) throws IOException {
+        AlmaBatchResult result;
+        try {
+            result = retriever.retrieveMetadataForISBNs(batch);
+        } catch (RuntimeException e) {
+            log.warn("Could not retrieve the MODS records for the ISBN numbers: " + batch, e);
+            result = new AlmaBatchResult();
+            for(String isbn : batch) {
+                result.addFailure(isbn, e.getMessage());
+            }
+        }
+        for(Map.Entry<String, byte[]> record : result.getRecords().entrySet()) {
+            writer.writeRecord(record.getKey(), record.getValue());
+        }
+        for(Map.Entry<String, String> failed : result.getFailures().entrySet()) {
+            log.info("Could not retrieve the MODS record for ISBN '" + failed.getKey() + "': " + failed.getValue());
+            writer.writeFailure(failed.getKey(), failed.getValue());
+        }
+        failedCount.addAndGet(result.getFailures().size());
+        processedCount.addAndGet(batch.size());
+
+        long now = System.currentTimeMillis();
+        synchronized(this) {
+            if(now - lastProgressTime >= progressInterval) {
+                lastProgressTime = now;
+                printProgress(now);
+            }
+        }
+    }
+
+    /**
+     * Waits for all the submitted batches to be handled, and stops the worker threads.
+     */
+    protected void finish() {
+        pool.shutdown();
+        try {
+            while(!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.debug("Still waiting for " + (pool.getQueue().size() + pool.getActiveCount())
+                        + " batches to be handled.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the batches to be handled.", e);
+        }
+    }
+
+    /**
+     * Prints the progress, with the throughput and the estimated time left.
+     * @param now The current time in millis.
+     */
+    protected void printProgress(long now) {
+        progressOut.println(getProgress(now));
+    }
+
+    /**
+     * @param now The current time in millis.
+     * @return The description of the progress.
+     */
+    protected String getProgress(long now) {
+        long processed = processedCount.get();
+        double perSecond = processed * 1000.0 / Math.max(now - startTime, 1L);
+        StringBuilder res = new StringBuilder("Processed " + processed);
+        if(total >= 0) {
+            res.append(" of " + total);
+        }
+        res.append(" ISBN numbers (" + failedCount.get() + " failed), ");
+        res.append(String.format("%.1f per second", perSecond));
+        if(total >= 0 && perSecond > 0) {
+            long secondsLeft = (long) (Math.max(total - processed, 0L) / perSecond);
+            res.append(String.format(", ETA %02d:%02d:%02d", secondsLeft / 3600, (secondsLeft / 60) % 60,
+                    secondsLeft % 60));
+        }
+        return res.toString();
+    }
+
+    /** @return The number of ISBN numbers, which have been handled.*/
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /** @return The number of ISBN numbers, which no MODS record could be retrieved for.*/
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+}
@@ -5,34 +5,21 @@ import dk.kb.elivagar.config.Configuration;
 import dk.kb.elivagar.exception.ArgumentCheck;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.io.ByteArrayInputStream;
+
+import javax.xml.stream.XMLStreamException;
 import java.io.ByteArrayOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Alma Metadata Retriever.
@@ -41,6 +28,11 @@ import java.io.Writer;
  *
  * It should create MODS retrieval URLs like the following:
  * https://kbdk-kgl.alma.exlibrisgroup.com/view/sru/45KBDK_KGL?version=1.2&operation=searchRetrieve&startRecord=1&maximumRecords=2&recordSchema=mods&query=isbn=$ISBN
+ *
+ * It can also retrieve the MODS records for a batch of ISBN numbers in a single search, with URLs like:
+ * https://kbdk-kgl.alma.exlibrisgroup.com/view/sru/45KBDK_KGL?version=1.2&operation=searchRetrieve&startRecord=1&maximumRecords=4&recordSchema=mods&query=isbn%3D$ISBN1%20or%20isbn%3D$ISBN2
+ *
+ * The MODS records are extracted by streaming the SRU response directly from the HTTP response.
  */
 public class AlmaMetadataRetriever {
     /** The logger.*/
@@ -52,24 +44,31 @@ public class AlmaMetadataRetriever {
     protected static final String ALMA_SCHEMA_MODS = "recordSchema=mods&";
     /** The base query for performing ISBN search in Alma.*/
     protected static final String ALMA_QUERY_ISBN = "query=isbn=";
-
-
-    /** The XPATH for the number of records.
-     * Using '*' as wildcard for the namespace.*/
-    protected static final String XPATH_NUM_RESULTS = "/*:searchRetrieveResponse/*:numberOfRecords/text()";
-    /** The XPATH for the MODS record.
-     * Using '*' as wildcard for the namespace.*/
-    protected static final String XPATH_MODS_RECORD = "/*:searchRetrieveResponse/*:records/*:record/*:recordData/*:mods";
+    /** The start of the search range parameters, for the batch search.*/
+    protected static final String ALMA_SEARCH_RANGE_BATCH = "startRecord=1&maximumRecords=";
+    /** The query parameter, for the batch search.*/
+    protected static final String ALMA_QUERY = "query=";
+    /** The CQL for the ISBN index.*/
+    protected static final String CQL_ISBN = "isbn=";
+    /** The CQL for combining the ISBN searches in the batch search.*/
+    protected static final String CQL_OR = " or ";
+    /** The maximum number of records, which Alma delivers in a single SRU response.*/
+    protected static final int ALMA_MAX_RECORDS = 50;
+    /** 
+     * The number of records requested per ISBN in the batch search.
+     * More than one, so it can be seen, when an ISBN has more than one record.
+     */
+    protected static final int RECORDS_PER_ISBN = 2;
+    /** The maximum number of ISBN numbers in a single batch search.*/
+    public static final int MAX_ISBNS_PER_SEARCH = ALMA_MAX_RECORDS / RECORDS_PER_ISBN;
 
     /** The configuration.*/
     protected final Configuration conf;
     /** The HTTP client for making the HTTP Get operations towards the Alma server.*/
     protected final HttpClient httpClient;
 
-    /** The document builder factory.*/
-    protected final DocumentBuilderFactory documentBuilderFactory;
-    /** The XPath factory.*/
-    protected final XPathFactory xPathFactory;
+    /** The extractor of the MODS records from the SRU responses.*/
+    protected final ModsExtractor modsExtractor;
 
     /**
      * Constructor.
@@ -81,76 +80,206 @@ public class AlmaMetadataRetriever {
         ArgumentCheck.checkNotNull(httpClient, "HttpClient httpClient");
         this.conf= configuration;
         this.httpClient = httpClient;
-        documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        xPathFactory = XPathFactory.newInstance();
+        this.modsExtractor = new ModsExtractor();
     }
 
     /**
      * Retrieves the MODS metadata for a given ISBN from Alma.
+     * The MODS record is extracted directly from the response, and written to the output stream.
      * @param isbn The ID to retrieve the Alma metadata for.
      * @param out The output stream, where the MODS metadata from Alma will be written.
      */
     public void retrieveMetadataForISBN(String isbn, OutputStream out) {
         ArgumentCheck.checkNotNullOrEmpty(isbn, "String isbn");
         ArgumentCheck.checkNotNull(out, "OutputStream out");
+        log.debug("Retrieving Alma metadata for ISBN: " + isbn);
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        retrieveAlmaMetadata(isbn, byteArrayOutputStream);
-
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
-        extractModsFromAlma(byteArrayInputStream, out);
+        String requestUrl = conf.getAlmaSruSearch() + ALMA_SEARCH_RANGE + ALMA_SCHEMA_MODS + ALMA_QUERY_ISBN + isbn;
+        try {
+            httpClient.processUrlContent(requestUrl, in -> {
+                try {
+                    modsExtractor.extractSingleRecord(in, out);
+                } catch (XMLStreamException | RuntimeException e) {
+                    throw new IllegalStateException("Could not extract the MODS record", e);
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not download the metadata for set '" + isbn + "'", e);
+        }
     }
 
     /**
-     * Retrieves the Alma metadata for the given ISBN and writes it to the output stream.
-     * @param isbn The ISBN number for the record to retrieve metadata for.
-     * @param out Output stream where the retrieved metadata is written.
+     * Retrieves the MODS metadata for a batch of ISBN numbers from Alma.
+     * The ISBN numbers are searched in Alma with as few searches as possible, and the MODS records are
+     * split back out by their ISBN identifier.
+     * Just as for the retrieval for a single ISBN number, each ISBN number must have exactly one record in Alma.
+     * 
+     * If the response does not contain all the found records, or if it contains records which cannot be matched
+     * to any of the ISBN numbers, then the ISBN numbers without a record are retrieved individually.
+     * @param isbns The ISBN numbers to retrieve the MODS metadata for.
+     * @return The result with the MODS records, or the reason for the failure, for each ISBN number.
      */
-    protected void retrieveAlmaMetadata(String isbn, OutputStream out) {
-        log.debug("Retrieving Alma metadata for ISBN: " + isbn);
+    public AlmaBatchResult retrieveMetadataForISBNs(Collection<String> isbns) {
+        ArgumentCheck.checkNotNullOrEmpty(isbns, "Collection<String> isbns");
+        List<String> uniqueIsbns = new ArrayList<String>(new LinkedHashSet<String>(isbns));
+        AlmaBatchResult result = new AlmaBatchResult();
 
-        try {
-            String requestUrl = conf.getAlmaSruSearch() + ALMA_SEARCH_RANGE + ALMA_SCHEMA_MODS + ALMA_QUERY_ISBN + isbn;
-            httpClient.retrieveUrlContent(requestUrl, out);
-        } catch (IOException e) {
-            throw new IllegalStateException("Could not download the metadata for set '" + isbn + "'", e);
+        for(int i = 0; i < uniqueIsbns.size(); i += MAX_ISBNS_PER_SEARCH) {
+            List<String> batch = uniqueIsbns.subList(i, Math.min(i + MAX_ISBNS_PER_SEARCH, uniqueIsbns.size()));
+            if(batch.size() == 1) {
+                retrieveIndividually(batch, result);
+            } else {
+                retrieveBatch(batch, result);
+            }
         }
+        return result;
     }
 
     /**
-     * Extracts the MODS record from the Alma record.
-     * @param almaInput The input stream with the Alma metadata.
-     * @param modsOutput The output stream with the MODS metadata.
+     * Retrieves the MODS records for a batch of ISBN numbers in a single search.
+     * @param isbns The ISBN numbers. No more than the maximum number of ISBN numbers per search.
+     * @param result The result, where the MODS records or failures are added.
      */
-    protected void extractModsFromAlma(InputStream almaInput, OutputStream modsOutput) {
+    protected void retrieveBatch(List<String> isbns, AlmaBatchResult result) {
+        log.debug("Retrieving Alma metadata for " + isbns.size() + " ISBN numbers: " + isbns);
+        List<ModsExtractor.ModsRecord> modsResults = new ArrayList<ModsExtractor.ModsRecord>();
+        String numResults;
+        try {
+            numResults = httpClient.processUrlContent(getBatchUrl(isbns), in -> {
+                try {
+                    return modsExtractor.extractAllRecords(in, modsResults);
+                } catch (XMLStreamException | RuntimeException e) {
+                    throw new IllegalStateException("Could not extract the MODS records for the set '" + isbns 
+                            + "'", e);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not download the metadata for set '" + isbns + "'", e);
+        }
+
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(almaInput);
-            XPath xpath = xPathFactory.newXPath();
-
-            // assert numResults == 1 - else fail
-            // TODO: should we also fail, when it has more than 1 number of results?
-            String numResults = (String) xpath.evaluate(XPATH_NUM_RESULTS, doc, XPathConstants.STRING);
-            if(!numResults.equals("1")) {
-                throw new IllegalStateException("Did not receive exactly 1 result from Alma. Received: " + numResults);
+            if(numResults.isEmpty() || Integer.parseInt(numResults) > modsResults.size()) {
+                log.debug("Received only " + modsResults.size() + " of " + numResults + " records. "
+                        + "Retrieving the ISBN numbers individually.");
+                retrieveIndividually(isbns, result);
+                return;
+            }
+
+            Map<String, List<ModsExtractor.ModsRecord>> modsForIsbn = 
+                    new HashMap<String, List<ModsExtractor.ModsRecord>>();
+            for(String isbn : isbns) {
+                modsForIsbn.put(normalizeIsbn(isbn), new ArrayList<ModsExtractor.ModsRecord>());
+            }
+            for(ModsExtractor.ModsRecord mods : modsResults) {
+                boolean matched = false;
+                for(String modsIsbn : getIsbnsFromMods(mods)) {
+                    if(modsForIsbn.containsKey(modsIsbn)) {
+                        modsForIsbn.get(modsIsbn).add(mods);
+                        matched = true;
+                    }
+                }
+                if(!matched) {
+                    // The unmatched record may belong to any of the ISBN numbers, even those with a matched record.
+                    log.debug("Could not match all the records to the ISBN numbers. Retrieving the ISBN numbers "
+                            + "individually.");
+                    retrieveIndividually(isbns, result);
+                    return;
+                }
+            }
+
+            for(String isbn : isbns) {
+                List<ModsExtractor.ModsRecord> records = modsForIsbn.get(normalizeIsbn(isbn));
+                if(records.size() == 1) {
+                    result.addRecord(isbn, records.get(0).getContent());
+                } else {
+                    result.addFailure(isbn, ModsExtractor.NOT_SINGLE_RECORD_MESSAGE + records.size());
+                }
             }
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not extract the MODS records for the set '" + isbns + "'", e);
+        }
+    }
 
-            XPathExpression modsResultsXpath = xpath.compile(XPATH_MODS_RECORD);
-            NodeList modsResults = (NodeList) modsResultsXpath.evaluate(doc, XPathConstants.NODESET);
+    /**
+     * Retrieves the MODS records for the ISBN numbers one at the time.
+     * @param isbns The ISBN numbers.
+     * @param result The result, where the MODS records or failures are added.
+     */
+    protected void retrieveIndividually(List<String> isbns, AlmaBatchResult result) {
+        for(String isbn : isbns) {
+            try {
+                ByteArrayOutputStream modsOutput = new ByteArrayOutputStream();
+                retrieveMetadataForISBN(isbn, modsOutput);
+                result.addRecord(isbn, modsOutput.toByteArray());
+            } catch (IllegalStateException e) {
+                Throwable reason = e.getCause() == null ? e : e.getCause();
+                result.addFailure(isbn, reason.getMessage());
+            }
+        }
+    }
 
-            Node mods = modsResults.item(0);
+    /**
+     * Creates the URL for searching for a batch of ISBN numbers in Alma.
+     * @param isbns The ISBN numbers.
+     * @return The URL for the search.
+     * @throws IOException If the query cannot be encoded.
+     */
+    protected String getBatchUrl(List<String> isbns) throws IOException {
+        StringBuilder query = new StringBuilder();
+        for(String isbn : isbns) {
+            if(query.length() > 0) {
+                query.append(CQL_OR);
+            }
+            query.append(CQL_ISBN + isbn);
+        }
+        String encodedQuery = URLEncoder.encode(query.toString(), StandardCharsets.UTF_8.name()).replace("+", "%20");
+        return conf.getAlmaSruSearch() + ALMA_SEARCH_RANGE_BATCH + (isbns.size() * RECORDS_PER_ISBN) + "&" 
+                + ALMA_SCHEMA_MODS + ALMA_QUERY + encodedQuery;
+    }
 
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+    /**
+     * Extracts the normalized ISBN numbers from the identifiers of the MODS record.
+     * Only the identifiers directly on the MODS record are used, not those of any related items.
+     * @param mods The MODS record.
+     * @return The normalized ISBN numbers of the MODS record.
+     */
+    protected Set<String> getIsbnsFromMods(ModsExtractor.ModsRecord mods) {
+        Set<String> res = new HashSet<String>();
+        for(String identifier : mods.getIsbns()) {
+            String isbn = normalizeIsbn(identifier);
+            if(!isbn.isEmpty()) {
+                res.add(isbn);
+            }
+        }
+        return res;
+    }
 
-            // Turn the node into a string
-            transformer.transform(new DOMSource(mods), new StreamResult(modsOutput));
-        } catch (Exception e) {
-            throw new IllegalStateException("Could not extract the MODS record", e);
+    /**
+     * Normalizes an ISBN number, so it can be compared with other ISBN numbers.
+     * Removes hyphens and any qualifier after the number (e.g. '87-11-43698-1 (ib.)'), and converts ISBN-10
+     * numbers into ISBN-13 numbers.
+     * @param isbn The ISBN number.
+     * @return The normalized ISBN number.
+     */
+    protected static String normalizeIsbn(String isbn) {
+        String res = isbn.replace("-", "").trim().toUpperCase();
+        for(int i = 0; i < res.length(); i++) {
+            char c = res.charAt(i);
+            if(!Character.isDigit(c) && c != 'X') {
+                res = res.substring(0, i);
+                break;
+            }
+        }
+        if(res.length() == 10) {
+            String base = "978" + res.substring(0, 9);
+            int sum = 0;
+            for(int i = 0; i < base.length(); i++) {
+                int digit = base.charAt(i) - '0';
+                sum += (i % 2 == 0) ? digit : digit * 3;
+            }
+            res = base + ((10 - (sum % 10)) % 10);
         }
+        return res;
     }
 }
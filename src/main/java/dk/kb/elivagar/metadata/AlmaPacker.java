@@ -3,21 +3,33 @@ package dk.kb.elivagar.metadata;
 import dk.kb.elivagar.Constants;
 import dk.kb.elivagar.config.Configuration;
 import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.metadata.xsl.XmlErrorHandler;
+import dk.kb.elivagar.pubhub.PubhubMetadataFields;
+import dk.kb.elivagar.state.AlmaNegativeCache;
+import dk.kb.elivagar.state.RefreshSchedule;
 import dk.kb.elivagar.utils.FileUtils;
+import dk.kb.elivagar.utils.XmlUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLStreamException;
 
 /**
  * The Alma packer.
@@ -25,16 +37,31 @@ import java.io.OutputStream;
  * The books which does not have a MODS metadata file in their package directory, will have the metadata retrieved.
  * This is done by extracting the ISBN number from the Publizon metadata file, then use this ISBN to retrieve the 
  * MODS from Alma.
- * This MODS metadata file is then placed in the book's package directory.
+ * This MODS metadata file is then placed in the book's package directory, unless it is invalid according to its
+ * schema, in which case it is placed in an error file next to it.
+ * 
+ * When several books are packed, their ISBN numbers are collected into batches of the configured size, so
+ * the MODS records for a whole batch are retrieved from Alma in a single search.
+ * 
+ * The ISBN numbers, which Alma cannot resolve to exactly one record, are kept in a negative cache, so they are
+ * not looked up again until they are due to be retried.
+ * 
+ * The existing MODS records can be refreshed from Alma; a slice of the records are selected in each run, oldest 
+ * first. A refreshed MODS file is only rewritten, when the canonical form of the record has changed, thus only
+ * the changed records are transferred as updates.
  */
 public class AlmaPacker {
     /** The logger.*/
     private static final Logger log = LoggerFactory.getLogger(AlmaPacker.class);
-
-    /** The XPATH for extracting the Identifier from the pubhub Book xml file.*/
-    protected static final String XPATH_FIND_IDENTIFIER = "/*:Book/*:Identifier/text()";
-    /** The XPATH for extracting the IdentifierType from the pubhub Book xml file.*/
-    protected static final String XPATH_FIND_IDENTIFIER_TYPE = "/*:Book/*:IdentifierType/text()";
+    
+    /** The name of the state file with the negative cache of the ISBN numbers, which Alma could not resolve.*/
+    public static final String NEGATIVE_CACHE_NAME = "alma_negative_cache.txt";
+    /** The name of the state file with the times when the MODS records were last refreshed from Alma.*/
+    public static final String REFRESH_SCHEDULE_NAME = "alma_refresh_schedule.txt";
+    /** The suffix for the temporary file, which a MODS record is written to before it replaces the MODS file.*/
+    protected static final String TEMPORARY_SUFFIX = ".tmp";
+    /** The reason in the negative cache for an ISBN number, which Alma resolved to an invalid MODS record.*/
+    protected static final String INVALID_RECORD_MESSAGE = "Alma returned an invalid MODS record.";
     
     /** The configuration.*/
     protected final Configuration conf;
@@ -42,25 +69,111 @@ public class AlmaPacker {
     protected final AlmaMetadataRetriever almaMetadataRetriever;
     /** The metadata validator.*/
     protected final MetadataValidator validator;
-
-    /** The document builder factory.*/
-    protected final DocumentBuilderFactory factory;
-    /** The XPath factory.*/
-    protected final XPathFactory xPathfactory;
+    /** The negative cache of the ISBN numbers, which Alma could not resolve.*/
+    protected final AlmaNegativeCache negativeCache;
+    /** The schedule for refreshing the existing MODS records.*/
+    protected final RefreshSchedule refreshSchedule;
+    /** The paths of the existing MODS files, which are selected to be refreshed in this run.*/
+    protected final Set<String> modsFilesToRefresh;
     
     /**
-     * Constructor.
+     * Constructor, where the negative cache and the refresh schedule are only kept in memory.
+     * The negative cache has the default TTLs.
      * @param conf The configuration.
      * @param almaMetadataRetriever The retriever of Alma metadata.
      */
     public AlmaPacker(Configuration conf, AlmaMetadataRetriever almaMetadataRetriever) {
+        this(conf, almaMetadataRetriever, new AlmaNegativeCache(null, NEGATIVE_CACHE_NAME, 
+                Configuration.DEFAULT_ALMA_NEGATIVE_CACHE_TTL, Configuration.DEFAULT_ALMA_NEGATIVE_CACHE_MAX_TTL));
+    }
+    
+    /**
+     * Constructor, where the refresh schedule is only kept in memory.
+     * @param conf The configuration.
+     * @param almaMetadataRetriever The retriever of Alma metadata.
+     * @param negativeCache The negative cache of the ISBN numbers, which Alma could not resolve.
+     */
+    public AlmaPacker(Configuration conf, AlmaMetadataRetriever almaMetadataRetriever, 
+            AlmaNegativeCache negativeCache) {
+        this(conf, almaMetadataRetriever, negativeCache, new RefreshSchedule(null, REFRESH_SCHEDULE_NAME));
+    }
+    
+    /**
+     * Constructor.
+     * @param conf The configuration.
+     * @param almaMetadataRetriever The retriever of Alma metadata.
+     * @param negativeCache The negative cache of the ISBN numbers, which Alma could not resolve.
+     * @param refreshSchedule The schedule for refreshing the existing MODS records.
+     */
+    public AlmaPacker(Configuration conf, AlmaMetadataRetriever almaMetadataRetriever, 
+            AlmaNegativeCache negativeCache, RefreshSchedule refreshSchedule) {
         ArgumentCheck.checkNotNull(conf, "Configuration conf");
         ArgumentCheck.checkNotNull(almaMetadataRetriever, "AlmaMetadataRetriever almaMetadataRetriever");
+        ArgumentCheck.checkNotNull(negativeCache, "AlmaNegativeCache negativeCache");
+        ArgumentCheck.checkNotNull(refreshSchedule, "RefreshSchedule refreshSchedule");
         this.conf = conf;
         this.almaMetadataRetriever = almaMetadataRetriever;
-        this.factory = DocumentBuilderFactory.newInstance();
-        this.xPathfactory = XPathFactory.newInstance();
         this.validator = new MetadataValidator();
+        this.negativeCache = negativeCache;
+        this.refreshSchedule = refreshSchedule;
+        this.modsFilesToRefresh = ConcurrentHashMap.newKeySet();
+    }
+    
+    /**
+     * Selects the existing MODS records, which have gone the longest without being refreshed, to be retrieved
+     * again from Alma, when their books are packed in this run.
+     * Both the E-books and the Audio books are considered.
+     * @param count The number of MODS records to refresh.
+     */
+    public void selectMetadataForRefresh(int count) {
+        ArgumentCheck.checkNotNegativeInt(count, "int count");
+        if(count == 0) {
+            log.debug("No MODS records are refreshed.");
+            return;
+        }
+        List<File> modsFiles = new ArrayList<File>();
+        addModsFiles(conf.getEbookOutputDir(), modsFiles);
+        if(!conf.getEbookOutputDir().getAbsolutePath().equals(conf.getAudioOutputDir().getAbsolutePath())) {
+            addModsFiles(conf.getAudioOutputDir(), modsFiles);
+        }
+        for(File modsFile : refreshSchedule.selectOldest(modsFiles, count)) {
+            modsFilesToRefresh.add(modsFile.getAbsolutePath());
+        }
+        log.info("Selected " + modsFilesToRefresh.size() + " of the " + modsFiles.size() 
+                + " MODS records to be refreshed from Alma.");
+    }
+    
+    /**
+     * Adds the existing MODS files for the books in the base directory.
+     * @param baseBookDir The base directory for the books (either E-books or Audio books).
+     * @param modsFiles The list, where the MODS files are added.
+     */
+    protected void addModsFiles(File baseBookDir, List<File> modsFiles) {
+        File[] dirs = baseBookDir.listFiles();
+        if(dirs == null) {
+            return;
+        }
+        for(File dir : dirs) {
+            File modsFile = new File(dir, dir.getName() + Constants.MODS_METADATA_SUFFIX);
+            if(modsFile.isFile()) {
+                modsFiles.add(modsFile);
+            }
+        }
+    }
+    
+    /**
+     * Checks whether an existing MODS file is selected to be refreshed in this run.
+     * It is only refreshed once. It is first registered as refreshed in the schedule, when the record has been
+     * retrieved from Alma, so a failed retrieval is retried in the next run.
+     * @param modsFile The existing MODS file.
+     * @return Whether the MODS file should be refreshed now.
+     */
+    protected boolean isDueForRefresh(File modsFile) {
+        if(!modsFilesToRefresh.remove(modsFile.getAbsolutePath())) {
+            return false;
+        }
+        log.debug("Refreshing the MODS record '" + modsFile.getAbsolutePath() + "'.");
+        return true;
     }
     
     /**
@@ -89,22 +202,114 @@ public class AlmaPacker {
             log.warn("No books to retrieve and transform Alma metadata for within the directory: "
                     + baseBookDir.getAbsolutePath());
         } else {
-            for(File dir : files) {
-                packageMetadataForBook(dir);
+            packageMetadataForBooks(Arrays.asList(files));
+        }
+    }
+
+    /**
+     * Packages the metadata for the given books.
+     * The books, which does not already have a MODS record and which has an ISBN, are collected into batches,
+     * and the MODS records for each batch are retrieved from Alma together.
+     * The books, whose existing MODS record is selected to be refreshed, are included in the batches.
+     * The books, whose ISBN Alma could not resolve, are skipped until the ISBN is due to be retried.
+     * @param dirs The book package directories, where the Publizon metadata already is placed.
+     */
+    public void packageMetadataForBooks(Collection<File> dirs) {
+        Map<String, List<File>> modsFilesForIsbn = new LinkedHashMap<String, List<File>>();
+        for(File dir : dirs) {
+            try {
+                File modsMetadata = new File(dir, dir.getName() + Constants.MODS_METADATA_SUFFIX);
+                if(modsMetadata.exists() && !isDueForRefresh(modsMetadata)) {
+                    log.trace("Already retrieved MODS file.");
+                    continue;
+                }
+                String isbn = getIsbn(dir);
+                if(isbn == null) {
+                    log.debug("Could not retrieve a ISBN or GTIN from '" + dir.getAbsolutePath() + "'.");
+                    continue;
+                }
+                if(!negativeCache.isDue(isbn, System.currentTimeMillis())) {
+                    continue;
+                }
+                if(!modsFilesForIsbn.containsKey(isbn)) {
+                    modsFilesForIsbn.put(isbn, new ArrayList<File>());
+                }
+                modsFilesForIsbn.get(isbn).add(modsMetadata);
+            } catch (Exception e) {
+                log.info("Non-critical failure while trying to retrieve the Alma metadata for the book directory '"
+                        + dir.getAbsolutePath() + "'", e);
+            }
+
+            if(modsFilesForIsbn.size() >= conf.getAlmaBatchSize()) {
+                packageMetadataBatch(modsFilesForIsbn);
+                modsFilesForIsbn.clear();
+            }
+        }
+        if(!modsFilesForIsbn.isEmpty()) {
+            packageMetadataBatch(modsFilesForIsbn);
+        }
+    }
+
+    /**
+     * Retrieves the MODS records for a batch of ISBN numbers, and writes them to the MODS files.
+     * A batch with only one ISBN number is retrieved directly to the MODS file.
+     * @param modsFilesForIsbn The map between the ISBN numbers and the MODS files for the books with the ISBN.
+     */
+    protected void packageMetadataBatch(Map<String, List<File>> modsFilesForIsbn) {
+        if(modsFilesForIsbn.size() == 1) {
+            Map.Entry<String, List<File>> entry = modsFilesForIsbn.entrySet().iterator().next();
+            for(File modsFile : entry.getValue()) {
+                try {
+                    getAlmaMetadata(entry.getKey(), modsFile);
+                } catch (Exception e) {
+                    log.info("Non-critical failure while trying to retrieve the Alma metadata for the book "
+                            + "directory '" + modsFile.getParentFile().getAbsolutePath() + "'", e);
+                }
+            }
+            return;
+        }
+
+        AlmaBatchResult result;
+        try {
+            result = almaMetadataRetriever.retrieveMetadataForISBNs(modsFilesForIsbn.keySet());
+        } catch (Exception e) {
+            log.info("Non-critical failure while trying to retrieve the Alma metadata for the ISBN numbers "
+                    + modsFilesForIsbn.keySet(), e);
+            return;
+        }
+        for(Map.Entry<String, List<File>> entry : modsFilesForIsbn.entrySet()) {
+            byte[] mods = result.getRecord(entry.getKey());
+            if(mods == null) {
+                String reason = result.getFailure(entry.getKey());
+                log.info("Non-critical failure while trying to retrieve the Alma metadata for the ISBN '"
+                        + entry.getKey() + "': " + reason);
+                if(isUnresolvable(reason)) {
+                    negativeCache.registerFailure(entry.getKey(), reason, System.currentTimeMillis());
+                }
+                continue;
+            }
+            for(File modsFile : entry.getValue()) {
+                try {
+                    registerRecord(entry.getKey(), writeModsRecord(mods, modsFile));
+                } catch (IOException e) {
+                    log.info("Non-critical failure while trying to write the Alma metadata to '" 
+                            + modsFile.getAbsolutePath() + "'", e);
+                }
             }
         }
     }
     
     /**
      * Packages the metadata for a given book.
-     * It will not do anything, if a MODS record already exists, or if it fails to extract the ISBN.
+     * It will not do anything, if a MODS record already exists and is not selected to be refreshed, if it fails to
+     * extract the ISBN, or if Alma could not resolve the ISBN and it is not yet due to be retried.
      * Otherwise it retrieves the Alma metadata in MODS.
      * @param dir The book package directory, where the Publizon metadata already is placed.
      */
-    protected void packageMetadataForBook(File dir) {
+    public void packageMetadataForBook(File dir) {
         try {
             File modsMetadata = new File(dir, dir.getName() + Constants.MODS_METADATA_SUFFIX);
-            if(modsMetadata.exists()) {
+            if(modsMetadata.exists() && !isDueForRefresh(modsMetadata)) {
                 log.trace("Already retrieved MODS file.");
                 return;
             }
@@ -113,6 +318,9 @@ public class AlmaPacker {
                 log.debug("Could not retrieve a ISBN or GTIN from '" + dir.getAbsolutePath() + "'.");
                 return;
             }
+            if(!negativeCache.isDue(isbn, System.currentTimeMillis())) {
+                return;
+            }
 
             getAlmaMetadata(isbn, modsMetadata);
         } catch (Exception e) {
@@ -122,17 +330,29 @@ public class AlmaPacker {
     }
     
     /**
-     * Checks whether an XML file is valid, and if it is not, then move it to 'XXX.error'.
-     * @param xmlFile The XML file to validate.
+     * Checks whether a MODS record is valid against its schema, and if it is not, then moves it to the error file
+     * of the MODS file ('XXX.error').
+     * A record, which cannot be validated at all (e.g. when its schema cannot be retrieved), is kept, since it is
+     * not known to be invalid.
+     * @param xmlFile The file with the MODS record to validate.
+     * @param modsFile The MODS file, which the record is for.
+     * @return Whether the record is kept.
+     * @throws IOException If an invalid record cannot be moved to the error file.
      */
-    protected void handleXmlValidity(File xmlFile) throws IOException {
-        if(validator.isValid(xmlFile)) {
+    protected boolean handleXmlValidity(File xmlFile, File modsFile) throws IOException {
+        XmlErrorHandler errorHandler = new XmlErrorHandler(true, 1);
+        if(validator.isValid(xmlFile, errorHandler)) {
             log.debug("Valid MODS!");
-        } else {
-            log.warn("Invalid MODS! Moving it to error");
-            File errorFile = new File(xmlFile.getAbsolutePath() + Constants.ERROR_SUFFIX);
-            FileUtils.moveFile(xmlFile, errorFile);
+            return true;
         }
+        if(!errorHandler.hasErrors()) {
+            log.warn("Could not validate the MODS record for '" + modsFile.getAbsolutePath() + "'. Keeping it.");
+            return true;
+        }
+        log.warn("Invalid MODS record for '" + modsFile.getAbsolutePath() + "'! Moving it to error. " 
+                + errorHandler.getReport());
+        FileUtils.moveFile(xmlFile, new File(modsFile.getAbsolutePath() + Constants.ERROR_SUFFIX));
+        return false;
     }
     
     /**
@@ -152,17 +372,13 @@ public class AlmaPacker {
             return null;            
         }
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(pubhubMetadataFile);
-            XPath xpath = xPathfactory.newXPath();
-            XPathExpression identifierXpath = xpath.compile(XPATH_FIND_IDENTIFIER);
-            XPathExpression identifierTypeXpath = xpath.compile(XPATH_FIND_IDENTIFIER_TYPE);
-            String idType = (String) identifierTypeXpath.evaluate(doc, XPathConstants.STRING);
+            PubhubMetadataFields fields = PubhubMetadataFields.extract(pubhubMetadataFile);
+            String idType = fields.getIdentifierType() == null ? "" : fields.getIdentifierType();
             if(!idType.startsWith("ISBN") && !idType.startsWith("GTIN13")) {
                 log.info("Not an ISBN or GTIN13 type of identifier. Found: '" + idType + "'. Returning a null.");
                 return null;
             }
-            return (String) identifierXpath.evaluate(doc, XPathConstants.STRING);
+            return fields.getIdentifier() == null ? "" : fields.getIdentifier();
         } catch (Exception e) {
             log.warn("Could not extract the ISBN number from the file '" + pubhubMetadataFile + "'. Returning a null", 
                     e);
@@ -172,18 +388,154 @@ public class AlmaPacker {
 
     /**
      * Retrieves the Alma MODS record metadata file for a given ISBN number.
+     * A new MODS record is streamed to a temporary file, which only replaces the MODS file when the record has been
+     * completely retrieved and is valid, so a failed retrieval never leaves a truncated MODS file.
+     * A refreshed MODS record is only written, if it differs from the existing MODS file. Either way, an invalid
+     * MODS record is moved to the error file.
      * @param isbn The ISBN number for book, whose metadata record will be retrieved.
      * @param modsFile The output file where the MODS will be placed.
      * @throws IOException If it somehow fails to retrieve or write the output file.
      */
     protected void getAlmaMetadata(String isbn, File modsFile) throws IOException {
-        try (OutputStream out = new FileOutputStream(modsFile)) {
+        if(modsFile.exists()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            retrieveModsRecord(isbn, out);
+            if(out.size() == 0) {
+                log.info("No MODS record retrieved for the ISBN '" + isbn + "'. Keeping the existing record.");
+                return;
+            }
+            registerRecord(isbn, writeModsRecord(out.toByteArray(), modsFile));
+        } else {
+            File tempFile = new File(modsFile.getParentFile(), modsFile.getName() + TEMPORARY_SUFFIX);
+            try {
+                try (OutputStream out = new FileOutputStream(tempFile)) {
+                    retrieveModsRecord(isbn, out);
+                    out.flush();
+                }
+                if(tempFile.length() == 0) {
+                    log.info("No MODS record retrieved for the ISBN '" + isbn + "'.");
+                    return;
+                }
+                boolean valid = handleXmlValidity(tempFile, modsFile);
+                if(valid) {
+                    FileUtils.moveFile(tempFile, modsFile);
+                }
+                registerRecord(isbn, valid);
+            } finally {
+                FileUtils.deleteFile(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Registers the MODS record retrieved for the ISBN number in the negative cache.
+     * An ISBN number, which Alma resolves to an invalid record, is not retried until it is due, like an ISBN
+     * number which Alma cannot resolve.
+     * @param isbn The ISBN number.
+     * @param kept Whether the record was kept, or it was invalid and moved to the error file.
+     */
+    protected void registerRecord(String isbn, boolean kept) {
+        if(kept) {
+            negativeCache.registerSuccess(isbn);
+        } else {
+            negativeCache.registerFailure(isbn, INVALID_RECORD_MESSAGE, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Retrieves the MODS record for a single ISBN number from Alma.
+     * If Alma cannot resolve the ISBN number to exactly one record, then it is registered in the negative cache.
+     * @param isbn The ISBN number.
+     * @param out The output stream for the MODS record.
+     */
+    protected void retrieveModsRecord(String isbn, OutputStream out) {
+        try {
             almaMetadataRetriever.retrieveMetadataForISBN(isbn, out);
-            out.flush();
-        } finally {
-            if(modsFile.exists() && modsFile.length() == 0) {
-                modsFile.delete();
+        } catch (IllegalStateException e) {
+            for(Throwable t = e; t != null; t = t.getCause()) {
+                if(isUnresolvable(t.getMessage())) {
+                    negativeCache.registerFailure(isbn, t.getMessage(), System.currentTimeMillis());
+                    break;
+                }
             }
+            throw e;
         }
     }
+
+    /**
+     * Writes a MODS record to the MODS file, unless the MODS file already has the same record.
+     * The record is written to a temporary file, which then replaces the MODS file, so an existing MODS file is
+     * left untouched, if the writing fails or if the record is invalid.
+     * When an existing MODS file is given, then it is registered as refreshed in the schedule.
+     * @param mods The MODS record.
+     * @param modsFile The MODS file.
+     * @return Whether the record was kept, or it was invalid and moved to the error file.
+     * @throws IOException If the MODS file cannot be written.
+     */
+    protected boolean writeModsRecord(byte[] mods, File modsFile) throws IOException {
+        if(modsFile.exists()) {
+            refreshSchedule.registerRefreshed(modsFile, System.currentTimeMillis());
+            if(hasSameRecord(mods, modsFile)) {
+                log.debug("The MODS record '" + modsFile.getAbsolutePath() + "' has not changed in Alma.");
+                return true;
+            }
+            log.info("The MODS record '" + modsFile.getAbsolutePath() + "' has changed in Alma. Updating it.");
+        }
+        File tempFile = new File(modsFile.getParentFile(), modsFile.getName() + TEMPORARY_SUFFIX);
+        try {
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                out.write(mods);
+                out.flush();
+            }
+            if(!handleXmlValidity(tempFile, modsFile)) {
+                return false;
+            }
+            FileUtils.moveFile(tempFile, modsFile);
+            return true;
+        } finally {
+            FileUtils.deleteFile(tempFile);
+        }
+    }
+
+    /**
+     * Compares the canonical forms of a MODS record and an existing MODS file, so a record is not considered 
+     * changed, if it only differs in its serialization (e.g. the indentation or the namespace prefixes).
+     * @param mods The MODS record.
+     * @param modsFile The existing MODS file.
+     * @return Whether the MODS file has the same record. False, if either cannot be read as XML.
+     * @throws IOException If the MODS file cannot be read.
+     */
+    protected boolean hasSameRecord(byte[] mods, File modsFile) throws IOException {
+        try (InputStream existing = new FileInputStream(modsFile)) {
+            return XmlUtils.getCanonicalForm(existing).equals(
+                    XmlUtils.getCanonicalForm(new ByteArrayInputStream(mods)));
+        } catch (XMLStreamException e) {
+            log.warn("Could not compare the MODS record with the MODS file '" + modsFile.getAbsolutePath() + "'.", 
+                    e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether a failure is caused by Alma not resolving the ISBN number to exactly one record, as opposed to
+     * a failure in the communication with Alma, which should not be cached.
+     * @param reason The reason for the failure. May be null.
+     * @return Whether Alma could not resolve the ISBN number.
+     */
+    protected boolean isUnresolvable(String reason) {
+        return reason != null && reason.startsWith(ModsExtractor.NOT_SINGLE_RECORD_MESSAGE);
+    }
+
+    /**
+     * Writes the negative cache and the refresh schedule to the state directory, if any.
+     */
+    public void saveState() {
+        negativeCache.save();
+        refreshSchedule.save();
+    }
+
+    /** @return The negative cache of the ISBN numbers, which Alma could not resolve.*/
+    public AlmaNegativeCache getNegativeCache() {
+        return negativeCache;
+    }
 }
@@ -1,60 +1,91 @@
 package dk.kb.elivagar.metadata;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.EntityResolver;
+import org.xml.sax.SAXParseException;
 
 import dk.kb.elivagar.exception.ArgumentCheck;
 import dk.kb.elivagar.metadata.xsl.XmlErrorHandler;
+import dk.kb.elivagar.utils.XmlUtils;
 
 /**
- * Class for validating the XML file, primarily against its schema definition. 
+ * Class for validating the XML file, primarily against its schema definition.
+ *
+ * The schema is found from the schema location of the root element of the document, and it is compiled only
+ * once, from the bundled schemas in the schema catalog. Each validation only creates a new validator from the
+ * compiled schema, thus the validator can be used by several threads at the same time.
+ *
+ * Unless another error handler is given, the validation is aborted at the first error, since the document is
+ * invalid anyway, and there is no reason to spend time on parsing the rest of it.
  */
 public class MetadataValidator {
     /** The logger.*/
     private static final Logger log = LoggerFactory.getLogger(MetadataValidator.class);
 
-    /** Schema validation enabler name. */
-    public static final String JAXP_SCHEMA_LANGUAGE = "http://java.sun.com/xml/jaxp/properties/schemaLanguage";
+    /** The name of the schema location attribute.*/
+    protected static final String SCHEMA_LOCATION_ATTRIBUTE = "schemaLocation";
 
-    /** Schema validation enabler value. */
-    public static final String W3C_XML_SCHEMA = "http://www.w3.org/2001/XMLSchema";
+    /** The default schema catalog, which is shared by all the validators using it.*/
+    private static SchemaCatalog defaultCatalog;
 
-    /** Cached document builder with DTD/Schema validation. */
-    protected DocumentBuilder validationBuilder;
+    /** The catalog of the schemas, which also caches the compiled schemas.*/
+    protected final SchemaCatalog catalog;
 
     /**
-     * Construct an <code>XmlValidator</code> instance.
+     * Construct an <code>XmlValidator</code> instance, which uses the default schema catalog.
      */
     public MetadataValidator() {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(true);
-        factory.setAttribute(JAXP_SCHEMA_LANGUAGE, W3C_XML_SCHEMA);
-        try {
-            validationBuilder = factory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new IllegalStateException("Could not create a new 'DocumentBuilder'!");
+        this(getDefaultCatalog());
+    }
+
+    /**
+     * Construct an <code>XmlValidator</code> instance.
+     * @param catalog The catalog of the schemas.
+     */
+    public MetadataValidator(SchemaCatalog catalog) {
+        ArgumentCheck.checkNotNull(catalog, "SchemaCatalog catalog");
+        this.catalog = catalog;
+    }
+
+    /** @return The default schema catalog. It is loaded the first time it is used.*/
+    protected static synchronized SchemaCatalog getDefaultCatalog() {
+        if(defaultCatalog == null) {
+            defaultCatalog = new SchemaCatalog(SchemaCatalog.DEFAULT_CATALOG);
         }
+        return defaultCatalog;
     }
-    
+
     /**
      * Checks whether or not a given XML file is valid, according to XSD og DDT.
      * @param xmlFile The XML file to validate.
      * @return Whether or not the XML file is valid.
      */
     public boolean isValid(File xmlFile) {
+        return isValid(xmlFile, null);
+    }
+
+    /**
+     * Checks whether or not a given XML file is valid, according to XSD og DDT.
+     * @param xmlFile The XML file to validate.
+     * @param errorHandler The error handler, which receives the warnings and errors. Or null for the default
+     * fail-fast error handler.
+     * @return Whether or not the XML file is valid.
+     */
+    public boolean isValid(File xmlFile, XmlErrorHandler errorHandler) {
         try (InputStream in = new FileInputStream(xmlFile)) {
-            return validate(in, null, null);
+            return validate(in, errorHandler);
         } catch (IOException e) {
             log.warn("Issue occured while trying to validate XML file. Returning not valid.", e);
             return false;
@@ -62,29 +93,62 @@ public class MetadataValidator {
     }
 
     /**
-     * Validate XML document for well-formed-ness and also against any DTD/XSD found.
+     * Validate XML document for well-formed-ness and also against the schema from its schema location.
      * @param in The XML input stream.
-     * @param entityResolver XML entity resolver or null.
-     * @param errorHandler error handler or null.
+     * @param errorHandler error handler or null for an error handler, which aborts at the first error.
      * @return XML validation result.
      * @throws IOException If the validation fails.
      */
-    public boolean validate(InputStream in, EntityResolver entityResolver, 
-            XmlErrorHandler errorHandler) throws IOException {
+    public boolean validate(InputStream in, XmlErrorHandler errorHandler) throws IOException {
         ArgumentCheck.checkNotNull(in, "InputStream in");
         if (errorHandler == null) {
-            errorHandler = new XmlErrorHandler();
+            errorHandler = new XmlErrorHandler(true, 0);
         }
         errorHandler.reset();
         try {
-            validationBuilder.reset();
-            validationBuilder.setErrorHandler(errorHandler);
-            validationBuilder.setEntityResolver(entityResolver);
-            validationBuilder.parse(in);
+            BufferedInputStream bufferedIn = new BufferedInputStream(in);
+            bufferedIn.mark(Integer.MAX_VALUE);
+            String schemaLocation = getSchemaLocation(bufferedIn);
+            bufferedIn.reset();
+
+            Validator validator = catalog.getSchema(schemaLocation).newValidator();
+            validator.setErrorHandler(errorHandler);
+            validator.setResourceResolver(catalog);
+            validator.validate(new StreamSource(bufferedIn));
             return !errorHandler.hasErrors();
+        } catch (SAXParseException e) {
+            if(errorHandler.hasErrors()) {
+                log.debug("Aborted validating the invalid XML stream: " + e.getMessage());
+                return false;
+            }
+            log.error("Exception validating XML stream!", e);
+            return false;
         } catch (Throwable t) {
             log.error("Exception validating XML stream!", t);
             return false;
         }
     }
+
+    /**
+     * Reads the schema location from the root element of the document.
+     * Only the beginning of the document is read.
+     * @param in The XML input stream.
+     * @return The schema location, or the empty string if the root element has no schema location.
+     * @throws XMLStreamException If the beginning of the document cannot be read.
+     */
+    protected String getSchemaLocation(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = XmlUtils.createXMLStreamReader(in);
+        try {
+            while(reader.hasNext()) {
+                if(reader.next() == XMLStreamReader.START_ELEMENT) {
+                    String res = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI,
+                            SCHEMA_LOCATION_ATTRIBUTE);
+                    return res == null ? "" : res;
+                }
+            }
+            return "";
+        } finally {
+            reader.close();
+        }
+    }
 }
@@ -0,0 +1,290 @@
+package dk.kb.elivagar.metadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * Extracts the MODS records from a SRU response from Alma.
+ *
+ * The response is streamed with StAX, so it is neither buffered nor parsed into a DOM. The number of records is
+ * read from the response, and each MODS record is copied directly from the response to the output.
+ * The factories are thread-safe once configured, so a single extractor can be shared between threads.
+ */
+public class ModsExtractor {
+    /** The SRU element with the number of records.*/
+    protected static final String SRU_NUMBER_OF_RECORDS = "numberOfRecords";
+    /** The MODS element name.*/
+    protected static final String MODS_ELEMENT = "mods";
+    /** The MODS identifier element name.*/
+    protected static final String MODS_IDENTIFIER = "identifier";
+    /** The MODS identifier type attribute.*/
+    protected static final QName MODS_IDENTIFIER_TYPE = new QName("type");
+    /** The MODS identifier type for ISBN numbers.*/
+    protected static final String MODS_IDENTIFIER_TYPE_ISBN = "isbn";
+    /** The beginning of the failure message, when the response does not contain exactly one record.*/
+    public static final String NOT_SINGLE_RECORD_MESSAGE = "Did not receive exactly 1 result from Alma. Received: ";
+
+    /** The factory for the readers of the SRU responses.*/
+    protected final XMLInputFactory inputFactory;
+    /** The factory for the writers of the MODS records.*/
+    protected final XMLOutputFactory outputFactory;
+    /** The factory for the events of the MODS records.*/
+    protected final XMLEventFactory eventFactory;
+
+    /**
+     * Constructor.
+     */
+    public ModsExtractor() {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        outputFactory = XMLOutputFactory.newInstance();
+        eventFactory = XMLEventFactory.newInstance();
+    }
+
+    /**
+     * Extracts the single MODS record from the SRU response.
+     * The response must contain exactly one record, which is checked before anything is written to the output.
+     * @param almaInput The input stream with the SRU response.
+     * @param modsOutput The output stream for the MODS record, in UTF-8.
+     * @throws XMLStreamException If the response cannot be read, or the record cannot be written.
+     */
+    public void extractSingleRecord(InputStream almaInput, OutputStream modsOutput) throws XMLStreamException {
+        ArgumentCheck.checkNotNull(almaInput, "InputStream almaInput");
+        ArgumentCheck.checkNotNull(modsOutput, "OutputStream modsOutput");
+        XMLEventReader reader = inputFactory.createXMLEventReader(almaInput);
+        try {
+            Deque<List<Namespace>> namespaceScopes = new ArrayDeque<List<Namespace>>();
+            String numberOfRecords = null;
+            StartElement element;
+            while((element = nextStartElement(reader, namespaceScopes)) != null) {
+                String name = element.getName().getLocalPart();
+                if(SRU_NUMBER_OF_RECORDS.equals(name)) {
+                    numberOfRecords = reader.getElementText().trim();
+                    namespaceScopes.pop();
+                } else if(MODS_ELEMENT.equals(name)) {
+                    checkSingleRecord(numberOfRecords);
+                    copyRecord(element, namespaceScopes, reader, modsOutput);
+                    return;
+                }
+            }
+            checkSingleRecord(numberOfRecords);
+            throw new IllegalStateException("The response from Alma did not contain the MODS record.");
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Validates that the SRU response has exactly one record.
+     * @param numberOfRecords The number of records from the response, or null if it has not been read.
+     */
+    protected void checkSingleRecord(String numberOfRecords) {
+        if(!"1".equals(numberOfRecords)) {
+            throw new IllegalStateException(NOT_SINGLE_RECORD_MESSAGE
+                    + (numberOfRecords == null ? "" : numberOfRecords));
+        }
+    }
+
+    /**
+     * Extracts all the MODS records from the SRU response, along with their ISBN identifiers.
+     * @param almaInput The input stream with the SRU response.
+     * @param records The list, where the extracted MODS records are added.
+     * @return The number of records according to the response, or the empty string if the response does not
+     * state the number of records.
+     * @throws XMLStreamException If the response cannot be read, or the records cannot be written.
+     */
+    public String extractAllRecords(InputStream almaInput, List<ModsRecord> records) throws XMLStreamException {
+        ArgumentCheck.checkNotNull(almaInput, "InputStream almaInput");
+        ArgumentCheck.checkNotNull(records, "List<ModsRecord> records");
+        XMLEventReader reader = inputFactory.createXMLEventReader(almaInput);
+        try {
+            Deque<List<Namespace>> namespaceScopes = new ArrayDeque<List<Namespace>>();
+            String numberOfRecords = "";
+            StartElement element;
+            while((element = nextStartElement(reader, namespaceScopes)) != null) {
+                String name = element.getName().getLocalPart();
+                if(SRU_NUMBER_OF_RECORDS.equals(name)) {
+                    numberOfRecords = reader.getElementText().trim();
+                    namespaceScopes.pop();
+                } else if(MODS_ELEMENT.equals(name)) {
+                    ByteArrayOutputStream modsOutput = new ByteArrayOutputStream();
+                    Set<String> isbns = copyRecord(element, namespaceScopes, reader, modsOutput);
+                    records.add(new ModsRecord(modsOutput.toByteArray(), isbns));
+                }
+            }
+            return numberOfRecords;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads to the next start element, while keeping track of the namespaces declared by the enclosing elements.
+     * The namespaces of the returned element are pushed onto the scopes, and must be popped when the element
+     * has been read.
+     * @param reader The reader.
+     * @param namespaceScopes The namespaces declared by each of the enclosing elements, innermost first.
+     * @return The next start element, or null if the end of the document is reached.
+     * @throws XMLStreamException If the response cannot be read.
+     */
+    protected StartElement nextStartElement(XMLEventReader reader, Deque<List<Namespace>> namespaceScopes)
+            throws XMLStreamException {
+        while(reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if(event.isStartElement()) {
+                List<Namespace> namespaces = new ArrayList<Namespace>();
+                Iterator<?> iterator = event.asStartElement().getNamespaces();
+                while(iterator.hasNext()) {
+                    namespaces.add((Namespace) iterator.next());
+                }
+                namespaceScopes.push(namespaces);
+                return event.asStartElement();
+            } else if(event.isEndElement()) {
+                namespaceScopes.pop();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the start element for the MODS record as the root of its own document.
+     * The namespaces declared by the enclosing elements are declared again on the MODS record, unless the record
+     * declares them itself. The default namespace is only declared again, if the record uses it.
+     * @param mods The start element of the MODS record in the SRU response.
+     * @param namespaceScopes The namespaces declared by the MODS record and each of its enclosing elements.
+     * @return The start element for the root of the MODS record.
+     */
+    protected StartElement createRootElement(StartElement mods, Deque<List<Namespace>> namespaceScopes) {
+        Map<String, Namespace> namespaces = new LinkedHashMap<String, Namespace>();
+        Iterator<List<Namespace>> outermostFirst = namespaceScopes.descendingIterator();
+        while(outermostFirst.hasNext()) {
+            for(Namespace namespace : outermostFirst.next()) {
+                namespaces.put(namespace.getPrefix(), namespace);
+            }
+        }
+        if(!mods.getName().getPrefix().isEmpty()) {
+            Namespace defaultNamespace = namespaces.get("");
+            if(defaultNamespace != null && !namespaceScopes.peek().contains(defaultNamespace)) {
+                namespaces.remove("");
+            }
+        }
+        return eventFactory.createStartElement(mods.getName().getPrefix(), mods.getName().getNamespaceURI(),
+                mods.getName().getLocalPart(), mods.getAttributes(), namespaces.values().iterator());
+    }
+
+    /**
+     * Copies the MODS record from the reader to the output, as a standalone UTF-8 document.
+     * @param mods The start element of the MODS record.
+     * @param namespaceScopes The namespaces declared by the MODS record and each of its enclosing elements.
+     * The namespaces of the MODS record are popped, when the record has been copied.
+     * @param reader The reader, positioned just after the start element of the MODS record.
+     * @param modsOutput The output stream for the MODS record.
+     * @return The ISBN numbers from the identifiers directly on the MODS record, as they are written in the record.
+     * @throws XMLStreamException If the record cannot be read or written.
+     */
+    protected Set<String> copyRecord(StartElement mods, Deque<List<Namespace>> namespaceScopes,
+            XMLEventReader reader, OutputStream modsOutput) throws XMLStreamException {
+        Set<String> isbns = new HashSet<String>();
+        XMLEventWriter writer = outputFactory.createXMLEventWriter(modsOutput, StandardCharsets.UTF_8.name());
+        try {
+            writer.add(eventFactory.createStartDocument(StandardCharsets.UTF_8.name(), "1.0"));
+            writer.add(createRootElement(mods, namespaceScopes));
+            int depth = 1;
+            StringBuilder isbn = null;
+            while(depth > 0) {
+                XMLEvent event = reader.nextEvent();
+                writer.add(event);
+                if(event.isStartElement()) {
+                    depth++;
+                    if(depth == 2 && isIsbnIdentifier(event.asStartElement())) {
+                        isbn = new StringBuilder();
+                    }
+                } else if(event.isEndElement()) {
+                    depth--;
+                    if(isbn != null && depth == 1) {
+                        isbns.add(isbn.toString().trim());
+                        isbn = null;
+                    }
+                } else if(event.isCharacters() && isbn != null) {
+                    isbn.append(event.asCharacters().getData());
+                }
+            }
+            writer.add(eventFactory.createEndDocument());
+            writer.flush();
+        } finally {
+            writer.close();
+        }
+        namespaceScopes.pop();
+        return isbns;
+    }
+
+    /**
+     * @param element The element.
+     * @return Whether the element is a MODS identifier of the type ISBN.
+     */
+    protected boolean isIsbnIdentifier(StartElement element) {
+        if(!MODS_IDENTIFIER.equals(element.getName().getLocalPart())) {
+            return false;
+        }
+        Attribute type = element.getAttributeByName(MODS_IDENTIFIER_TYPE);
+        return type != null && MODS_IDENTIFIER_TYPE_ISBN.equalsIgnoreCase(type.getValue());
+    }
+
+    /**
+     * A MODS record extracted from a SRU response.
+     */
+    public static class ModsRecord {
+        /** The MODS record, as a UTF-8 document.*/
+        protected final byte[] content;
+        /** The ISBN numbers from the identifiers of the MODS record.*/
+        protected final Set<String> isbns;
+
+        /**
+         * Constructor.
+         * @param content The MODS record, as a UTF-8 document.
+         * @param isbns The ISBN numbers from the identifiers of the MODS record.
+         */
+        public ModsRecord(byte[] content, Set<String> isbns) {
+            this.content = content;
+            this.isbns = Collections.unmodifiableSet(isbns);
+        }
+
+        /** @return The MODS record, as a UTF-8 document.*/
+        public byte[] getContent() {
+            return content;
+        }
+
+        /** @return The ISBN numbers from the identifiers of the MODS record, as they are written in the record.*/
+        public Set<String> getIsbns() {
+            return isbns;
+        }
+    }
+}
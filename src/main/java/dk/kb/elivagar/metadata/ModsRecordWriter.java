@@ -0,0 +1,248 @@
+package dk.kb.elivagar.metadata;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.FileUtils;
+
+/**
+ * Writer for the MODS records, which are extracted in bulk from Alma.
+ *
+ * The records can be written as individual '.mods.xml' files in a directory, as entries in a single zip archive,
+ * or as lines in a single JSON Lines file. The archives are written as a stream, so the records are not kept in
+ * memory. The writers are thread-safe.
+ *
+ * The writers, which name their output after the ISBN number, only accept plain ISBN numbers, so an ISBN number
+ * cannot point the output outside the directory or archive. A record for the same ISBN number is only written
+ * once.
+ */
+public abstract class ModsRecordWriter implements Closeable {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(ModsRecordWriter.class);
+
+    /** The suffix for the MODS files.*/
+    public static final String MODS_SUFFIX = ".mods.xml";
+    /** The suffix of the output file for writing a zip archive.*/
+    public static final String ZIP_SUFFIX = ".zip";
+    /** The suffix of the output file for writing JSON Lines.*/
+    public static final String JSON_LINES_SUFFIX = ".jsonl";
+    /** The pattern for a plain ISBN number; digits, which may be separated by hyphens, and an optional 'X'.*/
+    protected static final Pattern PLAIN_ISBN_PATTERN = Pattern.compile("[0-9][0-9-]*[0-9Xx]");
+
+    /**
+     * Creates the writer for the output. The kind of writer depends on the suffix of the output.
+     * @param output The output. A file ending with '.zip' for a zip archive, a file ending with '.jsonl' for JSON
+     * Lines, or otherwise the directory for the individual MODS files.
+     * @return The writer.
+     * @throws IOException If the output cannot be created.
+     */
+    public static ModsRecordWriter create(File output) throws IOException {
+        ArgumentCheck.checkNotNull(output, "File output");
+        String name = output.getName().toLowerCase();
+        if(name.endsWith(ZIP_SUFFIX)) {
+            return new ZipWriter(output);
+        } else if(name.endsWith(JSON_LINES_SUFFIX)) {
+            return new JsonLinesWriter(output);
+        }
+        return new DirectoryWriter(output);
+    }
+
+    /**
+     * @param isbn The ISBN number.
+     * @return Whether the ISBN number is a plain ISBN number, which can safely be used as a file name.
+     */
+    public static boolean isPlainIsbn(String isbn) {
+        return isbn != null && PLAIN_ISBN_PATTERN.matcher(isbn).matches();
+    }
+
+    /**
+     * Validates that the ISBN number is a plain ISBN number, before it is used as a file name.
+     * @param isbn The ISBN number.
+     */
+    protected static void checkPlainIsbn(String isbn) {
+        ArgumentCheck.checkTrue(isPlainIsbn(isbn), "Not a plain ISBN number: '" + isbn + "'");
+    }
+
+    /**
+     * Writes the MODS record for an ISBN number.
+     * @param isbn The ISBN number.
+     * @param mods The MODS record.
+     * @throws IOException If the record cannot be written.
+     */
+    public abstract void writeRecord(String isbn, byte[] mods) throws IOException;
+
+    /**
+     * Writes the reason for failing to retrieve the MODS record for an ISBN number.
+     * Only the writers with room for it in their output write the failures.
+     * @param isbn The ISBN number.
+     * @param reason The reason for the failure.
+     * @throws IOException If the failure cannot be written.
+     */
+    public void writeFailure(String isbn, String reason) throws IOException {
+        // Ignored by default.
+    }
+
+    /**
+     * Writes the MODS records as individual files in a directory.
+     */
+    public static class DirectoryWriter extends ModsRecordWriter {
+        /** The output directory.*/
+        protected final File outputDir;
+
+        /**
+         * Constructor.
+         * @param outputDir The output directory. It is created, if it does not exist.
+         * @throws IOException If the output directory cannot be created.
+         */
+        public DirectoryWriter(File outputDir) throws IOException {
+            this.outputDir = FileUtils.createDirectory(outputDir.getAbsolutePath());
+        }
+
+        @Override
+        public void writeRecord(String isbn, byte[] mods) throws IOException {
+            checkPlainIsbn(isbn);
+            try (OutputStream out = new FileOutputStream(new File(outputDir, isbn + MODS_SUFFIX))) {
+                out.write(mods);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close.
+        }
+    }
+
+    /**
+     * Writes the MODS records as entries in a zip archive.
+     * A zip archive cannot have two entries with the same name, so a repeated ISBN number is skipped. The zip
+     * stream already keeps the names of its entries, so the check does not keep anything extra in memory.
+     */
+    public static class ZipWriter extends ModsRecordWriter {
+        /** The stream for the zip archive.*/
+        protected final ZipOutputStream zip;
+
+        /**
+         * Constructor.
+         * @param output The zip file.
+         * @throws IOException If the zip file cannot be created.
+         */
+        public ZipWriter(File output) throws IOException {
+            this.zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+        }
+
+        @Override
+        public synchronized void writeRecord(String isbn, byte[] mods) throws IOException {
+            checkPlainIsbn(isbn);
+            try {
+                zip.putNextEntry(new ZipEntry(isbn + MODS_SUFFIX));
+            } catch (ZipException e) {
+                log.info("Skipping the repeated MODS record for the ISBN '" + isbn + "': " + e.getMessage());
+                return;
+            }
+            zip.write(mods);
+            zip.closeEntry();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    /**
+     * Writes the MODS records and the failures as JSON Lines; one JSON object per line, with the ISBN number
+     * and either the MODS record or the reason for the failure.
+     */
+    public static class JsonLinesWriter extends ModsRecordWriter {
+        /** The writer for the JSON Lines file.*/
+        protected final Writer writer;
+
+        /**
+         * Constructor.
+         * @param output The JSON Lines file.
+         * @throws IOException If the file cannot be created.
+         */
+        public JsonLinesWriter(File output) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output),
+                    StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void writeRecord(String isbn, byte[] mods) throws IOException {
+            writeLine(isbn, "mods", new String(mods, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void writeFailure(String isbn, String reason) throws IOException {
+            writeLine(isbn, "error", reason == null ? "" : reason);
+        }
+
+        /**
+         * Writes a line with a JSON object with the ISBN number and a value.
+         * @param isbn The ISBN number.
+         * @param key The key of the value.
+         * @param value The value.
+         * @throws IOException If the line cannot be written.
+         */
+        protected synchronized void writeLine(String isbn, String key, String value) throws IOException {
+            writer.write("{\"isbn\":" + toJsonString(isbn) + ",\"" + key + "\":" + toJsonString(value) + "}\n");
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            writer.close();
+        }
+
+        /**
+         * @param value The value.
+         * @return The value as a quoted and escaped JSON string.
+         */
+        protected static String toJsonString(String value) {
+            StringBuilder res = new StringBuilder(value.length() + 2);
+            res.append('"');
+            for(int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch(c) {
+                case '"':
+                    res.append("\\\"");
+                    break;
+                case '\\':
+                    res.append("\\\\");
+                    break;
+                case '\n':
+                    res.append("\\n");
+                    break;
+                case '\r':
+                    res.append("\\r");
+                    break;
+                case '\t':
+                    res.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20) {
+                        res.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        res.append(c);
+                    }
+                }
+            }
+            return res.append('"').toString();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package dk.kb.elivagar.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.StreamUtils;
+import dk.kb.elivagar.utils.XmlUtils;
+
+/**
+ * The catalog of the XML schemas, which are bundled on the classpath, and the cache of the compiled schemas.
+ *
+ * The catalog file maps the URL of each bundled schema to its resource on the classpath; one mapping per line,
+ * with the URL and the resource separated by whitespace. Empty lines and lines starting with '#' are ignored.
+ * The schemas (and the schemas they import or include) are read from the catalog, when they are in it.
+ * Otherwise they are retrieved from their URL.
+ *
+ * A schema is only compiled once for each schema location, and the compiled schema is thread-safe, so each
+ * validation only has to create a cheap validator from it.
+ */
+public class SchemaCatalog implements LSResourceResolver {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(SchemaCatalog.class);
+
+    /** The classpath resource with the catalog of the bundled schemas.*/
+    public static final String DEFAULT_CATALOG = "xsd/catalog.txt";
+    /** The prefix for the comment lines in the catalog.*/
+    protected static final String COMMENT_PREFIX = "#";
+
+    /** The classpath resources of the bundled schemas, mapped by their URL.*/
+    protected final Map<String, String> resources;
+    /** The compiled schemas, mapped by their schema location.*/
+    protected final Map<String, Schema> schemas;
+    /** The factory for compiling the schemas. It is not thread-safe, and is therefore synchronized upon.*/
+    protected final SchemaFactory schemaFactory;
+
+    /**
+     * Constructor.
+     * @param catalog The classpath resource with the catalog of the bundled schemas.
+     */
+    public SchemaCatalog(String catalog) {
+        ArgumentCheck.checkNotNullOrEmpty(catalog, "String catalog");
+        this.resources = new HashMap<String, String>();
+        this.schemas = new ConcurrentHashMap<String, Schema>();
+        this.schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        this.schemaFactory.setResourceResolver(this);
+        loadCatalog(catalog);
+    }
+
+    /**
+     * Loads the mappings between the URLs and the classpath resources of the bundled schemas.
+     * @param catalog The classpath resource with the catalog.
+     */
+    protected void loadCatalog(String catalog) {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(catalog)) {
+            if(in == null) {
+                throw new IllegalStateException("Could not find the schema catalog '" + catalog + "'.");
+            }
+            for(String line : StreamUtils.extractInputStreamAsLines(in)) {
+                String trimmed = line.trim();
+                if(trimmed.isEmpty() || trimmed.startsWith(COMMENT_PREFIX)) {
+                    continue;
+                }
+                String[] parts = trimmed.split("\\s+");
+                if(parts.length != 2) {
+                    log.warn("Ignoring the invalid line in the schema catalog '" + catalog + "': " + line);
+                    continue;
+                }
+                resources.put(parts[0], parts[1]);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the schema catalog '" + catalog + "'.", e);
+        }
+        log.debug("Loaded " + resources.size() + " schemas from the catalog '" + catalog + "'.");
+    }
+
+    /**
+     * Retrieves the compiled schema for a schema location. It is compiled the first time it is requested.
+     * @param schemaLocation The schema location; pairs of namespace and schema URL separated by whitespace, as in
+     * the 'xsi:schemaLocation' attribute. If it is empty, then the schema will only use the schema location hints
+     * of the validated document.
+     * @return The compiled schema.
+     * @throws SAXException If the schema cannot be compiled.
+     */
+    public Schema getSchema(String schemaLocation) throws SAXException {
+        ArgumentCheck.checkNotNull(schemaLocation, "String schemaLocation");
+        String key = schemaLocation.trim();
+        Schema schema = schemas.get(key);
+        if(schema == null) {
+            synchronized(schemaFactory) {
+                schema = schemas.get(key);
+                if(schema == null) {
+                    schema = compileSchema(key);
+                    schemas.put(key, schema);
+                }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Compiles the schema for the schema location.
+     * Must be called while synchronized on the schema factory.
+     * @param schemaLocation The trimmed schema location.
+     * @return The compiled schema.
+     * @throws SAXException If the schema cannot be compiled.
+     */
+    protected Schema compileSchema(String schemaLocation) throws SAXException {
+        if(schemaLocation.isEmpty()) {
+            return schemaFactory.newSchema();
+        }
+        log.debug("Compiling the schema for the schema location: " + schemaLocation);
+        String[] parts = schemaLocation.split("\\s+");
+        List<Source> sources = new ArrayList<Source>();
+        for(int i = 1; i < parts.length; i += 2) {
+            String resource = resources.get(parts[i]);
+            if(resource == null) {
+                log.info("The schema '" + parts[i] + "' is not in the catalog. Retrieving it from its URL.");
+                sources.add(new StreamSource(parts[i]));
+            } else {
+                sources.add(new StreamSource(new ByteArrayInputStream(readResource(resource)), parts[i]));
+            }
+        }
+        return schemaFactory.newSchema(sources.toArray(new Source[sources.size()]));
+    }
+
+    /**
+     * Resolves the schemas, which are imported or included by the compiled schemas, from the catalog.
+     * @return The bundled schema, or null if it is not in the catalog, which makes it be retrieved from its URL.
+     */
+    @Override
+    public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId,
+            String baseURI) {
+        if(systemId == null) {
+            return null;
+        }
+        String url = systemId;
+        if(baseURI != null) {
+            try {
+                url = URI.create(baseURI).resolve(systemId).toString();
+            } catch (IllegalArgumentException e) {
+                log.debug("Could not resolve '" + systemId + "' against '" + baseURI + "'.", e);
+            }
+        }
+        String resource = resources.get(url);
+        if(resource == null) {
+            log.info("The schema '" + url + "' is not in the catalog. Retrieving it from its URL.");
+            return null;
+        }
+        DOMImplementationLS implementation = (DOMImplementationLS) XmlUtils.newDocument().getImplementation();
+        LSInput input = implementation.createLSInput();
+        input.setByteStream(new ByteArrayInputStream(readResource(resource)));
+        input.setPublicId(publicId);
+        input.setSystemId(url);
+        input.setBaseURI(baseURI);
+        return input;
+    }
+
+    /**
+     * @param resource The classpath resource of a bundled schema.
+     * @return The content of the bundled schema.
+     */
+    protected byte[] readResource(String resource) {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(resource)) {
+            if(in == null) {
+                throw new IllegalStateException("Could not find the bundled schema '" + resource + "'.");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamUtils.copyInputStreamToOutputStream(in, out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the bundled schema '" + resource + "'.", e);
+        }
+    }
+}
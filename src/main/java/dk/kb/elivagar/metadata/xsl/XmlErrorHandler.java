@@ -1,33 +1,68 @@
 package dk.kb.elivagar.metadata.xsl;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
+import dk.kb.elivagar.exception.ArgumentCheck;
+
 /**
  * Error handler for XML.
+ *
+ * It counts the warnings, errors and fatal errors, and keeps a report with the first of them, up to a maximum
+ * number of entries, so a document with a lot of errors cannot fill up the memory.
+ * In fail-fast mode, the parsing or validation is aborted at the first warning or error, since the document is
+ * not valid anyway. The aborting exception is rethrown from the parser.
  */
 public class XmlErrorHandler implements ErrorHandler {
+    /** The default maximum number of entries in the report.*/
+    public static final int DEFAULT_MAX_REPORTED = 100;
 
-    /** Errors messages. */
-    protected List<String> errors = new LinkedList<String>();
+    /** Whether to abort at the first warning or error.*/
+    protected final boolean failFast;
+    /** The maximum number of entries in the report.*/
+    protected final int maxReported;
 
-    /** Fatal errors messages. */
-    protected List<String> fatalErrors = new LinkedList<String>();
+    /** The number of warnings.*/
+    protected int warningCount = 0;
+    /** The number of errors.*/
+    protected int errorCount = 0;
+    /** The number of fatal errors.*/
+    protected int fatalErrorCount = 0;
+    /** The report with the first warnings and errors.*/
+    protected final List<XmlError> report = new ArrayList<XmlError>();
 
-    /** Warning messages. */
-    protected List<String> warnings = new LinkedList<String>();
+    /**
+     * Constructor for an error handler, which handles the whole document, and reports up to the default maximum
+     * number of warnings and errors.
+     */
+    public XmlErrorHandler() {
+        this(false, DEFAULT_MAX_REPORTED);
+    }
+
+    /**
+     * Constructor.
+     * @param failFast Whether to abort at the first warning or error.
+     * @param maxReported The maximum number of entries in the report. Use 0 for no report.
+     */
+    public XmlErrorHandler(boolean failFast, int maxReported) {
+        ArgumentCheck.checkNotNegativeInt(maxReported, "int maxReported");
+        this.failFast = failFast;
+        this.maxReported = maxReported;
+    }
 
     /**
      * Reset accumulated errors counters.
      */
     public void reset() {
-        errors.clear();
-        fatalErrors.clear();
-        warnings.clear();
+        warningCount = 0;
+        errorCount = 0;
+        fatalErrorCount = 0;
+        report.clear();
     }
 
     /**
@@ -35,22 +70,125 @@ public class XmlErrorHandler implements ErrorHandler {
      * @return a boolean indicating whether this handler has recorded any errors
      */
     public boolean hasErrors() {
-        return errors.size() != 0 || fatalErrors.size() != 0 || warnings.size() != 0;
+        return errorCount != 0 || fatalErrorCount != 0 || warningCount != 0;
+    }
+
+    /** @return The number of warnings.*/
+    public int getWarningCount() {
+        return warningCount;
+    }
+
+    /** @return The number of errors.*/
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /** @return The number of fatal errors.*/
+    public int getFatalErrorCount() {
+        return fatalErrorCount;
+    }
+
+    /** @return The report with the first warnings and errors, in the order they occurred.*/
+    public List<XmlError> getReport() {
+        return Collections.unmodifiableList(report);
     }
 
     @Override
     public void warning(SAXParseException exception) throws SAXException {
-        warnings.add(exception.getMessage());
-
+        warningCount++;
+        handle(Severity.WARNING, exception);
     }
 
     @Override
     public void error(SAXParseException exception) throws SAXException {
-        errors.add(exception.getMessage());
+        errorCount++;
+        handle(Severity.ERROR, exception);
     }
 
     @Override
     public void fatalError(SAXParseException exception) throws SAXException {
-        fatalErrors.add(exception.getMessage());
+        fatalErrorCount++;
+        handle(Severity.FATAL_ERROR, exception);
+    }
+
+    /**
+     * Adds the warning or error to the report, unless the report is full, and aborts in fail-fast mode.
+     * @param severity The severity.
+     * @param exception The warning or error.
+     * @throws SAXException The warning or error, in fail-fast mode.
+     */
+    protected void handle(Severity severity, SAXParseException exception) throws SAXException {
+        if(report.size() < maxReported) {
+            report.add(new XmlError(severity, exception.getLineNumber(), exception.getColumnNumber(),
+                    exception.getMessage()));
+        }
+        if(failFast) {
+            throw exception;
+        }
+    }
+
+    /**
+     * The severity of a reported warning or error.
+     */
+    public enum Severity {
+        /** A warning.*/
+        WARNING,
+        /** A recoverable error.*/
+        ERROR,
+        /** A non-recoverable error.*/
+        FATAL_ERROR
+    }
+
+    /**
+     * A reported warning or error, with its position in the document.
+     */
+    public static class XmlError {
+        /** The severity.*/
+        protected final Severity severity;
+        /** The line number, or -1 if it is unknown.*/
+        protected final int lineNumber;
+        /** The column number, or -1 if it is unknown.*/
+        protected final int columnNumber;
+        /** The message.*/
+        protected final String message;
+
+        /**
+         * Constructor.
+         * @param severity The severity.
+         * @param lineNumber The line number, or -1 if it is unknown.
+         * @param columnNumber The column number, or -1 if it is unknown.
+         * @param message The message.
+         */
+        public XmlError(Severity severity, int lineNumber, int columnNumber, String message) {
+            this.severity = severity;
+            this.lineNumber = lineNumber;
+            this.columnNumber = columnNumber;
+            this.message = message;
+        }
+
+        /** @return The severity.*/
+        public Severity getSeverity() {
+            return severity;
+        }
+
+        /** @return The line number, or -1 if it is unknown.*/
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        /** @return The column number, or -1 if it is unknown.*/
+        public int getColumnNumber() {
+            return columnNumber;
+        }
+
+        /** @return The message.*/
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return severity + " at line " + lineNumber + ", column " + columnNumber + ": " + message;
+        }
     }
 }
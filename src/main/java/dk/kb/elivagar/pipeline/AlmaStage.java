@@ -0,0 +1,62 @@
+package dk.kb.elivagar.pipeline;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.metadata.AlmaPacker;
+
+/**
+ * The stage for retrieving and packing the Alma metadata for a book.
+ * The books are processed in batches, so the Alma metadata for several books are retrieved in a single search.
+ */
+public class AlmaStage extends PipelineStage {
+    /** The name of this stage.*/
+    public static final String STAGE_NAME = "alma";
+
+    /** The configuration.*/
+    protected final Configuration conf;
+    /** The packer of the Alma metadata.*/
+    protected final AlmaPacker almaPacker;
+
+    /**
+     * Constructor.
+     * @param conf The configuration.
+     * @param almaPacker The packer of the Alma metadata.
+     * @param queueSize The maximum number of books waiting for this stage.
+     * @param numberOfWorkers The number of worker threads for this stage.
+     */
+    public AlmaStage(Configuration conf, AlmaPacker almaPacker, int queueSize, int numberOfWorkers) {
+        super(STAGE_NAME, queueSize, numberOfWorkers, getBatchSize(conf));
+        ArgumentCheck.checkNotNull(almaPacker, "AlmaPacker almaPacker");
+        this.conf = conf;
+        this.almaPacker = almaPacker;
+    }
+
+    /**
+     * Validates the configuration before the batch size is extracted from it, since it is needed by the 
+     * constructor of the super class.
+     * @param conf The configuration.
+     * @return The batch size for the Alma searches.
+     */
+    protected static int getBatchSize(Configuration conf) {
+        ArgumentCheck.checkNotNull(conf, "Configuration conf");
+        return conf.getAlmaBatchSize();
+    }
+
+    @Override
+    protected void process(BookTask task) throws Exception {
+        almaPacker.packageMetadataForBooks(task.getBookDirs(conf).keySet());
+    }
+
+    @Override
+    protected void processBatch(List<BookTask> tasks) throws Exception {
+        List<File> bookDirs = new ArrayList<File>();
+        for(BookTask task : tasks) {
+            bookDirs.addAll(task.getBookDirs(conf).keySet());
+        }
+        almaPacker.packageMetadataForBooks(bookDirs);
+    }
+}
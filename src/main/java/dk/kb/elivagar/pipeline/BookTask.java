@@ -0,0 +1,78 @@
+package dk.kb.elivagar.pipeline;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.pubhub.service.Book;
+import dk.pubhub.service.BookTypeEnum;
+
+/**
+ * A single book passing through the stages of the pipeline.
+ * It is identified by the book id, and might have the Pubhub metadata for the book,
+ * if the book was retrieved from Pubhub in the current run.
+ */
+public class BookTask {
+    /** The id of the book.*/
+    protected final String id;
+    /** The Pubhub metadata for the book. This may be null.*/
+    protected final Book book;
+
+    /**
+     * Constructor.
+     * @param id The id of the book.
+     * @param book The Pubhub metadata for the book. This may be null.
+     */
+    public BookTask(String id, Book book) {
+        ArgumentCheck.checkNotNullOrEmpty(id, "String id");
+        this.id = id;
+        this.book = book;
+    }
+
+    /** @return The id of the book.*/
+    public String getId() {
+        return id;
+    }
+
+    /** @return The Pubhub metadata for the book. This may be null.*/
+    public Book getBook() {
+        return book;
+    }
+
+    /**
+     * Retrieves the existing package directories for the book, along with the type of book for each directory.
+     * The audio book directories are named with the lower-cased id, thus both the id and the lower-cased id is
+     * looked for in the audio output directory.
+     * If the ebook and the audio book output directories are the same, then the directory is only found once,
+     * and handled as an ebook.
+     * @param conf The configuration.
+     * @return The map between the existing package directories for the book and their type of book.
+     */
+    public Map<File, BookTypeEnum> getBookDirs(Configuration conf) {
+        Map<File, BookTypeEnum> res = new LinkedHashMap<File, BookTypeEnum>();
+        addIfDirectory(res, new File(conf.getEbookOutputDir(), id), BookTypeEnum.EBOG);
+        addIfDirectory(res, new File(conf.getAudioOutputDir(), id), BookTypeEnum.LYDBOG);
+        addIfDirectory(res, new File(conf.getAudioOutputDir(), id.toLowerCase()), BookTypeEnum.LYDBOG);
+        return res;
+    }
+
+    /**
+     * Adds the directory to the map, if it is an existing directory and it is not already in the map.
+     * @param dirs The map of directories and book types.
+     * @param dir The directory to add.
+     * @param bookType The type of book for the directory.
+     */
+    protected void addIfDirectory(Map<File, BookTypeEnum> dirs, File dir, BookTypeEnum bookType) {
+        File absoluteDir = dir.getAbsoluteFile();
+        if(absoluteDir.isDirectory() && !dirs.containsKey(absoluteDir)) {
+            dirs.put(absoluteDir, bookType);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BookTask[" + id + "]";
+    }
+}
@@ -0,0 +1,100 @@
+package dk.kb.elivagar.pipeline;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.StringUtils;
+
+/**
+ * Index of the original content files for the books, so the directories with the original content files only
+ * have to be listed once per run.
+ *
+ * The ebook files are indexed by the prefix of their filename (which is the id of the book), and the
+ * audio book directories are indexed by their lower-cased directory name (which is the id of the audio book).
+ *
+ * The content for a book is claimed, when it is retrieved, so the content for a book is only handed out once.
+ */
+public class ContentFileIndex {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(ContentFileIndex.class);
+
+    /** The map between book ids and their original ebook files.*/
+    protected final Map<String, List<File>> ebookFiles;
+    /** The map between the lower-cased audio book ids and their original audio book directories.*/
+    protected final Map<String, File> audioBookDirs;
+
+    /**
+     * Constructor.
+     * Lists the original ebook files and audio book directories.
+     * @param conf The configuration.
+     */
+    public ContentFileIndex(Configuration conf) {
+        ArgumentCheck.checkNotNull(conf, "Configuration conf");
+        this.ebookFiles = new HashMap<String, List<File>>();
+        this.audioBookDirs = new HashMap<String, File>();
+
+        File[] eBooks = conf.getEbookFileDir().listFiles();
+        if(eBooks == null) {
+            log.info("No ebook files to package.");
+        } else {
+            for(File fileForBook : eBooks) {
+                String id = StringUtils.getPrefix(fileForBook.getName());
+                if(!ebookFiles.containsKey(id)) {
+                    ebookFiles.put(id, new ArrayList<File>());
+                }
+                ebookFiles.get(id).add(fileForBook);
+            }
+        }
+
+        File[] audioBooks = conf.getAudioFileDir().listFiles();
+        if(audioBooks == null) {
+            log.info("No audio files to package.");
+        } else {
+            for(File audioBookBaseDir : audioBooks) {
+                audioBookDirs.put(audioBookBaseDir.getName().toLowerCase(), audioBookBaseDir);
+            }
+        }
+        log.debug("Indexed original files for " + ebookFiles.size() + " ebooks and " + audioBookDirs.size()
+                + " audio books.");
+    }
+
+    /**
+     * Claims the original ebook files for the given book id.
+     * @param id The id of the book.
+     * @return The original ebook files for the book. Empty list if the book has no unclaimed ebook files.
+     */
+    public synchronized List<File> claimEbookFiles(String id) {
+        List<File> res = ebookFiles.remove(id);
+        if(res == null) {
+            return Collections.emptyList();
+        }
+        return res;
+    }
+
+    /**
+     * Claims the original audio book directory for the given book id.
+     * @param id The id of the book.
+     * @return The original audio book directory, or null if the book has no unclaimed audio book directory.
+     */
+    public synchronized File claimAudioBookDir(String id) {
+        return audioBookDirs.remove(id.toLowerCase());
+    }
+
+    /** @return The ids of the books, which still have unclaimed content.*/
+    public synchronized Set<String> getUnclaimedIds() {
+        Set<String> res = new HashSet<String>(ebookFiles.keySet());
+        res.addAll(audioBookDirs.keySet());
+        return res;
+    }
+}
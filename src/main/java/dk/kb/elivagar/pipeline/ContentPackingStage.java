@@ -0,0 +1,47 @@
+package dk.kb.elivagar.pipeline;
+
+import java.io.File;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.pubhub.PubhubWorkflow;
+
+/**
+ * The stage for packing the content files of a book, along with the characterization of the content files.
+ * The content files are found through the index of the original content files.
+ */
+public class ContentPackingStage extends PipelineStage {
+    /** The name of this stage.*/
+    public static final String STAGE_NAME = "content";
+
+    /** The Pubhub workflow, which packs the content files.*/
+    protected final PubhubWorkflow workflow;
+    /** The index of the original content files.*/
+    protected final ContentFileIndex index;
+
+    /**
+     * Constructor.
+     * @param workflow The Pubhub workflow, which packs the content files.
+     * @param index The index of the original content files.
+     * @param queueSize The maximum number of books waiting for this stage.
+     * @param numberOfWorkers The number of worker threads for this stage.
+     */
+    public ContentPackingStage(PubhubWorkflow workflow, ContentFileIndex index, int queueSize,
+            int numberOfWorkers) {
+        super(STAGE_NAME, queueSize, numberOfWorkers);
+        ArgumentCheck.checkNotNull(workflow, "PubhubWorkflow workflow");
+        ArgumentCheck.checkNotNull(index, "ContentFileIndex index");
+        this.workflow = workflow;
+        this.index = index;
+    }
+
+    @Override
+    protected void process(BookTask task) throws Exception {
+        for(File ebookFile : index.claimEbookFiles(task.getId())) {
+            workflow.packEbookFile(ebookFile);
+        }
+        File audioBookDir = index.claimAudioBookDir(task.getId());
+        if(audioBookDir != null) {
+            workflow.packAudioBookDir(audioBookDir);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package dk.kb.elivagar.pipeline;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.characterization.CharacterizationHandler;
+import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.metadata.AlmaPacker;
+import dk.kb.elivagar.pubhub.PubhubPacker;
+import dk.kb.elivagar.pubhub.PubhubWorkflow;
+import dk.kb.elivagar.transfer.TransferWorkflow;
+import dk.pubhub.service.Book;
+
+/**
+ * The pipeline for handling the books one at the time, instead of handling all the books in one phase before
+ * continuing with the next phase.
+ *
+ * The books are passed through the following stages:
+ * <ul>
+ *   <li>Pubhub: Packing the Pubhub metadata and images for the book (possibly several books concurrently, and the
+ *   images may be downloaded asynchronously).</li>
+ *   <li>Content: Packing and characterizing the content files for the book (the characterization may be
+ *   performed asynchronously).</li>
+ *   <li>Alma: Retrieving the MODS metadata from Alma for the book.</li>
+ *   <li>Transfer: The pre-ingest transfer of the book, after its images have been downloaded and its
+ *   characterization has completed (only if the transfer is enabled).</li>
+ * </ul>
+ * Each stage has a bounded queue, so the stages can work at the same time, without one stage running away
+ * from the others.
+ *
+ * When the pipeline is finished, then all the books which have not been retrieved from Pubhub in this run,
+ * but which have unpacked content files or an existing package directory, are also sent through the pipeline.
+ * Thus all the books are handled, just as when each phase traversed all the books.
+ */
+public class ElivagarPipeline {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(ElivagarPipeline.class);
+
+    /** The configuration.*/
+    protected final Configuration conf;
+    /** The Pubhub workflow, for packing the content files.*/
+    protected final PubhubWorkflow pubhubWorkflow;
+    /** The packer of the Pubhub data.*/
+    protected final PubhubPacker packer;
+    /** The packer of the Alma metadata.*/
+    protected final AlmaPacker almaPacker;
+    /** The transfer workflow.*/
+    protected final TransferWorkflow transferWorkflow;
+    /** The characterization handler, for waiting for the characterization before the transfer.*/
+    protected final CharacterizationHandler characterizer;
+
+    /** The lower-cased ids of the books, which have been sent through the pipeline.*/
+    protected final Set<String> handledIds;
+
+    /** The index of the original content files. Created when the pipeline is started.*/
+    protected ContentFileIndex contentIndex;
+    /** The stage for packing the Pubhub metadata.*/
+    protected PipelineStage pubhubStage;
+    /** The stage for packing the content files.*/
+    protected PipelineStage contentStage;
+    /** The stage for the Alma metadata.*/
+    protected PipelineStage almaStage;
+    /** The stage for the transfer. This is null, if the transfer is disabled.*/
+    protected PipelineStage transferStage;
+
+    /**
+     * Constructor.
+     * @param conf The configuration.
+     * @param pubhubWorkflow The Pubhub workflow, for packing the content files.
+     * @param packer The packer of the Pubhub data.
+     * @param almaPacker The packer of the Alma metadata.
+     * @param transferWorkflow The transfer workflow.
+     * @param characterizer The characterization handler, for waiting for the characterization before 
+     * the transfer.
+     */
+    public ElivagarPipeline(Configuration conf, PubhubWorkflow pubhubWorkflow, PubhubPacker packer,
+            AlmaPacker almaPacker, TransferWorkflow transferWorkflow, CharacterizationHandler characterizer) {
+        ArgumentCheck.checkNotNull(conf, "Configuration conf");
+        ArgumentCheck.checkNotNull(pubhubWorkflow, "PubhubWorkflow pubhubWorkflow");
+        ArgumentCheck.checkNotNull(packer, "PubhubPacker packer");
+        ArgumentCheck.checkNotNull(almaPacker, "AlmaPacker almaPacker");
+        ArgumentCheck.checkNotNull(transferWorkflow, "TransferWorkflow transferWorkflow");
+        ArgumentCheck.checkNotNull(characterizer, "CharacterizationHandler characterizer");
+        this.conf = conf;
+        this.pubhubWorkflow = pubhubWorkflow;
+        this.packer = packer;
+        this.almaPacker = almaPacker;
+        this.transferWorkflow = transferWorkflow;
+        this.characterizer = characterizer;
+        this.handledIds = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Indexes the original content files, and starts the stages of the pipeline.
+     */
+    public void start() {
+        int queueSize = conf.getPipelineQueueSize();
+        contentIndex = new ContentFileIndex(conf);
+
+        pubhubStage = new PubhubPackingStage(packer, queueSize, conf.getPubhubPackingThreads());
+        contentStage = new ContentPackingStage(pubhubWorkflow, contentIndex, queueSize, 1);
+        almaStage = new AlmaStage(conf, almaPacker, queueSize, 1);
+        pubhubStage.setNextStage(contentStage);
+        contentStage.setNextStage(almaStage);
+        if(transferWorkflow.isEnabled()) {
+            transferStage = new TransferStage(conf, transferWorkflow, characterizer, packer, queueSize, 1);
+            almaStage.setNextStage(transferStage);
+        } else {
+            log.info("The transfer is disabled.");
+            transferStage = null;
+        }
+
+        for(PipelineStage stage : getStages()) {
+            stage.start();
+        }
+    }
+
+    /**
+     * Submits a book retrieved from Pubhub to the pipeline.
+     * Blocks while the queue of the first stage is full.
+     * @param book The book.
+     */
+    public void submitBook(Book book) {
+        ArgumentCheck.checkNotNull(book, "Book book");
+        if(pubhubStage == null) {
+            throw new IllegalStateException("The pipeline has not been started.");
+        }
+        handledIds.add(book.getBookId().toLowerCase());
+        pubhubStage.submit(new BookTask(book.getBookId(), book));
+    }
+
+    /**
+     * Finishes the pipeline.
+     * Waits for the Pubhub stage to finish, and then sends the remaining books through the pipeline; both the
+     * books with unpacked content files, and the books with a package directory which have not been handled.
+     * Then waits for each of the following stages to finish.
+     */
+    public void finish() {
+        if(pubhubStage == null) {
+            throw new IllegalStateException("The pipeline has not been started.");
+        }
+        pubhubStage.finish();
+
+        for(String id : contentIndex.getUnclaimedIds()) {
+            handledIds.add(id.toLowerCase());
+            contentStage.submit(new BookTask(id, null));
+        }
+        submitUnhandledBookDirs(conf.getEbookOutputDir());
+        if(conf.getEbookOutputDir().getAbsolutePath().equals(conf.getAudioOutputDir().getAbsolutePath())) {
+            log.debug("Ebooks and Audio books have same base-dir.");
+        } else {
+            submitUnhandledBookDirs(conf.getAudioOutputDir());
+        }
+
+        contentStage.finish();
+        almaStage.finish();
+        if(transferStage != null) {
+            transferStage.finish();
+        }
+        log.info("Finished the pipeline for " + handledIds.size() + " books.");
+    }
+
+    /**
+     * Submits the books in the base directory, which have not already been sent through the pipeline.
+     * @param baseBookDir The base directory for the books (either E-books or Audio books).
+     */
+    protected void submitUnhandledBookDirs(File baseBookDir) {
+        File[] bookDirs = baseBookDir.listFiles();
+        if(bookDirs == null) {
+            log.debug("No package directories within: " + baseBookDir.getAbsolutePath());
+            return;
+        }
+        for(File bookDir : bookDirs) {
+            if(bookDir.isDirectory() && handledIds.add(bookDir.getName().toLowerCase())) {
+                contentStage.submit(new BookTask(bookDir.getName(), null));
+            }
+        }
+    }
+
+    /**
+     * @return The number of books, which have failed to be packed by the Pubhub stage.
+     * Only gives the final count, after the pipeline has finished.
+     */
+    public long getPubhubFailureCount() {
+        if(pubhubStage == null) {
+            throw new IllegalStateException("The pipeline has not been started.");
+        }
+        return pubhubStage.getFailureCount();
+    }
+
+    /**
+     * @return The number of books, which have failed to have their content files packed, along with the number
+     * of content files which have failed to be packed.
+     * Only gives the final count, after the pipeline has finished.
+     */
+    public long getContentFailureCount() {
+        if(contentStage == null) {
+            throw new IllegalStateException("The pipeline has not been started.");
+        }
+        return contentStage.getFailureCount() + pubhubWorkflow.getPackFailureCount();
+    }
+
+    /** @return The stages of the pipeline, in the order the books pass through them.*/
+    public List<PipelineStage> getStages() {
+        List<PipelineStage> res = new ArrayList<PipelineStage>();
+        res.add(pubhubStage);
+        res.add(contentStage);
+        res.add(almaStage);
+        if(transferStage != null) {
+            res.add(transferStage);
+        }
+        return res;
+    }
+}
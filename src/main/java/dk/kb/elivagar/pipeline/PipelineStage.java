@@ -0,0 +1,293 @@
+package dk.kb.elivagar.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * A stage in the pipeline.
+ * Each stage has a bounded queue of books, and a number of worker threads which process the books from the queue.
+ * When a book has been processed, it is handed over to the next stage (if any).
+ * A full queue blocks the previous stage, until this stage has caught up.
+ *
+ * A book is also handed over to the next stage, if it fails in this stage, since the next stages only work on
+ * the files already in the package directory of the book.
+ *
+ * A stage can process the books in batches. A worker then takes the books already waiting in the queue,
+ * up to the batch size, and processes them together. It does not wait for a batch to be filled.
+ *
+ * A worker keeps taking books from the queue, even if a batch fails unexpectedly. If the workers still stop
+ * (e.g. when interrupted), then submitting a book to the full queue fails, instead of blocking forever.
+ */
+public abstract class PipelineStage {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(PipelineStage.class);
+
+    /** The interval in millis for checking whether the workers are alive, while waiting for space in the queue.*/
+    protected static final long LIVENESS_CHECK_INTERVAL = 1000L;
+    /** The task for telling the workers, that no more tasks will arrive.*/
+    protected static final BookTask END_OF_TASKS = new BookTask("END_OF_TASKS", null);
+
+    /** The name of the stage.*/
+    protected final String name;
+    /** The queue of books waiting for this stage.*/
+    protected final BlockingQueue<BookTask> queue;
+    /** The number of worker threads.*/
+    protected final int numberOfWorkers;
+    /** The maximum number of books processed together by a worker.*/
+    protected final int batchSize;
+    /** The worker threads.*/
+    protected final List<Thread> workers;
+    /** The number of books processed by this stage.*/
+    protected final AtomicLong processed;
+    /** The number of books which failed in this stage.*/
+    protected final AtomicLong failed;
+
+    /** The next stage. This may be null, if it is the last stage.*/
+    protected PipelineStage nextStage;
+
+    /**
+     * Constructor.
+     * @param name The name of the stage.
+     * @param queueSize The maximum number of books waiting for this stage.
+     * @param numberOfWorkers The number of worker threads for this stage.
+     */
+    protected PipelineStage(String name, int queueSize, int numberOfWorkers) {
+        this(name, queueSize, numberOfWorkers, 1);
+    }
+
+    /**
+     * Constructor.
+     * @param name The name of the stage.
+     * @param queueSize The maximum number of books waiting for this stage.
+     * @param numberOfWorkers The number of worker threads for this stage.
+     * @param batchSize The maximum number of books processed together by a worker.
+     */
+    protected PipelineStage(String name, int queueSize, int numberOfWorkers, int batchSize) {
+        ArgumentCheck.checkNotNullOrEmpty(name, "String name");
+        ArgumentCheck.checkPositiveInt(queueSize, "int queueSize");
+        ArgumentCheck.checkPositiveInt(numberOfWorkers, "int numberOfWorkers");
+        ArgumentCheck.checkPositiveInt(batchSize, "int batchSize");
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<BookTask>(queueSize);
+        this.numberOfWorkers = numberOfWorkers;
+        this.batchSize = batchSize;
+        this.workers = new ArrayList<Thread>();
+        this.processed = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.nextStage = null;
+    }
+
+    /**
+     * Sets the next stage, which the books are handed over to after this stage.
+     * @param nextStage The next stage.
+     */
+    public void setNextStage(PipelineStage nextStage) {
+        this.nextStage = nextStage;
+    }
+
+    /**
+     * Starts the worker threads of this stage.
+     */
+    public synchronized void start() {
+        if(!workers.isEmpty()) {
+            throw new IllegalStateException("The stage '" + name + "' has already been started.");
+        }
+        for(int i = 0; i < numberOfWorkers; i++) {
+            Thread worker = new Thread(this::runWorker, "elivagar-" + name + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Submits a book to this stage. Blocks while the queue is full.
+     * @param task The book to submit.
+     */
+    public void submit(BookTask task) {
+        ArgumentCheck.checkNotNull(task, "BookTask task");
+        put(task);
+    }
+
+    /**
+     * Tells the workers that no more books will arrive, and waits for them to finish all the books in the queue.
+     * It is the responsibility of the caller to afterwards finish the next stage.
+     * @throws IllegalStateException If interrupted, or if all the workers have stopped before the books in the
+     * queue were processed.
+     */
+    public void finish() {
+        for(int i = 0; i < workers.size(); i++) {
+            put(END_OF_TASKS);
+        }
+        for(Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the stage '" + name + "' to finish.",
+                        e);
+            }
+        }
+        complete();
+        log.info("Stage '" + name + "' finished. Processed " + processed.get() + " books, of which " + failed.get()
+                + " failed.");
+    }
+
+    /**
+     * Hook for the stages to do any remaining work, after all the books have been processed.
+     * Default does nothing.
+     */
+    protected void complete() {}
+
+    /**
+     * Hands over the book to the next stage, if any.
+     * @param task The book to hand over.
+     */
+    protected void emit(BookTask task) {
+        if(nextStage != null) {
+            nextStage.submit(task);
+        }
+    }
+
+    /**
+     * Puts a task on the queue, waiting if necessary for space to become available.
+     * @param task The task to put on the queue.
+     * @throws IllegalStateException If interrupted, or if all the workers have stopped while waiting.
+     */
+    protected void put(BookTask task) {
+        try {
+            while(!queue.offer(task, LIVENESS_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if(!hasLiveWorkers()) {
+                    throw new IllegalStateException("Cannot submit '" + task + "' to the stage '" + name 
+                            + "', since all its workers have stopped.");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while submitting '" + task + "' to the stage '" + name
+                    + "'.", e);
+        }
+    }
+
+    /**
+     * @return Whether any of the workers are still alive. True if the stage has not been started yet.
+     */
+    protected synchronized boolean hasLiveWorkers() {
+        if(workers.isEmpty()) {
+            return true;
+        }
+        for(Thread worker : workers) {
+            if(worker.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The loop for the worker threads.
+     * Takes the books from the queue and processes them, until the end of the tasks.
+     * An unexpected failure of a batch is logged, and the worker continues with the next books.
+     */
+    protected void runWorker() {
+        try {
+            List<BookTask> batch = new ArrayList<BookTask>();
+            while(true) {
+                batch.clear();
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+
+                int endOfTasks = 0;
+                while(batch.remove(END_OF_TASKS)) {
+                    endOfTasks++;
+                }
+                if(!batch.isEmpty()) {
+                    try {
+                        handleBatch(batch);
+                    } catch (Throwable t) {
+                        failed.addAndGet(batch.size());
+                        log.error("Unexpected failure in stage '" + name + "' for the books " + batch 
+                                + ". Continues with the next books.", t);
+                    }
+                }
+                if(endOfTasks > 0) {
+                    // Give back the end of tasks meant for the other workers.
+                    for(int i = 1; i < endOfTasks; i++) {
+                        put(END_OF_TASKS);
+                    }
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("Worker in stage '" + name + "' was interrupted.", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Processes a batch of books, and hands them over to the next stage.
+     * @param tasks The books to process.
+     */
+    protected void handleBatch(List<BookTask> tasks) {
+        try {
+            processBatch(tasks);
+        } catch (Exception e) {
+            failed.addAndGet(tasks.size());
+            log.warn("Failure in stage '" + name + "' for the books " + tasks + ". Continues with the "
+                    + "next stage.", e);
+        }
+        processed.addAndGet(tasks.size());
+        for(BookTask task : tasks) {
+            emit(task);
+        }
+    }
+
+    /**
+     * Processes a batch of books in this stage.
+     * Default processes the books one at the time, so a failure for one book does not affect the others.
+     * @param tasks The books to process.
+     * @throws Exception If the processing of the whole batch fails.
+     */
+    protected void processBatch(List<BookTask> tasks) throws Exception {
+        for(BookTask task : tasks) {
+            try {
+                process(task);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.warn("Failure in stage '" + name + "' for book '" + task.getId() + "'. Continues with the "
+                        + "next stage.", e);
+            }
+        }
+    }
+
+    /**
+     * Processes a single book in this stage.
+     * @param task The book to process.
+     * @throws Exception If the processing fails.
+     */
+    protected abstract void process(BookTask task) throws Exception;
+
+    /** @return The name of the stage.*/
+    public String getName() {
+        return name;
+    }
+
+    /** @return The number of books processed by this stage.*/
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    /** @return The number of books which failed in this stage.*/
+    public long getFailureCount() {
+        return failed.get();
+    }
+}
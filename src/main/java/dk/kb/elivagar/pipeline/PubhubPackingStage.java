@@ -0,0 +1,35 @@
+package dk.kb.elivagar.pipeline;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.pubhub.PubhubPacker;
+
+/**
+ * The stage for packing the Pubhub metadata and images of a book.
+ * Books without Pubhub metadata are just handed over to the next stage.
+ */
+public class PubhubPackingStage extends PipelineStage {
+    /** The name of this stage.*/
+    public static final String STAGE_NAME = "pubhub";
+
+    /** The packer of the Pubhub data.*/
+    protected final PubhubPacker packer;
+
+    /**
+     * Constructor.
+     * @param packer The packer of the Pubhub data.
+     * @param queueSize The maximum number of books waiting for this stage.
+     * @param numberOfWorkers The number of worker threads for this stage.
+     */
+    public PubhubPackingStage(PubhubPacker packer, int queueSize, int numberOfWorkers) {
+        super(STAGE_NAME, queueSize, numberOfWorkers);
+        ArgumentCheck.checkNotNull(packer, "PubhubPacker packer");
+        this.packer = packer;
+    }
+
+    @Override
+    protected void process(BookTask task) throws Exception {
+        if(task.getBook() != null) {
+            packer.packBook(task.getBook());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package dk.kb.elivagar.pipeline;
+
+import java.io.File;
+import java.util.Map;
+
+import dk.kb.elivagar.characterization.CharacterizationHandler;
+import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.pubhub.PubhubPacker;
+import dk.kb.elivagar.transfer.TransferWorkflow;
+import dk.pubhub.service.BookTypeEnum;
+
+/**
+ * The stage for the pre-ingest transfer of a book.
+ * Waits for the download of the images and the characterization of the book files to complete, before the book
+ * is transferred.
+ */
+public class TransferStage extends PipelineStage {
+    /** The name of this stage.*/
+    public static final String STAGE_NAME = "transfer";
+
+    /** The configuration.*/
+    protected final Configuration conf;
+    /** The transfer workflow.*/
+    protected final TransferWorkflow transferWorkflow;
+    /** The characterization handler.*/
+    protected final CharacterizationHandler characterizer;
+    /** The packer of the Pubhub data, which downloads the images.*/
+    protected final PubhubPacker packer;
+
+    /**
+     * Constructor.
+     * @param conf The configuration.
+     * @param transferWorkflow The transfer workflow.
+     * @param characterizer The characterization handler.
+     * @param packer The packer of the Pubhub data, which downloads the images.
+     * @param queueSize The maximum number of books waiting for this stage.
+     * @param numberOfWorkers The number of worker threads for this stage.
+     */
+    public TransferStage(Configuration conf, TransferWorkflow transferWorkflow, 
+            CharacterizationHandler characterizer, PubhubPacker packer, int queueSize, int numberOfWorkers) {
+        super(STAGE_NAME, queueSize, numberOfWorkers);
+        ArgumentCheck.checkNotNull(conf, "Configuration conf");
+        ArgumentCheck.checkNotNull(transferWorkflow, "TransferWorkflow transferWorkflow");
+        ArgumentCheck.checkNotNull(characterizer, "CharacterizationHandler characterizer");
+        ArgumentCheck.checkNotNull(packer, "PubhubPacker packer");
+        this.conf = conf;
+        this.transferWorkflow = transferWorkflow;
+        this.characterizer = characterizer;
+        this.packer = packer;
+    }
+
+    @Override
+    protected void process(BookTask task) throws Exception {
+        for(Map.Entry<File, BookTypeEnum> bookDir : task.getBookDirs(conf).entrySet()) {
+            packer.awaitImages(bookDir.getKey());
+            characterizer.awaitCharacterization(bookDir.getKey());
+            transferWorkflow.transferBook(bookDir.getKey(), bookDir.getValue());
+        }
+    }
+}
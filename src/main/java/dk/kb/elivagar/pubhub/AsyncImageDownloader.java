@@ -0,0 +1,95 @@
+package dk.kb.elivagar.pubhub;
+
+import java.io.File;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.HttpClient;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.ExecutorUtils;
+import dk.kb.elivagar.utils.PendingCounter;
+
+/**
+ * The downloader of the image files, which performs the downloads asynchronously.
+ *
+ * The images are downloaded by a pool of worker threads, so the number of concurrent downloads can be limited.
+ * The pool has a bounded queue, and the submission of an image blocks while the queue is full.
+ *
+ * It keeps track of the downloads for each book directory, so it is possible to wait for the images of a single
+ * book to be downloaded (e.g. before transferring it).
+ * The downloader must be shut down, when it is no longer used.
+ */
+public class AsyncImageDownloader extends ImageDownloader {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(AsyncImageDownloader.class);
+
+    /** The pool for the downloads.*/
+    protected final ThreadPoolExecutor pool;
+    /** The number of downloads, which have not yet completed, for each book directory.*/
+    protected final PendingCounter pendingDownloads;
+
+    /**
+     * Constructor.
+     * @param httpClient The HTTP client for downloading the images.
+     * @param stateDir The directory for the state files. May be null, for only keeping the validators of the
+     * images in memory.
+     * @param numberOfThreads The maximum number of concurrent downloads.
+     * @param queueSize The maximum number of downloads waiting in the queue.
+     */
+    public AsyncImageDownloader(HttpClient httpClient, File stateDir, int numberOfThreads, int queueSize) {
+        super(httpClient, stateDir);
+        ArgumentCheck.checkPositiveInt(numberOfThreads, "int numberOfThreads");
+        ArgumentCheck.checkPositiveInt(queueSize, "int queueSize");
+        this.pendingDownloads = new PendingCounter("images");
+        this.pool = ExecutorUtils.createBlockingPool("images", numberOfThreads, queueSize);
+    }
+
+    /**
+     * Submits the image to be downloaded asynchronously.
+     * Blocks while the queue is full.
+     * @param url The URL for the image.
+     * @param imageFile The image file. It must be placed in the directory of the book.
+     */
+    @Override
+    public void download(String url, File imageFile) {
+        ArgumentCheck.checkNotNullOrEmpty(url, "String url");
+        ArgumentCheck.checkNotNull(imageFile, "File imageFile");
+        File bookDir = imageFile.getParentFile();
+        pendingDownloads.add(bookDir, 1);
+        try {
+            pool.execute(() -> {
+                try {
+                    downloadImage(url, imageFile);
+                } finally {
+                    pendingDownloads.add(bookDir, -1);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingDownloads.add(bookDir, -1);
+            throw new IllegalStateException("Could not submit the image '" + url + "' for download.", e);
+        }
+    }
+
+    @Override
+    public void awaitDownloads(File bookDir) {
+        ArgumentCheck.checkNotNull(bookDir, "File bookDir");
+        pendingDownloads.await(bookDir);
+    }
+
+    @Override
+    public void shutdown() {
+        log.info("Waiting for the remaining image downloads to complete.");
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the image downloads to complete.", e);
+        }
+        log.info("Performed " + pool.getCompletedTaskCount() + " image downloads.");
+    }
+}
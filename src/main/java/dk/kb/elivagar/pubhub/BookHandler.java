@@ -0,0 +1,21 @@
+package dk.kb.elivagar.pubhub;
+
+import java.io.IOException;
+
+import javax.xml.bind.JAXBException;
+
+import dk.pubhub.service.Book;
+
+/**
+ * Interface for handling the books, as they are retrieved from Pubhub.
+ */
+@FunctionalInterface
+public interface BookHandler {
+    /**
+     * Handles a single book retrieved from Pubhub.
+     * @param book The book to handle.
+     * @throws JAXBException If the book cannot be marshalled.
+     * @throws IOException If the book or its files cannot be written.
+     */
+    void handleBook(Book book) throws JAXBException, IOException;
+}
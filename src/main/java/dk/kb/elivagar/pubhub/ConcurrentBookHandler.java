@@ -0,0 +1,113 @@
+package dk.kb.elivagar.pubhub;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.bind.JAXBException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.ExecutorUtils;
+import dk.pubhub.service.Book;
+
+/**
+ * Book handler, which hands over the books to another handler on a pool of worker threads.
+ *
+ * The pool has a bounded queue, and the handling of a book blocks while the queue is full.
+ * Just as when the books are handled one at the time, the handling stops at the first failure.
+ * The failure is thrown, when the next book is handled, or when the handler is finished.
+ * The handler must be finished, when no more books will arrive.
+ */
+public class ConcurrentBookHandler implements BookHandler {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(ConcurrentBookHandler.class);
+
+    /** The handler, which the books are handed over to.*/
+    protected final BookHandler handler;
+    /** The pool of worker threads.*/
+    protected final ThreadPoolExecutor pool;
+    /** The first failure from handling a book, if any.*/
+    protected final AtomicReference<Exception> failure;
+
+    /**
+     * Constructor.
+     * @param handler The handler, which the books are handed over to. Must be thread-safe.
+     * @param numberOfThreads The number of books handled concurrently.
+     * @param queueSize The maximum number of books waiting to be handled.
+     */
+    public ConcurrentBookHandler(BookHandler handler, int numberOfThreads, int queueSize) {
+        ArgumentCheck.checkNotNull(handler, "BookHandler handler");
+        ArgumentCheck.checkPositiveInt(numberOfThreads, "int numberOfThreads");
+        ArgumentCheck.checkPositiveInt(queueSize, "int queueSize");
+        this.handler = handler;
+        this.failure = new AtomicReference<Exception>();
+        this.pool = ExecutorUtils.createBlockingPool("pubhub-packing", numberOfThreads, queueSize);
+    }
+
+    /**
+     * Submits the book to be handled by the pool of worker threads. Blocks while the queue is full.
+     * @param book The book to handle.
+     * @throws JAXBException If a previous book could not be marshalled.
+     * @throws IOException If the files of a previous book could not be written.
+     */
+    @Override
+    public void handleBook(Book book) throws JAXBException, IOException {
+        ArgumentCheck.checkNotNull(book, "Book book");
+        throwFailure();
+        pool.execute(() -> {
+            if(failure.get() != null) {
+                log.debug("Skipping the book '" + book.getBookId() + "' due to a previous failure.");
+                return;
+            }
+            try {
+                handler.handleBook(book);
+            } catch (Exception e) {
+                log.warn("Failed to handle the book '" + book.getBookId() + "'.", e);
+                failure.compareAndSet(null, e);
+            }
+        });
+    }
+
+    /**
+     * Waits for all the submitted books to be handled, and stops the worker threads.
+     * @throws JAXBException If a book could not be marshalled.
+     * @throws IOException If the files of a book could not be written.
+     */
+    public void finish() throws JAXBException, IOException {
+        pool.shutdown();
+        try {
+            while(!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.debug("Still waiting for " + (pool.getQueue().size() + pool.getActiveCount())
+                        + " books to be handled.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the books to be handled.", e);
+        }
+        throwFailure();
+    }
+
+    /**
+     * Throws the first failure from handling a book, if any.
+     * @throws JAXBException If a book could not be marshalled.
+     * @throws IOException If the files of a book could not be written.
+     */
+    protected void throwFailure() throws JAXBException, IOException {
+        Exception e = failure.get();
+        if(e == null) {
+            return;
+        }
+        if(e instanceof JAXBException) {
+            throw (JAXBException) e;
+        } else if(e instanceof IOException) {
+            throw (IOException) e;
+        } else if(e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        throw new IllegalStateException("Failed to handle a book.", e);
+    }
+}
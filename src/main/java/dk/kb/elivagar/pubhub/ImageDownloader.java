@@ -0,0 +1,125 @@
+package dk.kb.elivagar.pubhub;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.HttpClient;
+import dk.kb.elivagar.HttpValidators;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.state.DownloadValidators;
+import dk.kb.elivagar.utils.FileUtils;
+import dk.kb.elivagar.utils.StreamUtils;
+
+/**
+ * The downloader of the image files for the books (frontpage, thumbnail, etc.).
+ * The images are downloaded by the calling thread.
+ *
+ * If an image file has already been downloaded, then it is only downloaded again, if the image has been modified
+ * since then (using conditional requests with the validators from the previous download).
+ * The image is first written to a temporary file, which then replaces the image file, so the image file is left
+ * untouched, when the image has not been modified or the download fails.
+ */
+public class ImageDownloader {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(ImageDownloader.class);
+
+    /** The name of the state file with the validators of the image files.*/
+    public static final String IMAGE_VALIDATORS_NAME = "pubhub_image_validators.txt";
+
+    /** The HTTP client for downloading the images.*/
+    protected final HttpClient httpClient;
+    /** The validators of the image files, for only downloading the images again when they have been modified.*/
+    protected final DownloadValidators imageValidators;
+    /** The number of image downloads, which have failed.*/
+    protected final AtomicLong failureCount;
+
+    /**
+     * Constructor.
+     * @param httpClient The HTTP client for downloading the images.
+     * @param stateDir The directory for the state files. May be null, for only keeping the validators of the
+     * images in memory.
+     */
+    public ImageDownloader(HttpClient httpClient, File stateDir) {
+        ArgumentCheck.checkNotNull(httpClient, "HttpClient httpClient");
+        this.httpClient = httpClient;
+        this.imageValidators = new DownloadValidators(stateDir, IMAGE_VALIDATORS_NAME);
+        this.failureCount = new AtomicLong();
+    }
+
+    /**
+     * Downloads an image file for a book.
+     * Failures are logged, but not thrown, so the packing can continue without the image.
+     * @param url The URL for the image.
+     * @param imageFile The image file. It must be placed in the directory of the book.
+     */
+    public void download(String url, File imageFile) {
+        ArgumentCheck.checkNotNullOrEmpty(url, "String url");
+        ArgumentCheck.checkNotNull(imageFile, "File imageFile");
+        downloadImage(url, imageFile);
+    }
+
+    /**
+     * Performs the actual download of an image file.
+     * Failures are logged, but not thrown.
+     * @param url The URL for the image.
+     * @param imageFile The image file.
+     */
+    protected void downloadImage(String url, File imageFile) {
+        File tempFile = new File(imageFile.getParentFile(), UUID.randomUUID().toString());
+        try {
+            log.debug("Retrieving image file '" + imageFile.getName() + "', at " + url);
+            HttpValidators validators = httpClient.processUrlContentIfModified(url,
+                    imageValidators.getValidators(imageFile), in -> {
+                        try (OutputStream os = new FileOutputStream(tempFile)) {
+                            StreamUtils.copyInputStreamToOutputStream(in, os);
+                        }
+                        return null;
+                    });
+            if(validators == null) {
+                log.debug("The image file '" + imageFile.getName() + "' has not been modified.");
+                return;
+            }
+            FileUtils.moveFile(tempFile, imageFile);
+            imageValidators.register(imageFile, validators);
+        } catch (Exception e) {
+            failureCount.incrementAndGet();
+            log.warn("Failed to download the images '" + url + "'. Continues without it.", e);
+        } finally {
+            FileUtils.deleteFile(tempFile);
+        }
+    }
+
+    /**
+     * Waits for all the downloads of images for the given book directory to complete.
+     * The images are downloaded by the calling thread, so the downloads have always completed.
+     * @param bookDir The directory of the book.
+     */
+    public void awaitDownloads(File bookDir) {}
+
+    /**
+     * Waits for all the downloads to complete, and releases any resources.
+     * The images are downloaded by the calling thread, so there is nothing to wait for.
+     */
+    public void shutdown() {}
+
+    /**
+     * @return The number of image downloads, which have failed.
+     * Only gives the final count, after the downloads have completed.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Writes the validators of the image files to the state directory, if any.
+     */
+    public void saveValidators() {
+        imageValidators.save();
+    }
+}
@@ -0,0 +1,148 @@
+package dk.kb.elivagar.pubhub;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.XmlUtils;
+
+/**
+ * The fields from a Pubhub metadata file, which are needed for retrieving the Alma metadata and for the transfer;
+ * the identifier, the type of the identifier and the publication date.
+ *
+ * The fields are extracted by streaming the file with StAX, and the reading stops as soon as all the fields
+ * have been found. Only the fields directly on the 'Book' root element are used, whatever their namespace.
+ */
+public class PubhubMetadataFields {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(PubhubMetadataFields.class);
+
+    /** The name of the root element.*/
+    protected static final String ELEMENT_BOOK = "Book";
+    /** The name of the element with the identifier.*/
+    protected static final String ELEMENT_IDENTIFIER = "Identifier";
+    /** The name of the element with the type of the identifier.*/
+    protected static final String ELEMENT_IDENTIFIER_TYPE = "IdentifierType";
+    /** The name of the element with the publication date.*/
+    protected static final String ELEMENT_PUBLICATION_DATE = "PublicationDate";
+
+    /** The identifier. Null, if it is not in the metadata.*/
+    protected String identifier;
+    /** The type of the identifier. Null, if it is not in the metadata.*/
+    protected String identifierType;
+    /** The publication date, as written in the metadata. Null, if it is not in the metadata.*/
+    protected String publicationDate;
+
+    /**
+     * Constructor. Use the extract methods.
+     */
+    protected PubhubMetadataFields() {}
+
+    /**
+     * Extracts the fields from a Pubhub metadata file.
+     * @param pubhubMetadataFile The Pubhub metadata file.
+     * @return The fields from the file.
+     * @throws IOException If the file cannot be read or parsed.
+     */
+    public static PubhubMetadataFields extract(File pubhubMetadataFile) throws IOException {
+        ArgumentCheck.checkExistsNormalFile(pubhubMetadataFile, "File pubhubMetadataFile");
+        try (InputStream in = new FileInputStream(pubhubMetadataFile)) {
+            return extract(in);
+        } catch (IOException e) {
+            throw new IOException("Could not extract the fields from the pubhub metadata file '" 
+                    + pubhubMetadataFile.getAbsolutePath() + "'", e);
+        }
+    }
+
+    /**
+     * Extracts the fields from a stream with Pubhub metadata.
+     * @param in The stream with the Pubhub metadata.
+     * @return The fields from the stream.
+     * @throws IOException If the stream cannot be read or parsed.
+     */
+    public static PubhubMetadataFields extract(InputStream in) throws IOException {
+        ArgumentCheck.checkNotNull(in, "InputStream in");
+        PubhubMetadataFields res = new PubhubMetadataFields();
+        XMLStreamReader reader = null;
+        try {
+            reader = XmlUtils.createXMLStreamReader(in);
+            int depth = 0;
+            while(reader.hasNext() && !res.hasAllFields()) {
+                int event = reader.next();
+                if(event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    if(depth == 0) {
+                        break;
+                    }
+                } else if(event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if(depth == 1 && !ELEMENT_BOOK.equals(reader.getLocalName())) {
+                        break;
+                    } else if(depth == 2) {
+                        // Reading the text leaves the reader at the end of the element.
+                        res.setField(reader.getLocalName(), reader);
+                        if(reader.isEndElement()) {
+                            depth--;
+                        }
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not parse the pubhub metadata.", e);
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    log.debug("Could not close the XML stream.", e);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Sets the field for the element, if it is one of the extracted fields.
+     * @param name The local name of the element.
+     * @param reader The reader, at the start of the element.
+     * @throws XMLStreamException If the text of the element cannot be read.
+     */
+    protected void setField(String name, XMLStreamReader reader) throws XMLStreamException {
+        if(ELEMENT_IDENTIFIER.equals(name) && identifier == null) {
+            identifier = reader.getElementText();
+        } else if(ELEMENT_IDENTIFIER_TYPE.equals(name) && identifierType == null) {
+            identifierType = reader.getElementText();
+        } else if(ELEMENT_PUBLICATION_DATE.equals(name) && publicationDate == null) {
+            publicationDate = reader.getElementText();
+        }
+    }
+
+    /** @return Whether all the fields have been found.*/
+    protected boolean hasAllFields() {
+        return identifier != null && identifierType != null && publicationDate != null;
+    }
+
+    /** @return The identifier. Null, if it is not in the metadata.*/
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    /** @return The type of the identifier. Null, if it is not in the metadata.*/
+    public String getIdentifierType() {
+        return identifierType;
+    }
+
+    /** @return The publication date, as written in the metadata. Null, if it is not in the metadata.*/
+    public String getPublicationDate() {
+        return publicationDate;
+    }
+}
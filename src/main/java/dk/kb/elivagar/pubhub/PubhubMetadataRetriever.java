@@ -1,49 +1,101 @@
 package dk.kb.elivagar.pubhub;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.ws.BindingProvider;
 
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.kb.elivagar.HttpClient;
 import dk.kb.elivagar.exception.ArgumentCheck;
 import dk.kb.elivagar.utils.CalendarUtils;
 import dk.pubhub.service.ArrayOfBook;
+import dk.pubhub.service.Book;
 import dk.pubhub.service.MediaServiceAsmx;
 import dk.pubhub.service.MediaServiceAsmxSoap;
 import dk.pubhub.service.ModifiedBookList;
 
 /**
  * Class for retrieving the data from Pubhub.
+ *
+ * The metadata for all the books can either be retrieved through the SOAP client as a single array of books,
+ * or be streamed directly from the SOAP response, one book at the time (requires a HTTP client).
+ * The streaming keeps the memory usage flat, no matter how many books are in the catalogue.
  */
 public class PubhubMetadataRetriever {
     /** The logger.*/
     private static final Logger log = LoggerFactory.getLogger(PubhubMetadataRetriever.class);
 
+    /** The namespace for the SOAP envelope.*/
+    protected static final String SOAP_ENVELOPE_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+    /** The name of the SOAP operation for listing all the books.*/
+    protected static final String OPERATION_LIST_ALL_BOOKS = "ListAllBooks";
+    /** The name of the license key parameter for the SOAP operations.*/
+    protected static final String PARAMETER_LICENSE_KEY = "licenseKey";
+    /** The name of the element with the array of books in the SOAP response for listing all the books.*/
+    protected static final String ELEMENT_LIST_ALL_BOOKS_RESULT = OPERATION_LIST_ALL_BOOKS + "Result";
+    /** The name of the elements with the books in the SOAP response.*/
+    protected static final String ELEMENT_BOOK = "Book";
+    /** The name of the SOAP action header.*/
+    protected static final String HEADER_SOAP_ACTION = "SOAPAction";
+
+    /** The JAXB context for unmarshalling the books. It is thread-safe and expensive to create, so it is shared.*/
+    private static JAXBContext bookContext;
+
     /** The license key for pubhub.*/
     protected final String licenseKey;
-    
+
     /** The media service for using the SOAP API of pubhub.*/
     protected final MediaServiceAsmxSoap mediaService;
     /** The namespace for the service.*/
     protected final String serviceNS;
-    
+    /** The HTTP client for streaming the SOAP responses. This may be null.*/
+    protected final HttpClient httpClient;
+
     /**
-     * Constructor.
+     * Constructor, without the possibility of streaming the books.
      * @param licenseKey The license key for pubhub.
      */
     public PubhubMetadataRetriever(String licenseKey) {
+        this(licenseKey, null);
+    }
+
+    /**
+     * Constructor.
+     * @param licenseKey The license key for pubhub.
+     * @param httpClient The HTTP client for streaming the books. If null, then the books cannot be streamed.
+     */
+    public PubhubMetadataRetriever(String licenseKey, HttpClient httpClient) {
         ArgumentCheck.checkNotNullOrEmpty(licenseKey, "String licenseKey");
         this.licenseKey = licenseKey;
-        
+        this.httpClient = httpClient;
+
         MediaServiceAsmx mediaServiceAsmx = new MediaServiceAsmx();
         QName serviceName = mediaServiceAsmx.getServiceName();
         serviceNS = serviceName.getNamespaceURI();
         mediaService = mediaServiceAsmx.getMediaServiceAsmxSoap();
     }
-    
+
     /**
      * @return The namespace of the service.
      */
@@ -51,15 +103,51 @@ public class PubhubMetadataRetriever {
         return serviceNS;
     }
 
+    /**
+     * @return Whether or not this retriever can stream the books.
+     */
+    public boolean canStreamBooks() {
+        return httpClient != null;
+    }
+
     /**
      * Retrieves the metadata for all the books.
      * @return Array of all the book metadata.
      */
-    public ArrayOfBook downloadAllBookMetadata() {        
+    public ArrayOfBook downloadAllBookMetadata() {
         log.info("Downloading the metadata for all the books.");
         return mediaService.listAllBooks(licenseKey);
     }
-    
+
+    /**
+     * Retrieves the metadata for all the books, and hands over each book to the handler as soon as it has been
+     * read from the SOAP response. Only a single book is kept in memory at the time.
+     *
+     * The response is read while the books are handled, so a handler which blocks (e.g. on a full pipeline
+     * queue) also stalls the reading of the response. If the server or the socket timeout closes the connection
+     * meanwhile, then the rest of the response is missing; this is thrown as a failure, and never handled as
+     * the complete catalogue.
+     * @param max The maximum number of books to handle.
+     * @param handler The handler for the books.
+     * @return The number of books handled.
+     * @throws IOException If the books cannot be retrieved, or the handler fails.
+     */
+    public long streamAllBookMetadata(long max, BookHandler handler) throws IOException {
+        ArgumentCheck.checkNotNull(handler, "BookHandler handler");
+        if(httpClient == null) {
+            throw new IllegalStateException("Cannot stream the books without a HTTP client.");
+        }
+        log.info("Streaming the metadata for all the books.");
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(HEADER_SOAP_ACTION, "\"" + getSoapAction(OPERATION_LIST_ALL_BOOKS) + "\"");
+        ByteArrayEntity request = new ByteArrayEntity(createListAllBooksRequest(),
+                ContentType.create("text/xml", StandardCharsets.UTF_8));
+        long count = httpClient.processPostContent(getEndpointAddress(), request, headers,
+                in -> handleBookStream(in, serviceNS, max, handler));
+        log.info("Streamed the metadata for " + count + " books.");
+        return count;
+    }
+
     /**
      * Retrieves all the metadata for the books which have been modified after a given date.
      * @param earliestDate The date limit for the modified books. If null, then all books newer than epoch is returned.
@@ -70,4 +158,148 @@ public class PubhubMetadataRetriever {
         XMLGregorianCalendar xmlDate = CalendarUtils.getXmlGregorianCalendar(earliestDate);
         return mediaService.listModifiedBooks(licenseKey, xmlDate);
     }
+
+    /**
+     * @return The address of the endpoint for the SOAP service.
+     */
+    protected String getEndpointAddress() {
+        if(!(mediaService instanceof BindingProvider)) {
+            throw new IllegalStateException("Cannot find the endpoint address of the SOAP service.");
+        }
+        return (String) ((BindingProvider) mediaService).getRequestContext().get(
+                BindingProvider.ENDPOINT_ADDRESS_PROPERTY);
+    }
+
+    /**
+     * The SOAP action of an operation is the namespace of the service followed by the name of the operation.
+     * @param operation The name of the operation.
+     * @return The SOAP action for the operation.
+     */
+    protected String getSoapAction(String operation) {
+        if(serviceNS.endsWith("/")) {
+            return serviceNS + operation;
+        }
+        return serviceNS + "/" + operation;
+    }
+
+    /**
+     * Creates the SOAP request for listing all the books.
+     * @return The SOAP request.
+     * @throws IOException If the request cannot be created.
+     */
+    protected byte[] createListAllBooksRequest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out,
+                    StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writer.writeStartElement("soap", "Envelope", SOAP_ENVELOPE_NS);
+            writer.writeNamespace("soap", SOAP_ENVELOPE_NS);
+            writer.writeStartElement("soap", "Body", SOAP_ENVELOPE_NS);
+            writer.writeStartElement("", OPERATION_LIST_ALL_BOOKS, serviceNS);
+            writer.writeDefaultNamespace(serviceNS);
+            writer.writeStartElement(serviceNS, PARAMETER_LICENSE_KEY);
+            writer.writeCharacters(licenseKey);
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not create the SOAP request.", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The shared JAXB context for unmarshalling the books.
+     * @throws JAXBException If the JAXB context cannot be created.
+     */
+    protected static synchronized JAXBContext getBookContext() throws JAXBException {
+        if(bookContext == null) {
+            log.debug("Instantiating JAXB context for class '" + Book.class.getName() + "'.");
+            bookContext = JAXBContext.newInstance(Book.class);
+        }
+        return bookContext;
+    }
+
+    /**
+     * Reads the books from the stream one at the time, and hands them over to the handler.
+     * Only the 'Book' elements in the namespace of the service, which are children of the result array of the
+     * SOAP response, are unmarshalled.
+     * @param in The stream with the books, e.g. the SOAP response.
+     * @param namespace The namespace of the service.
+     * @param max The maximum number of books to handle.
+     * @param handler The handler for the books.
+     * @return The number of books handled.
+     * @throws IOException If the stream cannot be read, if it ends before the result array has been read,
+     * or if the handler fails.
+     */
+    protected static long handleBookStream(InputStream in, String namespace, long max, BookHandler handler) 
+            throws IOException {
+        long count = 0;
+        XMLStreamReader reader = null;
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            reader = factory.createXMLStreamReader(in);
+            Unmarshaller unmarshaller = getBookContext().createUnmarshaller();
+
+            // The depth of the current element, and the depth of the result array (or -1 when outside it).
+            int depth = 0;
+            int resultDepth = -1;
+            boolean resultRead = false;
+            while(count < max && reader.hasNext()) {
+                int event = reader.getEventType();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    if(depth == resultDepth && isElement(reader, namespace, ELEMENT_BOOK)) {
+                        // Leaves the reader at the event after the end of the book element.
+                        Book book = unmarshaller.unmarshal(reader, Book.class).getValue();
+                        handler.handleBook(book);
+                        count++;
+                        continue;
+                    }
+                    depth++;
+                    if(resultDepth < 0 && !resultRead 
+                            && isElement(reader, namespace, ELEMENT_LIST_ALL_BOOKS_RESULT)) {
+                        resultDepth = depth;
+                    }
+                } else if(event == XMLStreamConstants.END_ELEMENT) {
+                    if(depth == resultDepth) {
+                        resultDepth = -1;
+                        resultRead = true;
+                    }
+                    depth--;
+                }
+                reader.next();
+            }
+            if(count < max && !resultRead) {
+                throw new IOException("The response ended after " + count + " books, before the complete list "
+                        + "of books had been read.");
+            }
+        } catch (XMLStreamException | JAXBException e) {
+            throw new IOException("Could not handle the books after " + count + " books.", e);
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    log.debug("Could not close the XML stream.", e);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param reader The XML stream reader, at the start of an element.
+     * @param namespace The expected namespace of the element.
+     * @param name The expected local name of the element.
+     * @return Whether the element has the given namespace and local name.
+     */
+    protected static boolean isElement(XMLStreamReader reader, String namespace, String name) {
+        return name.equals(reader.getLocalName()) && namespace.equals(reader.getNamespaceURI());
+    }
 }
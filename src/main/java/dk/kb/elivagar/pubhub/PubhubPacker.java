@@ -1,12 +1,15 @@
 package dk.kb.elivagar.pubhub;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -24,6 +27,9 @@ import dk.kb.elivagar.config.Configuration;
 import dk.kb.elivagar.exception.ArgumentCheck;
 import dk.kb.elivagar.pubhub.validator.AudioSuffixValidator;
 import dk.kb.elivagar.pubhub.validator.EbookSuffixValidator;
+import dk.kb.elivagar.state.FileFingerprints;
+import dk.kb.elivagar.utils.Base16Utils;
+import dk.kb.elivagar.utils.ChecksumUtils;
 import dk.kb.elivagar.utils.FileUtils;
 import dk.kb.elivagar.utils.StringUtils;
 import dk.pubhub.service.Book;
@@ -35,19 +41,36 @@ import dk.pubhub.service.Image;
  * 
  * Each individual book will be placed in its own directory, where the book metadata is placed in an XML file, 
  * along with all images (frontpage, thumbnail, etc.) for book, and a symbolic link to the content file for the book.
+ * 
+ * The packer is thread-safe, so several books can be packed concurrently.
+ * The JAXB context for each class is shared, but since the marshallers are not thread-safe, each thread has 
+ * its own marshaller.
+ * 
+ * The metadata of a book is marshalled in memory, and is only written to the metadata file when it differs from
+ * the current content of the file. The content is compared through the fingerprints of the metadata files.
+ * The images are handed over to the image downloader, which may download them asynchronously.
  */
 public class PubhubPacker {
     /** The logger.*/
     private static final Logger log = LoggerFactory.getLogger(PubhubPacker.class);
 
+    /** The name of the state file with the fingerprints of the metadata files.*/
+    public static final String METADATA_FINGERPRINTS_NAME = "pubhub_metadata_fingerprints.txt";
+
     /** The Configuration with the base directories for the files to be packed.*/
     protected final Configuration conf;
     /** The namespace of marshalled xml.*/
     protected final String namespace;
-    /** The HTTP client for retrieving the extra files for the book, e.g. the images.*/
-    protected final HttpClient httpClient;
-    /** Map between marshallers and their the classes they marshall.*/
-    protected final Map<String, Marshaller> marshallers;
+    /** Map between the JAXB contexts and the classes they marshall.*/
+    protected final Map<String, JAXBContext> contexts;
+    /** Map between the marshallers for each thread and the classes they marshall.*/
+    protected final Map<String, ThreadLocal<Marshaller>> marshallers;
+    /** The buffer for marshalling the metadata of a book, for each thread.*/
+    protected final ThreadLocal<ByteArrayOutputStream> metadataBuffers;
+    /** The fingerprints of the metadata files, for detecting whether the metadata has changed.*/
+    protected final FileFingerprints fingerprints;
+    /** The downloader of the images.*/
+    protected final ImageDownloader imageDownloader;
     /** The characterization handler. */
     protected final CharacterizationHandler characterizationHandler;
 
@@ -61,41 +84,93 @@ public class PubhubPacker {
      * @param conf The Configuration with the base directories for the files to be packed.
      * @param serviceNamespace The namespace for the service.
      * @param characterizer The characterizer for characterizing the files.
-     * @param httpClient The http client.
+     * @param httpClient The http client for downloading the images.
      */
     public PubhubPacker(Configuration conf, String serviceNamespace, CharacterizationHandler characterizer, 
             HttpClient httpClient) {
+        this(conf, serviceNamespace, characterizer, createImageDownloader(conf, httpClient));
+    }
+
+    /**
+     * Constructor.
+     * @param conf The Configuration with the base directories for the files to be packed.
+     * @param serviceNamespace The namespace for the service.
+     * @param characterizer The characterizer for characterizing the files.
+     * @param imageDownloader The downloader of the images.
+     */
+    public PubhubPacker(Configuration conf, String serviceNamespace, CharacterizationHandler characterizer, 
+            ImageDownloader imageDownloader) {
         ArgumentCheck.checkNotNull(conf, "Configuration conf");
         ArgumentCheck.checkNotNull(characterizer, "Characterizer characterizer");
         ArgumentCheck.checkNotNullOrEmpty(serviceNamespace, "String serviceNamespace");
-        ArgumentCheck.checkNotNull(httpClient, "HttpClient httpClient");
+        ArgumentCheck.checkNotNull(imageDownloader, "ImageDownloader imageDownloader");
         this.conf = conf;
         this.namespace = serviceNamespace;
-        this.marshallers = new HashMap<String, Marshaller>();
-        this.httpClient = httpClient;
+        this.contexts = new ConcurrentHashMap<String, JAXBContext>();
+        this.marshallers = new ConcurrentHashMap<String, ThreadLocal<Marshaller>>();
+        this.metadataBuffers = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+        this.fingerprints = new FileFingerprints(conf.getStateDir(), METADATA_FINGERPRINTS_NAME);
+        this.imageDownloader = imageDownloader;
         this.characterizationHandler = characterizer;
         this.audioSuffixValidator = new AudioSuffixValidator(conf);
         this.ebookSuffixValidator = new EbookSuffixValidator(conf);
     }
 
+    /**
+     * Creates the downloader of the images, which downloads the images with the calling thread.
+     * @param conf The Configuration with the state directory for the validators of the images.
+     * @param httpClient The http client for downloading the images.
+     * @return The downloader of the images.
+     */
+    protected static ImageDownloader createImageDownloader(Configuration conf, HttpClient httpClient) {
+        ArgumentCheck.checkNotNull(conf, "Configuration conf");
+        return new ImageDownloader(httpClient, conf.getStateDir());
+    }
+
     /**
      * Retrieves the marshaller for the given class.
-     * This is made to reuse marshallers for each class.
+     * This is made to reuse marshallers for each class. Each thread has its own marshaller.
      * @param c The class to marshal.
      * @return The marshaller for the class.
      * @throws JAXBException If a marshaller for the class cannot be created.
      */
     @SuppressWarnings("rawtypes")
     protected Marshaller getMarshallerForClass(Class c) throws JAXBException {
-        if(!marshallers.containsKey(c.getSimpleName())) {
-            log.debug("Instantiating marshaller for class '" + c.getName() + "'.");
-            JAXBContext context = JAXBContext.newInstance(c);
-            Marshaller marshaller = context.createMarshaller();
+        ThreadLocal<Marshaller> threadMarshallers = marshallers.computeIfAbsent(c.getSimpleName(), 
+                k -> new ThreadLocal<Marshaller>());
+        Marshaller marshaller = threadMarshallers.get();
+        if(marshaller == null) {
+            log.debug("Instantiating marshaller for class '" + c.getName() + "' in thread '" 
+                    + Thread.currentThread().getName() + "'.");
+            marshaller = getContextForClass(c).createMarshaller();
 
             marshaller.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE );
-            marshallers.put(c.getSimpleName(), marshaller);
+            threadMarshallers.set(marshaller);
+        }
+        return marshaller;
+    }
+
+    /**
+     * Retrieves the JAXB context for the given class.
+     * The context is thread-safe and expensive to create, so it is created only once for each class.
+     * @param c The class to marshal.
+     * @return The JAXB context for the class.
+     * @throws JAXBException If the JAXB context for the class cannot be created.
+     */
+    @SuppressWarnings("rawtypes")
+    protected JAXBContext getContextForClass(Class c) throws JAXBException {
+        JAXBContext context = contexts.get(c.getSimpleName());
+        if(context == null) {
+            synchronized(contexts) {
+                context = contexts.get(c.getSimpleName());
+                if(context == null) {
+                    log.debug("Instantiating JAXB context for class '" + c.getName() + "'.");
+                    context = JAXBContext.newInstance(c);
+                    contexts.put(c.getSimpleName(), context);
+                }
+            }
         }
-        return marshallers.get(c.getSimpleName());
+        return context;
     }
 
     /**
@@ -110,40 +185,64 @@ public class PubhubPacker {
         log.info("Packaging book '" + book.getBookId() + "'.");
         File bookDir = getBookDir(book.getBookId(), book.getBookType());
 
-        JAXBElement<Book> rootElement = null;
-        Marshaller marshaller = getMarshallerForClass(book.getClass());
-        rootElement = new JAXBElement<Book>(new QName(namespace, Book.class.getSimpleName()), 
+        JAXBElement<Book> rootElement = new JAXBElement<Book>(new QName(namespace, Book.class.getSimpleName()), 
                 Book.class, book);
+        ByteArrayOutputStream buffer = metadataBuffers.get();
+        buffer.reset();
+        MessageDigest digester = ChecksumUtils.createMD5Digester();
+        try (OutputStream out = new DigestOutputStream(buffer, digester)) {
+            getMarshallerForClass(book.getClass()).marshal(rootElement, out);
+        }
+        String checksum = Base16Utils.decodeBase16(digester.digest());
         
         File bookFile = new File(bookDir, book.getBookId() +  Constants.PUBHUB_METADATA_SUFFIX);
         if(bookFile.exists()) {
-            File tempBookFile = new File(bookDir, UUID.randomUUID().toString());
-            marshaller.marshal(rootElement, tempBookFile);
-            if(FileUtils.areFilesIdentical(bookFile, tempBookFile)) {
-                FileUtils.deleteFile(tempBookFile);
+            if(bookFile.length() == buffer.size() && checksum.equals(fingerprints.getChecksum(bookFile))) {
                 log.debug("Do not pack book '" + book.getBookId() + "'. Identical to latest retrieved version.");
                 return;
-            } else {
-                FileUtils.moveFile(tempBookFile, bookFile);
-                log.debug("Overriding metadata for book '" + book.getBookId() + "'.");
             }
+            File tempBookFile = new File(bookDir, UUID.randomUUID().toString());
+            writeMetadata(buffer, tempBookFile);
+            FileUtils.moveFile(tempBookFile, bookFile);
+            log.debug("Overriding metadata for book '" + book.getBookId() + "'.");
         } else {
-            marshaller.marshal(rootElement, bookFile);
+            writeMetadata(buffer, bookFile);
         }
+        fingerprints.register(bookFile, checksum);
 
         for(Image image : book.getImages().getImage()) {
-            try {
-                log.debug("Retrieving image file for '" + book.getBookId() + "', at " + image.getValue());
-                String suffix = StringUtils.getSuffix(image.getValue());
-                File imageFile = new File(bookDir, book.getBookId() + "_" + image.getType() + "." + suffix);
-                // TODO: if the file already exists, then check last modify through http HEAD
-
-                try (OutputStream os = new FileOutputStream(imageFile)) {
-                    httpClient.retrieveUrlContent(image.getValue(), os);
-                }
-            } catch (Exception e) {
-                log.warn("Failed to download the images '" + image.getValue() + "'. Continues without it.", e);
-            }
+            String suffix = StringUtils.getSuffix(image.getValue());
+            File imageFile = new File(bookDir, book.getBookId() + "_" + image.getType() + "." + suffix);
+            imageDownloader.download(image.getValue(), imageFile);
+        }
+    }
+
+    /**
+     * Writes the state of the packer to the state directory, if any.
+     * This is the fingerprints of the metadata files, and the validators of the image files.
+     */
+    public void saveState() {
+        fingerprints.save();
+        imageDownloader.saveValidators();
+    }
+
+    /**
+     * Waits for the images of the book to be downloaded.
+     * @param bookDir The directory of the book.
+     */
+    public void awaitImages(File bookDir) {
+        imageDownloader.awaitDownloads(bookDir);
+    }
+
+    /**
+     * Writes the marshalled metadata to the file.
+     * @param buffer The buffer with the marshalled metadata.
+     * @param file The file to write the metadata to.
+     * @throws IOException If the file cannot be written.
+     */
+    protected void writeMetadata(ByteArrayOutputStream buffer, File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            buffer.writeTo(out);
         }
     }
 
@@ -151,11 +250,12 @@ public class PubhubPacker {
      * Packs a file for the ebook. This is expected to be the content file in an ebook format 
      * - according to the configured formats (e.g. pdf or epub).
      * 
-     * This makes a copy of the original file to the ebook folder.
+     * This places the original file in the ebook folder, according to the configured link strategy
+     * (e.g. a copy or a hard link).
      * It is a prerequisite that the file has the name of the ID.
      * Also, if the file is ignored, if it does not have an ebook suffix.
      * @param bookFile The file for the ebook.
-     * @throws IOException If the book directory cannot be instantiated, or if the copy of the
+     * @throws IOException If the book directory cannot be instantiated, or if the copy or link of the
      * original ebook file cannot be created.
      */
     public void packFileForEbook(File bookFile) throws IOException {
@@ -168,8 +268,8 @@ public class PubhubPacker {
         log.info("Packaging book file for book-id: " + id);
         File bookDir = getBookDir(id, BookTypeEnum.EBOG);
         File bookLinkFile = new File(bookDir, bookFile.getName());
-        //  The file is overwritten if it already exists
-        FileUtils.copyFile(bookFile, bookLinkFile);
+        //  The file is replaced if it already exists, unless it is up to date.
+        FileUtils.linkFile(bookFile, bookLinkFile, conf.getLinkStrategy());
         characterizationHandler.characterize(bookFile, bookDir);
     }
 
@@ -177,7 +277,8 @@ public class PubhubPacker {
      * Packs a file for the audiobook.
      * This is expected to be the content file in an audio format - according to the configured formats (e.g. mp3).
      * 
-     * This makes a copy of the original file to the audiobook folder.
+     * This places the original file in the audiobook folder, according to the configured link strategy
+     * (e.g. a copy or a hard link).
      * It is a prerequisite that the file has the name of the ID.
      * The file name might be in upper-case, but the ID should be in lower-case, therefore
      * it is lowercased for the directory, the hard link and the characterization file.
@@ -186,7 +287,7 @@ public class PubhubPacker {
      * This will also perform the characterization, if needed.
      * 
      * @param bookFile The file for the audiobook.
-     * @throws IOException If the book directory cannot be instantiated, or if the copy of the
+     * @throws IOException If the book directory cannot be instantiated, or if the copy or link of the
      * original audio file cannot be created.
      */
     public void packFileForAudio(File bookFile) throws IOException {
@@ -199,7 +300,7 @@ public class PubhubPacker {
         log.info("Packaging book file for book-id: " + id);
         File bookDir = getBookDir(id, BookTypeEnum.LYDBOG);
         File bookLinkFile = new File(bookDir, bookFile.getName().toLowerCase());
-        FileUtils.copyFile(bookFile, bookLinkFile);
+        FileUtils.linkFile(bookFile, bookLinkFile, conf.getLinkStrategy());
         characterizationHandler.characterize(bookFile, bookDir);
     }
 
@@ -211,14 +312,40 @@ public class PubhubPacker {
      * @throws IOException If the directory cannot be instantiated.
      */
     protected File getBookDir(String id, BookTypeEnum type) throws IOException {
-        String path;
+        return FileUtils.createDirectory(getBookDirPath(id, type));
+    }
+
+    /**
+     * Retrieves the path to the directory for the book with the given ID.
+     * @param id The ID for the book.
+     * @param type The type of book (ebook or audio book).
+     * @return The path to the directory for the given book id.
+     */
+    protected String getBookDirPath(String id, BookTypeEnum type) {
         if(type == BookTypeEnum.EBOG) {
-            path = conf.getEbookOutputDir().getAbsolutePath() + "/" + id + "/";
+            return conf.getEbookOutputDir().getAbsolutePath() + "/" + id + "/";
         } else if(type == BookTypeEnum.LYDBOG) {
-            path = conf.getAudioOutputDir().getAbsolutePath() + "/" + id + "/";
+            return conf.getAudioOutputDir().getAbsolutePath() + "/" + id + "/";
         } else {
             throw new IllegalStateException("Cannot handle unknown BookTypeEnum '" + type + "'.");
         }
-        return FileUtils.createDirectory(path);
+    }
+
+    /**
+     * Checks whether the file for the book already has been packed, and has been characterized.
+     * @param bookFile The file for the book.
+     * @param type The type of book (ebook or audio book).
+     * @return Whether or not the file is packed in the directory of the book, and is characterized.
+     */
+    public boolean isPacked(File bookFile, BookTypeEnum type) {
+        ArgumentCheck.checkNotNull(bookFile, "File bookFile");
+        String id = StringUtils.getPrefix(bookFile.getName());
+        String name = bookFile.getName();
+        if(type == BookTypeEnum.LYDBOG) {
+            id = id.toLowerCase();
+            name = name.toLowerCase();
+        }
+        File bookDir = new File(getBookDirPath(id, type));
+        return new File(bookDir, name).exists() && characterizationHandler.isCharacterized(bookFile, bookDir);
     }
 }
@@ -5,20 +5,28 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.bind.JAXBException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.kb.elivagar.HostRateLimiter;
 import dk.kb.elivagar.characterization.CharacterizationHandler;
 import dk.kb.elivagar.config.Configuration;
 import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.state.AlmaNegativeCache;
+import dk.kb.elivagar.state.SourceFileSnapshot;
 import dk.kb.elivagar.statistics.ElivagarStatistics;
 import dk.pubhub.service.Book;
+import dk.pubhub.service.BookTypeEnum;
 
 /**
  * Workflow for the pubhub.
+ * 
+ * If a snapshot of the original content files is given, then the original content files, which have not changed
+ * since they were packed (and which are still packed and characterized), are skipped.
  */
 public class PubhubWorkflow {
     /** The logger.*/
@@ -36,6 +44,10 @@ public class PubhubWorkflow {
     protected final PubhubPacker packer;
     /** The characterizer for performing the different kinds of characterization.*/
     protected final CharacterizationHandler characterizer;
+    /** The snapshot of the original content files. May be null, for packing all the files every time.*/
+    protected final SourceFileSnapshot snapshot;
+    /** The number of content files, which have failed to be packed.*/
+    protected final AtomicLong packFailureCount;
     
     /**
      * Constructor. 
@@ -46,6 +58,19 @@ public class PubhubWorkflow {
      */
     public PubhubWorkflow(Configuration conf, PubhubMetadataRetriever retriever, 
             CharacterizationHandler characterizer, PubhubPacker packer) {
+        this(conf, retriever, characterizer, packer, null);
+    }
+
+    /**
+     * Constructor. 
+     * @param conf The elivagar configuration. 
+     * @param retriever The retriever of metadata from PubHub
+     * @param characterizer The characterization handler.
+     * @param packer The PubhubPacker.
+     * @param snapshot The snapshot of the original content files. May be null.
+     */
+    public PubhubWorkflow(Configuration conf, PubhubMetadataRetriever retriever, 
+            CharacterizationHandler characterizer, PubhubPacker packer, SourceFileSnapshot snapshot) {
         ArgumentCheck.checkNotNull(conf, "Configuration conf");
         ArgumentCheck.checkNotNull(retriever, "PubhubMetadataRetriever retriever");
         ArgumentCheck.checkNotNull(characterizer, "CharacterizationHandler characterizer");
@@ -54,38 +79,111 @@ public class PubhubWorkflow {
         this.retriever = retriever;
         this.characterizer = characterizer;
         this.packer = packer;
+        this.snapshot = snapshot;
+        this.packFailureCount = new AtomicLong();
     }
 
     /**
      * Retrieves all the books.
+     * If configured, the books are packed concurrently.
      * @param max The maximum number of books to retrieve.
      * @throws JAXBException If XML marshalling fail.
      * @throws IOException If files cannot be created or downloaded.
      */
     public void retrieveAllBooks(long max) throws JAXBException, IOException {
-        List<Book> books = retriever.downloadAllBookMetadata().getBook();
-        for(int i = 0; i < books.size() && i < max; i++) {
-            Book book = books.get(i);
-            packer.packBook(book);
+        if(conf.getPubhubPackingThreads() > 1) {
+            ConcurrentBookHandler handler = createConcurrentPackingHandler();
+            try {
+                retrieveAllBooks(max, handler);
+            } finally {
+                handler.finish();
+            }
+        } else {
+            retrieveAllBooks(max, packer::packBook);
+        }
+    }
+
+    /**
+     * Retrieves all the books, and hands them over to the given handler.
+     * If configured, and the retriever is able to, the books are streamed from Pubhub one at the time, 
+     * instead of retrieving all the books before handing them over.
+     * @param max The maximum number of books to retrieve.
+     * @param handler The handler for the retrieved books.
+     * @throws JAXBException If XML marshalling fail.
+     * @throws IOException If files cannot be created or downloaded.
+     */
+    public void retrieveAllBooks(long max, BookHandler handler) throws JAXBException, IOException {
+        ArgumentCheck.checkNotNull(handler, "BookHandler handler");
+        if(conf.isPubhubStreaming() && retriever.canStreamBooks()) {
+            retriever.streamAllBookMetadata(max, handler);
+        } else {
+            List<Book> books = retriever.downloadAllBookMetadata().getBook();
+            handleBooks(books, max, handler);
         }
     }
 
     /**
      * Retrieves the books which have been modified after a given date.
      * Though with a given maximum number of books to retrieve.
+     * If configured, the books are packed concurrently.
      * @param earliestDate The earliest modify date for the book.
      * @param max The maximum number of books to retrieve.
      * @throws JAXBException If XML marshaling fail
      * @throws IOException If files cannot be created or downloaded.
      */
     public void retrieveModifiedBooks(Date earliestDate, long max) throws JAXBException, IOException {
+        if(conf.getPubhubPackingThreads() > 1) {
+            ConcurrentBookHandler handler = createConcurrentPackingHandler();
+            try {
+                retrieveModifiedBooks(earliestDate, max, handler);
+            } finally {
+                handler.finish();
+            }
+        } else {
+            retrieveModifiedBooks(earliestDate, max, packer::packBook);
+        }
+    }
+
+    /**
+     * Creates the handler for packing the books concurrently, with the configured number of threads.
+     * @return The handler for packing the books concurrently. Must be finished after use.
+     */
+    protected ConcurrentBookHandler createConcurrentPackingHandler() {
+        return new ConcurrentBookHandler(packer::packBook, conf.getPubhubPackingThreads(), 
+                conf.getPipelineQueueSize());
+    }
+
+    /**
+     * Retrieves the books which have been modified after a given date, and hands them over to the given handler.
+     * Though with a given maximum number of books to retrieve.
+     * @param earliestDate The earliest modify date for the book.
+     * @param max The maximum number of books to retrieve.
+     * @param handler The handler for the retrieved books.
+     * @throws JAXBException If XML marshaling fail
+     * @throws IOException If files cannot be created or downloaded.
+     */
+    public void retrieveModifiedBooks(Date earliestDate, long max, BookHandler handler) 
+            throws JAXBException, IOException {
         ArgumentCheck.checkNotNull(earliestDate, "Date earliestDate");
+        ArgumentCheck.checkNotNull(handler, "BookHandler handler");
         
         List<Book> books = retriever.downloadBookMetadataAfterModifyDate(
                 earliestDate).getNewAndModifiedBooks().getBook();
+        handleBooks(books, max, handler);
+    }
+
+    /**
+     * Hands over the books to the handler, though no more than the given maximum number of books.
+     * @param books The books.
+     * @param max The maximum number of books to handle.
+     * @param handler The handler for the books.
+     * @throws JAXBException If XML marshaling fail
+     * @throws IOException If files cannot be created or downloaded.
+     */
+    protected void handleBooks(List<Book> books, long max, BookHandler handler) throws JAXBException, IOException {
         for(int i = 0; i < books.size() && i < max; i++) {
             Book book = books.get(i);
-            packer.packBook(book);
+            handler.handleBook(book);
         }
     }
 
@@ -107,17 +205,31 @@ public class PubhubWorkflow {
             log.info("No ebook files to package. We are done.");
         } else {
             for(File fileForBook : eBooks) {
-                try {
-                    if(fileForBook.isFile()) {
-                        packer.packFileForEbook(fileForBook);
-                    } else {
-                        log.warn("Cannot package directory: " + fileForBook.getAbsolutePath());
-                    }
-                } catch (IOException e) {
-                    log.error("Failed to package the file '" + fileForBook.getAbsolutePath() + "' for a book. "
-                            + "Trying to continue with next book file.", e);
+                packEbookFile(fileForBook);
+            }
+        }
+    }
+
+    /**
+     * Packs a single file for an ebook into its right folder.
+     * Failures are logged, but not thrown, so the packaging can continue with the next book file.
+     * @param fileForBook The original file for the ebook.
+     */
+    public void packEbookFile(File fileForBook) {
+        try {
+            if(fileForBook.isFile()) {
+                if(isUnchanged(fileForBook, BookTypeEnum.EBOG)) {
+                    return;
                 }
+                packer.packFileForEbook(fileForBook);
+                registerPacked(fileForBook);
+            } else {
+                log.warn("Cannot package directory: " + fileForBook.getAbsolutePath());
             }
+        } catch (IOException e) {
+            packFailureCount.incrementAndGet();
+            log.error("Failed to package the file '" + fileForBook.getAbsolutePath() + "' for a book. "
+                    + "Trying to continue with next book file.", e);
         }
     }
 
@@ -134,36 +246,89 @@ public class PubhubWorkflow {
             log.info("No audio files to package. We are done.");
         } else {
             for(File audioBookBaseDir : audioBooks) {
-                String id = audioBookBaseDir.getName();
-                File audioBookFileDir = new File(audioBookBaseDir, AUDIO_SUB_DIR_PATH);
-                File[] audioBookFiles = audioBookFileDir.listFiles();
-                if(audioBookFiles == null) {
-                    log.warn("Cannot handle non-existing Audio-book file: " 
-                            + audioBookFileDir.getAbsolutePath());
-                } else {
-                    for(File audioBookFile : audioBookFiles) {
-                        try {
-                            if(!audioBookFile.getName().startsWith(id)) {
-                                log.info("Ignoring the file '" + audioBookFile.getAbsolutePath() + " since it does "
-                                        + "not comply with the format '{ID}/" + AUDIO_SUB_DIR_PATH + "{ID}.{suffix}");
-                            } else {
-                                if(audioBookFile.isFile()) {
-                                    packer.packFileForAudio(audioBookFile);
-                                } else {
-                                    log.warn("Cannot handle directory: " 
-                                            + audioBookFile.getAbsolutePath());
-                                }
+                packAudioBookDir(audioBookBaseDir);
+            }
+        }
+    }
+
+    /**
+     * Packs the files for a single audio book into its right folder.
+     * Failures are logged, but not thrown, so the packaging can continue with the next audio book file.
+     * @param audioBookBaseDir The original directory for the audio book, named after the id of the audio book.
+     */
+    public void packAudioBookDir(File audioBookBaseDir) {
+        String id = audioBookBaseDir.getName();
+        File audioBookFileDir = new File(audioBookBaseDir, AUDIO_SUB_DIR_PATH);
+        File[] audioBookFiles = audioBookFileDir.listFiles();
+        if(audioBookFiles == null) {
+            log.warn("Cannot handle non-existing Audio-book file: " 
+                    + audioBookFileDir.getAbsolutePath());
+        } else {
+            for(File audioBookFile : audioBookFiles) {
+                try {
+                    if(!audioBookFile.getName().startsWith(id)) {
+                        log.info("Ignoring the file '" + audioBookFile.getAbsolutePath() + " since it does "
+                                + "not comply with the format '{ID}/" + AUDIO_SUB_DIR_PATH + "{ID}.{suffix}");
+                    } else {
+                        if(audioBookFile.isFile()) {
+                            if(!isUnchanged(audioBookFile, BookTypeEnum.LYDBOG)) {
+                                packer.packFileForAudio(audioBookFile);
+                                registerPacked(audioBookFile);
                             }
-                        } catch (IOException e) {
-                            log.error("Failed to package the file '" + audioBookBaseDir.getAbsolutePath() 
-                                    + "' for a audio book. Trying to continue with next audio book file.", e);
+                        } else {
+                            log.warn("Cannot handle directory: " 
+                                    + audioBookFile.getAbsolutePath());
                         }
                     }
+                } catch (IOException e) {
+                    packFailureCount.incrementAndGet();
+                    log.error("Failed to package the file '" + audioBookBaseDir.getAbsolutePath() 
+                            + "' for a audio book. Trying to continue with next audio book file.", e);
                 }
             }
         }
     }
 
+    /**
+     * @return The number of content files, which have failed to be packed.
+     */
+    public long getPackFailureCount() {
+        return packFailureCount.get();
+    }
+
+    /**
+     * Checks whether the original content file is unchanged since it was packed, and still is packed.
+     * @param fileForBook The original content file.
+     * @param type The type of book.
+     * @return Whether or not the file can be skipped. Always false, if no snapshot is used.
+     */
+    protected boolean isUnchanged(File fileForBook, BookTypeEnum type) {
+        if(snapshot != null && snapshot.isUnchanged(fileForBook) && packer.isPacked(fileForBook, type)) {
+            log.trace("The file '" + fileForBook.getAbsolutePath() + "' is unchanged since it was packed.");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registers in the snapshot, that the original content file has been packed.
+     * @param fileForBook The original content file.
+     */
+    protected void registerPacked(File fileForBook) {
+        if(snapshot != null) {
+            snapshot.update(fileForBook);
+        }
+    }
+
+    /**
+     * Saves the snapshot of the original content files, if any.
+     */
+    public void saveSnapshot() {
+        if(snapshot != null) {
+            snapshot.save();
+        }
+    }
+
     /**
      * Makes and prints the statistics for the both the ebook directory and the audio directory.
      * @param printer The print stream where the output is written.
@@ -171,9 +336,43 @@ public class PubhubWorkflow {
      * Used to identify the new object found in the current run of the workflow.
      */
     public void makeStatistics(PrintStream printer, long date) {
+        makeStatistics(printer, date, null);
+    }
+
+    /**
+     * Makes and prints the statistics for the both the ebook directory and the audio directory, along with the
+     * statistics for the negative cache of the ISBN numbers, which Alma could not resolve.
+     * @param printer The print stream where the output is written.
+     * @param date The earliest date for marking a file or directory as 'new'.
+     * Used to identify the new object found in the current run of the workflow.
+     * @param almaNegativeCache The negative cache for Alma. May be null, for not including it in the statistics.
+     */
+    public void makeStatistics(PrintStream printer, long date, AlmaNegativeCache almaNegativeCache) {
+        makeStatistics(printer, date, almaNegativeCache, null);
+    }
+
+    /**
+     * Makes and prints the statistics for the both the ebook directory and the audio directory, along with the
+     * statistics for the negative cache for Alma and the rate limits of the HTTP requests.
+     * @param printer The print stream where the output is written.
+     * @param date The earliest date for marking a file or directory as 'new'.
+     * Used to identify the new object found in the current run of the workflow.
+     * @param almaNegativeCache The negative cache for Alma. May be null, for not including it in the statistics.
+     * @param rateLimiter The rate limiter of the HTTP requests. May be null, for not including it in the
+     * statistics.
+     */
+    public void makeStatistics(PrintStream printer, long date, AlmaNegativeCache almaNegativeCache, 
+            HostRateLimiter rateLimiter) {
         ArgumentCheck.checkNotNull(printer, "PrintStream printer");
         
         ElivagarStatistics statistics = new ElivagarStatistics(conf);
+        if(almaNegativeCache != null) {
+            statistics.setAlmaNegativeCacheStatistics(almaNegativeCache.getHitCount(), almaNegativeCache.size());
+        }
+        if(rateLimiter != null) {
+            statistics.setHttpRateLimitStatistics(rateLimiter.getWaitTime(), rateLimiter.getWaitCount(), 
+                    rateLimiter.getThrottledCount());
+        }
         if(conf.getEbookOutputDir().list() != null) {
             statistics.traverseBaseDir(conf.getEbookOutputDir(), date);
         } else {
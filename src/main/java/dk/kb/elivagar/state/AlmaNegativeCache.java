@@ -0,0 +1,163 @@
+package dk.kb.elivagar.state;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The negative cache for the ISBN numbers, which Alma could not resolve to exactly one record.
+ * A lookup of such an ISBN number is skipped, until it is due to be retried.
+ *
+ * The time before an ISBN number is retried starts at the TTL, and is doubled after every failed retry, though
+ * never beyond the maximum TTL. The ISBN number is removed from the cache, when it has been resolved.
+ * The entries are kept in a state file, if a state directory is given. Otherwise they are only kept in memory.
+ */
+public class AlmaNegativeCache {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(AlmaNegativeCache.class);
+
+    /** The separator between the number of failures, the time when it is due, and the reason for the failure.*/
+    protected static final String ENTRY_SEPARATOR = "\t";
+
+    /** The state file with the entries, mapped by the ISBN number.*/
+    protected final StateFile state;
+    /** The time in millis before an ISBN number is retried after the first failure.*/
+    protected final long ttl;
+    /** The maximum time in millis before an ISBN number is retried.*/
+    protected final long maxTtl;
+    /** The number of lookups, which have been skipped since they were not yet due.*/
+    protected final AtomicLong hitCount;
+
+    /**
+     * Constructor.
+     * @param stateDir The directory for the state files. May be null, for only keeping the entries in memory.
+     * @param name The name of the state file with the entries.
+     * @param ttl The time in millis before an ISBN number is retried after the first failure.
+     * @param maxTtl The maximum time in millis before an ISBN number is retried.
+     */
+    public AlmaNegativeCache(File stateDir, String name, long ttl, long maxTtl) {
+        ArgumentCheck.checkNotNullOrEmpty(name, "String name");
+        ArgumentCheck.checkPositiveLong(ttl, "long ttl");
+        ArgumentCheck.checkTrue(maxTtl >= ttl, "The maximum TTL must not be less than the TTL.");
+        this.ttl = ttl;
+        this.maxTtl = maxTtl;
+        this.hitCount = new AtomicLong();
+        this.state = new StateFile(stateDir, name);
+    }
+
+    /**
+     * Checks whether the ISBN number is due to be looked up in Alma.
+     * It is a hit in the cache, if the ISBN number is not due.
+     * @param isbn The ISBN number.
+     * @param now The current time in millis.
+     * @return Whether the ISBN number is not in the cache, or its time for a retry has come.
+     */
+    public boolean isDue(String isbn, long now) {
+        ArgumentCheck.checkNotNullOrEmpty(isbn, "String isbn");
+        String[] parts = getParts(isbn);
+        if(parts == null || Long.parseLong(parts[1]) <= now) {
+            return true;
+        }
+        hitCount.incrementAndGet();
+        log.trace("Skipping the ISBN '" + isbn + "' until '" + new Date(Long.parseLong(parts[1])) + "', since: "
+                + parts[2]);
+        return false;
+    }
+
+    /**
+     * Registers that Alma could not resolve the ISBN number.
+     * The time before the next retry is doubled for each consecutive failure.
+     * @param isbn The ISBN number.
+     * @param reason The reason for the failure.
+     * @param now The current time in millis.
+     */
+    public void registerFailure(String isbn, String reason, long now) {
+        ArgumentCheck.checkNotNullOrEmpty(isbn, "String isbn");
+        String[] parts = getParts(isbn);
+        int failures = parts == null ? 1 : Integer.parseInt(parts[0]) + 1;
+        long delay = getDelay(failures);
+        state.put(isbn, failures + ENTRY_SEPARATOR + (now + delay) + ENTRY_SEPARATOR + getStateReason(reason));
+        log.debug("The ISBN '" + isbn + "' has failed " + failures + " times. Retrying it in " + delay + " ms.");
+    }
+
+    /**
+     * Registers that Alma has resolved the ISBN number, thus it is removed from the cache.
+     * @param isbn The ISBN number.
+     */
+    public void registerSuccess(String isbn) {
+        ArgumentCheck.checkNotNullOrEmpty(isbn, "String isbn");
+        state.remove(isbn);
+    }
+
+    /**
+     * @param isbn The ISBN number.
+     * @return The reason for the latest failure of the ISBN number, or null if it is not in the cache.
+     */
+    public String getReason(String isbn) {
+        String[] parts = getParts(isbn);
+        return parts == null ? null : parts[2];
+    }
+
+    /** @return The number of lookups, which have been skipped since they were not yet due.*/
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** @return The number of ISBN numbers in the cache.*/
+    public int size() {
+        return state.size();
+    }
+
+    /**
+     * Writes the entries to the state file, if any.
+     */
+    public void save() {
+        state.save();
+    }
+
+    /**
+     * @param failures The number of consecutive failures.
+     * @return The time in millis before the next retry; the TTL doubled for each failure after the first,
+     * but no more than the maximum TTL.
+     */
+    protected long getDelay(int failures) {
+        long delay = ttl;
+        for(int i = 1; i < failures && delay < maxTtl; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, maxTtl);
+    }
+
+    /**
+     * Retrieves the parts of the entry for the ISBN number.
+     * @param isbn The ISBN number.
+     * @return The number of failures, the time when it is due, and the reason. Or null, if the ISBN number is not
+     * in the cache, or the entry is invalid.
+     */
+    protected String[] getParts(String isbn) {
+        String value = state.get(isbn);
+        if(value == null) {
+            return null;
+        }
+        String[] parts = value.split(ENTRY_SEPARATOR, 3);
+        if(parts.length != 3 || !parts[0].matches("\\d+") || !parts[1].matches("\\d+")) {
+            log.warn("Ignoring the invalid negative cache entry for the ISBN '" + isbn + "': " + value);
+            state.remove(isbn);
+            return null;
+        }
+        return parts;
+    }
+
+    /**
+     * @param reason The reason for a failure. May be null.
+     * @return The reason on a single line, for the state file.
+     */
+    protected static String getStateReason(String reason) {
+        return reason == null ? "" : reason.replaceAll("\\s+", " ").trim();
+    }
+}
@@ -0,0 +1,100 @@
+package dk.kb.elivagar.state;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.HttpValidators;
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The HTTP validators (ETag, Last-Modified and Content-Length) of the downloaded files, as they were when each
+ * file was downloaded. They are used for only downloading the files again, when they have been modified.
+ *
+ * The validators of a file are only used, while the file still has the downloaded length.
+ * The validators are kept in a state file, if a state directory is given. Otherwise they are only kept in memory.
+ */
+public class DownloadValidators {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(DownloadValidators.class);
+
+    /** The separator between the validators. The values of HTTP headers cannot contain tabs.*/
+    protected static final String VALIDATOR_SEPARATOR = "\t";
+
+    /** The state file with the validators, mapped by the path of the downloaded file.*/
+    protected final StateFile state;
+
+    /**
+     * Constructor.
+     * @param stateDir The directory for the state files. May be null, for only keeping the validators in memory.
+     * @param name The name of the state file with the validators.
+     */
+    public DownloadValidators(File stateDir, String name) {
+        this.state = new StateFile(stateDir, name);
+    }
+
+    /**
+     * Retrieves the validators, which the file was downloaded with.
+     * @param file The downloaded file.
+     * @return The validators, or null if the file has not been downloaded, or has changed since it was downloaded.
+     */
+    public HttpValidators getValidators(File file) {
+        ArgumentCheck.checkNotNull(file, "File file");
+        String value = state.get(file.getAbsolutePath());
+        if(value == null || !file.isFile()) {
+            return null;
+        }
+        String[] parts = value.split(VALIDATOR_SEPARATOR, -1);
+        if(parts.length != 3) {
+            log.warn("Ignoring invalid validators for the file '" + file.getAbsolutePath() + "': " + value);
+            return null;
+        }
+        long contentLength = Long.parseLong(parts[2]);
+        if(file.length() != contentLength) {
+            log.debug("The file '" + file.getAbsolutePath() + "' has changed since it was downloaded.");
+            return null;
+        }
+        return new HttpValidators(getValue(parts[0]), getValue(parts[1]), contentLength);
+    }
+
+    /**
+     * Registers the validators of a file, which has just been downloaded.
+     * The length of the file is registered as its content length.
+     * @param file The downloaded file.
+     * @param downloadValidators The validators from the response, when the file was downloaded.
+     */
+    public void register(File file, HttpValidators downloadValidators) {
+        ArgumentCheck.checkNotNull(file, "File file");
+        ArgumentCheck.checkNotNull(downloadValidators, "HttpValidators downloadValidators");
+        if(!downloadValidators.canValidate()) {
+            state.remove(file.getAbsolutePath());
+            return;
+        }
+        state.put(file.getAbsolutePath(), getStateValue(downloadValidators.getETag()) + VALIDATOR_SEPARATOR
+                + getStateValue(downloadValidators.getLastModified()) + VALIDATOR_SEPARATOR + file.length());
+    }
+
+    /**
+     * Writes the validators to the state file, if any.
+     */
+    public void save() {
+        state.save();
+    }
+
+    /**
+     * @param value The value of a validator. May be null.
+     * @return The value for the state file.
+     */
+    protected static String getStateValue(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * @param stateValue The value of a validator in the state file.
+     * @return The value of the validator, or null if it is not given.
+     */
+    protected static String getValue(String stateValue) {
+        return stateValue.isEmpty() ? null : stateValue;
+    }
+}
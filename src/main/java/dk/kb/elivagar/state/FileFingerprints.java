@@ -0,0 +1,98 @@
+package dk.kb.elivagar.state;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.ChecksumUtils;
+
+/**
+ * The fingerprints of the files written by Elivagar, so new content can be compared to the content of the file,
+ * without reading the file.
+ *
+ * The fingerprint of a file is the MD5 checksum of its content, along with the size and the last modified
+ * timestamp of the file, when the checksum was registered. If the file has been changed since then, the checksum
+ * is calculated from the file again.
+ * The fingerprints are kept in a state file, if a state directory is given. Otherwise they are only kept in memory.
+ * The fingerprints of the files, which no longer exist, are removed when the fingerprints are saved.
+ */
+public class FileFingerprints {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(FileFingerprints.class);
+
+    /** The separator between the elements of the fingerprint.*/
+    protected static final String ELEMENT_SEPARATOR = "|";
+
+    /** The state file with the fingerprints, mapped by the path of the file.*/
+    protected final StateFile state;
+
+    /**
+     * Constructor.
+     * @param stateDir The directory for the state files. May be null, for only keeping the fingerprints in memory.
+     * @param name The name of the state file with the fingerprints.
+     */
+    public FileFingerprints(File stateDir, String name) {
+        this.state = new StateFile(stateDir, name);
+    }
+
+    /**
+     * Retrieves the checksum of the content of the file.
+     * The registered checksum is used, unless the file has been changed since it was registered.
+     * @param file The file.
+     * @return The MD5 checksum of the content of the file, or null if the file does not exist.
+     * @throws IOException If the file cannot be read.
+     */
+    public String getChecksum(File file) throws IOException {
+        ArgumentCheck.checkNotNull(file, "File file");
+        if(!file.isFile()) {
+            return null;
+        }
+        String fingerprint = state.get(file.getAbsolutePath());
+        if(fingerprint != null) {
+            int index = fingerprint.indexOf(ELEMENT_SEPARATOR);
+            if(index > 0 && fingerprint.substring(index).equals(getFileAttributes(file))) {
+                return fingerprint.substring(0, index);
+            }
+            log.debug("The file '" + file.getAbsolutePath() + "' has changed since its checksum was registered.");
+        }
+        String checksum;
+        try (InputStream in = new FileInputStream(file)) {
+            checksum = ChecksumUtils.generateMD5Checksum(in);
+        }
+        register(file, checksum);
+        return checksum;
+    }
+
+    /**
+     * Registers the checksum of the content, which has just been written to the file.
+     * @param file The file.
+     * @param checksum The MD5 checksum of the content of the file.
+     */
+    public void register(File file, String checksum) {
+        ArgumentCheck.checkNotNull(file, "File file");
+        ArgumentCheck.checkNotNullOrEmpty(checksum, "String checksum");
+        state.put(file.getAbsolutePath(), checksum + getFileAttributes(file));
+    }
+
+    /**
+     * Writes the fingerprints to the state file, if any.
+     * The fingerprints of the files, which no longer exist, are removed.
+     */
+    public void save() {
+        state.removeKeys(path -> !new File(path).isFile());
+        state.save();
+    }
+
+    /**
+     * @param file The file.
+     * @return The size and last modified timestamp of the file, each prefixed by the element separator.
+     */
+    protected static String getFileAttributes(File file) {
+        return ELEMENT_SEPARATOR + file.length() + ELEMENT_SEPARATOR + file.lastModified();
+    }
+}
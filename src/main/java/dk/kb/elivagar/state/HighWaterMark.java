@@ -0,0 +1,75 @@
+package dk.kb.elivagar.state;
+
+import java.io.File;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The high-water mark for an incremental synchronization; the time when the last successful synchronization
+ * began. The next synchronization only has to retrieve the data, which has been modified since then.
+ *
+ * The mark is kept in a state file, and is written as soon as it is advanced.
+ * It should only be advanced, when all the data from the synchronization has been handled, so a failed
+ * synchronization is retried from the previous mark.
+ */
+public class HighWaterMark {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(HighWaterMark.class);
+
+    /** The key for the mark in the state file.*/
+    protected static final String MARK_KEY = "high_water_mark";
+
+    /** The state file with the mark.*/
+    protected final StateFile state;
+
+    /**
+     * Constructor.
+     * @param stateDir The directory for the state files.
+     * @param name The name of the state file with the mark.
+     */
+    public HighWaterMark(File stateDir, String name) {
+        this.state = new StateFile(stateDir, name);
+    }
+
+    /**
+     * Retrieves the date to synchronize from; the mark moved back by the overlap.
+     * The overlap covers the data, which was modified while the previous synchronization was running, and any
+     * difference between the local clock and the clock of the data source.
+     * @param overlap The overlap in milliseconds.
+     * @return The date to synchronize from, or null if no synchronization has succeeded yet.
+     */
+    public Date getSince(long overlap) {
+        ArgumentCheck.checkNotNegativeLong(overlap, "long overlap");
+        String value = state.get(MARK_KEY);
+        if(value == null) {
+            return null;
+        }
+        try {
+            return new Date(Math.max(0L, Long.parseLong(value) - overlap));
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring the invalid high-water mark: " + value, e);
+            return null;
+        }
+    }
+
+    /**
+     * Advances the mark, and writes it to the state file.
+     * The mark is never moved backwards.
+     * @param date The time when the successful synchronization began.
+     */
+    public void advance(Date date) {
+        ArgumentCheck.checkNotNull(date, "Date date");
+        Date current = getSince(0L);
+        if(current != null && current.after(date)) {
+            log.warn("Will not move the high-water mark back from '" + current + "' to '" + date + "'.");
+            return;
+        }
+        state.put(MARK_KEY, Long.toString(date.getTime()));
+        state.save();
+        log.info("Advanced the high-water mark to '" + date + "'.");
+    }
+}
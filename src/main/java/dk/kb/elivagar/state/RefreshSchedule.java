@@ -0,0 +1,93 @@
+package dk.kb.elivagar.state;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The schedule for refreshing files, which are retrieved from an external source, so only a slice of the files
+ * are retrieved again in each run, oldest first.
+ *
+ * The age of a file is the time when it was last refreshed. If it has never been refreshed, then it is the last
+ * modified timestamp of the file, which is the time when it was originally retrieved.
+ * The refresh times are kept in a state file, if a state directory is given. Otherwise they are only kept in memory.
+ */
+public class RefreshSchedule {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(RefreshSchedule.class);
+
+    /** The state file with the time in millis when each file was last refreshed, mapped by the path of the file.*/
+    protected final StateFile state;
+
+    /**
+     * Constructor.
+     * @param stateDir The directory for the state files. May be null, for only keeping the refresh times in memory.
+     * @param name The name of the state file with the refresh times.
+     */
+    public RefreshSchedule(File stateDir, String name) {
+        this.state = new StateFile(stateDir, name);
+        for(String key : state.getKeys()) {
+            if(!state.get(key).matches("\\d+")) {
+                log.warn("Ignoring the invalid refresh time for the file '" + key + "': " + state.get(key));
+                state.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Selects the files, which are next in line to be refreshed.
+     * @param files The files, which can be refreshed.
+     * @param count The maximum number of files to select.
+     * @return The files, which have gone the longest without being refreshed, oldest first.
+     */
+    public List<File> selectOldest(Collection<File> files, int count) {
+        ArgumentCheck.checkNotNull(files, "Collection<File> files");
+        ArgumentCheck.checkNotNegativeInt(count, "int count");
+        Map<File, Long> ages = new HashMap<File, Long>();
+        for(File file : files) {
+            ages.put(file, getLastRefreshed(file));
+        }
+        List<File> res = new ArrayList<File>(ages.keySet());
+        res.sort(Comparator.comparing(ages::get));
+        return new ArrayList<File>(res.subList(0, Math.min(count, res.size())));
+    }
+
+    /**
+     * @param file The file.
+     * @return The time when the file was last refreshed, or when it was last modified if it has not been
+     * refreshed since.
+     */
+    public long getLastRefreshed(File file) {
+        ArgumentCheck.checkNotNull(file, "File file");
+        String refreshed = state.get(file.getAbsolutePath());
+        return Math.max(refreshed == null ? 0L : Long.parseLong(refreshed), file.lastModified());
+    }
+
+    /**
+     * Registers that the file has been refreshed, whether or not its content was changed.
+     * @param file The refreshed file.
+     * @param date The time in millis of the refresh.
+     */
+    public void registerRefreshed(File file, long date) {
+        ArgumentCheck.checkNotNull(file, "File file");
+        state.put(file.getAbsolutePath(), Long.toString(date));
+    }
+
+    /**
+     * Writes the refresh times to the state file, if any.
+     * The refresh times of the files, which no longer exist, are removed.
+     */
+    public void save() {
+        state.removeKeys(path -> !new File(path).isFile());
+        state.save();
+    }
+}
@@ -0,0 +1,90 @@
+package dk.kb.elivagar.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The snapshot of the original content files, as they were when they were last packed.
+ *
+ * For each file, the size, the last modified timestamp and the file key (the inode) is kept, so it is possible
+ * to skip the files which have not been changed since they were packed.
+ * The snapshot must be saved at the end of the run.
+ */
+public class SourceFileSnapshot {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(SourceFileSnapshot.class);
+
+    /** The name of the state file with the snapshot.*/
+    protected static final String SNAPSHOT_NAME = "source_file_snapshot.txt";
+    /** The separator between the attributes of the file.*/
+    protected static final String ATTRIBUTE_SEPARATOR = "|";
+
+    /** The state file with the snapshot.*/
+    protected final StateFile state;
+
+    /**
+     * Constructor.
+     * @param stateDir The directory for the state files.
+     */
+    public SourceFileSnapshot(File stateDir) {
+        this.state = new StateFile(stateDir, SNAPSHOT_NAME);
+    }
+
+    /**
+     * Checks whether the file is unchanged since it was registered in the snapshot.
+     * @param file The file.
+     * @return Whether or not the file is in the snapshot, with the same size, last modified timestamp and inode.
+     */
+    public boolean isUnchanged(File file) {
+        ArgumentCheck.checkNotNull(file, "File file");
+        String registered = state.get(file.getAbsolutePath());
+        if(registered == null) {
+            return false;
+        }
+        try {
+            return registered.equals(getSignature(file));
+        } catch (IOException e) {
+            log.debug("Could not read the attributes of the file '" + file.getAbsolutePath() + "'.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Registers the current state of the file in the snapshot.
+     * @param file The file.
+     */
+    public void update(File file) {
+        ArgumentCheck.checkNotNull(file, "File file");
+        try {
+            state.put(file.getAbsolutePath(), getSignature(file));
+        } catch (IOException e) {
+            log.warn("Could not register the file '" + file.getAbsolutePath() + "' in the snapshot.", e);
+            state.remove(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Writes the snapshot to the state file.
+     */
+    public void save() {
+        state.save();
+    }
+
+    /**
+     * @param file The file.
+     * @return The signature of the file; its size, last modified timestamp and file key.
+     * @throws IOException If the attributes of the file cannot be read.
+     */
+    protected static String getSignature(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return attributes.size() + ATTRIBUTE_SEPARATOR + attributes.lastModifiedTime().toMillis()
+                + ATTRIBUTE_SEPARATOR + attributes.fileKey();
+    }
+}
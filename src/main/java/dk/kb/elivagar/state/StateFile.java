@@ -0,0 +1,179 @@
+package dk.kb.elivagar.state;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.StreamUtils;
+
+/**
+ * A persisted map of keys and values, which keeps the state of Elivagar between runs.
+ *
+ * The state is kept in memory, and is written to the state file when it is saved.
+ * Each entry is written on its own line, with the key and the value separated by a tab.
+ * The state file is replaced atomically, so an interrupted save does not corrupt the existing state.
+ * Without a state directory, the state is only kept in memory.
+ * The entries can be read and changed concurrently.
+ */
+public class StateFile {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(StateFile.class);
+
+    /** The separator between the key and the value.*/
+    protected static final String KEY_VALUE_SEPARATOR = "\t";
+    /** The suffix for the temporary file, while saving.*/
+    protected static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /** The state file. This is null, if the state is only kept in memory.*/
+    protected final File stateFile;
+    /** The entries of the state.*/
+    protected final Map<String, String> entries;
+    /** Whether the state has been changed since it was loaded or saved.*/
+    protected volatile boolean changed;
+
+    /**
+     * Constructor. Loads the state from the state file, if it exists.
+     * @param stateDir The directory for the state files. May be null, for only keeping the state in memory.
+     * @param name The name of the state file.
+     */
+    public StateFile(File stateDir, String name) {
+        ArgumentCheck.checkNotNullOrEmpty(name, "String name");
+        this.entries = new ConcurrentHashMap<String, String>();
+        this.changed = false;
+        if(stateDir != null) {
+            ArgumentCheck.checkExistsDirectory(stateDir, "File stateDir");
+            this.stateFile = new File(stateDir, name);
+            load();
+        } else {
+            this.stateFile = null;
+        }
+    }
+
+    /**
+     * Loads the entries from the state file.
+     */
+    protected void load() {
+        if(!stateFile.isFile()) {
+            log.debug("No state file at '" + stateFile.getAbsolutePath() + "'. Starting with an empty state.");
+            return;
+        }
+        try(InputStream in = new FileInputStream(stateFile)) {
+            for(String line : StreamUtils.extractInputStreamAsLines(in)) {
+                int index = line.indexOf(KEY_VALUE_SEPARATOR);
+                if(index < 1) {
+                    log.warn("Ignoring invalid line in the state file '" + stateFile.getName() + "': " + line);
+                    continue;
+                }
+                entries.put(line.substring(0, index), line.substring(index + KEY_VALUE_SEPARATOR.length()));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the state file '" + stateFile.getAbsolutePath()
+                    + "'.", e);
+        }
+        log.debug("Loaded " + entries.size() + " entries from the state file '" + stateFile.getName() + "'.");
+    }
+
+    /**
+     * @param key The key.
+     * @return The value for the key, or null if the state has no value for the key.
+     */
+    public String get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Sets the value for the key.
+     * @param key The key. Must not contain a tab or a line break.
+     * @param value The value. Must not contain a line break.
+     */
+    public void put(String key, String value) {
+        ArgumentCheck.checkNotNullOrEmpty(key, "String key");
+        ArgumentCheck.checkNotNull(value, "String value");
+        if(key.contains(KEY_VALUE_SEPARATOR) || key.contains("\n") || value.contains("\n")) {
+            throw new ArgumentCheck("Cannot store the key '" + key + "' with the value '" + value + "'.");
+        }
+        if(!value.equals(entries.put(key, value))) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Removes the value for the key.
+     * @param key The key.
+     */
+    public void remove(String key) {
+        if(entries.remove(key) != null) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Removes the entries, whose keys match the predicate.
+     * @param predicate The predicate for the keys of the entries to remove.
+     */
+    public void removeKeys(Predicate<String> predicate) {
+        ArgumentCheck.checkNotNull(predicate, "Predicate<String> predicate");
+        if(entries.keySet().removeIf(predicate)) {
+            changed = true;
+        }
+    }
+
+    /** @return The keys of the state.*/
+    public Set<String> getKeys() {
+        return new HashSet<String>(entries.keySet());
+    }
+
+    /** @return The number of entries in the state.*/
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the state to the state file, if it has been changed, and the state is not only kept in memory.
+     * The entries are written to a temporary file, which then replaces the state file.
+     * Changes made while saving are written by the next save.
+     */
+    public synchronized void save() {
+        if(stateFile == null) {
+            log.trace("The state is only kept in memory.");
+            return;
+        }
+        if(!changed) {
+            log.trace("No changes to the state file '" + stateFile.getName() + "'.");
+            return;
+        }
+        changed = false;
+        File tempFile = new File(stateFile.getParentFile(), stateFile.getName() + TEMPORARY_SUFFIX);
+        try {
+            try(OutputStream out = new FileOutputStream(tempFile)) {
+                for(Map.Entry<String, String> entry : entries.entrySet()) {
+                    out.write((entry.getKey() + KEY_VALUE_SEPARATOR + entry.getValue() + "\n").getBytes(
+                            StandardCharsets.UTF_8));
+                }
+                out.flush();
+            }
+            Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            changed = true;
+            throw new IllegalStateException("Could not write the state file '" + stateFile.getAbsolutePath()
+                    + "'.", e);
+        }
+        log.debug("Saved " + entries.size() + " entries to the state file '" + stateFile.getName() + "'.");
+    }
+}
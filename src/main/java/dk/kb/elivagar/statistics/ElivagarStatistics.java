@@ -5,11 +5,7 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
@@ -21,6 +17,7 @@ import org.w3c.dom.Element;
 import dk.kb.elivagar.Constants;
 import dk.kb.elivagar.config.Configuration;
 import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.XmlUtils;
 
 /**
  * Class for calculating the statistics for the books retrieved from pubhub. 
@@ -39,6 +36,16 @@ public class ElivagarStatistics {
     protected SuffixMap numberOfFiles;
     /** The mapping between file suffixes and the number of new files with the given suffix.*/
     protected SuffixMap numberOfNewFiles;
+    /** The number of Alma lookups skipped by the negative cache, or -1 if it is not part of the statistics.*/
+    protected long almaNegativeCacheHits;
+    /** The number of ISBN numbers in the negative cache for Alma, or -1 if it is not part of the statistics.*/
+    protected long almaNegativeCacheSize;
+    /** The total time in millis spent waiting for the HTTP rate limits. -1 if it is not set.*/
+    protected long httpRateLimitWaitTime;
+    /** The number of HTTP requests, which had to wait for the rate limits.*/
+    protected long httpRateLimitWaitCount;
+    /** The number of times a host has told us to back off.*/
+    protected long httpThrottledCount;
 
     /** The configuration.*/
     protected final Configuration conf;
@@ -54,6 +61,9 @@ public class ElivagarStatistics {
         numberOfOtherCount = 0l;
         numberOfFiles = new SuffixMap();
         numberOfNewFiles = new SuffixMap();
+        almaNegativeCacheHits = -1L;
+        almaNegativeCacheSize = -1L;
+        httpRateLimitWaitTime = -1L;
     }
 
     /**
@@ -146,6 +156,43 @@ public class ElivagarStatistics {
         return numberOfNewFiles;
     }
 
+    /**
+     * Sets the statistics for the negative cache of the ISBN numbers, which Alma could not resolve.
+     * @param hits The number of Alma lookups skipped by the negative cache.
+     * @param size The number of ISBN numbers in the negative cache.
+     */
+    public void setAlmaNegativeCacheStatistics(long hits, long size) {
+        ArgumentCheck.checkNotNegativeLong(hits, "long hits");
+        ArgumentCheck.checkNotNegativeLong(size, "long size");
+        almaNegativeCacheHits = hits;
+        almaNegativeCacheSize = size;
+    }
+
+    /** @return The number of Alma lookups skipped by the negative cache, or -1 if it is not set.*/
+    public long getAlmaNegativeCacheHits() {
+        return almaNegativeCacheHits;
+    }
+
+    /**
+     * Sets the statistics for the rate limits of the outbound HTTP requests.
+     * @param waitTime The total time in millis spent waiting for the rate limits.
+     * @param waitCount The number of requests, which had to wait for the rate limits.
+     * @param throttledCount The number of times a host has told us to back off.
+     */
+    public void setHttpRateLimitStatistics(long waitTime, long waitCount, long throttledCount) {
+        ArgumentCheck.checkNotNegativeLong(waitTime, "long waitTime");
+        ArgumentCheck.checkNotNegativeLong(waitCount, "long waitCount");
+        ArgumentCheck.checkNotNegativeLong(throttledCount, "long throttledCount");
+        httpRateLimitWaitTime = waitTime;
+        httpRateLimitWaitCount = waitCount;
+        httpThrottledCount = throttledCount;
+    }
+
+    /** @return The total time in millis spent waiting for the HTTP rate limits, or -1 if it is not set.*/
+    public long getHttpRateLimitWaitTime() {
+        return httpRateLimitWaitTime;
+    }
+
     /**
      * Prints the statistics to the print-stream.
      * @param printer The printstream where the statistics will be printed.
@@ -156,9 +203,7 @@ public class ElivagarStatistics {
         ArgumentCheck.checkNotNull(conf, "Configuration conf");
 
         try {
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-            Document doc = docBuilder.newDocument();
+            Document doc = XmlUtils.newDocument();
             Element rootElement = doc.createElement("elivagar");
             doc.appendChild(rootElement);
 
@@ -166,12 +211,11 @@ public class ElivagarStatistics {
             addXmlElementsForFormats(rootElement, doc);
             addXmlElementsForMetadataFormats(rootElement, doc);
             addXmlElementsForOtherSuffixes(rootElement, doc);
+            addXmlElementsForAlmaNegativeCache(rootElement, doc);
+            addXmlElementsForHttpRateLimit(rootElement, doc);
 
             // write the content into xml file
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+            Transformer transformer = XmlUtils.getIndentingTransformer();
 
             DOMSource source = new DOMSource(doc);
             StreamResult result = new StreamResult(printer);
@@ -322,6 +366,49 @@ public class ElivagarStatistics {
         }
     }
     
+    /**
+     * Adds the statistics for the negative cache of the ISBN numbers, which Alma could not resolve.
+     * Nothing is added, if the statistics for the negative cache has not been set.
+     * @param root The root element.
+     * @param doc The document.
+     */
+    protected void addXmlElementsForAlmaNegativeCache(Element root, Document doc) {
+        if(almaNegativeCacheHits < 0) {
+            return;
+        }
+        Element cacheElement = doc.createElement("alma_negative_cache");
+        root.appendChild(cacheElement);
+        Element hitsField = doc.createElement("hits");
+        cacheElement.appendChild(hitsField);
+        hitsField.appendChild(doc.createTextNode(Long.toString(almaNegativeCacheHits)));
+        Element sizeField = doc.createElement("size");
+        cacheElement.appendChild(sizeField);
+        sizeField.appendChild(doc.createTextNode(Long.toString(almaNegativeCacheSize)));
+    }
+    
+    /**
+     * Adds the statistics for the rate limits of the outbound HTTP requests.
+     * Nothing is added, if the statistics for the rate limits has not been set.
+     * @param root The root element.
+     * @param doc The document.
+     */
+    protected void addXmlElementsForHttpRateLimit(Element root, Document doc) {
+        if(httpRateLimitWaitTime < 0) {
+            return;
+        }
+        Element rateLimitElement = doc.createElement("http_rate_limit");
+        root.appendChild(rateLimitElement);
+        Element waitTimeField = doc.createElement("wait_time_millis");
+        rateLimitElement.appendChild(waitTimeField);
+        waitTimeField.appendChild(doc.createTextNode(Long.toString(httpRateLimitWaitTime)));
+        Element waitCountField = doc.createElement("waiting_requests");
+        rateLimitElement.appendChild(waitCountField);
+        waitCountField.appendChild(doc.createTextNode(Long.toString(httpRateLimitWaitCount)));
+        Element throttledField = doc.createElement("throttled_responses");
+        rateLimitElement.appendChild(throttledField);
+        throttledField.appendChild(doc.createTextNode(Long.toString(httpThrottledCount)));
+    }
+    
     /**
      * Adds XML leaf-elements for the total and new values.
      * These will be added to the branch xml element.
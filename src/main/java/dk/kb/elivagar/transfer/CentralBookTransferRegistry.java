@@ -0,0 +1,52 @@
+package dk.kb.elivagar.transfer;
+
+import java.io.File;
+import java.util.List;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The transfer registry for a given book, where the lines are kept in the central transfer registry instead of
+ * a registry file in the book directory.
+ */
+public class CentralBookTransferRegistry extends TransferRegistry {
+    /** The central registry.*/
+    protected final CentralTransferRegistry centralRegistry;
+    /** The id of the book.*/
+    protected final String bookId;
+
+    /**
+     * Constructor.
+     * @param bookDir The directory for the book.
+     * @param centralRegistry The central registry.
+     */
+    public CentralBookTransferRegistry(File bookDir, CentralTransferRegistry centralRegistry) {
+        super(bookDir);
+        ArgumentCheck.checkNotNull(centralRegistry, "CentralTransferRegistry centralRegistry");
+        this.centralRegistry = centralRegistry;
+        this.bookId = bookDir.getName();
+    }
+
+    @Override
+    public boolean hasBeenIngested() {
+        return centralRegistry.hasBook(bookId);
+    }
+
+    @Override
+    protected synchronized void loadIndex() {
+        if(lines != null && lines.size() == centralRegistry.getLineCount(bookId)) {
+            return;
+        }
+        List<String> bookLines = centralRegistry.getLines(bookId);
+        indexLines(bookLines);
+    }
+
+    @Override
+    protected synchronized void writeLine(String line) {
+        boolean upToDate = lines != null && lines.size() == centralRegistry.getLineCount(bookId);
+        centralRegistry.addLine(bookId, line);
+        if(upToDate) {
+            indexLine(line);
+        }
+    }
+}
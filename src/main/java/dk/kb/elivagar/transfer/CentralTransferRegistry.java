@@ -0,0 +1,203 @@
+package dk.kb.elivagar.transfer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.utils.StreamUtils;
+
+/**
+ * The central transfer registry for all the books.
+ * It is an alternative to having a transfer registry file in each book directory.
+ *
+ * The registry lines for all the books are appended to a single file in the central registry directory,
+ * each line prefixed with the id of the book. The file is read once, and kept in memory, so the registry
+ * of any book can be found without opening the book directory.
+ *
+ * The registry file in a book directory is imported, the first time the registry of the book is retrieved, when
+ * the central registry does not have the book. So a book is never treated as not ingested, just because its
+ * registry has not been imported yet. Afterwards the registry file in the book directory is no longer used.
+ */
+public class CentralTransferRegistry {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(CentralTransferRegistry.class);
+
+    /** The name of the central registry file.*/
+    protected static final String CENTRAL_REGISTRY_NAME = "central_transfer_registry.txt";
+    /** The separator between the id of the book and the registry line.*/
+    protected static final String BOOK_ID_SEPARATOR = "\t";
+
+    /** The central registry file.*/
+    protected final File registryFile;
+    /** The registry lines for each book, in the order they were written.*/
+    protected final Map<String, List<String>> bookLines;
+
+    /**
+     * Constructor.
+     * @param registryDir The directory for the central registry.
+     */
+    public CentralTransferRegistry(File registryDir) {
+        ArgumentCheck.checkExistsDirectory(registryDir, "File registryDir");
+        this.registryFile = new File(registryDir, CENTRAL_REGISTRY_NAME);
+        this.bookLines = new HashMap<String, List<String>>();
+        load();
+    }
+
+    /**
+     * Reads the central registry file, if it exists.
+     */
+    protected void load() {
+        if(!registryFile.isFile()) {
+            log.info("No central transfer registry at '" + registryFile.getAbsolutePath() + "'. Starting a new.");
+            return;
+        }
+        try(InputStream in = new FileInputStream(registryFile)) {
+            for(String line : StreamUtils.extractInputStreamAsLines(in)) {
+                int index = line.indexOf(BOOK_ID_SEPARATOR);
+                if(index < 1) {
+                    log.warn("Ignoring invalid line in the central transfer registry: " + line);
+                    continue;
+                }
+                getOrCreateLines(line.substring(0, index)).add(line.substring(index + BOOK_ID_SEPARATOR.length()));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the central transfer registry '"
+                    + registryFile.getAbsolutePath() + "'.", e);
+        }
+        log.info("Loaded the central transfer registry with " + bookLines.size() + " books.");
+    }
+
+    /**
+     * Retrieves the registry lines for the book, and creates them if they do not already exist.
+     * @param bookId The id of the book.
+     * @return The registry lines for the book.
+     */
+    protected List<String> getOrCreateLines(String bookId) {
+        List<String> res = bookLines.get(bookId);
+        if(res == null) {
+            res = new ArrayList<String>();
+            bookLines.put(bookId, res);
+        }
+        return res;
+    }
+
+    /**
+     * Retrieves the transfer registry for a given book, backed by this central registry.
+     * The registry file in the book directory is imported, if the central registry does not have the book.
+     * @param bookDir The directory for the book.
+     * @return The transfer registry for the book.
+     */
+    public TransferRegistry getRegistry(File bookDir) {
+        importRegistry(bookDir);
+        return new CentralBookTransferRegistry(bookDir, this);
+    }
+
+    /**
+     * @param bookId The id of the book.
+     * @return Whether or not the central registry has any lines for the book.
+     */
+    public synchronized boolean hasBook(String bookId) {
+        return bookLines.containsKey(bookId);
+    }
+
+    /**
+     * @param bookId The id of the book.
+     * @return The registry lines for the book. Empty list, if the book is not in the registry.
+     */
+    public synchronized List<String> getLines(String bookId) {
+        List<String> res = bookLines.get(bookId);
+        if(res == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<String>(res);
+    }
+
+    /**
+     * @param bookId The id of the book.
+     * @return The number of registry lines for the book.
+     */
+    public synchronized int getLineCount(String bookId) {
+        List<String> res = bookLines.get(bookId);
+        return res == null ? 0 : res.size();
+    }
+
+    /** @return The ids of all the books in the central registry.*/
+    public synchronized Set<String> getBookIds() {
+        return new HashSet<String>(bookLines.keySet());
+    }
+
+    /**
+     * Appends a registry line for the book.
+     * @param bookId The id of the book.
+     * @param line The registry line.
+     */
+    public synchronized void addLine(String bookId, String line) {
+        ArgumentCheck.checkNotNullOrEmpty(bookId, "String bookId");
+        ArgumentCheck.checkNotNull(line, "String line");
+        addLines(bookId, Collections.singletonList(line));
+    }
+
+    /**
+     * Appends the registry lines for the book to the central registry file, and keeps them in memory.
+     * @param bookId The id of the book.
+     * @param lines The registry lines.
+     */
+    protected void addLines(String bookId, List<String> lines) {
+        try(OutputStream out = new FileOutputStream(registryFile, TransferRegistry.APPENDS_TO_FILE)) {
+            for(String line : lines) {
+                out.write((bookId + BOOK_ID_SEPARATOR + line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+        } catch(IOException e) {
+            throw new IllegalStateException("Error when trying to write the lines " + lines + " for the book '"
+                    + bookId + "' to the central transfer registry.", e);
+        }
+        getOrCreateLines(bookId).addAll(lines);
+    }
+
+    /**
+     * Imports the transfer registry file in the book directory, unless the book is already in the central registry.
+     * @param bookDir The directory for the book.
+     * @return Whether the registry of the book was imported.
+     * @throws IllegalStateException If the registry file of the book cannot be read.
+     */
+    public synchronized boolean importRegistry(File bookDir) {
+        ArgumentCheck.checkNotNull(bookDir, "File bookDir");
+        File bookRegistryFile = new File(bookDir, TransferRegistry.REGISTRY_NAME);
+        if(hasBook(bookDir.getName()) || !bookRegistryFile.isFile()) {
+            return false;
+        }
+        try(InputStream in = new FileInputStream(bookRegistryFile)) {
+            List<String> lines = StreamUtils.extractInputStreamAsLines(in);
+            if(lines.isEmpty()) {
+                return false;
+            }
+            addLines(bookDir.getName(), lines);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not import the transfer registry for the book '" 
+                    + bookDir.getName() + "'.", e);
+        }
+        log.debug("Imported the transfer registry for the book '" + bookDir.getName() + "'.");
+        return true;
+    }
+
+    /** @return Whether the central registry has no books.*/
+    public synchronized boolean isEmpty() {
+        return bookLines.isEmpty();
+    }
+}
@@ -2,18 +2,15 @@ package dk.kb.elivagar.transfer;
 
 import dk.kb.elivagar.Constants;
 import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.pubhub.PubhubMetadataFields;
 import dk.kb.elivagar.utils.CalendarUtils;
 import dk.kb.elivagar.utils.FileUtils;
+import dk.kb.elivagar.utils.LinkStrategy;
 import dk.pubhub.service.BookTypeEnum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -32,13 +29,16 @@ import java.util.*;
  * When updating, the content files and technical metadata files will be copied to the designated update content 
  * directory, whereas the other types of metadata will be copied to the designated update metadata directory.
  * And update will only occur, if the last modified timestamp is newer than the latest update timestamp.
+ * 
+ * The transfer registries are either kept in the book directories, or in a central transfer registry.
+ * 
+ * The content files are placed in the transfer directories according to the link strategy (e.g. as hard links), 
+ * whereas all the other files are copied, since they may be rewritten in the book directory.
  */
 public class PreIngestTransfer {
     /** The logger.*/
     private static final Logger log = LoggerFactory.getLogger(PreIngestTransfer.class);
 
-    /** The XPATH for finding the publication date in the pubhub metadata file.*/
-    protected static final String XPATH_PUBLICATION_DATE = "/*:Book/*:PublicationDate/text()";
     /** The date format for the publication date in the pubhub metadata file.*/
     protected static final String DATE_FORMAT_PUBLICATION_DATE = "dd-MM-yyyy";
     
@@ -60,21 +60,32 @@ public class PreIngestTransfer {
 
     /** The configuration.*/
     protected final Configuration conf;
-
-    /** The document builder factory.*/
-    protected final DocumentBuilderFactory documentBuilderFactory;
-    /** The XPath factory.*/
-    protected final XPathFactory xPathFactory;
+    /** The central transfer registry. Null, if the books have their own transfer registry files.*/
+    protected final CentralTransferRegistry centralRegistry;
+    /** The strategy for placing the content files in the transfer directories.*/
+    protected final LinkStrategy linkStrategy;
 
     /**
      * Constructor.
      * @param conf The configuration.
      */
     public PreIngestTransfer(Configuration conf) {
-        this.conf = conf;
+        this(conf, null, LinkStrategy.COPY);
+    }
 
-        documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        xPathFactory = XPathFactory.newInstance();
+    /**
+     * Constructor.
+     * @param conf The configuration.
+     * @param centralRegistry The central transfer registry. May be null, for using the registries in the 
+     * book directories.
+     * @param linkStrategy The strategy for placing the content files in the transfer directories.
+     */
+    public PreIngestTransfer(Configuration conf, CentralTransferRegistry centralRegistry, 
+            LinkStrategy linkStrategy) {
+        ArgumentCheck.checkNotNull(linkStrategy, "LinkStrategy linkStrategy");
+        this.conf = conf;
+        this.centralRegistry = centralRegistry;
+        this.linkStrategy = linkStrategy;
     }
 
     /**
@@ -101,27 +112,50 @@ public class PreIngestTransfer {
     protected void transferBook(File dir, BookTypeEnum bookType) {
         try {
             for(File bookDir : FileUtils.getFilesInDirectory(dir)) {
-                String id = bookDir.getName();
-                if(!bookDir.isDirectory()) {
-                    log.warn("Dir for book '" + id + "' is not a directory ('" + bookDir.getAbsolutePath() + "'). "
-                            + "Skipping.");
-                    continue;
-                }
-
-                TransferRegistry register = new TransferRegistry(bookDir);
-
-                if(register.getIngestDate() != null) {
-                    validateRegistry(bookDir, register);
-                    updateBook(bookDir, register, bookType);
-                } else {
-                    ingestBook(bookDir, register, bookType);
-                }
+                transferBookDir(bookDir, bookType);
             }
         } catch (IOException e) {
             log.error("Failure while transfering books from '" + dir + "'", e);
         }
     }
 
+    /**
+     * Transfer a single book, if it needs to be transfered.
+     * If the book has already been ingested, then it is updated, otherwise it is ingested.
+     * @param bookDir The directory of the book.
+     * @param bookType The type of book.
+     * @throws IOException If it fails to transfer the book.
+     */
+    public void transferBookDir(File bookDir, BookTypeEnum bookType) throws IOException {
+        String id = bookDir.getName();
+        if(!bookDir.isDirectory()) {
+            log.warn("Dir for book '" + id + "' is not a directory ('" + bookDir.getAbsolutePath() + "'). "
+                    + "Skipping.");
+            return;
+        }
+
+        TransferRegistry register = getRegistry(bookDir);
+
+        if(register.getIngestDate() != null) {
+            validateRegistry(bookDir, register);
+            updateBook(bookDir, register, bookType);
+        } else {
+            ingestBook(bookDir, register, bookType);
+        }
+    }
+
+    /**
+     * Retrieves the transfer registry for the book; from the central registry, if it is used.
+     * @param bookDir The directory of the book.
+     * @return The transfer registry for the book.
+     */
+    protected TransferRegistry getRegistry(File bookDir) {
+        if(centralRegistry != null) {
+            return centralRegistry.getRegistry(bookDir);
+        }
+        return new TransferRegistry(bookDir);
+    }
+
     /**
      * Validates that the registry has any of the books in
      * @param bookDir The directory to validate the registry for.
@@ -186,7 +220,7 @@ public class PreIngestTransfer {
         if(!contentFiles.isEmpty()) {
             log.info("Found " + contentFiles.size() + " new content files for update.");
             String updateDirPath = getUpdateContentDir(bookDir, bookType);
-            copyUpdatedFiles(contentFiles, updateDirPath);
+            copyUpdatedFiles(contentFiles, updateDirPath, linkStrategy);
             register.updateFileEntries(contentFiles);
             updated = true;
         }
@@ -204,10 +238,23 @@ public class PreIngestTransfer {
      * @throws IOException If it fails to create directory or copy files.
      */
     protected void copyUpdatedFiles(List<File> files, String destDirPath) throws IOException {
+        copyUpdatedFiles(files, destDirPath, LinkStrategy.COPY);
+    }
+
+    /**
+     * Move updated files to the destination directory, though through a transfer directory.
+     * The files are placed in the transfer directory according to the link strategy.
+     * @param files The files to place in the destination directory.
+     * @param destDirPath The destination directory.
+     * @param strategy The link strategy.
+     * @throws IOException If it fails to create directory or place the files.
+     */
+    protected void copyUpdatedFiles(List<File> files, String destDirPath, LinkStrategy strategy) 
+            throws IOException {
         File transferDir = getTransferDir(destDirPath);
         for(File fromFile : files) {
             File toFile = new File(transferDir, fromFile.getName());
-            FileUtils.copyFile(fromFile, toFile);
+            FileUtils.linkFile(fromFile, toFile, strategy);
         }
         File destDir = FileUtils.createDirectory(destDirPath);
         FileUtils.moveDirectory(transferDir, destDir);
@@ -224,14 +271,27 @@ public class PreIngestTransfer {
     protected void ingestBook(File bookDir, TransferRegistry register, BookTypeEnum bookType) throws IOException {
         log.info("Ingesting the book: " + bookDir.getName());
         if(readyForIngest(bookDir)) {
+            List<Path> contentFiles = getContentFiles(bookDir);
+            Set<String> contentFileNames = new HashSet<String>();
+            for(Path path : contentFiles) {
+                contentFileNames.add(path.getFileName().toString());
+            }
+
             String outputDirPath = getIngestDir(bookDir, bookType);
             File transferDir = getTransferDir(outputDirPath);
-            FileUtils.copyDirectory(bookDir, transferDir);
+            for(File f : FileUtils.getFilesInDirectory(bookDir)) {
+                File toFile = new File(transferDir, f.getName());
+                if(contentFileNames.contains(f.getName())) {
+                    FileUtils.linkFile(f, toFile, linkStrategy);
+                } else {
+                    FileUtils.copyFile(f, toFile);
+                }
+            }
             
             File outputDir = FileUtils.createDirectory(outputDirPath);
             FileUtils.moveDirectory(transferDir, outputDir);
             register.setIngestDate(new Date());
-            for(Path path : getContentFiles(bookDir)) {
+            for(Path path : contentFiles) {
                 register.setChecksumAndDate(path.toFile());
             }
         }
@@ -386,13 +446,8 @@ public class PreIngestTransfer {
      */
     protected Date findPublicationDate(File pubhubMetadata) {
         try {
-            DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
-            Document doc = builder.parse(pubhubMetadata);
-            XPath xpath = xPathFactory.newXPath();
-            XPathExpression publicationDatePath = xpath.compile(XPATH_PUBLICATION_DATE);
-
-            String date = publicationDatePath.evaluate(doc);
-            if(date.isEmpty()) {
+            String date = PubhubMetadataFields.extract(pubhubMetadata).getPublicationDate();
+            if(date == null || date.isEmpty()) {
                 log.warn("Could not extract the publication date from file '" 
                         + pubhubMetadata.getAbsolutePath() + "'. Returning a null.");
                 return null;
@@ -14,9 +14,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The transfer registry for a given book.
@@ -25,6 +28,10 @@ import java.util.List;
  *
  * Whenever a book is ingested or updated, it also writes a line for the checksum of the content-file along with
  * the last modified time-stamp.
+ *
+ * The registry file is only read once, and the entries are kept in an index (with the first and the latest 
+ * value for each kind of entry and file), which is updated when new lines are written.
+ * The registry file is read again, if it has been changed by anyone else.
  */
 public class TransferRegistry {
     /** The logger.*/
@@ -52,6 +59,15 @@ public class TransferRegistry {
     /** The transfer registry file for the book.*/
     protected final File registryFile;
 
+    /** The lines of the registry file, in the order they were written. Null, if the file has not been read.*/
+    protected List<String> lines;
+    /** The first value for each entry key (the prefix for the entry, including any filename).*/
+    protected final Map<String, String> firstEntries;
+    /** The latest value for each entry key (the prefix for the entry, including any filename).*/
+    protected final Map<String, String> latestEntries;
+    /** The length of the registry file, when the lines were read or written.*/
+    protected long indexedLength;
+
     /**
      * Constructor.
      * @param bookDir The directory for the book.
@@ -60,6 +76,10 @@ public class TransferRegistry {
         ArgumentCheck.checkExistsDirectory(bookDir, "File bookDir");
         this.bookDir = bookDir;
         this.registryFile = new File(bookDir, REGISTRY_NAME);
+        this.lines = null;
+        this.firstEntries = new HashMap<String, String>();
+        this.latestEntries = new HashMap<String, String>();
+        this.indexedLength = -1L;
     }
 
     /**
@@ -90,13 +110,10 @@ public class TransferRegistry {
             return null;
         }
 
-        try(InputStream input = new FileInputStream(registryFile)) {
-            List<String> lines = StreamUtils.extractInputStreamAsLines(input);
-            for(String line : lines) {
-                if(line.startsWith(LINE_PREFIX_INGEST)) {
-                    Long date = Long.parseLong(line.replace(LINE_PREFIX_INGEST, ""));
-                    return new Date(date);
-                }
+        try {
+            String date = getEntry(LINE_PREFIX_INGEST, false);
+            if(date != null) {
+                return new Date(Long.parseLong(date));
             }
             log.warn("Could not find a ingest date for book '" + bookDir.getName() + "'. Returning a null.");
         } catch (IOException e) {
@@ -126,13 +143,10 @@ public class TransferRegistry {
             return null;
         }
 
-        try(InputStream input = new FileInputStream(registryFile)) {
-            List<String> lines = StreamUtils.extractInputStreamAsLines(input);
-            for(String line : Lists.reverse(lines)) {
-                if(line.startsWith(LINE_PREFIX_UPDATE)) {
-                    Long date = Long.parseLong(line.replace(LINE_PREFIX_UPDATE, ""));
-                    return new Date(date);
-                }
+        try {
+            String date = getEntry(LINE_PREFIX_UPDATE, true);
+            if(date != null) {
+                return new Date(Long.parseLong(date));
             }
             log.debug("Could not find a update date for book '" + bookDir.getName() + "'. "
                     + "Has possibly not been updated yet. Trying to find the ingest date.");
@@ -253,26 +267,115 @@ public class TransferRegistry {
             return null;
         }
 
-        try(InputStream input = new FileInputStream(registryFile)) {
-            List<String> lines = StreamUtils.extractInputStreamAsLines(input);
-            for(String line : Lists.reverse(lines)) {
-                if(line.startsWith(prefix)) {
-                    return line.replace(prefix, "");
-                }
+        try {
+            String res = getEntry(prefix, true);
+            if(res == null) {
+                log.debug("Could not find an entry in the registry with the prefix: " + prefix);
             }
-            log.debug("Could not find an entry in the registry with the prefix: " + prefix);
-            return null;
+            return res;
         } catch (IOException e) {
             log.error("Could not read the registry file for book '" + bookDir.getName() + "'. Returning a null.", e);
         }
         return null;
     }
 
+    /**
+     * Retrieves the content of either the first or the latest line with the given prefix.
+     * If the prefix is an entry key, then it is found directly in the index, otherwise the lines are searched.
+     * @param prefix The prefix to look for.
+     * @param latest Whether to find the latest line, otherwise the first line.
+     * @return The line - after the prefix. Or null if no such line was found.
+     * @throws IOException If the registry file cannot be read.
+     */
+    protected synchronized String getEntry(String prefix, boolean latest) throws IOException {
+        loadIndex();
+        if(prefix.equals(getEntryKey(prefix))) {
+            return latest ? latestEntries.get(prefix) : firstEntries.get(prefix);
+        }
+
+        List<String> linesToSearch = latest ? Lists.reverse(lines) : lines;
+        for(String line : linesToSearch) {
+            if(line.startsWith(prefix)) {
+                return line.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the registry file into the index, unless it already has been read and it has not been changed since.
+     * @throws IOException If the registry file cannot be read.
+     */
+    protected synchronized void loadIndex() throws IOException {
+        if(lines != null && registryFile.length() == indexedLength) {
+            return;
+        }
+        List<String> registryLines;
+        try(InputStream input = new FileInputStream(registryFile)) {
+            registryLines = StreamUtils.extractInputStreamAsLines(input);
+        }
+        indexLines(registryLines);
+        indexedLength = registryFile.length();
+    }
+
+    /**
+     * Replaces the index with the given lines.
+     * @param registryLines The lines of the registry.
+     */
+    protected void indexLines(List<String> registryLines) {
+        lines = new ArrayList<String>();
+        firstEntries.clear();
+        latestEntries.clear();
+        for(String line : registryLines) {
+            indexLine(line);
+        }
+    }
+
+    /**
+     * Adds a line to the index.
+     * @param line The line.
+     */
+    protected void indexLine(String line) {
+        lines.add(line);
+        String key = getEntryKey(line);
+        if(key != null) {
+            String value = line.substring(key.length());
+            latestEntries.put(key, value);
+            if(!firstEntries.containsKey(key)) {
+                firstEntries.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Extracts the entry key of a line; the prefix of the line including any filename.
+     * E.g. 'ingest date: ' or 'MD5: filename##'.
+     * @param line The line.
+     * @return The entry key, or null if the line is not a known kind of entry.
+     */
+    protected static String getEntryKey(String line) {
+        if(line.startsWith(LINE_PREFIX_CHECKSUM) || line.startsWith(LINE_PREFIX_FILE_DATE)) {
+            int index = line.indexOf(LINE_FILENAME_VALUE_SEPARATOR);
+            if(index < 0) {
+                return null;
+            }
+            return line.substring(0, index + LINE_FILENAME_VALUE_SEPARATOR.length());
+        }
+        if(line.startsWith(LINE_PREFIX_INGEST)) {
+            return LINE_PREFIX_INGEST;
+        }
+        if(line.startsWith(LINE_PREFIX_UPDATE)) {
+            return LINE_PREFIX_UPDATE;
+        }
+        return null;
+    }
+
     /**
      * Writes the given line to the registry file.
      * @param line The line to write.
      */
-    protected void writeLine(String line) {
+    protected synchronized void writeLine(String line) {
+        boolean upToDate = lines != null && registryFile.length() == indexedLength;
         try(OutputStream out = new FileOutputStream(registryFile, APPENDS_TO_FILE)) {
             out.write(line.getBytes(StandardCharsets.UTF_8));
             out.write("\n".getBytes(StandardCharsets.UTF_8));
@@ -281,5 +384,9 @@ public class TransferRegistry {
             throw new IllegalStateException("Error when trying to write the line (" + line + ") " + "for the book: "
                     + bookDir.getName(), e);
         }
+        if(upToDate) {
+            indexLine(line);
+            indexedLength = registryFile.length();
+        }
     }
 }
@@ -1,9 +1,14 @@
 package dk.kb.elivagar.transfer;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.config.TransferConfiguration;
+import dk.pubhub.service.BookTypeEnum;
 
 /**
  * The workflow for the transfer module.
@@ -21,13 +26,17 @@ public class TransferWorkflow {
      * @param conf The configuration.
      */
     public TransferWorkflow(Configuration conf) {
-        if(conf.getTransferConfiguration() != null) {
-            this.transfer = new PreIngestTransfer(conf);
-        } else {
+        TransferConfiguration transferConf = conf.getTransferConfiguration();
+        if(transferConf == null) {
             this.transfer = null;
+        } else if(transferConf.getCentralRegistryDir() != null) {
+            this.transfer = new PreIngestTransfer(conf, 
+                    new CentralTransferRegistry(transferConf.getCentralRegistryDir()), transferConf.getLinkStrategy());
+        } else {
+            this.transfer = new PreIngestTransfer(conf, null, transferConf.getLinkStrategy());
         }
     }
-    
+
     /**
      * Runs the workflow.
      * It will not do anything, if the transfer configuration is disabled.
@@ -40,4 +49,24 @@ public class TransferWorkflow {
             transfer.transferReadyBooks(); 
         }
     }
+
+    /** @return Whether or not the transfer is enabled.*/
+    public boolean isEnabled() {
+        return transfer != null;
+    }
+
+    /**
+     * Transfers a single book.
+     * It will not do anything, if the transfer configuration is disabled.
+     * @param bookDir The directory of the book.
+     * @param bookType The type of book.
+     * @throws IOException If it fails to transfer the book.
+     */
+    public void transferBook(File bookDir, BookTypeEnum bookType) throws IOException {
+        if(transfer == null) {
+            log.trace("The transfer is disabled.");
+        } else {
+            transfer.transferBookDir(bookDir, bookType);
+        }
+    }
 }
@@ -2,6 +2,7 @@ package dk.kb.elivagar.utils;
 
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Utility class for dealing with checksums.
@@ -26,6 +27,19 @@ public class ChecksumUtils {
         return Base16Utils.decodeBase16(digest);
     }
     
+    /**
+     * Creates a message digest for the MD5 checksum-algorithm, e.g. for calculating the checksum of data while it
+     * is written.
+     * @return The message digest.
+     */
+    public static MessageDigest createMD5Digester() {
+        try {
+            return MessageDigest.getInstance(MD5_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot instantiate the MD5 checksum algorithm.", e);
+        }
+    }
+    
     /**
      * Calculation of the checksum for a given input stream through the use of message digestion on the checksum 
      * algorithm.
@@ -0,0 +1,49 @@
+package dk.kb.elivagar.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * Utility class for the pools of worker threads.
+ */
+public class ExecutorUtils {
+
+    /**
+     * Creates a pool of daemon worker threads with a bounded queue, where the submission of a task blocks while
+     * the queue is full. A task submitted after the pool has been shut down is rejected.
+     * @param name The name of the pool, which is part of the names of the worker threads.
+     * @param numberOfThreads The number of worker threads.
+     * @param queueSize The maximum number of tasks waiting in the queue.
+     * @return The pool.
+     */
+    public static ThreadPoolExecutor createBlockingPool(String name, int numberOfThreads, int queueSize) {
+        ArgumentCheck.checkNotNullOrEmpty(name, "String name");
+        ArgumentCheck.checkPositiveInt(numberOfThreads, "int numberOfThreads");
+        ArgumentCheck.checkPositiveInt(queueSize, "int queueSize");
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "elivagar-" + name + "-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    if(executor.isShutdown()) {
+                        throw new RejectedExecutionException("The " + name + " pool is shut down.");
+                    }
+                    try {
+                        executor.getQueue().put(runnable);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for the queue of the "
+                                + name + " pool.", e);
+                    }
+                });
+    }
+}
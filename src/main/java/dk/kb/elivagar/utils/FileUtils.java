@@ -4,19 +4,26 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Collection;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import dk.kb.elivagar.exception.ArgumentCheck;
 
 /**
  * Utility class for dealing with files.
  */
 public class FileUtils {
+    /** The logger.*/
+    private static final Logger log = LoggerFactory.getLogger(FileUtils.class);
 
     /**
      * Create or reuse directory
@@ -93,6 +100,125 @@ public class FileUtils {
         Files.copy(fromPath, toPath, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
     }
     
+    /**
+     * Places a file (or the file of its symbolic link) at a given destination, according to the link strategy.
+     * Nothing is done, if the destination already is the same file, or has the same size and last modified
+     * timestamp as the file. Otherwise the destination is replaced (never rewritten).
+     * The hard links and reflinks fall back to a copy, if they cannot be created, e.g. when the file and the
+     * destination are on different file systems.
+     * @param fromFile The from file.
+     * @param toFile The to file.
+     * @param strategy The link strategy.
+     * @throws IOException If it fails to place the file.
+     */
+    public static void linkFile(File fromFile, File toFile, LinkStrategy strategy) throws IOException {
+        ArgumentCheck.checkExistsNormalFile(fromFile, "File fromFile");
+        ArgumentCheck.checkNotNull(toFile, "File toFile");
+        ArgumentCheck.checkNotNull(strategy, "LinkStrategy strategy");
+        Path fromPath = fromFile.toPath().toRealPath();
+        Path toPath = toFile.toPath();
+        if(isUpToDate(fromPath, toPath)) {
+            log.trace("The file '" + toFile.getAbsolutePath() + "' is already up to date.");
+            return;
+        }
+
+        Files.deleteIfExists(toPath);
+        switch(strategy) {
+        case HARDLINK:
+            try {
+                Files.createLink(toPath, fromPath);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("Could not create a hard link from '" + toPath + "' to '" + fromPath + "'. "
+                        + "Copying instead.", e);
+            }
+            break;
+        case REFLINK:
+            if(createReflink(fromPath, toPath)) {
+                return;
+            }
+            break;
+        case SYMLINK:
+            Files.createSymbolicLink(toPath, fromPath);
+            return;
+        default:
+            break;
+        }
+        copyFileData(fromPath, toPath);
+    }
+
+    /**
+     * Checks whether the destination already has the content of the file. 
+     * Either it is the same file (e.g. a link), or it has the same size and last modified timestamp.
+     * @param fromPath The path to the file.
+     * @param toPath The path to the destination.
+     * @return Whether or not the destination is up to date.
+     * @throws IOException If it fails to read the attributes of the files.
+     */
+    protected static boolean isUpToDate(Path fromPath, Path toPath) throws IOException {
+        if(Files.isSymbolicLink(toPath)) {
+            return Files.readSymbolicLink(toPath).equals(fromPath);
+        }
+        if(!Files.isRegularFile(toPath)) {
+            return false;
+        }
+        if(Files.isSameFile(fromPath, toPath)) {
+            return true;
+        }
+        return Files.size(fromPath) == Files.size(toPath) 
+                && Files.getLastModifiedTime(fromPath).equals(Files.getLastModifiedTime(toPath));
+    }
+
+    /**
+     * Creates a copy-on-write clone of the file, by using the 'cp' command with reflinks.
+     * This is only supported by some file systems (e.g. Btrfs, XFS, ZFS).
+     * @param fromPath The path to the file.
+     * @param toPath The path to the destination.
+     * @return Whether or not the clone was created.
+     */
+    protected static boolean createReflink(Path fromPath, Path toPath) {
+        try {
+            Process process = new ProcessBuilder("cp", "--reflink=always", "--preserve=timestamps", 
+                    fromPath.toString(), toPath.toString()).redirectErrorStream(true).start();
+            String output;
+            try (InputStream in = process.getInputStream()) {
+                output = StreamUtils.extractInputStreamAsString(in);
+            }
+            if(process.waitFor() == 0) {
+                return true;
+            }
+            log.debug("Could not create a reflink from '" + toPath + "' to '" + fromPath + "'. Copying instead. "
+                    + "Output: " + output);
+            Files.deleteIfExists(toPath);
+        } catch (IOException e) {
+            log.debug("Could not create a reflink from '" + toPath + "' to '" + fromPath + "'. Copying instead.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating a reflink to '" + fromPath + "'.", e);
+        }
+        return false;
+    }
+
+    /**
+     * Copies the data of a file through file channels, which lets the operating system transfer the data 
+     * directly between the files. The last modified timestamp of the file is kept.
+     * @param fromPath The path to the file.
+     * @param toPath The path to the destination.
+     * @throws IOException If it fails to copy the file.
+     */
+    protected static void copyFileData(Path fromPath, Path toPath) throws IOException {
+        try (FileChannel in = FileChannel.open(fromPath, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(toPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0L;
+            while(position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        Files.setLastModifiedTime(toPath, Files.getLastModifiedTime(fromPath));
+    }
+
     /**
      * Retrieves the list of files from a directory, with the notorious null-pointer check.
      * @param dir The directory to retrieve the files from.
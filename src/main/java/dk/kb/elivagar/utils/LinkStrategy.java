@@ -0,0 +1,41 @@
+package dk.kb.elivagar.utils;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The strategies for placing a file at a new location, without necessarily copying all its data.
+ *
+ * The hard links and the reflinks fall back to a copy, if they are not supported,
+ * e.g. when the source and the destination are on different file systems.
+ * A hard link shares the data with the original file, so the original file must be replaced rather than
+ * rewritten, when it is changed. A reflink (copy-on-write clone) does not have this limitation.
+ */
+public enum LinkStrategy {
+    /** Create a hard link to the original file.*/
+    HARDLINK,
+    /** Create a copy-on-write clone of the original file, where the file system supports it.*/
+    REFLINK,
+    /** Create a symbolic link to the original file.*/
+    SYMLINK,
+    /** Copy the data of the original file.*/
+    COPY;
+
+    /**
+     * Extracts the link strategy from its name in the configuration. The case of the name is ignored.
+     * @param name The name of the link strategy.
+     * @return The link strategy.
+     */
+    public static LinkStrategy fromName(String name) {
+        ArgumentCheck.checkNotNullOrEmpty(name, "String name");
+        for(LinkStrategy strategy : values()) {
+            if(strategy.name().equals(name.trim().toUpperCase(Locale.ROOT))) {
+                return strategy;
+            }
+        }
+        throw new ArgumentCheck("Unknown link strategy '" + name + "'. Must be one of: "
+                + Arrays.toString(values()));
+    }
+}
@@ -0,0 +1,81 @@
+package dk.kb.elivagar.utils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * The counter of the asynchronous tasks, which have not yet completed, for each directory.
+ * It makes it possible to wait for the tasks of a single directory (e.g. a book directory) to complete.
+ * The directories are identified by their absolute path.
+ */
+public class PendingCounter {
+    /** The name of the tasks, for the messages.*/
+    protected final String name;
+    /** The number of tasks, which have not yet completed, for each directory.*/
+    protected final Map<File, Integer> pending;
+
+    /**
+     * Constructor.
+     * @param name The name of the tasks, for the messages.
+     */
+    public PendingCounter(String name) {
+        ArgumentCheck.checkNotNullOrEmpty(name, "String name");
+        this.name = name;
+        this.pending = new HashMap<File, Integer>();
+    }
+
+    /**
+     * Changes the number of pending tasks for the directory.
+     * The threads waiting for the directory are notified, when it no longer has any pending tasks.
+     * @param dir The directory.
+     * @param change The change in the number of pending tasks.
+     */
+    public void add(File dir, int change) {
+        ArgumentCheck.checkNotNull(dir, "File dir");
+        File key = dir.getAbsoluteFile();
+        synchronized(pending) {
+            int count = pending.getOrDefault(key, 0) + change;
+            if(count > 0) {
+                pending.put(key, count);
+            } else {
+                pending.remove(key);
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @param dir The directory.
+     * @return Whether the directory has any pending tasks.
+     */
+    public boolean isPending(File dir) {
+        ArgumentCheck.checkNotNull(dir, "File dir");
+        synchronized(pending) {
+            return pending.containsKey(dir.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Waits until the directory no longer has any pending tasks.
+     * Returns immediately, if it does not have any pending tasks.
+     * @param dir The directory.
+     */
+    public void await(File dir) {
+        ArgumentCheck.checkNotNull(dir, "File dir");
+        File key = dir.getAbsoluteFile();
+        synchronized(pending) {
+            while(pending.containsKey(key)) {
+                try {
+                    pending.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the " + name + " of '"
+                            + dir.getAbsolutePath() + "'.", e);
+                }
+            }
+        }
+    }
+}
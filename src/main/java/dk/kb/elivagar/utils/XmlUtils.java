@@ -0,0 +1,177 @@
+package dk.kb.elivagar.utils;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import org.w3c.dom.Document;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+/**
+ * Utility class for dealing with XML.
+ *
+ * The factories are only created once. The factory for the StAX readers does not support DTDs or external
+ * entities. The document builders and the transformers are not thread-safe, so they are kept for each thread,
+ * and reused by every call on that thread.
+ */
+public class XmlUtils {
+    /** The indent amount for the indenting transformers.*/
+    protected static final String INDENT_AMOUNT = "4";
+    /** The output property for the indent amount.*/
+    protected static final String INDENT_AMOUNT_PROPERTY = "{http://xml.apache.org/xslt}indent-amount";
+
+    /** The factory for the document builders.*/
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    /** The factory for the transformers.*/
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+    /** The factory for the StAX readers.*/
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+    /** The document builder for each thread.*/
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDERS =
+            ThreadLocal.withInitial(XmlUtils::createDocumentBuilder);
+    /** The indenting transformer for each thread.*/
+    private static final ThreadLocal<Transformer> INDENTING_TRANSFORMERS =
+            ThreadLocal.withInitial(XmlUtils::createTransformer);
+
+    /** @return A new empty document.*/
+    public static Document newDocument() {
+        return getDocumentBuilder().newDocument();
+    }
+
+    /**
+     * Creates a StAX reader for streaming a XML document.
+     * @param in The stream with the XML document. It is not closed when the reader is closed.
+     * @return The reader.
+     * @throws XMLStreamException If the reader cannot be created.
+     */
+    public static XMLStreamReader createXMLStreamReader(InputStream in) throws XMLStreamException {
+        ArgumentCheck.checkNotNull(in, "InputStream in");
+        synchronized(XML_INPUT_FACTORY) {
+            return XML_INPUT_FACTORY.createXMLStreamReader(in);
+        }
+    }
+
+    /**
+     * Creates a canonical form of a XML document, for comparing the content of two documents.
+     * The elements and attributes are written with their namespace URI instead of their prefix, the attributes
+     * are sorted, the whitespace in the text is collapsed, and the comments and processing instructions are left
+     * out. Thus documents, which only differ in their serialization, have the same canonical form.
+     * @param in The stream with the XML document. It is not closed.
+     * @return The canonical form of the document.
+     * @throws XMLStreamException If the document cannot be read.
+     */
+    public static String getCanonicalForm(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = createXMLStreamReader(in);
+        try {
+            StringBuilder res = new StringBuilder();
+            StringBuilder text = new StringBuilder();
+            while(reader.hasNext()) {
+                int event = reader.next();
+                if(event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA 
+                        || event == XMLStreamConstants.SPACE) {
+                    text.append(reader.getText());
+                } else if(event == XMLStreamConstants.START_ELEMENT) {
+                    appendCanonicalText(res, text);
+                    SortedMap<String, String> attributes = new TreeMap<String, String>();
+                    for(int i = 0; i < reader.getAttributeCount(); i++) {
+                        attributes.put(reader.getAttributeName(i).toString(), reader.getAttributeValue(i));
+                    }
+                    res.append('<').append(reader.getName());
+                    for(Map.Entry<String, String> attribute : attributes.entrySet()) {
+                        res.append(' ').append(attribute.getKey()).append("=\"")
+                                .append(escapeCanonicalText(attribute.getValue())).append('"');
+                    }
+                    res.append('>');
+                } else if(event == XMLStreamConstants.END_ELEMENT) {
+                    appendCanonicalText(res, text);
+                    res.append("</").append(reader.getName()).append('>');
+                }
+            }
+            return res.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Appends the text between two tags to the canonical form, with its whitespace collapsed.
+     * @param res The canonical form.
+     * @param text The text, which is emptied afterwards.
+     */
+    protected static void appendCanonicalText(StringBuilder res, StringBuilder text) {
+        String collapsed = text.toString().trim().replaceAll("\\s+", " ");
+        res.append(escapeCanonicalText(collapsed));
+        text.setLength(0);
+    }
+
+    /**
+     * @param text The text.
+     * @return The text with the characters, which delimit the markup of the canonical form, escaped.
+     */
+    protected static String escapeCanonicalText(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * @return The transformer for writing indented XML for the current thread. It is reset before it is returned.
+     */
+    public static Transformer getIndentingTransformer() {
+        Transformer transformer = INDENTING_TRANSFORMERS.get();
+        transformer.reset();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(INDENT_AMOUNT_PROPERTY, INDENT_AMOUNT);
+        return transformer;
+    }
+
+    /** @return The document builder for the current thread. It is reset before it is returned.*/
+    protected static DocumentBuilder getDocumentBuilder() {
+        DocumentBuilder builder = DOCUMENT_BUILDERS.get();
+        builder.reset();
+        return builder;
+    }
+
+    /** @return A new document builder.*/
+    private static DocumentBuilder createDocumentBuilder() {
+        try {
+            synchronized(DOCUMENT_BUILDER_FACTORY) {
+                return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Could not create a new 'DocumentBuilder'!", e);
+        }
+    }
+
+    /** @return A new factory for the StAX readers.*/
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /** @return A new transformer.*/
+    private static Transformer createTransformer() {
+        try {
+            synchronized(TRANSFORMER_FACTORY) {
+                return TRANSFORMER_FACTORY.newTransformer();
+            }
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalStateException("Could not create a new 'Transformer'!", e);
+        }
+    }
+}
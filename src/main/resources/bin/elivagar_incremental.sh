@@ -0,0 +1,6 @@
+#!/bin/sh
+ProgDir=`dirname "$0"`
+
+# Gives 2 arguments: The configuration file and the incremental mode, which retrieves the books modified since 
+# the last successful incremental run (requires the state_dir in the configuration).
+bash ${ProgDir}/elivagar.sh ${ProgDir}/../conf/elivagar.yml incremental
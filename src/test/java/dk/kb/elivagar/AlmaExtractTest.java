@@ -5,12 +5,14 @@ import static org.mockito.Mockito.*;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Map;
 import java.util.UUID;
 
 import dk.kb.elivagar.metadata.AlmaMetadataRetriever;
 import org.jaccept.structure.ExtendedTestCase;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.testng.Assert;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -83,4 +85,21 @@ public class AlmaExtractTest extends ExtendedTestCase {
         verify(retriever).retrieveMetadataForISBN(eq(isbn), any(OutputStream.class));
         verifyNoMoreInteractions(retriever);
     }
+
+    @Test
+    public void testParseOptions() {
+        addDescription("Test the parsing of the options for the bulk mode.");
+        Map<String, String> options = AlmaExtract.parseOptions(new String[]{testConfFile.getAbsolutePath(), 
+                "--input", "-", "--output", "mods.zip", "--threads", "8"});
+        Assert.assertEquals(options.get(AlmaExtract.OPTION_INPUT), "-");
+        Assert.assertEquals(options.get(AlmaExtract.OPTION_OUTPUT), "mods.zip");
+        Assert.assertEquals(options.get(AlmaExtract.OPTION_THREADS), "8");
+        Assert.assertNull(options.get(AlmaExtract.OPTION_BATCH_SIZE));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testParseOptionsWithoutInput() {
+        addDescription("Test that the bulk mode requires the input option.");
+        AlmaExtract.parseOptions(new String[]{testConfFile.getAbsolutePath(), "--threads", "8"});
+    }
 }
@@ -0,0 +1,118 @@
+package dk.kb.elivagar;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.exception.CircuitOpenException;
+
+public class CircuitBreakerTest extends ExtendedTestCase {
+
+    /** Circuit breaker with a simulated clock.*/
+    protected static class SimulatedCircuitBreaker extends CircuitBreaker {
+        long now = 1000000L;
+
+        SimulatedCircuitBreaker(int failureThreshold, long resetTime) {
+            super(failureThreshold, resetTime);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testOpenAfterConsecutiveFailures() throws Exception {
+        addDescription("Test that the circuit is opened after the number of consecutive failures.");
+        SimulatedCircuitBreaker breaker = new SimulatedCircuitBreaker(3, 1000L);
+
+        addStep("Fail twice, then succeed", "The circuit stays closed");
+        breaker.checkRequest("alma.example.org");
+        breaker.registerFailure("alma.example.org");
+        breaker.registerFailure("alma.example.org");
+        breaker.registerSuccess("alma.example.org");
+        breaker.registerFailure("alma.example.org");
+        Assert.assertFalse(breaker.isOpen("alma.example.org"));
+
+        addStep("Fail two more times in a row", "The circuit is opened for the host, but not for other hosts");
+        breaker.registerFailure("alma.example.org");
+        breaker.registerFailure("alma.example.org");
+        Assert.assertTrue(breaker.isOpen("ALMA.example.org"));
+        Assert.assertFalse(breaker.isOpen("example.org"));
+        breaker.checkRequest("example.org");
+
+        addStep("Make a request to the host", "It is rejected");
+        try {
+            breaker.checkRequest("alma.example.org");
+            Assert.fail("Should throw an exception");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        Assert.assertEquals(breaker.getRejectedCount(), 1L);
+    }
+
+    @Test
+    public void testHalfOpenTrial() throws Exception {
+        addDescription("Test that a single trial request is let through, when the circuit has been open for the "
+                + "reset time.");
+        SimulatedCircuitBreaker breaker = new SimulatedCircuitBreaker(1, 1000L);
+        breaker.registerFailure("alma.example.org");
+        Assert.assertTrue(breaker.isOpen("alma.example.org"));
+
+        addStep("Wait for the reset time", "Only a single trial request is let through");
+        breaker.now += 1000L;
+        breaker.checkRequest("alma.example.org");
+        try {
+            breaker.checkRequest("alma.example.org");
+            Assert.fail("Should throw an exception");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+
+        addStep("Fail the trial request", "The circuit stays open for another reset time");
+        breaker.registerFailure("alma.example.org");
+        breaker.now += 999L;
+        try {
+            breaker.checkRequest("alma.example.org");
+            Assert.fail("Should throw an exception");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+
+        addStep("Succeed the next trial request", "The circuit is closed");
+        breaker.now += 1L;
+        breaker.checkRequest("alma.example.org");
+        breaker.registerSuccess("alma.example.org");
+        Assert.assertFalse(breaker.isOpen("alma.example.org"));
+        breaker.checkRequest("alma.example.org");
+        breaker.checkRequest("alma.example.org");
+        Assert.assertEquals(breaker.getRejectedCount(), 2L);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        addDescription("Test that the circuit is never opened, when the failure threshold is 0.");
+        SimulatedCircuitBreaker breaker = new SimulatedCircuitBreaker(0, 1000L);
+        for(int i = 0; i < 100; i++) {
+            breaker.registerFailure("alma.example.org");
+        }
+        Assert.assertFalse(breaker.isOpen("alma.example.org"));
+        breaker.checkRequest("alma.example.org");
+    }
+
+    @Test
+    public void testAbortedTrial() throws Exception {
+        addDescription("Test that an aborted trial request lets another trial request through.");
+        SimulatedCircuitBreaker breaker = new SimulatedCircuitBreaker(1, 1000L);
+        breaker.registerFailure("alma.example.org");
+        breaker.now += 1000L;
+        breaker.checkRequest("alma.example.org");
+
+        addStep("Abort the trial request", "The circuit stays open, but a new trial request is let through");
+        breaker.registerAborted("alma.example.org");
+        Assert.assertTrue(breaker.isOpen("alma.example.org"));
+        breaker.checkRequest("alma.example.org");
+        Assert.assertEquals(breaker.getRejectedCount(), 0L);
+    }
+}
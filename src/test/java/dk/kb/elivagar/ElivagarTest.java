@@ -1,7 +1,11 @@
 package dk.kb.elivagar;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.Date;
 import java.util.UUID;
 
 import org.jaccept.structure.ExtendedTestCase;
@@ -9,6 +13,10 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import dk.kb.elivagar.characterization.CharacterizationHandler;
+import dk.kb.elivagar.pipeline.ElivagarPipeline;
+import dk.kb.elivagar.pubhub.ImageDownloader;
+import dk.kb.elivagar.state.HighWaterMark;
 import dk.kb.elivagar.testutils.PreventSystemExit;
 import dk.kb.elivagar.testutils.TestFileUtils;
 import dk.kb.elivagar.utils.FileUtils;
@@ -78,6 +86,16 @@ public class ElivagarTest extends ExtendedTestCase {
         }
     }
 
+    @Test(expectedExceptions = PreventSystemExit.ExitTrappedException.class)
+    public void testFailureWithIncrementalWithoutStateDir() {
+        PreventSystemExit.forbidSystemExitCall() ;
+        try {
+            Elivagar.main(testConfFile.getAbsolutePath(), "incremental");
+        } finally {
+            PreventSystemExit.enableSystemExitCall() ;
+        }
+    }
+
     @Test
     public void testSuccessWithNoDownloads() {
         PreventSystemExit.forbidSystemExitCall() ;
@@ -108,4 +126,35 @@ public class ElivagarTest extends ExtendedTestCase {
         }
     }
 
+    @Test
+    public void testAdvanceSyncMark() {
+        addDescription("Test that the high-water mark is only advanced, when nothing has failed.");
+        ElivagarPipeline pipeline = mock(ElivagarPipeline.class);
+        ImageDownloader imageDownloader = mock(ImageDownloader.class);
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        HighWaterMark syncMark = new HighWaterMark(testDir, "sync_mark.txt");
+        Date syncDate = new Date(1000000L);
+
+        addStep("Advance the mark, when an image download has failed", "The mark is not advanced");
+        when(imageDownloader.getFailureCount()).thenReturn(1L);
+        Elivagar.advanceSyncMark(pipeline, imageDownloader, characterizer, syncMark, syncDate, Long.MAX_VALUE);
+        Assert.assertNull(syncMark.getSince(0L));
+
+        addStep("Advance the mark, when a characterization has failed", "The mark is not advanced");
+        when(imageDownloader.getFailureCount()).thenReturn(0L);
+        when(characterizer.getFailureCount()).thenReturn(1L);
+        Elivagar.advanceSyncMark(pipeline, imageDownloader, characterizer, syncMark, syncDate, Long.MAX_VALUE);
+        Assert.assertNull(syncMark.getSince(0L));
+
+        addStep("Advance the mark, when a content file has failed", "The mark is not advanced");
+        when(characterizer.getFailureCount()).thenReturn(0L);
+        when(pipeline.getContentFailureCount()).thenReturn(1L);
+        Elivagar.advanceSyncMark(pipeline, imageDownloader, characterizer, syncMark, syncDate, Long.MAX_VALUE);
+        Assert.assertNull(syncMark.getSince(0L));
+
+        addStep("Advance the mark, when nothing has failed", "The mark is advanced");
+        when(pipeline.getContentFailureCount()).thenReturn(0L);
+        Elivagar.advanceSyncMark(pipeline, imageDownloader, characterizer, syncMark, syncDate, Long.MAX_VALUE);
+        Assert.assertEquals(syncMark.getSince(0L), syncDate);
+    }
 }
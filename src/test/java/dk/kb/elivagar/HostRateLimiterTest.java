@@ -0,0 +1,137 @@
+package dk.kb.elivagar;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.config.HostRateLimit;
+import dk.kb.elivagar.config.HttpConfiguration;
+import dk.kb.elivagar.config.HttpRetryConfiguration;
+
+public class HostRateLimiterTest extends ExtendedTestCase {
+
+    /** Rate limiter with a simulated clock, where sleeping just advances the clock.*/
+    protected static class SimulatedRateLimiter extends HostRateLimiter {
+        long now = 1000000L;
+        List<Long> sleeps = new ArrayList<Long>();
+
+        SimulatedRateLimiter(HttpConfiguration httpConfiguration) {
+            super(httpConfiguration);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        protected void sleep(long delay) {
+            sleeps.add(delay);
+            now += delay;
+        }
+    }
+
+    protected HttpConfiguration createConfiguration(HostRateLimit defaultRateLimit, String host, 
+            HostRateLimit hostRateLimit) {
+        Map<String, HostRateLimit> hostRateLimits = new HashMap<String, HostRateLimit>();
+        if(host != null) {
+            hostRateLimits.put(host, hostRateLimit);
+        }
+        return new HttpConfiguration(10, 10, 1000, 1000, 1000, 1000L, defaultRateLimit, hostRateLimits, 
+                new HttpRetryConfiguration());
+    }
+
+    @Test
+    public void testRequestsPerSecond() throws IOException {
+        addDescription("Test that the requests to a host are limited to the requests per second.");
+        SimulatedRateLimiter limiter = new SimulatedRateLimiter(createConfiguration(HostRateLimit.UNLIMITED, 
+                "alma.example.org", new HostRateLimit(4, 0)));
+
+        addStep("Make a burst of 4 requests", "They do not wait");
+        for(int i = 0; i < 4; i++) {
+            limiter.acquire("alma.example.org").close();
+        }
+        Assert.assertTrue(limiter.sleeps.isEmpty());
+        Assert.assertEquals(limiter.getWaitTime(), 0L);
+
+        addStep("Make 4 more requests", "They are spaced by a quarter of a second");
+        for(int i = 0; i < 4; i++) {
+            limiter.acquire("alma.example.org").close();
+        }
+        Assert.assertEquals(limiter.sleeps.size(), 4);
+        Assert.assertEquals(limiter.getWaitTime(), 1000L);
+        Assert.assertEquals(limiter.getWaitCount(), 4L);
+
+        addStep("Make requests to another host", "They are not limited");
+        for(int i = 0; i < 10; i++) {
+            limiter.acquire("cdn.example.org").close();
+        }
+        Assert.assertEquals(limiter.getWaitTime(), 1000L);
+    }
+
+    @Test
+    public void testRetryAfter() throws IOException {
+        addDescription("Test that no requests are made to a host, which has told us to back off.");
+        SimulatedRateLimiter limiter = new SimulatedRateLimiter(createConfiguration(HostRateLimit.UNLIMITED, 
+                null, null));
+        limiter.registerRetryAfter("alma.example.org", 5000L);
+        Assert.assertEquals(limiter.getThrottledCount(), 1L);
+
+        limiter.acquire("ALMA.example.org").close();
+        Assert.assertEquals(limiter.getWaitTime(), 5000L);
+        limiter.acquire("alma.example.org").close();
+        Assert.assertEquals(limiter.getWaitTime(), 5000L);
+    }
+
+    @Test
+    public void testMaxConcurrentRequests() throws Exception {
+        addDescription("Test that the number of concurrent requests to a host is limited.");
+        HostRateLimiter limiter = new HostRateLimiter(createConfiguration(new HostRateLimit(0, 1), null, null));
+        HostRateLimiter.Permit permit = limiter.acquire("example.org");
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                limiter.acquire("example.org").close();
+                acquired.countDown();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        permit.close();
+        permit.close();
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(limiter.getWaitTime() > 0);
+        Assert.assertEquals(limiter.getState("example.org").concurrency.availablePermits(), 1);
+    }
+
+    @Test
+    public void testInterruptedWhileWaiting() throws Exception {
+        addDescription("Test that an interrupted wait fails with an InterruptedIOException, and releases the "
+                + "concurrency permit.");
+        HostRateLimiter limiter = new HostRateLimiter(createConfiguration(new HostRateLimit(0, 1), null, null));
+        limiter.registerRetryAfter("example.org", 60000L);
+
+        Thread.currentThread().interrupt();
+        try {
+            limiter.acquire("example.org");
+            Assert.fail("Should throw an exception");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        Assert.assertTrue(Thread.interrupted());
+        Assert.assertEquals(limiter.getState("example.org").concurrency.availablePermits(), 1);
+    }
+}
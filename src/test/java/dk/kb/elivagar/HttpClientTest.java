@@ -2,14 +2,116 @@ package dk.kb.elivagar;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.UUID;
 
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
 import org.jaccept.structure.ExtendedTestCase;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import dk.kb.elivagar.config.HostRateLimit;
+import dk.kb.elivagar.config.HttpConfiguration;
+import dk.kb.elivagar.config.HttpRetryConfiguration;
+import dk.kb.elivagar.exception.CircuitOpenException;
+import dk.kb.elivagar.utils.StreamUtils;
+
 public class HttpClientTest extends ExtendedTestCase {
 
+    /** 
+     * The Apache client, which returns the stubbed results in turn; either a status code, a response or an 
+     * exception.
+     */
+    @SuppressWarnings("deprecation")
+    protected static class StubClient extends CloseableHttpClient {
+        Deque<Object> results = new ArrayDeque<Object>();
+        int requestCount = 0;
+
+        StubClient(Object ... results) {
+            this.results.addAll(Arrays.asList(results));
+        }
+
+        @Override
+        protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+                throws IOException {
+            requestCount++;
+            Object result = results.poll();
+            if(result instanceof IOException) {
+                throw (IOException) result;
+            }
+            if(result instanceof StubResponse) {
+                return (StubResponse) result;
+            }
+            StubResponse response = new StubResponse((Integer) result);
+            response.setEntity(new StringEntity("content " + result));
+            return response;
+        }
+
+        @Override
+        public void close() {}
+
+        @Override
+        public org.apache.http.params.HttpParams getParams() {
+            return null;
+        }
+
+        @Override
+        public org.apache.http.conn.ClientConnectionManager getConnectionManager() {
+            return null;
+        }
+    }
+
+    /** A response, which can be closed.*/
+    protected static class StubResponse extends BasicHttpResponse implements CloseableHttpResponse {
+        StubResponse(int statusCode) {
+            super(HttpVersion.HTTP_1_1, statusCode, "Stubbed");
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /** The client with a stubbed Apache client, which records the delays instead of sleeping before retries.*/
+    protected static class StubbedHttpClient extends HttpClient {
+        List<Long> delays = new ArrayList<Long>();
+
+        StubbedHttpClient(HttpRetryConfiguration retryConfiguration, StubClient client) {
+            super(new HttpConfiguration(10, 10, 1000, 1000, 1000, 1000L, HostRateLimit.UNLIMITED, 
+                    new HashMap<String, HostRateLimit>(), retryConfiguration), client);
+        }
+
+        @Override
+        protected void sleepBeforeRetry(int retry) {
+            delays.add(getRetryDelay(retry));
+        }
+    }
+
+    protected String retrieve(HttpClient httpClient, String url) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        httpClient.retrieveUrlContent(url, baos);
+        return baos.toString();
+    }
+
     @Test 
     public void testRetrieveUrlContent() throws IOException {
         addDescription("Test the retrieveUrlContent method, when it is successfull");
@@ -48,6 +150,56 @@ public class HttpClientTest extends ExtendedTestCase {
         httpClient.retrieveUrlContent(url, baos);
     }
 
+    @Test 
+    public void testRetrieveUrlContentReusingClient() throws IOException {
+        addDescription("Test that the same client can be used for several requests, with a configuration.");
+        String url = "https://raw.githubusercontent.com/Det-Kongelige-Bibliotek/elivagar/master/README.md";
+        HttpConfiguration httpConf = new HttpConfiguration(2, 1, 10000, 10000, 10000, 1000L);
+        
+        try (HttpClient httpClient = new HttpClient(httpConf)) {
+            for(int i = 0; i < 3; i++) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                httpClient.retrieveUrlContent(url, baos);
+                Assert.assertFalse(baos.toString().isEmpty());
+            }
+            
+            addStep("Process the content directly", "Receives the content");
+            Integer length = httpClient.processUrlContent(url, in -> {
+                int count = 0;
+                while(in.read() > -1) {
+                    count++;
+                }
+                return count;
+            });
+            Assert.assertTrue(length > 0);
+        }
+    }
+
+    @Test 
+    public void testProcessUrlContentIfModified() throws IOException {
+        addDescription("Test the processUrlContentIfModified method, with and without validators.");
+        String url = "https://raw.githubusercontent.com/Det-Kongelige-Bibliotek/elivagar/master/README.md";
+        
+        try (HttpClient httpClient = new HttpClient()) {
+            addStep("Retrieve the content without validators", "Receives the content and the validators");
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            HttpValidators validators = httpClient.processUrlContentIfModified(url, null, in -> {
+                StreamUtils.copyInputStreamToOutputStream(in, baos);
+                return null;
+            });
+            Assert.assertFalse(baos.toString().isEmpty());
+            Assert.assertNotNull(validators);
+            Assert.assertTrue(validators.canValidate());
+
+            addStep("Retrieve the content again with the validators", "The content has not been modified");
+            HttpValidators newValidators = httpClient.processUrlContentIfModified(url, validators, in -> {
+                Assert.fail("The content should not be processed again.");
+                return null;
+            });
+            Assert.assertNull(newValidators);
+        }
+    }
+
     @Test
     public void testValidateResponseCode() throws IOException {
         addDescription("Test the validateResponseCode method");
@@ -59,4 +211,205 @@ public class HttpClientTest extends ExtendedTestCase {
         Assert.assertFalse(httpClient.validateResponseCode(418)); // I'm a teapot
         Assert.assertFalse(httpClient.validateResponseCode(505)); // HTTP Version Not Supported
     }
+
+    @Test
+    public void testParseRetryAfter() {
+        addDescription("Test the parsing of the 'Retry-After' header, as either seconds or a HTTP date.");
+        long now = 1500000000000L;
+        Assert.assertEquals(HttpClient.parseRetryAfter("120", now), 120000L);
+        Assert.assertEquals(HttpClient.parseRetryAfter(" 0 ", now), 0L);
+        Assert.assertEquals(HttpClient.parseRetryAfter(DateUtils.formatDate(new Date(now + 30000L)), now), 30000L);
+        Assert.assertEquals(HttpClient.parseRetryAfter(DateUtils.formatDate(new Date(now - 30000L)), now), 0L);
+        Assert.assertEquals(HttpClient.parseRetryAfter("soon", now), -1L);
+        Assert.assertEquals(HttpClient.parseRetryAfter(null, now), -1L);
+    }
+
+    @Test
+    public void testHandleRetryAfter() throws IOException {
+        addDescription("Test that the host is backed off from, when it responds with 429 or 503.");
+        try (HttpClient httpClient = new HttpClient()) {
+            HttpGet request = new HttpGet("http://example.org/test");
+
+            addStep("Handle a 503 response without 'Retry-After'", "The host is not backed off from");
+            httpClient.handleRetryAfter(request, new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Unavailable"));
+            Assert.assertEquals(httpClient.getRateLimiter().getThrottledCount(), 0L);
+
+            addStep("Handle a 503 response with 'Retry-After'", "The host is backed off from");
+            BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Unavailable");
+            response.setHeader(HttpHeaders.RETRY_AFTER, "2");
+            httpClient.handleRetryAfter(request, response);
+            Assert.assertEquals(httpClient.getRateLimiter().getThrottledCount(), 1L);
+            Assert.assertTrue(httpClient.getRateLimiter().getState("example.org").backOffUntil 
+                    > System.currentTimeMillis() + 1000L);
+
+            addStep("Handle a 429 response without 'Retry-After'", "The host is backed off from");
+            httpClient.handleRetryAfter(request, new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "Too Many"));
+            Assert.assertEquals(httpClient.getRateLimiter().getThrottledCount(), 2L);
+        }
+    }
+
+    @Test
+    public void testRetryUnavailableHost() throws IOException {
+        addDescription("Test that a GET request is retried, when the host is temporarily unavailable.");
+        StubClient stub = new StubClient(503, 200);
+        StubbedHttpClient httpClient = new StubbedHttpClient(new HttpRetryConfiguration(2, 1000L, 5000L, 5, 
+                60000L), stub);
+
+        Assert.assertEquals(retrieve(httpClient, "http://example.org/test"), "content 200");
+        Assert.assertEquals(stub.requestCount, 2);
+        Assert.assertEquals(httpClient.delays.size(), 1);
+        Assert.assertTrue(httpClient.delays.get(0) >= 500L && httpClient.delays.get(0) <= 1000L);
+        Assert.assertFalse(httpClient.getCircuitBreaker().isOpen("example.org"));
+    }
+
+    @Test
+    public void testRetryAfterLongerThanMaxBackoff() throws IOException {
+        addDescription("Test that a GET request is not retried, when the host asks us to back off for longer "
+                + "than the maximum backoff, and that the host is only backed off from for the maximum backoff.");
+        StubResponse response = new StubResponse(503);
+        response.setHeader(HttpHeaders.RETRY_AFTER, "86400");
+        StubClient stub = new StubClient(response, 200);
+        StubbedHttpClient httpClient = new StubbedHttpClient(new HttpRetryConfiguration(2, 1000L, 5000L, 5, 
+                60000L), stub);
+
+        try {
+            retrieve(httpClient, "http://example.org/test");
+            Assert.fail("Should throw an exception");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("503"));
+        }
+        Assert.assertEquals(stub.requestCount, 1);
+        Assert.assertTrue(httpClient.delays.isEmpty());
+        Assert.assertTrue(httpClient.getRateLimiter().getState("example.org").backOffUntil 
+                <= System.currentTimeMillis() + 5000L);
+    }
+
+    @Test
+    public void testRetryConnectionFailure() throws IOException {
+        addDescription("Test that a GET request is retried, when it cannot be executed.");
+        StubClient stub = new StubClient(new SocketTimeoutException("timeout"), 200);
+        StubbedHttpClient httpClient = new StubbedHttpClient(new HttpRetryConfiguration(2, 1000L, 5000L, 5, 
+                60000L), stub);
+
+        Assert.assertEquals(retrieve(httpClient, "http://example.org/test"), "content 200");
+        Assert.assertEquals(stub.requestCount, 2);
+    }
+
+    @Test
+    public void testMaxAttempts() throws IOException {
+        addDescription("Test that a GET request is only retried the maximum number of times, and that a POST "
+                + "request is not retried.");
+        StubClient stub = new StubClient(503, 500, 502, 200);
+        StubbedHttpClient httpClient = new StubbedHttpClient(new HttpRetryConfiguration(2, 1000L, 5000L, 0, 
+                60000L), stub);
+
+        addStep("Retrieve with a GET request", "Fails after 3 attempts with the last status code");
+        try {
+            retrieve(httpClient, "http://example.org/test");
+            Assert.fail("Should throw an exception");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("502"));
+        }
+        Assert.assertEquals(stub.requestCount, 3);
+        Assert.assertEquals(httpClient.delays.size(), 2);
+
+        addStep("Post a request, which fails", "Fails after a single attempt");
+        stub.results.clear();
+        stub.results.add(503);
+        stub.results.add(200);
+        try {
+            httpClient.processPostContent("http://example.org/test", new StringEntity("body"), 
+                    new HashMap<String, String>(), in -> null);
+            Assert.fail("Should throw an exception");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("503"));
+        }
+        Assert.assertEquals(stub.requestCount, 4);
+    }
+
+    @Test
+    public void testCircuitBreakerOpens() throws IOException {
+        addDescription("Test that the requests to a host fail immediately, when it has failed too many times.");
+        StubClient stub = new StubClient(new ConnectException("refused"), 503, 503, 200);
+        StubbedHttpClient httpClient = new StubbedHttpClient(new HttpRetryConfiguration(5, 1000L, 5000L, 3, 
+                60000L), stub);
+
+        addStep("Retrieve from a host, which keeps failing", "The circuit opens after 3 attempts");
+        try {
+            retrieve(httpClient, "http://example.org/test");
+            Assert.fail("Should throw an exception");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        Assert.assertEquals(stub.requestCount, 3);
+        Assert.assertTrue(httpClient.getCircuitBreaker().isOpen("example.org"));
+
+        addStep("Retrieve from the host again", "Fails without making a request");
+        try {
+            retrieve(httpClient, "http://example.org/other");
+            Assert.fail("Should throw an exception");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        Assert.assertEquals(stub.requestCount, 3);
+        Assert.assertEquals(httpClient.getCircuitBreaker().getRejectedCount(), 2L);
+    }
+
+    @Test
+    public void testTrialRequestIsAlwaysRegistered() throws IOException {
+        addDescription("Test that the trial request of an open circuit is registered, however it fails, so it "
+                + "does not keep the circuit open.");
+        StubClient stub = new StubClient(new ConnectException("refused"));
+        StubbedHttpClient httpClient = new StubbedHttpClient(new HttpRetryConfiguration(0, 1000L, 5000L, 1, 0L), 
+                stub);
+        try {
+            retrieve(httpClient, "http://example.org/test");
+            Assert.fail("Should throw an exception");
+        } catch (ConnectException e) {
+            // expected
+        }
+        Assert.assertTrue(httpClient.getCircuitBreaker().isOpen("example.org"));
+
+        addStep("Make the trial request, which fails with a protocol error", "It is registered as a failure");
+        stub.results.add(new ClientProtocolException("protocol"));
+        try {
+            retrieve(httpClient, "http://example.org/test");
+            Assert.fail("Should throw an exception");
+        } catch (ClientProtocolException e) {
+            // expected
+        }
+        Assert.assertTrue(httpClient.getCircuitBreaker().isOpen("example.org"));
+
+        addStep("Make the next trial request, which cannot get a local connection", "It is registered as aborted");
+        stub.results.add(new ConnectionPoolTimeoutException("pool"));
+        try {
+            retrieve(httpClient, "http://example.org/test");
+            Assert.fail("Should throw an exception");
+        } catch (ConnectionPoolTimeoutException e) {
+            // expected
+        }
+        Assert.assertTrue(httpClient.getCircuitBreaker().isOpen("example.org"));
+
+        addStep("Make the next trial request, which succeeds", "The circuit is closed");
+        stub.results.add(200);
+        Assert.assertEquals(retrieve(httpClient, "http://example.org/test"), "content 200");
+        Assert.assertFalse(httpClient.getCircuitBreaker().isOpen("example.org"));
+        Assert.assertEquals(httpClient.getCircuitBreaker().getRejectedCount(), 0L);
+        Assert.assertEquals(stub.requestCount, 4);
+    }
+
+    @Test
+    public void testGetRetryDelay() throws IOException {
+        addDescription("Test that the delay is doubled for each retry, up to the maximum, and jittered.");
+        StubbedHttpClient httpClient = new StubbedHttpClient(new HttpRetryConfiguration(5, 1000L, 5000L, 0, 
+                60000L), new StubClient());
+        for(int i = 0; i < 20; i++) {
+            long delay = httpClient.getRetryDelay(1);
+            Assert.assertTrue(delay >= 500L && delay <= 1000L, "Delay: " + delay);
+            delay = httpClient.getRetryDelay(2);
+            Assert.assertTrue(delay >= 1000L && delay <= 2000L, "Delay: " + delay);
+            delay = httpClient.getRetryDelay(4);
+            Assert.assertTrue(delay >= 2500L && delay <= 5000L, "Delay: " + delay);
+        }
+    }
 }
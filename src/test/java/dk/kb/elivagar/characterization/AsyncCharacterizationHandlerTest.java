@@ -0,0 +1,123 @@
+package dk.kb.elivagar.characterization;
+
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.testutils.TestFileUtils;
+
+public class AsyncCharacterizationHandlerTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+    
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+    
+    @Test
+    public void testCharacterizeAsynchronously() throws Exception {
+        addDescription("Test that the characterization is performed asynchronously, and that the callback is "
+                + "called when both the FITS and the EpubCheck characterization have completed.");
+        CountDownLatch fitsLatch = new CountDownLatch(1);
+        FitsCharacterizer fitsCharacterizer = mock(FitsCharacterizer.class);
+        doAnswer(invocation -> {
+            fitsLatch.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(fitsCharacterizer).performCharacterization(any(File.class), any(File.class));
+        EpubCheckerCharacterizer epubCharacterizer = mock(EpubCheckerCharacterizer.class);
+        when(epubCharacterizer.hasRequiredExtension(any(File.class))).thenReturn(true);
+        
+        AsyncCharacterizationHandler characterizer = new AsyncCharacterizationHandler(fitsCharacterizer, 
+                epubCharacterizer, 2, 2, 10);
+        
+        File dir = TestFileUtils.createEmptyDirectory(TestFileUtils.getTempDir().getAbsolutePath() + "/" 
+                + UUID.randomUUID().toString());
+        File f = new File(dir, UUID.randomUUID().toString() + ".epub");
+        TestFileUtils.createFile(f, UUID.randomUUID().toString());
+        
+        List<File> completed = Collections.synchronizedList(new ArrayList<File>());
+        addStep("Submit the file", "Returns before the FITS characterization has completed");
+        characterizer.characterize(f, dir, (inputFile, outputDir) -> completed.add(inputFile));
+        Assert.assertTrue(completed.isEmpty());
+        
+        addStep("Let the FITS characterization complete", "The callback is called");
+        fitsLatch.countDown();
+        characterizer.awaitCharacterization(dir);
+        characterizer.shutdown();
+        
+        Assert.assertEquals(completed.size(), 1);
+        Assert.assertEquals(completed.get(0), f);
+        verify(fitsCharacterizer).performCharacterization(eq(f), any(File.class));
+        verify(epubCharacterizer).characterize(eq(f), any(File.class));
+    }
+    
+    @Test
+    public void testCharacterizeWithoutAnyCharacterization() throws IOException {
+        addDescription("Test that the callback is called directly, when no characterization is needed.");
+        EpubCheckerCharacterizer epubCharacterizer = mock(EpubCheckerCharacterizer.class);
+        when(epubCharacterizer.hasRequiredExtension(any(File.class))).thenReturn(false);
+        AsyncCharacterizationHandler characterizer = new AsyncCharacterizationHandler(null, epubCharacterizer, 
+                1, 1, 1);
+        
+        File dir = TestFileUtils.createEmptyDirectory(TestFileUtils.getTempDir().getAbsolutePath() + "/" 
+                + UUID.randomUUID().toString());
+        File f = new File(dir, UUID.randomUUID().toString() + ".pdf");
+        TestFileUtils.createFile(f, UUID.randomUUID().toString());
+        
+        List<File> completed = new ArrayList<File>();
+        characterizer.characterize(f, dir, (inputFile, outputDir) -> completed.add(inputFile));
+        Assert.assertEquals(completed.size(), 1);
+        
+        characterizer.awaitCharacterization(dir);
+        characterizer.shutdown();
+        verify(epubCharacterizer).hasRequiredExtension(eq(f));
+        verifyNoMoreInteractions(epubCharacterizer);
+    }
+    
+    @Test
+    public void testManyFilesWithSmallQueue() throws IOException {
+        addDescription("Test that more files than the queues can hold are all characterized.");
+        FitsCharacterizer fitsCharacterizer = mock(FitsCharacterizer.class);
+        EpubCheckerCharacterizer epubCharacterizer = mock(EpubCheckerCharacterizer.class);
+        when(epubCharacterizer.hasRequiredExtension(any(File.class))).thenReturn(true);
+        AsyncCharacterizationHandler characterizer = new AsyncCharacterizationHandler(fitsCharacterizer, 
+                epubCharacterizer, 2, 1, 1);
+        
+        File dir = TestFileUtils.createEmptyDirectory(TestFileUtils.getTempDir().getAbsolutePath() + "/" 
+                + UUID.randomUUID().toString());
+        int count = 20;
+        for(int i = 0; i < count; i++) {
+            File f = new File(dir, UUID.randomUUID().toString() + ".epub");
+            TestFileUtils.createFile(f, UUID.randomUUID().toString());
+            characterizer.characterize(f, dir);
+        }
+        characterizer.shutdown();
+        
+        verify(fitsCharacterizer, times(count)).performCharacterization(any(File.class), any(File.class));
+        verify(epubCharacterizer, times(count)).characterize(any(File.class), any(File.class));
+    }
+    
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testNoThreads() {
+        addDescription("Test that the number of threads must be positive.");
+        new AsyncCharacterizationHandler(null, mock(EpubCheckerCharacterizer.class), 0, 1, 1);
+    }
+}
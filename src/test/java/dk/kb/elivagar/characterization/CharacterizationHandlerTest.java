@@ -146,6 +146,26 @@ public class CharacterizationHandlerTest extends ExtendedTestCase {
     }
     
 
+    @Test
+    public void testRunFitsIfNeededWhenCharacterizationFails() throws Exception {
+        addDescription("Test the runFitsIfNeeded method, when the characterization fails.");
+        FitsCharacterizer fitsCharacterizer = mock(FitsCharacterizer.class);
+        EpubCheckerCharacterizer epubCharacterizer = mock(EpubCheckerCharacterizer.class);
+        CharacterizationHandler characterizer = new CharacterizationHandler(fitsCharacterizer, epubCharacterizer);
+
+        File dir = TestFileUtils.createTempDirectory();
+        File inputFile = new File(dir, UUID.randomUUID().toString());
+        File outputFile = new File(dir, inputFile.getName() + Constants.FITS_METADATA_SUFFIX);
+        TestFileUtils.createFile(inputFile, UUID.randomUUID().toString());
+        doThrow(new IllegalStateException("test")).when(fitsCharacterizer).performCharacterization(
+                any(File.class), any(File.class));
+
+        characterizer.runFitsIfNeeded(inputFile, dir);
+
+        Assert.assertFalse(outputFile.exists());
+        Assert.assertEquals(characterizer.getFailureCount(), 1L);
+    }
+
     @Test
     public void testRunEpubCheckIfNeededWhenBadExtension() throws IOException {
         addDescription("Test the runEpubCheckIfNeeded method, when no script is given");
@@ -280,4 +300,36 @@ public class CharacterizationHandlerTest extends ExtendedTestCase {
         verifyNoMoreInteractions(epubCharacterizer);
         verifyZeroInteractions(fitsCharacterizer);
     }
+
+    @Test
+    public void testIsCharacterized() throws Exception {
+        addDescription("Test the isCharacterized method.");
+        FitsCharacterizer fitsCharacterizer = mock(FitsCharacterizer.class);
+        EpubCheckerCharacterizer epubCharacterizer = mock(EpubCheckerCharacterizer.class);
+        CharacterizationHandler characterizer = new CharacterizationHandler(fitsCharacterizer, epubCharacterizer);
+
+        File dir = FileUtils.createDirectory(new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString()).getAbsolutePath());
+        File inputFile = new File(dir, UUID.randomUUID().toString() + Constants.EPUB_FILE_SUFFIX);
+        File fitsFile = new File(dir, inputFile.getName() + Constants.FITS_METADATA_SUFFIX);
+        File epubcheckFile = new File(dir, inputFile.getName() + Constants.EPUBCHECK_METADATA_SUFFIX);
+        TestFileUtils.createFile(inputFile, UUID.randomUUID().toString());
+        inputFile.setLastModified(0);
+
+        when(epubCharacterizer.hasRequiredExtension(eq(inputFile))).thenReturn(true);
+
+        addStep("Check without any output files", "Not characterized");
+        Assert.assertFalse(characterizer.isCharacterized(inputFile, dir));
+
+        addStep("Check with only the FITS output file", "Not characterized");
+        TestFileUtils.createFile(fitsFile, UUID.randomUUID().toString());
+        Assert.assertFalse(characterizer.isCharacterized(inputFile, dir));
+
+        addStep("Check with both output files", "Characterized");
+        TestFileUtils.createFile(epubcheckFile, UUID.randomUUID().toString());
+        Assert.assertTrue(characterizer.isCharacterized(inputFile, dir));
+
+        verify(epubCharacterizer, times(2)).hasRequiredExtension(eq(inputFile));
+        verifyNoMoreInteractions(epubCharacterizer);
+        verifyZeroInteractions(fitsCharacterizer);
+    }
 }
@@ -0,0 +1,140 @@
+package dk.kb.elivagar.characterization;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.HttpClient;
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.exception.CircuitOpenException;
+import dk.kb.elivagar.testutils.TestFileUtils;
+
+public class FitsServiceCharacterizerTest extends ExtendedTestCase {
+
+    File script = new File("src/main/resources/bin/run_fits.sh");
+    File inputFile;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        TestFileUtils.setup();
+        inputFile = TestFileUtils.createTempFile(UUID.randomUUID().toString());
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test
+    public void testCharacterizationWithService() throws IOException {
+        addDescription("Test that the characterization is performed by the FITS service.");
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(invocation -> {
+            OutputStream out = (OutputStream) invocation.getArguments()[1];
+            out.write("<fits/>".getBytes());
+            return null;
+        }).when(httpClient).retrieveUrlContent(anyString(), any(OutputStream.class));
+
+        RecordingFitsServiceCharacterizer characterizer = new RecordingFitsServiceCharacterizer(httpClient);
+        File outputFile = new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString());
+        characterizer.performCharacterization(inputFile, outputFile);
+
+        Assert.assertTrue(outputFile.isFile());
+        Assert.assertEquals(TestFileUtils.readFile(outputFile), "<fits/>");
+        Assert.assertTrue(characterizer.isServiceAvailable());
+        Assert.assertTrue(characterizer.scriptCalls.isEmpty());
+        verify(httpClient).retrieveUrlContent(contains("http://localhost:8080/fits/examine?file="), 
+                any(OutputStream.class));
+        verifyNoMoreInteractions(httpClient);
+    }
+
+    @Test
+    public void testFallbackWhenServiceIsUnavailable() throws IOException {
+        addDescription("Test that the script is used, when the FITS service cannot be reached.");
+        HttpClient httpClient = mock(HttpClient.class);
+        doThrow(new ConnectException("Connection refused")).when(httpClient).retrieveUrlContent(anyString(), 
+                any(OutputStream.class));
+
+        RecordingFitsServiceCharacterizer characterizer = new RecordingFitsServiceCharacterizer(httpClient);
+        File outputFile = new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString());
+        characterizer.performCharacterization(inputFile, outputFile);
+
+        Assert.assertFalse(characterizer.isServiceAvailable());
+        Assert.assertEquals(characterizer.scriptCalls.size(), 1);
+        verify(httpClient).retrieveUrlContent(anyString(), any(OutputStream.class));
+
+        addStep("Characterize another file", "Only the script is used");
+        characterizer.performCharacterization(inputFile, outputFile);
+        Assert.assertEquals(characterizer.scriptCalls.size(), 2);
+        verifyNoMoreInteractions(httpClient);
+    }
+
+    @Test
+    public void testFallbackWhenCircuitIsOpen() throws IOException {
+        addDescription("Test that the script is used, when the circuit for the FITS service is open.");
+        HttpClient httpClient = mock(HttpClient.class);
+        doThrow(new CircuitOpenException("The circuit is open")).when(httpClient).retrieveUrlContent(anyString(), 
+                any(OutputStream.class));
+
+        RecordingFitsServiceCharacterizer characterizer = new RecordingFitsServiceCharacterizer(httpClient);
+        File outputFile = new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString());
+        characterizer.performCharacterization(inputFile, outputFile);
+
+        Assert.assertFalse(characterizer.isServiceAvailable());
+        Assert.assertEquals(characterizer.scriptCalls.size(), 1);
+    }
+
+    @Test
+    public void testFallbackWhenServiceFails() throws IOException {
+        addDescription("Test that the script is used for a file, which the FITS service fails to characterize.");
+        HttpClient httpClient = mock(HttpClient.class);
+        doThrow(new IllegalStateException("Received erroneous status code")).when(httpClient)
+                .retrieveUrlContent(anyString(), any(OutputStream.class));
+
+        RecordingFitsServiceCharacterizer characterizer = new RecordingFitsServiceCharacterizer(httpClient);
+        File outputFile = new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString());
+        characterizer.performCharacterization(inputFile, outputFile);
+
+        Assert.assertTrue(characterizer.isServiceAvailable());
+        Assert.assertEquals(characterizer.scriptCalls.size(), 1);
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testNoServiceUrl() {
+        addDescription("Test that the service URL is required.");
+        new FitsServiceCharacterizer(script, "", mock(HttpClient.class));
+    }
+
+    /** Characterizer, which records the calls to the script instead of running it.*/
+    protected class RecordingFitsServiceCharacterizer extends FitsServiceCharacterizer {
+        protected final List<String[]> scriptCalls = new ArrayList<String[]>();
+
+        protected RecordingFitsServiceCharacterizer(HttpClient httpClient) {
+            super(script, "http://localhost:8080/fits", httpClient);
+        }
+
+        @Override
+        protected void callVoidScript(String ... args) {
+            scriptCalls.add(args);
+        }
+    }
+}
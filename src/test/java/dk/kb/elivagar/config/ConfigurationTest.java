@@ -2,6 +2,8 @@ package dk.kb.elivagar.config;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.jaccept.structure.ExtendedTestCase;
 import org.testng.Assert;
@@ -10,9 +12,13 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.config.HostRateLimit;
+import dk.kb.elivagar.config.HttpRetryConfiguration;
+import dk.kb.elivagar.exception.ArgumentCheck;
 import dk.kb.elivagar.testutils.TestConfigurations;
 import dk.kb.elivagar.testutils.TestFileUtils;
 import dk.kb.elivagar.utils.FileUtils;
+import dk.kb.elivagar.utils.LinkStrategy;
 
 public class ConfigurationTest extends ExtendedTestCase {
 
@@ -54,6 +60,38 @@ public class ConfigurationTest extends ExtendedTestCase {
         Assert.assertTrue(conf.getStatisticsDir().isDirectory());
 
         Assert.assertNotNull(conf.getAlmaSruSearch());
+        Assert.assertEquals(conf.getPipelineQueueSize(), 1000);
+        Assert.assertEquals(conf.getAlmaBatchSize(), 20);
+        Assert.assertEquals(conf.getAlmaNegativeCacheTtl(), Configuration.DEFAULT_ALMA_NEGATIVE_CACHE_TTL);
+        Assert.assertEquals(conf.getAlmaNegativeCacheMaxTtl(), Configuration.DEFAULT_ALMA_NEGATIVE_CACHE_MAX_TTL);
+        Assert.assertEquals(conf.getAlmaRefreshCount(), 0);
+        Assert.assertEquals(conf.getPubhubPackingThreads(), 1);
+        Assert.assertEquals(conf.getImageDownloadThreads(), 1);
+        Assert.assertFalse(conf.isPubhubStreaming());
+        Assert.assertNull(conf.getFitsServiceUrl());
+        Assert.assertEquals(conf.getCharacterizationFitsThreads(), 4);
+        Assert.assertEquals(conf.getCharacterizationEpubCheckThreads(), 4);
+        Assert.assertEquals(conf.getCharacterizationQueueSize(), 100);
+
+        addStep("Test the http configuration", "");
+        Assert.assertNotNull(conf.getHttpConfiguration());
+        Assert.assertEquals(conf.getHttpConfiguration().getMaxConnections(), 50);
+        Assert.assertEquals(conf.getHttpConfiguration().getMaxConnectionsPerRoute(), 10);
+        Assert.assertEquals(conf.getHttpConfiguration().getConnectTimeout(), 10000);
+        Assert.assertEquals(conf.getHttpConfiguration().getSocketTimeout(), 60000);
+        Assert.assertEquals(conf.getHttpConfiguration().getConnectionRequestTimeout(), 30000);
+        Assert.assertEquals(conf.getHttpConfiguration().getKeepAlive(), 30000L);
+        Assert.assertEquals(conf.getHttpConfiguration().getDefaultRateLimit().getRequestsPerSecond(), 20);
+        Assert.assertEquals(conf.getHttpConfiguration().getDefaultRateLimit().getMaxConcurrentRequests(), 0);
+        HostRateLimit almaRateLimit = conf.getHttpConfiguration().getRateLimit("KBDK-KGL.alma.exlibrisgroup.com");
+        Assert.assertEquals(almaRateLimit.getRequestsPerSecond(), 10);
+        Assert.assertEquals(almaRateLimit.getMaxConcurrentRequests(), 4);
+        Assert.assertSame(conf.getHttpConfiguration().getRateLimit("example.org"), 
+                conf.getHttpConfiguration().getDefaultRateLimit());
+        HttpRetryConfiguration retryConf = conf.getHttpConfiguration().getRetryConfiguration();
+        Assert.assertEquals(retryConf.getMaxRetries(), 2);
+        Assert.assertEquals(retryConf.getRetryBackoff(), 500L);
+        Assert.assertEquals(retryConf.getRetryMaxBackoff(), HttpRetryConfiguration.DEFAULT_RETRY_MAX_BACKOFF);
 
         addStep("Test the transfer configuration", "");
         Assert.assertNotNull(conf.getTransferConfiguration());
@@ -73,11 +111,78 @@ public class ConfigurationTest extends ExtendedTestCase {
         Assert.assertTrue(conf.getTransferConfiguration().getAudioIngestDir().isDirectory());
         Assert.assertTrue(conf.getTransferConfiguration().getUpdateAudioContentDir().isDirectory());
         Assert.assertTrue(conf.getTransferConfiguration().getUpdateAudioMetadataDir().isDirectory());
+        Assert.assertNull(conf.getTransferConfiguration().getCentralRegistryDir());
+        Assert.assertEquals(conf.getTransferConfiguration().getLinkStrategy(), LinkStrategy.COPY);
     }
     
     @Test
     public void testConfigurationWithoutTransfer() throws IOException {
         Configuration conf = TestConfigurations.getConfigurationForTestWithoutTransfer();
         Assert.assertNull(conf.getTransferConfiguration());
+        Assert.assertEquals(conf.getLinkStrategy(), LinkStrategy.COPY);
+        Assert.assertNull(conf.getStateDir());
+    }
+
+    @Test
+    public void testHttpConfigurationDefaults() throws IOException {
+        addDescription("Test that the default values are used for the http configuration elements, "
+                + "which are not given.");
+        Configuration conf = TestConfigurations.getConfigurationForTestWithoutTransfer();
+        Map<String, Object> httpMap = new HashMap<String, Object>();
+        httpMap.put(Configuration.CONF_HTTP_MAX_CONNECTIONS_PER_ROUTE, "3");
+        httpMap.put(Configuration.CONF_HTTP_SOCKET_TIMEOUT, 1234);
+        
+        HttpConfiguration httpConf = conf.getHttpConfiguration(httpMap);
+        Assert.assertEquals(httpConf.getMaxConnectionsPerRoute(), 3);
+        Assert.assertEquals(httpConf.getSocketTimeout(), 1234);
+        Assert.assertEquals(httpConf.getMaxConnections(), HttpConfiguration.DEFAULT_MAX_CONNECTIONS);
+        Assert.assertEquals(httpConf.getConnectTimeout(), HttpConfiguration.DEFAULT_CONNECT_TIMEOUT);
+        Assert.assertEquals(httpConf.getConnectionRequestTimeout(), 
+                HttpConfiguration.DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+        Assert.assertEquals(httpConf.getKeepAlive(), HttpConfiguration.DEFAULT_KEEP_ALIVE);
+        Assert.assertFalse(httpConf.getDefaultRateLimit().isLimited());
+        Assert.assertTrue(httpConf.getHostRateLimits().isEmpty());
+        Assert.assertEquals(httpConf.getRetryConfiguration().getMaxRetries(), 
+                HttpRetryConfiguration.DEFAULT_MAX_RETRIES);
+        Assert.assertEquals(httpConf.getRetryConfiguration().getCircuitBreakerFailures(), 
+                HttpRetryConfiguration.DEFAULT_CIRCUIT_BREAKER_FAILURES);
+        Assert.assertEquals(httpConf.getRetryConfiguration().getCircuitBreakerResetTime(), 
+                HttpRetryConfiguration.DEFAULT_CIRCUIT_BREAKER_RESET_TIME);
+        
+        addStep("Test the configuration without the http element", "Uses the default configuration");
+        Assert.assertNotNull(conf.getHttpConfiguration());
+        Assert.assertEquals(conf.getHttpConfiguration().getMaxConnections(), 
+                HttpConfiguration.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testIntegerSettingOutOfRange() throws IOException {
+        addDescription("Test that an integer setting, which is outside the range of an integer, is rejected "
+                + "instead of overflowing.");
+        Configuration conf = TestConfigurations.getConfigurationForTestWithoutTransfer();
+        Map<String, Object> httpMap = new HashMap<String, Object>();
+        httpMap.put(Configuration.CONF_HTTP_SOCKET_TIMEOUT, "4294967296");
+        conf.getHttpConfiguration(httpMap);
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testRetryConfigurationWithTooSmallMaxBackoff() {
+        addDescription("Test that the maximum backoff of the retries cannot be less than the backoff.");
+        new HttpRetryConfiguration(3, 1000L, 999L, 5, 60000L);
+    }
+
+    @Test
+    public void testServiceConfiguration() throws IOException {
+        addDescription("Test the HTTP configuration for the FITS service.");
+        Configuration conf = TestConfigurations.getConfigurationForTest();
+        Assert.assertEquals(conf.getFitsServiceTimeout(), Configuration.DEFAULT_FITS_SERVICE_TIMEOUT);
+
+        HttpConfiguration serviceConf = conf.getHttpConfiguration().createServiceConfiguration(
+                conf.getFitsServiceTimeout());
+        Assert.assertEquals(serviceConf.getSocketTimeout(), Configuration.DEFAULT_FITS_SERVICE_TIMEOUT);
+        Assert.assertEquals(serviceConf.getConnectTimeout(), conf.getHttpConfiguration().getConnectTimeout());
+        Assert.assertEquals(serviceConf.getRetryConfiguration().getMaxRetries(), 0);
+        Assert.assertEquals(serviceConf.getRetryConfiguration().getCircuitBreakerFailures(), 0);
+        Assert.assertFalse(serviceConf.getRateLimit("kbdk-kgl.alma.exlibrisgroup.com").isLimited());
     }
 }
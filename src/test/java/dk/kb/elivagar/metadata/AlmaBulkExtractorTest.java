@@ -0,0 +1,161 @@
+package dk.kb.elivagar.metadata;
+
+import static org.mockito.Mockito.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+public class AlmaBulkExtractorTest extends ExtendedTestCase {
+
+    /** Writer which keeps the records and failures in memory.*/
+    protected static class MemoryWriter extends ModsRecordWriter {
+        Map<String, byte[]> records = new ConcurrentHashMap<String, byte[]>();
+        Map<String, String> failures = new ConcurrentHashMap<String, String>();
+
+        @Override
+        public void writeRecord(String isbn, byte[] mods) {
+            records.put(isbn, mods);
+        }
+
+        @Override
+        public void writeFailure(String isbn, String reason) {
+            failures.put(isbn, reason);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    protected BufferedReader createReader(List<String> lines) {
+        return new BufferedReader(new StringReader(String.join("\n", lines)));
+    }
+
+    @SuppressWarnings("unchecked")
+    protected AlmaMetadataRetriever mockRetriever(List<Collection<String>> batches) {
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+        when(retriever.retrieveMetadataForISBNs(any(Collection.class))).thenAnswer(invocation -> {
+            Collection<String> isbns = (Collection<String>) invocation.getArguments()[0];
+            synchronized(batches) {
+                batches.add(new ArrayList<String>(isbns));
+            }
+            AlmaBatchResult result = new AlmaBatchResult();
+            for(String isbn : isbns) {
+                if(isbn.endsWith("0")) {
+                    result.addFailure(isbn, ModsExtractor.NOT_SINGLE_RECORD_MESSAGE + "0");
+                } else {
+                    result.addRecord(isbn, ("<mods>" + isbn + "</mods>").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return result;
+        });
+        return retriever;
+    }
+
+    @Test
+    public void testExtract() throws IOException {
+        addDescription("Test that the ISBN numbers are extracted in batches by several threads.");
+        List<String> lines = new ArrayList<String>();
+        lines.add("# The ISBN numbers");
+        for(int i = 0; i < 95; i++) {
+            lines.add(String.valueOf(9788711000000L + i));
+        }
+        lines.add("");
+        List<Collection<String>> batches = new ArrayList<Collection<String>>();
+        AlmaMetadataRetriever retriever = mockRetriever(batches);
+        MemoryWriter writer = new MemoryWriter();
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+
+        addStep("Count the ISBN numbers", "The comment and the empty line are not counted");
+        Assert.assertEquals(AlmaBulkExtractor.countIsbns(createReader(lines)), 95L);
+
+        addStep("Extract the ISBN numbers in batches of 10 with 3 threads", 
+                "All the ISBN numbers are extracted, and the progress is printed");
+        AlmaBulkExtractor extractor = new AlmaBulkExtractor(retriever, writer, 3, 10, new PrintStream(progress));
+        extractor.extract(createReader(lines), 95L);
+
+        Assert.assertEquals(batches.size(), 10);
+        Assert.assertEquals(extractor.getProcessedCount(), 95L);
+        Assert.assertEquals(extractor.getFailedCount(), 10L);
+        Assert.assertEquals(writer.records.size(), 85);
+        Assert.assertEquals(writer.failures.size(), 10);
+        Assert.assertEquals(new String(writer.records.get("9788711000001"), StandardCharsets.UTF_8),
+                "<mods>9788711000001</mods>");
+        Assert.assertTrue(progress.toString().startsWith("Processed 95 of 95 ISBN numbers (10 failed), "), 
+                progress.toString());
+    }
+
+    @Test
+    public void testExtractRetrievalFailure() throws IOException {
+        addDescription("Test that a batch, which cannot be retrieved, is written as failures.");
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+        when(retriever.retrieveMetadataForISBNs(any(Collection.class))).thenThrow(new IllegalStateException("Timeout"));
+        MemoryWriter writer = new MemoryWriter();
+
+        AlmaBulkExtractor extractor = new AlmaBulkExtractor(retriever, writer, 1, 25,
+                new PrintStream(new ByteArrayOutputStream()));
+        extractor.extract(createReader(Collections.singletonList("9788711436981")), -1L);
+        Assert.assertEquals(extractor.getFailedCount(), 1L);
+        Assert.assertEquals(writer.failures.get("9788711436981"), "Timeout");
+    }
+
+    @Test
+    public void testExtractSkipsInvalidIsbn() throws IOException {
+        addDescription("Test that a line, which is not a plain ISBN number, is written as a failure, and is not "
+                + "retrieved.");
+        List<Collection<String>> batches = new ArrayList<Collection<String>>();
+        AlmaMetadataRetriever retriever = mockRetriever(batches);
+        MemoryWriter writer = new MemoryWriter();
+
+        AlmaBulkExtractor extractor = new AlmaBulkExtractor(retriever, writer, 1, 25,
+                new PrintStream(new ByteArrayOutputStream()));
+        extractor.extract(createReader(Arrays.asList("9788711436981", "../../etc/passwd")), 2L);
+        Assert.assertEquals(extractor.getProcessedCount(), 2L);
+        Assert.assertEquals(extractor.getFailedCount(), 1L);
+        Assert.assertEquals(batches, Collections.singletonList(Collections.singletonList("9788711436981")));
+        Assert.assertEquals(writer.failures.get("../../etc/passwd"), AlmaBulkExtractor.NOT_PLAIN_ISBN_MESSAGE);
+    }
+
+    @Test
+    public void testGetProgress() {
+        addDescription("Test the description of the progress, with the throughput and the estimated time left.");
+        AlmaBulkExtractor extractor = new AlmaBulkExtractor(mock(AlmaMetadataRetriever.class), new MemoryWriter(),
+                1, 1, new PrintStream(new ByteArrayOutputStream()));
+        extractor.startTime = 0L;
+        extractor.processedCount.set(100L);
+        extractor.failedCount.set(3L);
+
+        addStep("With a known total", "The estimated time left is included");
+        extractor.total = 7300L;
+        Assert.assertEquals(extractor.getProgress(50000L), 
+                "Processed 100 of 7300 ISBN numbers (3 failed), 2.0 per second, ETA 01:00:00");
+
+        addStep("With an unknown total", "Only the throughput is included");
+        extractor.total = -1L;
+        Assert.assertEquals(extractor.getProgress(50000L), "Processed 100 ISBN numbers (3 failed), 2.0 per second");
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testTooLargeBatchSize() {
+        addDescription("Test that the batch size cannot exceed the maximum number of ISBN numbers per search.");
+        new AlmaBulkExtractor(mock(AlmaMetadataRetriever.class), new MemoryWriter(), 1, 
+                AlmaMetadataRetriever.MAX_ISBNS_PER_SEARCH + 1, new PrintStream(new ByteArrayOutputStream()));
+    }
+}
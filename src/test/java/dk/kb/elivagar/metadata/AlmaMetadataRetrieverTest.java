@@ -10,9 +10,23 @@ import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 
@@ -60,4 +74,123 @@ public class AlmaMetadataRetrieverTest extends ExtendedTestCase {
         File output = new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString());
         retriever.retrieveMetadataForISBN(INVALID_ID, new FileOutputStream(output));
     }
+
+    @Test
+    public void testRetrieveMetadataForISBNFromResponse() throws IOException {
+        addDescription("Test that the MODS record is extracted directly from the response.");
+        String response = "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\">"
+                + "<numberOfRecords>1</numberOfRecords><records>"
+                + getRecord("<identifier type=\"isbn\">" + VALID_ID + "</identifier>")
+                + "</records></searchRetrieveResponse>";
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(invocation -> {
+            HttpClient.ContentProcessor<?> processor = invocation.getArgument(1);
+            return processor.processContent(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+        }).when(httpClient).processUrlContent(anyString(), any(HttpClient.ContentProcessor.class));
+
+        AlmaMetadataRetriever retriever = new AlmaMetadataRetriever(configuration, httpClient);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        retriever.retrieveMetadataForISBN(VALID_ID, out);
+        Assert.assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).contains(
+                "<identifier type=\"isbn\">" + VALID_ID + "</identifier>"));
+    }
+
+    @Test
+    public void testNormalizeIsbn() {
+        addDescription("Test the normalization of the ISBN numbers.");
+        Assert.assertEquals(AlmaMetadataRetriever.normalizeIsbn("978-0-306-40615-7"), "9780306406157");
+        Assert.assertEquals(AlmaMetadataRetriever.normalizeIsbn(" 9780306406157 (ib.)"), "9780306406157");
+        addStep("Test an ISBN-10 number", "Converted into the ISBN-13 number");
+        Assert.assertEquals(AlmaMetadataRetriever.normalizeIsbn("0-306-40615-2"), "9780306406157");
+    }
+
+    @Test
+    public void testGetBatchUrl() throws IOException {
+        addDescription("Test the URL for searching for several ISBN numbers.");
+        AlmaMetadataRetriever retriever = new AlmaMetadataRetriever(configuration, mock(HttpClient.class));
+        String url = retriever.getBatchUrl(Arrays.asList("1111", "2222"));
+        Assert.assertTrue(url.startsWith(configuration.getAlmaSruSearch()));
+        Assert.assertTrue(url.contains("maximumRecords=4&"), url);
+        Assert.assertTrue(url.endsWith("query=isbn%3D1111%20or%20isbn%3D2222"), url);
+    }
+
+    @Test
+    public void testRetrieveMetadataForISBNs() throws IOException {
+        addDescription("Test the retrieval of the MODS records for several ISBN numbers in a single search.");
+        String response = "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\">"
+                + "<numberOfRecords>3</numberOfRecords><records>"
+                + getRecord("<identifier type=\"isbn\">978-0-306-40615-7</identifier>")
+                + getRecord("<identifier type=\"isbn\">9788711111111</identifier>")
+                + getRecord("<identifier type=\"isbn\">9788711111111</identifier>")
+                + "</records></searchRetrieveResponse>";
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(invocation -> {
+            HttpClient.ContentProcessor<?> processor = invocation.getArgument(1);
+            return processor.processContent(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+        }).when(httpClient).processUrlContent(anyString(), any(HttpClient.ContentProcessor.class));
+
+        AlmaMetadataRetriever retriever = new AlmaMetadataRetriever(configuration, httpClient);
+        AlmaBatchResult result = retriever.retrieveMetadataForISBNs(
+                Arrays.asList("9780306406157", "9788711111111", "9788722222222"));
+
+        addStep("Validate the result", "One record, one with too many records and one without any record");
+        verify(httpClient).processUrlContent(anyString(), any(HttpClient.ContentProcessor.class));
+        verifyNoMoreInteractions(httpClient);
+        Assert.assertEquals(result.getRecords().size(), 1);
+        Assert.assertTrue(new String(result.getRecord("9780306406157"), StandardCharsets.UTF_8).contains(
+                "978-0-306-40615-7"));
+        Assert.assertEquals(result.getFailures().size(), 2);
+        Assert.assertTrue(result.getFailure("9788711111111").contains("Received: 2"));
+        Assert.assertTrue(result.getFailure("9788722222222").contains("Received: 0"));
+    }
+
+    @Test
+    public void testRetrieveMetadataForISBNsWithUnmatchedRecord() throws IOException {
+        addDescription("Test that every ISBN number in the search is retrieved individually, when one of the "
+                + "records cannot be matched to an ISBN number, since it may belong to an ISBN number with a record.");
+        String response = "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\">"
+                + "<numberOfRecords>2</numberOfRecords><records>"
+                + getRecord("<identifier type=\"isbn\">9788711111111</identifier>")
+                + getRecord("<identifier type=\"isbn\">9780306406157</identifier>")
+                + "</records></searchRetrieveResponse>";
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(invocation -> {
+            HttpClient.ContentProcessor<?> processor = invocation.getArgument(1);
+            return processor.processContent(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+        }).when(httpClient).processUrlContent(anyString(), any(HttpClient.ContentProcessor.class));
+
+        List<String> individualIsbns = new ArrayList<String>();
+        AlmaMetadataRetriever retriever = new AlmaMetadataRetriever(configuration, httpClient) {
+            @Override
+            public void retrieveMetadataForISBN(String isbn, OutputStream out) {
+                individualIsbns.add(isbn);
+                if(isbn.equals("9788722222222")) {
+                    throw new IllegalStateException("Could not extract the MODS record",
+                            new IllegalStateException(ModsExtractor.NOT_SINGLE_RECORD_MESSAGE + "0"));
+                }
+                try {
+                    out.write(("<mods>" + isbn + "</mods>").getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        AlmaBatchResult result = retriever.retrieveMetadataForISBNs(Arrays.asList("9788711111111", "9788722222222"));
+
+        addStep("Validate the result", "Both the matched and the missing ISBN numbers are retrieved individually");
+        Assert.assertEquals(individualIsbns, Arrays.asList("9788711111111", "9788722222222"));
+        Assert.assertEquals(new String(result.getRecord("9788711111111"), StandardCharsets.UTF_8),
+                "<mods>9788711111111</mods>");
+        Assert.assertEquals(result.getRecords().size(), 1);
+        Assert.assertEquals(result.getFailure("9788722222222"), ModsExtractor.NOT_SINGLE_RECORD_MESSAGE + "0");
+    }
+
+    /**
+     * @param identifiers The identifiers for the MODS record.
+     * @return The SRU record with the MODS record.
+     */
+    protected String getRecord(String identifiers) {
+        return "<record><recordData><mods xmlns=\"http://www.loc.gov/mods/v3\">" + identifiers 
+                + "</mods></recordData></record>";
+    }
 }
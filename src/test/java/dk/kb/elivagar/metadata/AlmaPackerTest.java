@@ -3,6 +3,7 @@ package dk.kb.elivagar.metadata;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -13,9 +14,15 @@ import static org.mockito.Mockito.when;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 import org.jaccept.structure.ExtendedTestCase;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.testng.Assert;
@@ -25,12 +32,19 @@ import org.testng.annotations.Test;
 
 import dk.kb.elivagar.Constants;
 import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.state.AlmaNegativeCache;
+import dk.kb.elivagar.state.RefreshSchedule;
 import dk.kb.elivagar.testutils.TestConfigurations;
 import dk.kb.elivagar.testutils.TestFileUtils;
 
 @SuppressWarnings("ResultOfMethodCallIgnored")
 public class AlmaPackerTest extends ExtendedTestCase {
 
+    /** A MODS record, which is valid, or which cannot be validated when its schema cannot be retrieved.*/
+    protected static final String MODS_RECORD = "<mods xmlns=\"http://www.loc.gov/mods/v3\" "
+            + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://www.loc.gov/mods/v3 "
+            + "http://www.loc.gov/standards/mods/v3/mods-3-5.xsd\"><titleInfo><title>Title</title></titleInfo></mods>";
+
     Configuration configuration;
 
     @BeforeClass
@@ -145,6 +159,47 @@ public class AlmaPackerTest extends ExtendedTestCase {
         verifyNoMoreInteractions(retriever);
     }
 
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testPackageMetadataForBooks() throws Exception {
+        addDescription("Test the packageMetadataForBooks method, where the MODS records for several books are "
+                + "retrieved in a single batch.");
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+
+        AlmaPacker packer = new AlmaPacker(configuration, retriever);
+
+        String isbn1 = "9788711436981";
+        String isbn2 = "9788711111111";
+        File dir1 = TestFileUtils.createEmptyDirectory(new File(TestFileUtils.getTempDir(), 
+                UUID.randomUUID().toString()).getAbsolutePath());
+        TestFileUtils.copyFile(new File("src/test/resources/metadata/pubhub_metadata.xml"), 
+                new File(dir1, dir1.getName() + Constants.PUBHUB_METADATA_SUFFIX));
+        File dir2 = TestFileUtils.createEmptyDirectory(new File(TestFileUtils.getTempDir(), 
+                UUID.randomUUID().toString()).getAbsolutePath());
+        String pubhubMetadata = TestFileUtils.readFile(new File("src/test/resources/metadata/pubhub_metadata.xml"));
+        TestFileUtils.createFile(new File(dir2, dir2.getName() + Constants.PUBHUB_METADATA_SUFFIX), 
+                pubhubMetadata.replace(isbn1, isbn2));
+
+        AlmaBatchResult result = new AlmaBatchResult();
+        result.addRecord(isbn1, MODS_RECORD.getBytes(StandardCharsets.UTF_8));
+        result.addFailure(isbn2, "Did not receive exactly 1 result from Alma. Received: 0");
+        when(retriever.retrieveMetadataForISBNs(any(Collection.class))).thenReturn(result);
+
+        packer.packageMetadataForBooks(Arrays.asList(dir1, dir2));
+
+        addStep("Validate the MODS files", "Only the book with a MODS record has a MODS file");
+        File modsFile1 = new File(dir1, dir1.getName() + Constants.MODS_METADATA_SUFFIX);
+        File modsFile2 = new File(dir2, dir2.getName() + Constants.MODS_METADATA_SUFFIX);
+        Assert.assertTrue(modsFile1.exists());
+        Assert.assertEquals(TestFileUtils.readFile(modsFile1), MODS_RECORD);
+        Assert.assertFalse(modsFile2.exists());
+
+        ArgumentCaptor<Collection> isbnsCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(retriever).retrieveMetadataForISBNs(isbnsCaptor.capture());
+        verifyNoMoreInteractions(retriever);
+        Assert.assertEquals(new ArrayList<Object>(isbnsCaptor.getValue()), Arrays.asList(isbn1, isbn2));
+    }
+
     @Test
     public void testPackageMetadataForBookFailureToRetrieveMods() throws Exception {
         addDescription("Test the packageMetadataForBook method when no MODS record is retrieved.");
@@ -354,4 +409,247 @@ public class AlmaPackerTest extends ExtendedTestCase {
         verify(retriever).retrieveMetadataForISBN(eq(isbn), any(OutputStream.class));
         verifyNoMoreInteractions(retriever);
     }
+
+    @Test
+    public void testPackageMetadataForBookSkipsUnresolvableIsbn() throws Exception {
+        addDescription("Test that the packageMetadataForBook method does not retry an ISBN, which Alma could not "
+                + "resolve, until it is due.");
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+        AlmaNegativeCache cache = new AlmaNegativeCache(null, AlmaPacker.NEGATIVE_CACHE_NAME, 3600000L, 3600000L);
+        AlmaPacker packer = new AlmaPacker(configuration, retriever, cache);
+
+        String isbn = "9788711436981";
+        File dir = TestFileUtils.createEmptyDirectory(new File(TestFileUtils.getTempDir(), 
+                UUID.randomUUID().toString()).getAbsolutePath());
+        TestFileUtils.copyFile(new File("src/test/resources/metadata/pubhub_metadata.xml"), 
+                new File(dir, dir.getName() + Constants.PUBHUB_METADATA_SUFFIX));
+        doThrow(new IllegalStateException("Could not extract the MODS record", 
+                new IllegalStateException(ModsExtractor.NOT_SINGLE_RECORD_MESSAGE + "2")))
+                .when(retriever).retrieveMetadataForISBN(eq(isbn), any(OutputStream.class));
+
+        addStep("Package the metadata twice", "Alma is only asked once, and the second lookup is a cache hit");
+        packer.packageMetadataForBook(dir);
+        packer.packageMetadataForBook(dir);
+        Assert.assertFalse(new File(dir, dir.getName() + Constants.MODS_METADATA_SUFFIX).exists());
+        Assert.assertEquals(cache.getReason(isbn), ModsExtractor.NOT_SINGLE_RECORD_MESSAGE + "2");
+        Assert.assertEquals(cache.getHitCount(), 1L);
+
+        verify(retriever).retrieveMetadataForISBN(eq(isbn), any(OutputStream.class));
+        verifyNoMoreInteractions(retriever);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPackageMetadataForBooksRegistersUnresolvableIsbns() throws Exception {
+        addDescription("Test that the packageMetadataForBooks method only caches the ISBN numbers, which Alma "
+                + "could not resolve, and not the failures to communicate with Alma.");
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+        AlmaNegativeCache cache = new AlmaNegativeCache(null, AlmaPacker.NEGATIVE_CACHE_NAME, 3600000L, 3600000L);
+        AlmaPacker packer = new AlmaPacker(configuration, retriever, cache);
+
+        String isbn1 = "9788711436981";
+        String isbn2 = "9788711111111";
+        String isbn3 = "9788722222222";
+        String pubhubMetadata = TestFileUtils.readFile(new File("src/test/resources/metadata/pubhub_metadata.xml"));
+        List<File> dirs = new ArrayList<File>();
+        for(String isbn : Arrays.asList(isbn1, isbn2, isbn3)) {
+            File dir = TestFileUtils.createEmptyDirectory(new File(TestFileUtils.getTempDir(), 
+                    UUID.randomUUID().toString()).getAbsolutePath());
+            TestFileUtils.createFile(new File(dir, dir.getName() + Constants.PUBHUB_METADATA_SUFFIX), 
+                    pubhubMetadata.replace(isbn1, isbn));
+            dirs.add(dir);
+        }
+
+        AlmaBatchResult result = new AlmaBatchResult();
+        result.addRecord(isbn1, MODS_RECORD.getBytes(StandardCharsets.UTF_8));
+        result.addFailure(isbn2, ModsExtractor.NOT_SINGLE_RECORD_MESSAGE + "0");
+        result.addFailure(isbn3, "Connection refused");
+        when(retriever.retrieveMetadataForISBNs(any(Collection.class))).thenReturn(result);
+
+        packer.packageMetadataForBooks(dirs);
+
+        addStep("Validate the negative cache", "Only the ISBN, which Alma could not resolve, is cached");
+        Assert.assertEquals(cache.size(), 1);
+        Assert.assertNotNull(cache.getReason(isbn2));
+        Assert.assertNull(cache.getReason(isbn3));
+
+        addStep("Package the books again", "Only the ISBN of the communication failure is retrieved again");
+        packer.packageMetadataForBooks(dirs);
+        Assert.assertEquals(cache.getHitCount(), 1L);
+        verify(retriever).retrieveMetadataForISBNs(any(Collection.class));
+        verify(retriever).retrieveMetadataForISBN(eq(isbn3), any(OutputStream.class));
+        verifyNoMoreInteractions(retriever);
+    }
+
+    @Test
+    public void testRefreshMetadata() throws Exception {
+        addDescription("Test that the oldest existing MODS records are refreshed, and only rewritten when changed.");
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+        Configuration conf = mock(Configuration.class);
+        File baseDir = TestFileUtils.createEmptyDirectory(new File(TestFileUtils.getTempDir(), 
+                UUID.randomUUID().toString()).getAbsolutePath());
+        when(conf.getEbookOutputDir()).thenReturn(baseDir);
+        when(conf.getAudioOutputDir()).thenReturn(baseDir);
+        when(conf.getAlmaBatchSize()).thenReturn(20);
+        AlmaPacker packer = new AlmaPacker(conf, retriever);
+
+        String isbn1 = "9788711436981";
+        String isbn2 = "9788711111111";
+        String mods = MODS_RECORD;
+        String pubhubMetadata = TestFileUtils.readFile(new File("src/test/resources/metadata/pubhub_metadata.xml"));
+        List<File> dirs = new ArrayList<File>();
+        List<File> modsFiles = new ArrayList<File>();
+        for(String isbn : Arrays.asList(isbn1, isbn2)) {
+            File dir = TestFileUtils.createEmptyDirectory(new File(baseDir, isbn).getAbsolutePath());
+            TestFileUtils.createFile(new File(dir, dir.getName() + Constants.PUBHUB_METADATA_SUFFIX), 
+                    pubhubMetadata.replace(isbn1, isbn));
+            File modsFile = new File(dir, dir.getName() + Constants.MODS_METADATA_SUFFIX);
+            TestFileUtils.createFile(modsFile, mods);
+            dirs.add(dir);
+            modsFiles.add(modsFile);
+        }
+        Assert.assertTrue(modsFiles.get(0).setLastModified(1000000L));
+        Assert.assertTrue(modsFiles.get(1).setLastModified(2000000L));
+
+        mockRetrieval(retriever, isbn1, mods.replace("<mods xmlns=", "<mods\n    xmlns="));
+        mockRetrieval(retriever, isbn2, mods.replace("Title", "Corrected title"));
+
+        addStep("Refresh the oldest record, which has not changed in Alma", "The MODS file is not rewritten");
+        packer.selectMetadataForRefresh(1);
+        packer.packageMetadataForBooks(dirs);
+        Assert.assertEquals(TestFileUtils.readFile(modsFiles.get(0)), mods);
+        Assert.assertEquals(modsFiles.get(0).lastModified(), 1000000L);
+        verify(retriever).retrieveMetadataForISBN(eq(isbn1), any(OutputStream.class));
+
+        addStep("Refresh the now oldest record, which has changed in Alma", "The MODS file is rewritten");
+        packer.selectMetadataForRefresh(1);
+        packer.packageMetadataForBooks(dirs);
+        Assert.assertEquals(TestFileUtils.readFile(modsFiles.get(1)), mods.replace("Title", "Corrected title"));
+        Assert.assertTrue(modsFiles.get(1).lastModified() > 2000000L);
+        verify(retriever).retrieveMetadataForISBN(eq(isbn2), any(OutputStream.class));
+
+        addStep("Package the books without selecting any records", "Nothing is retrieved");
+        packer.packageMetadataForBooks(dirs);
+        verifyNoMoreInteractions(retriever);
+    }
+
+    @Test
+    public void testFailedRefreshIsNotRegistered() throws Exception {
+        addDescription("Test that a MODS record is only registered as refreshed, when it has been retrieved.");
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+        RefreshSchedule schedule = new RefreshSchedule(null, AlmaPacker.REFRESH_SCHEDULE_NAME);
+        AlmaPacker packer = new AlmaPacker(configuration, retriever, new AlmaNegativeCache(null, 
+                AlmaPacker.NEGATIVE_CACHE_NAME, 3600000L, 3600000L), schedule);
+        String isbn = "9788711436981";
+        File dir = TestFileUtils.createTempDirectory();
+        TestFileUtils.copyFile(new File("src/test/resources/metadata/pubhub_metadata.xml"), 
+                new File(dir, dir.getName() + Constants.PUBHUB_METADATA_SUFFIX));
+        File modsFile = new File(dir, dir.getName() + Constants.MODS_METADATA_SUFFIX);
+        TestFileUtils.createFile(modsFile, MODS_RECORD);
+        Assert.assertTrue(modsFile.setLastModified(1000000L));
+
+        addStep("Refresh the record, when Alma cannot be reached", "It is not registered as refreshed");
+        doThrow(new IllegalStateException("Connection refused"))
+                .when(retriever).retrieveMetadataForISBN(eq(isbn), any(OutputStream.class));
+        packer.modsFilesToRefresh.add(modsFile.getAbsolutePath());
+        packer.packageMetadataForBook(dir);
+        Assert.assertEquals(schedule.getLastRefreshed(modsFile), 1000000L);
+
+        addStep("Refresh the record again, when Alma returns the same record", 
+                "It is registered as refreshed, but the MODS file is not rewritten");
+        mockRetrieval(retriever, isbn, MODS_RECORD);
+        packer.modsFilesToRefresh.add(modsFile.getAbsolutePath());
+        packer.packageMetadataForBook(dir);
+        Assert.assertTrue(schedule.getLastRefreshed(modsFile) > 1000000L);
+        Assert.assertEquals(modsFile.lastModified(), 1000000L);
+    }
+
+    @Test
+    public void testInvalidModsRecord() throws Exception {
+        addDescription("Test that an invalid MODS record is moved to the error file, and does not replace an "
+                + "existing MODS file.");
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+        AlmaPacker packer = new AlmaPacker(configuration, retriever);
+        File dir = TestFileUtils.createTempDirectory();
+        File modsFile = new File(dir, dir.getName() + Constants.MODS_METADATA_SUFFIX);
+        File errorFile = new File(modsFile.getAbsolutePath() + Constants.ERROR_SUFFIX);
+        String invalidMods = "<mods xmlns=\"http://www.loc.gov/mods/v3\"><titleInfo>";
+
+        addStep("Retrieve an invalid MODS record for a book without a MODS file", "It is moved to the error file");
+        mockRetrieval(retriever, "9788711436981", invalidMods);
+        packer.getAlmaMetadata("9788711436981", modsFile);
+        Assert.assertFalse(modsFile.exists());
+        Assert.assertEquals(TestFileUtils.readFile(errorFile), invalidMods);
+
+        addStep("Write an invalid MODS record over an existing MODS file", "The existing MODS file is kept");
+        TestFileUtils.createFile(modsFile, MODS_RECORD);
+        errorFile.delete();
+        packer.writeModsRecord(invalidMods.getBytes(StandardCharsets.UTF_8), modsFile);
+        Assert.assertEquals(TestFileUtils.readFile(modsFile), MODS_RECORD);
+        Assert.assertEquals(TestFileUtils.readFile(errorFile), invalidMods);
+        Assert.assertFalse(new File(modsFile.getAbsolutePath() + AlmaPacker.TEMPORARY_SUFFIX).exists());
+    }
+
+    @Test
+    public void testFailedRetrievalLeavesNoModsFile() throws Exception {
+        addDescription("Test that a MODS record, which fails partway through the retrieval, is not left as a "
+                + "truncated MODS file.");
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+        AlmaPacker packer = new AlmaPacker(configuration, retriever);
+        File dir = TestFileUtils.createTempDirectory();
+        File modsFile = new File(dir, dir.getName() + Constants.MODS_METADATA_SUFFIX);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocationOnMock) throws Throwable {
+                OutputStream out = (OutputStream) invocationOnMock.getArguments()[1];
+                out.write(MODS_RECORD.substring(0, MODS_RECORD.length() / 2).getBytes(StandardCharsets.UTF_8));
+                throw new IllegalStateException("Connection reset");
+            }
+        }).when(retriever).retrieveMetadataForISBN(eq("9788711436981"), any(OutputStream.class));
+
+        try {
+            packer.getAlmaMetadata("9788711436981", modsFile);
+            Assert.fail("Should throw an exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertFalse(modsFile.exists());
+        Assert.assertFalse(new File(modsFile.getAbsolutePath() + AlmaPacker.TEMPORARY_SUFFIX).exists());
+    }
+
+    @Test
+    public void testInvalidModsRecordIsNegativelyCached() throws Exception {
+        addDescription("Test that an ISBN number, which Alma resolves to an invalid MODS record, is registered as "
+                + "a failure in the negative cache, and a valid record clears it again.");
+        AlmaMetadataRetriever retriever = mock(AlmaMetadataRetriever.class);
+        AlmaNegativeCache cache = new AlmaNegativeCache(null, AlmaPacker.NEGATIVE_CACHE_NAME, 3600000L, 3600000L);
+        AlmaPacker packer = new AlmaPacker(configuration, retriever, cache);
+        String isbn = "9788711436981";
+        File dir = TestFileUtils.createTempDirectory();
+        File modsFile = new File(dir, dir.getName() + Constants.MODS_METADATA_SUFFIX);
+
+        addStep("Retrieve an invalid MODS record", "The ISBN number is registered as a failure");
+        mockRetrieval(retriever, isbn, "<mods xmlns=\"http://www.loc.gov/mods/v3\"><titleInfo>");
+        packer.getAlmaMetadata(isbn, modsFile);
+        Assert.assertFalse(modsFile.exists());
+        Assert.assertEquals(cache.getReason(isbn), AlmaPacker.INVALID_RECORD_MESSAGE);
+        Assert.assertFalse(cache.isDue(isbn, System.currentTimeMillis()));
+
+        addStep("Write a valid MODS record", "The ISBN number is no longer registered as a failure");
+        packer.registerRecord(isbn, packer.writeModsRecord(MODS_RECORD.getBytes(StandardCharsets.UTF_8), modsFile));
+        Assert.assertEquals(TestFileUtils.readFile(modsFile), MODS_RECORD);
+        Assert.assertNull(cache.getReason(isbn));
+        Assert.assertTrue(cache.isDue(isbn, System.currentTimeMillis()));
+    }
+
+    protected void mockRetrieval(AlmaMetadataRetriever retriever, String isbn, String mods) {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocationOnMock) throws Throwable {
+                OutputStream out = (OutputStream) invocationOnMock.getArguments()[1];
+                out.write(mods.getBytes(StandardCharsets.UTF_8));
+                return null;
+            }
+        }).when(retriever).retrieveMetadataForISBN(eq(isbn), any(OutputStream.class));
+    }
 }
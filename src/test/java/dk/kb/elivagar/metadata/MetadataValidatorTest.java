@@ -1,13 +1,27 @@
 package dk.kb.elivagar.metadata;
 
+import dk.kb.elivagar.metadata.xsl.XmlErrorHandler;
 import org.jaccept.structure.ExtendedTestCase;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MetadataValidatorTest extends ExtendedTestCase {
 
+    String validBook = "<book xmlns=\"http://example.org/elivagar/book\" "
+            + "xmlns:xlink=\"http://www.w3.org/1999/xlink\" "
+            + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+            + "xsi:schemaLocation=\"http://example.org/elivagar/book http://example.org/elivagar/book.xsd\">"
+            + "<title>Title</title><cover xlink:href=\"http://example.org/cover.jpg\" xlink:show=\"embed\"/></book>";
+
     @Test
     public void testValidXml() throws Exception {
         addDescription("Tests that it can validate a proper XML file.");
@@ -23,4 +37,71 @@ public class MetadataValidatorTest extends ExtendedTestCase {
         File f = new File("src/test/resources/elivagar.yml");
         Assert.assertFalse(validator.isValid(f));
     }
+
+    @Test
+    public void testValidateWithCatalog() throws Exception {
+        addDescription("Tests the validation against a schema from the catalog, which imports another schema.");
+        MetadataValidator validator = new MetadataValidator(new SchemaCatalog("xsd/test_catalog.txt"));
+
+        addStep("Validate a valid document", "Valid");
+        Assert.assertTrue(validate(validator, validBook));
+
+        addStep("Validate a document with an element, which is not in the schema", "Not valid");
+        Assert.assertFalse(validate(validator, validBook.replace("<title>Title</title>", 
+                "<title>Title</title><author>Author</author>")));
+
+        addStep("Validate a document with an invalid XLink attribute", "Not valid");
+        Assert.assertFalse(validate(validator, validBook.replace("embed", "popup")));
+    }
+
+    @Test
+    public void testValidateInSeveralThreads() throws Exception {
+        addDescription("Tests that the same validator can be used by several threads at the same time.");
+        MetadataValidator validator = new MetadataValidator(new SchemaCatalog("xsd/test_catalog.txt"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for(int i = 0; i < 40; i++) {
+                String book = i % 2 == 0 ? validBook : validBook.replace("<title>Title</title>", "");
+                results.add(executor.submit(() -> validate(validator, book)));
+            }
+            for(int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(results.get(i).get().booleanValue(), i % 2 == 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testValidateWithErrorReport() throws Exception {
+        addDescription("Tests that the validation is only aborted at the first error with a fail-fast error handler.");
+        MetadataValidator validator = new MetadataValidator(new SchemaCatalog("xsd/test_catalog.txt"));
+        String invalidBook = validBook.replace("embed", "popup").replace("<title>Title</title>",
+                "<title>Title</title><author>Author</author>");
+
+        addStep("Validate a document with several errors with a fail-fast error handler",
+                "Not valid, and only the first error is reported");
+        XmlErrorHandler failFastHandler = new XmlErrorHandler(true, 10);
+        Assert.assertFalse(validate(validator, invalidBook, failFastHandler));
+        Assert.assertEquals(failFastHandler.getReport().size(), 1);
+        Assert.assertEquals(failFastHandler.getErrorCount(), 1);
+        Assert.assertEquals(failFastHandler.getReport().get(0).getSeverity(), XmlErrorHandler.Severity.ERROR);
+        Assert.assertEquals(failFastHandler.getReport().get(0).getLineNumber(), 1);
+
+        addStep("Validate the document with an error handler, which handles the whole document",
+                "Not valid, and all the errors are reported");
+        XmlErrorHandler handler = new XmlErrorHandler();
+        Assert.assertFalse(validate(validator, invalidBook, handler));
+        Assert.assertTrue(handler.getErrorCount() > 1);
+        Assert.assertEquals(handler.getReport().size(), handler.getErrorCount());
+    }
+
+    protected boolean validate(MetadataValidator validator, String xml, XmlErrorHandler handler) throws Exception {
+        return validator.validate(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), handler);
+    }
+
+    protected boolean validate(MetadataValidator validator, String xml) throws Exception {
+        return validator.validate(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null);
+    }
 }
@@ -0,0 +1,119 @@
+package dk.kb.elivagar.metadata;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class ModsExtractorTest extends ExtendedTestCase {
+
+    @Test
+    public void testExtractSingleRecord() throws Exception {
+        addDescription("Test extracting the MODS record from a response with a single record.");
+        String response = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\" "
+                + "xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+                + "<numberOfRecords>1</numberOfRecords><records><record><recordData>"
+                + "<mods xmlns=\"http://www.loc.gov/mods/v3\" version=\"3.5\">"
+                + "<titleInfo><title>Bl\u00e5b\u00e6r &amp; co</title></titleInfo>"
+                + "<identifier type=\"isbn\">9789777641364</identifier>"
+                + "<location><url xlink:href=\"http://127.0.0.1\">link</url></location>"
+                + "</mods></recordData></record></records></searchRetrieveResponse>";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ModsExtractor().extractSingleRecord(toStream(response), out);
+
+        String mods = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        addStep("Validate the MODS record", "Only the MODS record, with the namespaces it uses");
+        Assert.assertTrue(mods.startsWith("<?xml"), mods);
+        Assert.assertTrue(mods.contains("<mods xmlns=\"http://www.loc.gov/mods/v3\""), mods);
+        Assert.assertTrue(mods.contains("xmlns:xlink=\"http://www.w3.org/1999/xlink\""), mods);
+        Assert.assertTrue(mods.contains("<identifier type=\"isbn\">9789777641364</identifier>"), mods);
+        Assert.assertTrue(mods.contains("Bl\u00e5b\u00e6r &amp; co"), mods);
+        Assert.assertFalse(mods.contains("numberOfRecords"), mods);
+        Assert.assertTrue(mods.trim().endsWith("</mods>"), mods);
+    }
+
+    @Test
+    public void testExtractSingleRecordWithPrefix() throws Exception {
+        addDescription("Test extracting a MODS record, which uses a namespace declared outside the record.");
+        String response = "<srw:searchRetrieveResponse xmlns:srw=\"http://www.loc.gov/zing/srw/\" "
+                + "xmlns:mods=\"http://www.loc.gov/mods/v3\"><srw:numberOfRecords>1</srw:numberOfRecords>"
+                + "<srw:records><srw:record><srw:recordData><mods:mods><mods:identifier type=\"isbn\">1234"
+                + "</mods:identifier></mods:mods></srw:recordData></srw:record></srw:records>"
+                + "</srw:searchRetrieveResponse>";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ModsExtractor().extractSingleRecord(toStream(response), out);
+
+        String mods = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(mods.contains("xmlns:mods=\"http://www.loc.gov/mods/v3\""), mods);
+        Assert.assertTrue(mods.contains("<mods:identifier type=\"isbn\">1234</mods:identifier>"), mods);
+    }
+
+    @Test
+    public void testExtractSingleRecordWithMoreRecords() throws Exception {
+        addDescription("Test that the extraction fails, when the response has more than one record.");
+        String response = "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\">"
+                + "<numberOfRecords>2</numberOfRecords><records>" + getRecord("1") + getRecord("2")
+                + "</records></searchRetrieveResponse>";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new ModsExtractor().extractSingleRecord(toStream(response), out);
+            Assert.fail("Should fail");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("Received: 2"), e.getMessage());
+        }
+        Assert.assertEquals(out.size(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testExtractSingleRecordWithoutRecords() throws Exception {
+        addDescription("Test that the extraction fails, when the response has no records.");
+        String response = "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\">"
+                + "<numberOfRecords>0</numberOfRecords></searchRetrieveResponse>";
+        new ModsExtractor().extractSingleRecord(toStream(response), new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void testExtractAllRecords() throws Exception {
+        addDescription("Test extracting all the MODS records along with their ISBN identifiers.");
+        String response = "<searchRetrieveResponse xmlns=\"http://www.loc.gov/zing/srw/\">"
+                + "<numberOfRecords>2</numberOfRecords><records>" + getRecord("1111") 
+                + "<record><recordData><mods xmlns=\"http://www.loc.gov/mods/v3\">"
+                + "<identifier type=\"ISBN\"> 2222 (ib.)</identifier><identifier type=\"issn\">3333</identifier>"
+                + "<relatedItem><identifier type=\"isbn\">4444</identifier></relatedItem>"
+                + "</mods></recordData></record></records></searchRetrieveResponse>";
+        List<ModsExtractor.ModsRecord> records = new ArrayList<ModsExtractor.ModsRecord>();
+        String numberOfRecords = new ModsExtractor().extractAllRecords(toStream(response), records);
+
+        Assert.assertEquals(numberOfRecords, "2");
+        Assert.assertEquals(records.size(), 2);
+        Assert.assertEquals(records.get(0).getIsbns(), new HashSet<String>(Arrays.asList("1111")));
+        Assert.assertEquals(records.get(1).getIsbns(), new HashSet<String>(Arrays.asList("2222 (ib.)")));
+        Assert.assertTrue(new String(records.get(1).getContent(), StandardCharsets.UTF_8).contains("4444"));
+    }
+
+    /**
+     * @param isbn The ISBN identifier for the MODS record.
+     * @return The SRU record with the MODS record.
+     */
+    protected String getRecord(String isbn) {
+        return "<record><recordData><mods xmlns=\"http://www.loc.gov/mods/v3\"><identifier type=\"isbn\">" + isbn
+                + "</identifier></mods></recordData></record>";
+    }
+
+    /**
+     * @param content The content.
+     * @return The content as a UTF-8 input stream.
+     */
+    protected InputStream toStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,134 @@
+package dk.kb.elivagar.metadata;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.testutils.TestFileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ModsRecordWriterTest extends ExtendedTestCase {
+
+    String isbn = "9788711436981";
+    byte[] mods = "<mods>\n  <title>\"Title\"</title>\n</mods>".getBytes(StandardCharsets.UTF_8);
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    protected File getOutput(String suffix) {
+        return new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString() + suffix);
+    }
+
+    @Test
+    public void testDirectoryWriter() throws IOException {
+        addDescription("Test that the records are written as individual MODS files in the directory.");
+        File dir = getOutput("");
+        try (ModsRecordWriter writer = ModsRecordWriter.create(dir)) {
+            Assert.assertTrue(writer instanceof ModsRecordWriter.DirectoryWriter);
+            writer.writeRecord(isbn, mods);
+            writer.writeFailure("1234", "Not found");
+        }
+        File modsFile = new File(dir, isbn + ModsRecordWriter.MODS_SUFFIX);
+        Assert.assertTrue(modsFile.isFile());
+        Assert.assertEquals(Files.readAllBytes(modsFile.toPath()), mods);
+        Assert.assertEquals(dir.list().length, 1);
+    }
+
+    @Test
+    public void testZipWriter() throws IOException {
+        addDescription("Test that the records are written as entries in a zip archive.");
+        File zip = getOutput(ModsRecordWriter.ZIP_SUFFIX);
+        try (ModsRecordWriter writer = ModsRecordWriter.create(zip)) {
+            Assert.assertTrue(writer instanceof ModsRecordWriter.ZipWriter);
+            writer.writeRecord(isbn, mods);
+        }
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+            ZipEntry entry = in.getNextEntry();
+            Assert.assertEquals(entry.getName(), isbn + ModsRecordWriter.MODS_SUFFIX);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            Assert.assertEquals(content.toByteArray(), mods);
+            Assert.assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    public void testZipWriterWithRepeatedIsbn() throws IOException {
+        addDescription("Test that a repeated ISBN number is only written once to the zip archive.");
+        File zip = getOutput(ModsRecordWriter.ZIP_SUFFIX);
+        try (ModsRecordWriter writer = ModsRecordWriter.create(zip)) {
+            writer.writeRecord(isbn, mods);
+            writer.writeRecord(isbn, "<mods/>".getBytes(StandardCharsets.UTF_8));
+            writer.writeRecord("9788711111111", mods);
+        }
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+            Assert.assertEquals(in.getNextEntry().getName(), isbn + ModsRecordWriter.MODS_SUFFIX);
+            Assert.assertEquals(in.getNextEntry().getName(), "9788711111111" + ModsRecordWriter.MODS_SUFFIX);
+            Assert.assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    public void testPlainIsbn() {
+        addDescription("Test which ISBN numbers are plain ISBN numbers.");
+        Assert.assertTrue(ModsRecordWriter.isPlainIsbn("9788711436981"));
+        Assert.assertTrue(ModsRecordWriter.isPlainIsbn("87-11-43698-X"));
+        Assert.assertFalse(ModsRecordWriter.isPlainIsbn("../9788711436981"));
+        Assert.assertFalse(ModsRecordWriter.isPlainIsbn("9788711436981/mods"));
+        Assert.assertFalse(ModsRecordWriter.isPlainIsbn("X"));
+        Assert.assertFalse(ModsRecordWriter.isPlainIsbn(""));
+        Assert.assertFalse(ModsRecordWriter.isPlainIsbn(null));
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testDirectoryWriterRejectsPath() throws IOException {
+        addDescription("Test that the directory writer does not write outside the directory.");
+        try (ModsRecordWriter writer = ModsRecordWriter.create(getOutput(""))) {
+            writer.writeRecord("../" + isbn, mods);
+        }
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testZipWriterRejectsPath() throws IOException {
+        addDescription("Test that the zip writer does not write entries with paths.");
+        try (ModsRecordWriter writer = ModsRecordWriter.create(getOutput(ModsRecordWriter.ZIP_SUFFIX))) {
+            writer.writeRecord("../" + isbn, mods);
+        }
+    }
+
+    @Test
+    public void testJsonLinesWriter() throws IOException {
+        addDescription("Test that the records and the failures are written as JSON Lines.");
+        File jsonl = getOutput(ModsRecordWriter.JSON_LINES_SUFFIX);
+        try (ModsRecordWriter writer = ModsRecordWriter.create(jsonl)) {
+            Assert.assertTrue(writer instanceof ModsRecordWriter.JsonLinesWriter);
+            writer.writeRecord(isbn, mods);
+            writer.writeFailure("1234", "Not found");
+        }
+        Assert.assertEquals(new String(Files.readAllBytes(jsonl.toPath()), StandardCharsets.UTF_8),
+                "{\"isbn\":\"9788711436981\",\"mods\":\"<mods>\\n  <title>\\\"Title\\\"</title>\\n</mods>\"}\n"
+                + "{\"isbn\":\"1234\",\"error\":\"Not found\"}\n");
+    }
+}
@@ -0,0 +1,89 @@
+package dk.kb.elivagar.metadata;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+
+import org.w3c.dom.ls.LSInput;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+public class SchemaCatalogTest extends ExtendedTestCase {
+
+    @Test
+    public void testCatalog() {
+        addDescription("Test loading the schema catalog, where the invalid lines are ignored.");
+        SchemaCatalog catalog = new SchemaCatalog("xsd/test_catalog.txt");
+        Assert.assertEquals(catalog.resources.size(), 2);
+        Assert.assertEquals(catalog.resources.get("http://example.org/elivagar/book.xsd"), "xsd/book.xsd");
+    }
+
+    @Test
+    public void testDefaultCatalog() throws Exception {
+        addDescription("Test that the schemas in the default catalog are bundled.");
+        SchemaCatalog catalog = new SchemaCatalog(SchemaCatalog.DEFAULT_CATALOG);
+        Assert.assertFalse(catalog.resources.isEmpty());
+        for(String resource : catalog.resources.values()) {
+            Assert.assertTrue(catalog.readResource(resource).length > 0, resource);
+        }
+        Assert.assertNotNull(catalog.getSchema("http://www.w3.org/1999/xlink "
+                + "http://www.loc.gov/standards/xlink/xlink.xsd"));
+    }
+
+    @Test
+    public void testModsSchemaIsBundled() throws Exception {
+        addDescription("Test that the MODS schemas, which Alma refers to, and the schemas they import, are compiled "
+                + "from the default catalog without retrieving anything from their URL.");
+        SchemaCatalog catalog = new SchemaCatalog(SchemaCatalog.DEFAULT_CATALOG) {
+            @Override
+            public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId,
+                    String baseURI) {
+                LSInput input = super.resolveResource(type, namespaceURI, publicId, systemId, baseURI);
+                Assert.assertNotNull(input, "The schema '" + systemId + "' must be bundled.");
+                return input;
+            }
+        };
+        for(String version : new String[]{"3-4", "3-5", "3-6", "3-7"}) {
+            String url = "http://www.loc.gov/standards/mods/v3/mods-" + version + ".xsd";
+            Assert.assertTrue(catalog.resources.containsKey(url), url);
+            Assert.assertNotNull(catalog.getSchema("http://www.loc.gov/mods/v3 " + url));
+        }
+
+        addStep("Validate MODS records against the MODS 3.5 schema", "Only the valid record is accepted");
+        Schema schema = catalog.getSchema("http://www.loc.gov/mods/v3 "
+                + "http://www.loc.gov/standards/mods/v3/mods-3-5.xsd");
+        schema.newValidator().validate(new StreamSource(new File("src/test/resources/metadata/mods.xml")));
+        try {
+            schema.newValidator().validate(new StreamSource(new ByteArrayInputStream(("<mods "
+                    + "xmlns=\"http://www.loc.gov/mods/v3\"><titleInfo><author>Author</author></titleInfo></mods>")
+                    .getBytes(StandardCharsets.UTF_8))));
+            Assert.fail("The invalid MODS record should not be valid.");
+        } catch (SAXException e) {
+            // expected
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testMissingCatalog() {
+        addDescription("Test that the catalog must exist.");
+        new SchemaCatalog("xsd/no_such_catalog.txt");
+    }
+
+    @Test
+    public void testSchemaIsOnlyCompiledOnce() throws Exception {
+        addDescription("Test that the schema, and the schema it imports, are compiled from the catalog once.");
+        SchemaCatalog catalog = new SchemaCatalog("xsd/test_catalog.txt");
+        String schemaLocation = "http://example.org/elivagar/book http://example.org/elivagar/book.xsd";
+
+        Schema schema = catalog.getSchema(schemaLocation);
+        Assert.assertNotNull(schema);
+        Assert.assertSame(catalog.getSchema(" " + schemaLocation + "\n"), schema);
+        Assert.assertEquals(catalog.schemas.size(), 1);
+    }
+}
@@ -0,0 +1,63 @@
+package dk.kb.elivagar.metadata.xsl;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXParseException;
+
+public class XmlErrorHandlerTest extends ExtendedTestCase {
+
+    protected SAXParseException createException(String message, int line) {
+        return new SAXParseException(message, null, null, line, 7);
+    }
+
+    @Test
+    public void testCollectingErrors() throws Exception {
+        addDescription("Test that the default error handler handles all the errors, and caps the report.");
+        XmlErrorHandler handler = new XmlErrorHandler(false, 2);
+        Assert.assertFalse(handler.hasErrors());
+
+        addStep("Handle a warning, an error and a fatal error", "All are counted, but only the first two reported");
+        handler.warning(createException("warning", 1));
+        handler.error(createException("error", 2));
+        handler.fatalError(createException("fatal", 3));
+        Assert.assertTrue(handler.hasErrors());
+        Assert.assertEquals(handler.getWarningCount(), 1);
+        Assert.assertEquals(handler.getErrorCount(), 1);
+        Assert.assertEquals(handler.getFatalErrorCount(), 1);
+        Assert.assertEquals(handler.getReport().size(), 2);
+        Assert.assertEquals(handler.getReport().get(0).getSeverity(), XmlErrorHandler.Severity.WARNING);
+        Assert.assertEquals(handler.getReport().get(1).getSeverity(), XmlErrorHandler.Severity.ERROR);
+        Assert.assertEquals(handler.getReport().get(1).getLineNumber(), 2);
+        Assert.assertEquals(handler.getReport().get(1).getColumnNumber(), 7);
+        Assert.assertEquals(handler.getReport().get(1).getMessage(), "error");
+
+        addStep("Reset the handler", "No errors");
+        handler.reset();
+        Assert.assertFalse(handler.hasErrors());
+        Assert.assertTrue(handler.getReport().isEmpty());
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        addDescription("Test that the fail-fast error handler aborts at the first error.");
+        XmlErrorHandler handler = new XmlErrorHandler(true, 0);
+        SAXParseException error = createException("error", 1);
+        try {
+            handler.error(error);
+            Assert.fail("Should abort at the first error");
+        } catch (SAXParseException e) {
+            Assert.assertSame(e, error);
+        }
+        Assert.assertTrue(handler.hasErrors());
+        Assert.assertEquals(handler.getErrorCount(), 1);
+        Assert.assertTrue(handler.getReport().isEmpty());
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testNegativeMaxReported() {
+        addDescription("Test that the maximum number of reported errors must not be negative.");
+        new XmlErrorHandler(false, -1);
+    }
+}
@@ -0,0 +1,200 @@
+package dk.kb.elivagar.pipeline;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.characterization.CharacterizationHandler;
+import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.metadata.AlmaPacker;
+import dk.kb.elivagar.pubhub.PubhubPacker;
+import dk.kb.elivagar.pubhub.PubhubWorkflow;
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.transfer.TransferWorkflow;
+import dk.pubhub.service.Book;
+import dk.pubhub.service.BookTypeEnum;
+
+public class ElivagarPipelineTest extends ExtendedTestCase {
+
+    Configuration conf;
+    File ebookFileDir;
+    File audioFileDir;
+    File ebookOutputDir;
+    File audioOutputDir;
+
+    @BeforeMethod
+    public void setupMethod() throws Exception {
+        TestFileUtils.setup();
+        String baseDir = TestFileUtils.getTempDir().getAbsolutePath();
+        ebookFileDir = TestFileUtils.createEmptyDirectory(baseDir + "/books_files");
+        audioFileDir = TestFileUtils.createEmptyDirectory(baseDir + "/audio_files");
+        ebookOutputDir = TestFileUtils.createEmptyDirectory(baseDir + "/books_metadata");
+        audioOutputDir = TestFileUtils.createEmptyDirectory(baseDir + "/audio_metadata");
+
+        conf = mock(Configuration.class);
+        when(conf.getEbookFileDir()).thenReturn(ebookFileDir);
+        when(conf.getAudioFileDir()).thenReturn(audioFileDir);
+        when(conf.getEbookOutputDir()).thenReturn(ebookOutputDir);
+        when(conf.getAudioOutputDir()).thenReturn(audioOutputDir);
+        when(conf.getPipelineQueueSize()).thenReturn(2);
+        when(conf.getPubhubPackingThreads()).thenReturn(2);
+        when(conf.getAlmaBatchSize()).thenReturn(5);
+    }
+
+    /**
+     * Makes the mocked Alma packer collect the book directories it is asked to package.
+     * @param almaPacker The mocked Alma packer.
+     * @return The list, where the book directories are collected.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<File> collectAlmaBookDirs(AlmaPacker almaPacker) {
+        List<File> res = Collections.synchronizedList(new ArrayList<File>());
+        doAnswer(invocation -> {
+            res.addAll((Collection<File>) invocation.getArguments()[0]);
+            return null;
+        }).when(almaPacker).packageMetadataForBooks(any(Collection.class));
+        return res;
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test
+    public void testPipelineWithRetrievedAndExistingBooks() throws Exception {
+        addDescription("Test that both retrieved books, books with only content files and already packaged books "
+                + "are sent through all the stages.");
+        PubhubWorkflow pubhubWorkflow = mock(PubhubWorkflow.class);
+        PubhubPacker packer = mock(PubhubPacker.class);
+        AlmaPacker almaPacker = mock(AlmaPacker.class);
+        List<File> almaBookDirs = collectAlmaBookDirs(almaPacker);
+        TransferWorkflow transferWorkflow = mock(TransferWorkflow.class);
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        when(transferWorkflow.isEnabled()).thenReturn(true);
+
+        addStep("Create the files for the retrieved book, an existing package dir and an unpacked content file",
+                "");
+        File retrievedBookFile = new File(ebookFileDir, "retrieved.pdf");
+        TestFileUtils.createFile(retrievedBookFile, "retrieved");
+        File retrievedBookDir = new File(ebookOutputDir, "retrieved");
+        Assert.assertTrue(retrievedBookDir.mkdirs());
+        File existingBookDir = new File(ebookOutputDir, "existing");
+        Assert.assertTrue(existingBookDir.mkdirs());
+        File unpackedBookFile = new File(ebookFileDir, "unpacked.epub");
+        TestFileUtils.createFile(unpackedBookFile, "unpacked");
+        File audioBookDir = new File(audioFileDir, "AUDIO");
+        Assert.assertTrue(audioBookDir.mkdirs());
+
+        Book book = mock(Book.class);
+        when(book.getBookId()).thenReturn("retrieved");
+
+        addStep("Run the pipeline", "All the books are handled by each stage");
+        ElivagarPipeline pipeline = new ElivagarPipeline(conf, pubhubWorkflow, packer, almaPacker,
+                transferWorkflow, characterizer);
+        pipeline.start();
+        Assert.assertEquals(pipeline.getStages().size(), 4);
+        pipeline.submitBook(book);
+        pipeline.finish();
+
+        verify(packer).packBook(eq(book));
+        verify(packer).awaitImages(eq(retrievedBookDir));
+        verify(packer).awaitImages(eq(existingBookDir));
+        verifyNoMoreInteractions(packer);
+
+        verify(pubhubWorkflow).packEbookFile(eq(retrievedBookFile));
+        verify(pubhubWorkflow).packEbookFile(eq(unpackedBookFile));
+        verify(pubhubWorkflow).packAudioBookDir(eq(audioBookDir));
+        verifyNoMoreInteractions(pubhubWorkflow);
+
+        Assert.assertEquals(almaBookDirs.size(), 2);
+        Assert.assertTrue(almaBookDirs.contains(retrievedBookDir));
+        Assert.assertTrue(almaBookDirs.contains(existingBookDir));
+
+        verify(transferWorkflow).isEnabled();
+        verify(transferWorkflow).transferBook(eq(retrievedBookDir), eq(BookTypeEnum.EBOG));
+        verify(transferWorkflow).transferBook(eq(existingBookDir), eq(BookTypeEnum.EBOG));
+        verifyNoMoreInteractions(transferWorkflow);
+
+        verify(characterizer).awaitCharacterization(eq(retrievedBookDir));
+        verify(characterizer).awaitCharacterization(eq(existingBookDir));
+        verifyNoMoreInteractions(characterizer);
+
+        for(PipelineStage stage : pipeline.getStages()) {
+            Assert.assertEquals(stage.getFailureCount(), 0);
+        }
+        Assert.assertEquals(pipeline.getPubhubFailureCount(), 0);
+        Assert.assertEquals(pipeline.getContentFailureCount(), 0);
+    }
+
+    @Test
+    public void testPipelineWithoutTransfer() throws Exception {
+        addDescription("Test that the transfer stage is left out, when the transfer is disabled.");
+        PubhubWorkflow pubhubWorkflow = mock(PubhubWorkflow.class);
+        PubhubPacker packer = mock(PubhubPacker.class);
+        AlmaPacker almaPacker = mock(AlmaPacker.class);
+        List<File> almaBookDirs = collectAlmaBookDirs(almaPacker);
+        TransferWorkflow transferWorkflow = mock(TransferWorkflow.class);
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        when(transferWorkflow.isEnabled()).thenReturn(false);
+
+        File existingBookDir = new File(audioOutputDir, "existing");
+        Assert.assertTrue(existingBookDir.mkdirs());
+
+        ElivagarPipeline pipeline = new ElivagarPipeline(conf, pubhubWorkflow, packer, almaPacker,
+                transferWorkflow, characterizer);
+        pipeline.start();
+        Assert.assertEquals(pipeline.getStages().size(), 3);
+        pipeline.finish();
+
+        verifyZeroInteractions(packer);
+        verifyZeroInteractions(pubhubWorkflow);
+
+        Assert.assertEquals(almaBookDirs.size(), 1);
+        Assert.assertTrue(almaBookDirs.contains(existingBookDir));
+
+        verify(transferWorkflow).isEnabled();
+        verifyNoMoreInteractions(transferWorkflow);
+        verifyZeroInteractions(characterizer);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testSubmitBeforeStart() throws Exception {
+        addDescription("Test that books cannot be submitted before the pipeline is started.");
+        ElivagarPipeline pipeline = new ElivagarPipeline(conf, mock(PubhubWorkflow.class),
+                mock(PubhubPacker.class), mock(AlmaPacker.class), mock(TransferWorkflow.class),
+                mock(CharacterizationHandler.class));
+        pipeline.submitBook(mock(Book.class));
+    }
+
+    @Test
+    public void testBookTaskDirsWhenSameOutputDir() throws Exception {
+        addDescription("Test that a book dir is handled as an ebook, when the ebooks and audio books share the "
+                + "output dir.");
+        when(conf.getAudioOutputDir()).thenReturn(ebookOutputDir);
+        File bookDir = new File(ebookOutputDir, "book");
+        Assert.assertTrue(bookDir.mkdirs());
+
+        BookTask task = new BookTask("book", null);
+        Assert.assertEquals(task.getBookDirs(conf).size(), 1);
+        Assert.assertEquals(task.getBookDirs(conf).get(bookDir.getAbsoluteFile()), BookTypeEnum.EBOG);
+        Assert.assertTrue(new BookTask("other", null).getBookDirs(conf).isEmpty());
+    }
+}
@@ -0,0 +1,169 @@
+package dk.kb.elivagar.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+public class PipelineStageTest extends ExtendedTestCase {
+
+    @Test
+    public void testStagesHandOverTheBooks() throws Exception {
+        addDescription("Test that the books are processed by all the stages, and handed over between them.");
+        RecordingStage first = new RecordingStage("first", 2, 2, null);
+        RecordingStage second = new RecordingStage("second", 2, 1, null);
+        first.setNextStage(second);
+        first.start();
+        second.start();
+
+        addStep("Submit more books than the queues can hold", "All books are processed by both stages");
+        for(int i = 0; i < 10; i++) {
+            first.submit(new BookTask("book-" + i, null));
+        }
+        first.finish();
+        second.finish();
+
+        Assert.assertEquals(first.ids.size(), 10);
+        Assert.assertEquals(second.ids.size(), 10);
+        Assert.assertEquals(first.getProcessedCount(), 10);
+        Assert.assertEquals(second.getProcessedCount(), 10);
+        Assert.assertEquals(first.getFailureCount(), 0);
+        Assert.assertTrue(second.completed);
+    }
+
+    @Test
+    public void testFailingBookIsHandedOver() throws Exception {
+        addDescription("Test that a book which fails in one stage is still handed over to the next stage.");
+        RecordingStage first = new RecordingStage("first", 5, 1, "bad-book");
+        RecordingStage second = new RecordingStage("second", 5, 1, null);
+        first.setNextStage(second);
+        first.start();
+        second.start();
+
+        first.submit(new BookTask("good-book", null));
+        first.submit(new BookTask("bad-book", null));
+        first.finish();
+        second.finish();
+
+        Assert.assertEquals(first.getFailureCount(), 1);
+        Assert.assertEquals(first.getProcessedCount(), 2);
+        Assert.assertTrue(second.ids.contains("bad-book"));
+        Assert.assertTrue(second.ids.contains("good-book"));
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        addDescription("Test that a stage with a batch size processes the waiting books in batches.");
+        RecordingStage stage = new RecordingStage("stage", 10, 1, 3, null);
+
+        addStep("Submit the books before starting the stage", "The books are processed in batches of at most 3");
+        for(int i = 0; i < 10; i++) {
+            stage.submit(new BookTask("book-" + i, null));
+        }
+        stage.start();
+        stage.finish();
+
+        Assert.assertEquals(stage.ids.size(), 10);
+        Assert.assertEquals(stage.getProcessedCount(), 10);
+        Assert.assertFalse(stage.batchSizes.isEmpty());
+        for(Integer batchSize : stage.batchSizes) {
+            Assert.assertTrue(batchSize <= 3, "Batch size: " + batchSize);
+        }
+        Assert.assertEquals(stage.batchSizes.get(0).intValue(), 3);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testStartTwice() throws Exception {
+        addDescription("Test that a stage cannot be started twice.");
+        RecordingStage stage = new RecordingStage("stage", 1, 1, null);
+        stage.start();
+        try {
+            stage.start();
+        } finally {
+            stage.finish();
+        }
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testNonPositiveQueueSize() throws Exception {
+        addDescription("Test that the queue size must be positive.");
+        new RecordingStage("stage", 0, 1, null);
+    }
+
+    @Test
+    public void testUnexpectedFailureDoesNotStopTheWorker() throws Exception {
+        addDescription("Test that a worker continues with the next books, when a batch fails unexpectedly.");
+        RecordingStage stage = new RecordingStage("stage", 5, 1, null) {
+            @Override
+            protected void process(BookTask task) throws Exception {
+                super.process(task);
+                if(task.getId().equals("fatal-book")) {
+                    throw new AssertionError("Failing fatally on purpose");
+                }
+            }
+        };
+        stage.submit(new BookTask("fatal-book", null));
+        stage.submit(new BookTask("good-book", null));
+        stage.start();
+        stage.finish();
+
+        Assert.assertEquals(stage.ids, Arrays.asList("fatal-book", "good-book"));
+        Assert.assertEquals(stage.getFailureCount(), 1);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testSubmitWhenWorkersHaveStopped() throws Exception {
+        addDescription("Test that submitting a book to a full queue fails, when all the workers have stopped.");
+        RecordingStage stage = new RecordingStage("stage", 1, 1, null);
+        stage.start();
+        for(Thread worker : stage.workers) {
+            worker.interrupt();
+            worker.join();
+        }
+        stage.submit(new BookTask("book-1", null));
+        stage.submit(new BookTask("book-2", null));
+    }
+
+    /** Stage which records the ids of the processed books, and fails for a given id.*/
+    protected static class RecordingStage extends PipelineStage {
+        protected final List<String> ids = Collections.synchronizedList(new ArrayList<String>());
+        protected final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        protected final String failingId;
+        protected boolean completed = false;
+
+        protected RecordingStage(String name, int queueSize, int numberOfWorkers, String failingId) {
+            this(name, queueSize, numberOfWorkers, 1, failingId);
+        }
+
+        protected RecordingStage(String name, int queueSize, int numberOfWorkers, int batchSize, 
+                String failingId) {
+            super(name, queueSize, numberOfWorkers, batchSize);
+            this.failingId = failingId;
+        }
+
+        @Override
+        protected void processBatch(List<BookTask> tasks) throws Exception {
+            batchSizes.add(tasks.size());
+            super.processBatch(tasks);
+        }
+
+        @Override
+        protected void process(BookTask task) throws Exception {
+            ids.add(task.getId());
+            if(task.getId().equals(failingId)) {
+                throw new IllegalStateException("Failing on purpose");
+            }
+        }
+
+        @Override
+        protected void complete() {
+            completed = true;
+        }
+    }
+}
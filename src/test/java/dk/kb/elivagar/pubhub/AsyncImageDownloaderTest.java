@@ -0,0 +1,93 @@
+package dk.kb.elivagar.pubhub;
+
+import dk.kb.elivagar.HttpClient;
+import dk.kb.elivagar.HttpValidators;
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AsyncImageDownloaderTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test
+    public void testAwaitDownloads() throws Exception {
+        addDescription("Test that the downloads are performed asynchronously, and can be awaited for each book.");
+        HttpClient httpClient = mock(HttpClient.class);
+        CountDownLatch slowHost = new CountDownLatch(1);
+        when(httpClient.processUrlContentIfModified(anyString(), any(), any())).thenAnswer(invocation -> {
+            String url = invocation.getArgument(0);
+            if(url.contains("slow")) {
+                Assert.assertTrue(slowHost.await(10, TimeUnit.SECONDS));
+            }
+            HttpClient.ContentProcessor<?> processor = invocation.getArgument(2);
+            processor.processContent(new ByteArrayInputStream(url.getBytes(StandardCharsets.UTF_8)));
+            return new HttpValidators("\"etag\"", null, HttpValidators.UNKNOWN_CONTENT_LENGTH);
+        });
+        File slowBookDir = TestFileUtils.createTempDirectory();
+        File fastBookDir = TestFileUtils.createTempDirectory();
+        File slowImage = new File(slowBookDir, "image.jpg");
+        File fastFrontpage = new File(fastBookDir, "frontpage.jpg");
+        File fastThumbnail = new File(fastBookDir, "thumbnail.jpg");
+
+        AsyncImageDownloader downloader = new AsyncImageDownloader(httpClient, null, 2, 10);
+        try {
+            addStep("Submit an image from a slow host, and images for another book", 
+                    "The images of the other book are downloaded, while the slow image is pending");
+            downloader.download("http://127.0.0.1/slow.jpg", slowImage);
+            downloader.download("http://127.0.0.1/frontpage.jpg", fastFrontpage);
+            downloader.download("http://127.0.0.1/thumbnail.jpg", fastThumbnail);
+            downloader.awaitDownloads(fastBookDir);
+            Assert.assertTrue(fastFrontpage.isFile());
+            Assert.assertTrue(fastThumbnail.isFile());
+            Assert.assertFalse(slowImage.exists());
+
+            addStep("Let the slow host respond", "The image of the slow book is downloaded");
+            slowHost.countDown();
+            downloader.awaitDownloads(slowBookDir);
+            Assert.assertTrue(slowImage.isFile());
+        } finally {
+            slowHost.countDown();
+            downloader.shutdown();
+        }
+    }
+
+    @Test
+    public void testAwaitDownloadsWithoutImages() throws Exception {
+        addDescription("Test that waiting for a book without any downloads returns immediately.");
+        AsyncImageDownloader downloader = new AsyncImageDownloader(mock(HttpClient.class), null, 1, 1);
+        downloader.awaitDownloads(TestFileUtils.createTempDirectory());
+        downloader.shutdown();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testDownloadAfterShutdown() throws Exception {
+        addDescription("Test that images cannot be submitted after the downloader has been shut down.");
+        AsyncImageDownloader downloader = new AsyncImageDownloader(mock(HttpClient.class), null, 1, 1);
+        downloader.shutdown();
+        downloader.download("http://127.0.0.1/image.jpg", new File(TestFileUtils.createTempDirectory(), "image.jpg"));
+    }
+}
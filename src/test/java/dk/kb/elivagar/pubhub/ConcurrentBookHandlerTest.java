@@ -0,0 +1,64 @@
+package dk.kb.elivagar.pubhub;
+
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.pubhub.service.Book;
+
+public class ConcurrentBookHandlerTest extends ExtendedTestCase {
+
+    protected Book createBook(String id) {
+        Book book = mock(Book.class);
+        when(book.getBookId()).thenReturn(id);
+        return book;
+    }
+
+    @Test
+    public void testHandleBooks() throws Exception {
+        addDescription("Test that all the books are handed over to the handler on the worker threads.");
+        Set<String> handledIds = Collections.synchronizedSet(new HashSet<String>());
+        Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+        ConcurrentBookHandler handler = new ConcurrentBookHandler(book -> {
+            handledIds.add(book.getBookId());
+            threadNames.add(Thread.currentThread().getName());
+        }, 3, 2);
+
+        for(int i = 0; i < 20; i++) {
+            handler.handleBook(createBook("book" + i));
+        }
+        handler.finish();
+
+        Assert.assertEquals(handledIds.size(), 20);
+        Assert.assertFalse(threadNames.contains(Thread.currentThread().getName()));
+        Assert.assertTrue(handler.pool.isTerminated());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testFailure() throws Exception {
+        addDescription("Test that a failure from the handler is thrown, when the handler is finished.");
+        ConcurrentBookHandler handler = new ConcurrentBookHandler(book -> {
+            throw new IOException("FAILURE");
+        }, 2, 2);
+
+        try {
+            handler.handleBook(createBook("book"));
+        } finally {
+            handler.finish();
+        }
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testInstantiationWithoutThreads() {
+        addDescription("Test that the handler requires a positive number of threads.");
+        new ConcurrentBookHandler(book -> {}, 0, 2);
+    }
+}
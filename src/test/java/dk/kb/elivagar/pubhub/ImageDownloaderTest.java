@@ -0,0 +1,94 @@
+package dk.kb.elivagar.pubhub;
+
+import dk.kb.elivagar.HttpClient;
+import dk.kb.elivagar.HttpValidators;
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class ImageDownloaderTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test
+    public void testDownload() throws IOException {
+        addDescription("Test downloading an image, and downloading it again when it has not been modified.");
+        HttpClient httpClient = mock(HttpClient.class);
+        String url = "http://127.0.0.1/image.jpg";
+        File imageFile = new File(TestFileUtils.createTempDirectory(), "image.jpg");
+        ImageDownloader downloader = new ImageDownloader(httpClient, null);
+
+        addStep("Download the image", "The image file is written, and no temporary files are left");
+        when(httpClient.processUrlContentIfModified(eq(url), isNull(), any())).thenAnswer(invocation -> {
+            HttpClient.ContentProcessor<?> processor = invocation.getArgument(2);
+            processor.processContent(new ByteArrayInputStream("image".getBytes(StandardCharsets.UTF_8)));
+            return new HttpValidators("\"etag\"", null, 5L);
+        });
+        downloader.download(url, imageFile);
+        downloader.awaitDownloads(imageFile.getParentFile());
+        Assert.assertEquals(imageFile.length(), 5L);
+        Assert.assertEquals(imageFile.getParentFile().list().length, 1);
+
+        addStep("Download the image again, when it has not been modified", "The image file is untouched");
+        Assert.assertTrue(imageFile.setLastModified(0L));
+        when(httpClient.processUrlContentIfModified(eq(url), any(HttpValidators.class), any())).thenReturn(null);
+        downloader.download(url, imageFile);
+        Assert.assertEquals(imageFile.lastModified(), 0L);
+        Assert.assertEquals(imageFile.getParentFile().list().length, 1);
+
+        verify(httpClient).processUrlContentIfModified(eq(url), isNull(), any());
+        verify(httpClient).processUrlContentIfModified(eq(url), any(HttpValidators.class), any());
+        verifyNoMoreInteractions(httpClient);
+        downloader.shutdown();
+    }
+
+    @Test
+    public void testDownloadFailure() throws IOException {
+        addDescription("Test that a failed download is not thrown, leaves no files, and is counted.");
+        HttpClient httpClient = mock(HttpClient.class);
+        String url = "http://127.0.0.1/image.jpg";
+        File imageFile = new File(TestFileUtils.createTempDirectory(), "image.jpg");
+        when(httpClient.processUrlContentIfModified(eq(url), any(), any())).thenThrow(new IOException("test"));
+
+        ImageDownloader downloader = new ImageDownloader(httpClient, null);
+        downloader.download(url, imageFile);
+        Assert.assertFalse(imageFile.exists());
+        Assert.assertEquals(imageFile.getParentFile().list().length, 0);
+        Assert.assertEquals(downloader.getFailureCount(), 1L);
+    }
+
+    @Test
+    public void testSaveValidators() throws IOException {
+        addDescription("Test that the validators of the images are kept in the state directory.");
+        HttpClient httpClient = mock(HttpClient.class);
+        File stateDir = TestFileUtils.createTempDirectory();
+        ImageDownloader downloader = new ImageDownloader(httpClient, stateDir);
+        downloader.saveValidators();
+        Assert.assertTrue(new File(stateDir, ImageDownloader.IMAGE_VALIDATORS_NAME).isFile());
+    }
+}
@@ -0,0 +1,71 @@
+package dk.kb.elivagar.pubhub;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PubhubMetadataFieldsTest extends ExtendedTestCase {
+
+    @Test
+    public void testExtractFromFile() throws IOException {
+        addDescription("Test extracting the fields from a Pubhub metadata file.");
+        PubhubMetadataFields fields = PubhubMetadataFields.extract(
+                new File("src/test/resources/metadata/pubhub_metadata.xml"));
+        Assert.assertEquals(fields.getIdentifier(), "9788711436981");
+        Assert.assertEquals(fields.getIdentifierType(), "ISBN13");
+        Assert.assertEquals(fields.getPublicationDate(), "31-07-2017");
+    }
+
+    @Test
+    public void testExtractStopsWhenAllFieldsAreFound() throws IOException {
+        addDescription("Test that the reading stops, when all the fields have been found.");
+        String xml = "<Book xmlns=\"http://service.pubhub.dk/\"><Identifier>1234</Identifier>"
+                + "<IdentifierType>GTIN13</IdentifierType><PublicationDate>01-02-2003</PublicationDate>"
+                + "<Title>The rest of the document is not well-formed";
+        PubhubMetadataFields fields = PubhubMetadataFields.extract(toStream(xml));
+        Assert.assertEquals(fields.getIdentifier(), "1234");
+        Assert.assertEquals(fields.getIdentifierType(), "GTIN13");
+        Assert.assertEquals(fields.getPublicationDate(), "01-02-2003");
+    }
+
+    @Test
+    public void testExtractOnlyFieldsOnTheBook() throws IOException {
+        addDescription("Test that only the fields directly on the book are extracted.");
+        String xml = "<Book><Related><Identifier>1111</Identifier></Related><Identifier>2222</Identifier>"
+                + "<PublicationDate/></Book>";
+        PubhubMetadataFields fields = PubhubMetadataFields.extract(toStream(xml));
+        Assert.assertEquals(fields.getIdentifier(), "2222");
+        Assert.assertNull(fields.getIdentifierType());
+        Assert.assertEquals(fields.getPublicationDate(), "");
+    }
+
+    @Test
+    public void testExtractFromOtherDocument() throws IOException {
+        addDescription("Test that no fields are extracted from a document, which is not a book.");
+        PubhubMetadataFields fields = PubhubMetadataFields.extract(
+                toStream("<Other><Identifier>1234</Identifier></Other>"));
+        Assert.assertNull(fields.getIdentifier());
+        Assert.assertNull(fields.getIdentifierType());
+        Assert.assertNull(fields.getPublicationDate());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testExtractFromInvalidDocument() throws IOException {
+        addDescription("Test that the extraction fails, when the document is not XML.");
+        PubhubMetadataFields.extract(toStream("This is not XML"));
+    }
+
+    /**
+     * @param content The content.
+     * @return The content as a UTF-8 input stream.
+     */
+    protected InputStream toStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,86 @@
+package dk.kb.elivagar.pubhub;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import dk.pubhub.service.Book;
+import dk.pubhub.service.BookTypeEnum;
+
+public class PubhubMetadataRetrieverTest extends ExtendedTestCase {
+
+    static final String SERVICE_NS = "http://service.pubhub.dk/";
+
+    File listAllBooksFile = new File("src/test/resources/metadata/pubhub_list_all_books.xml");
+
+    @Test
+    public void testHandleBookStream() throws IOException {
+        addDescription("Test that the books are read one at the time from the SOAP response.");
+        List<Book> books = new ArrayList<Book>();
+        try (InputStream in = new FileInputStream(listAllBooksFile)) {
+            long count = PubhubMetadataRetriever.handleBookStream(in, SERVICE_NS, Long.MAX_VALUE, books::add);
+            Assert.assertEquals(count, 3L);
+        }
+        Assert.assertEquals(books.size(), 3);
+        Assert.assertEquals(books.get(0).getBookId(), "19429dc3-81b9-4ef8-b388-9e22159cfcea");
+        Assert.assertEquals(books.get(0).getBookType(), BookTypeEnum.EBOG);
+        Assert.assertEquals(books.get(1).getBookType(), BookTypeEnum.LYDBOG);
+        Assert.assertEquals(books.get(2).getIdentifier(), "9788722222222");
+    }
+
+    @Test
+    public void testHandleBookStreamWithMax() throws IOException {
+        addDescription("Test that no more than the maximum number of books are handled.");
+        List<Book> books = new ArrayList<Book>();
+        try (InputStream in = new FileInputStream(listAllBooksFile)) {
+            long count = PubhubMetadataRetriever.handleBookStream(in, SERVICE_NS, 2, books::add);
+            Assert.assertEquals(count, 2L);
+        }
+        Assert.assertEquals(books.size(), 2);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testHandleBookStreamFailingHandler() throws IOException {
+        addDescription("Test that a failure from the handler is thrown.");
+        try (InputStream in = new FileInputStream(listAllBooksFile)) {
+            PubhubMetadataRetriever.handleBookStream(in, SERVICE_NS, Long.MAX_VALUE, book -> {
+                throw new IOException("Failing on purpose");
+            });
+        }
+    }
+
+    @Test
+    public void testHandleBookStreamOnlyResultBooks() throws IOException {
+        addDescription("Test that only the books in the namespace of the service within the result array are read.");
+        String response = "<Envelope><Book xmlns='" + SERVICE_NS + "'><BookId>outside</BookId></Book>"
+                + "<ListAllBooksResult xmlns='" + SERVICE_NS + "'>"
+                + "<Book><BookId>inside</BookId><Book><BookId>nested</BookId></Book></Book>"
+                + "<Book xmlns='http://example.org/'><BookId>other namespace</BookId></Book>"
+                + "</ListAllBooksResult></Envelope>";
+        List<Book> books = new ArrayList<Book>();
+        try (InputStream in = new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8))) {
+            long count = PubhubMetadataRetriever.handleBookStream(in, SERVICE_NS, Long.MAX_VALUE, books::add);
+            Assert.assertEquals(count, 1L);
+        }
+        Assert.assertEquals(books.size(), 1);
+        Assert.assertEquals(books.get(0).getBookId(), "inside");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testHandleBookStreamWithoutResult() throws IOException {
+        addDescription("Test that a response without the result array is a failure, and not an empty catalogue.");
+        String response = "<Envelope><Body/></Envelope>";
+        try (InputStream in = new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8))) {
+            PubhubMetadataRetriever.handleBookStream(in, SERVICE_NS, Long.MAX_VALUE, book -> {});
+        }
+    }
+}
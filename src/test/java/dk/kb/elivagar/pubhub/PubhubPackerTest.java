@@ -2,17 +2,21 @@ package dk.kb.elivagar.pubhub;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.UUID;
 
@@ -29,8 +33,10 @@ import org.testng.annotations.Test;
 
 import dk.kb.elivagar.Constants;
 import dk.kb.elivagar.HttpClient;
+import dk.kb.elivagar.HttpValidators;
 import dk.kb.elivagar.characterization.CharacterizationHandler;
 import dk.kb.elivagar.config.Configuration;
+import dk.kb.elivagar.exception.ArgumentCheck;
 import dk.kb.elivagar.testutils.TestConfigurations;
 import dk.kb.elivagar.testutils.TestFileUtils;
 import dk.kb.elivagar.utils.FileUtils;
@@ -57,6 +63,14 @@ public class PubhubPackerTest extends ExtendedTestCase {
         TestFileUtils.tearDown();
     }
     
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testConstructorWithoutConfiguration() {
+        addDescription("Test that the configuration is checked, before it is used for the image downloader.");
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        new PubhubPacker(null, "test-" + UUID.randomUUID().toString(), characterizer, httpClient);
+    }
+
     @Test
     public void testGetMarshallerForClass() throws JAXBException {
         addDescription("Test the getMarshallerForClass method");
@@ -77,11 +91,80 @@ public class PubhubPackerTest extends ExtendedTestCase {
         
         Assert.assertEquals(packer.marshallers.size(), 1);
         Assert.assertEquals(marshaller, marshaller2);
-        
+
         verifyZeroInteractions(characterizer);
         verifyZeroInteractions(httpClient);
     }
-    
+
+    @Test
+    public void testGetMarshallerForClassInOtherThread() throws Exception {
+        addDescription("Test that the getMarshallerForClass method gives each thread its own marshaller, "
+                + "but shares the JAXB context");
+        String serviceNamespace = "test-" + UUID.randomUUID().toString();
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        PubhubPacker packer = new PubhubPacker(conf, serviceNamespace, characterizer, httpClient);
+
+        Marshaller marshaller = packer.getMarshallerForClass(Book.class);
+        Marshaller[] otherMarshaller = new Marshaller[1];
+        Thread thread = new Thread(() -> {
+            try {
+                otherMarshaller[0] = packer.getMarshallerForClass(Book.class);
+            } catch (JAXBException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        Assert.assertNotNull(otherMarshaller[0]);
+        Assert.assertNotSame(otherMarshaller[0], marshaller);
+        Assert.assertSame(packer.getMarshallerForClass(Book.class), marshaller);
+        Assert.assertEquals(packer.marshallers.size(), 1);
+        Assert.assertEquals(packer.contexts.size(), 1);
+
+        verifyZeroInteractions(characterizer);
+        verifyZeroInteractions(httpClient);
+    }
+
+    @Test
+    public void testPackBookTwice() throws Exception {
+        addDescription("Test that the packBook method does not write the metadata file again, when it is unchanged.");
+        String serviceNamespace = "test-" + UUID.randomUUID().toString();
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        PubhubPacker packer = new PubhubPacker(conf, serviceNamespace, characterizer, httpClient);
+
+        String id = UUID.randomUUID().toString();
+        Book book = new Book();
+        book.setBookId(id);
+        book.setBookType(BookTypeEnum.EBOG);
+        book.setImages(new ArrayOfImage());
+        File metadataFile = new File(conf.getEbookOutputDir(), id + "/" + id + Constants.PUBHUB_METADATA_SUFFIX);
+
+        addStep("Pack the book", "The metadata file is written");
+        packer.packBook(book);
+        Assert.assertTrue(metadataFile.isFile());
+        long length = metadataFile.length();
+
+        addStep("Pack the book again, after marking the file as old", "The file is not written again");
+        Assert.assertTrue(metadataFile.setLastModified(0L));
+        packer.packBook(book);
+        Assert.assertEquals(metadataFile.lastModified(), 0L);
+        Assert.assertEquals(metadataFile.length(), length);
+        Assert.assertEquals(metadataFile.getParentFile().list().length, 1);
+
+        addStep("Pack the book with changed metadata", "The file is written again");
+        book.setSubscriptionSaleAllowed(true);
+        packer.packBook(book);
+        Assert.assertTrue(metadataFile.lastModified() > 0L);
+        Assert.assertNotEquals(metadataFile.length(), length);
+        Assert.assertEquals(metadataFile.getParentFile().list().length, 1);
+
+        verifyZeroInteractions(characterizer);
+        verifyZeroInteractions(httpClient);
+    }
+
     @Test
     public void testPackBook() throws Exception {
         addDescription("Test the packBook method");
@@ -114,6 +197,7 @@ public class PubhubPackerTest extends ExtendedTestCase {
         Assert.assertFalse(metadataFile.exists());
         Assert.assertFalse(imageFile.exists());
 
+        mockImageRetrieval(httpClient, imageUrl, "image content", new HttpValidators("\"etag\"", null, 13L));
         packer.packBook(book);
 
         Assert.assertTrue(bookDir.exists());
@@ -122,13 +206,78 @@ public class PubhubPackerTest extends ExtendedTestCase {
         Assert.assertTrue(metadataFile.isFile());
         Assert.assertTrue(imageFile.exists());
         Assert.assertTrue(imageFile.isFile());
+        Assert.assertEquals(imageFile.length(), 13L);
+        Assert.assertEquals(bookDir.list().length, 2);
 
         verifyZeroInteractions(characterizer);
         
-        verify(httpClient).retrieveUrlContent(eq(imageUrl), any(OutputStream.class));
+        verify(httpClient).processUrlContentIfModified(eq(imageUrl), isNull(), any(HttpClient.ContentProcessor.class));
         verifyNoMoreInteractions(httpClient);
     }
 
+    @Test
+    public void testPackBookImageNotModified() throws Exception {
+        addDescription("Test the packBook method, when the image has not been modified since it was retrieved.");
+        String serviceNamespace = "test-" + UUID.randomUUID().toString();
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        PubhubPacker packer = new PubhubPacker(conf, serviceNamespace, characterizer, httpClient);
+
+        String id = UUID.randomUUID().toString();
+        Book book = new Book();
+        book.setBookId(id);
+        book.setBookType(BookTypeEnum.EBOG);
+        String imageUrl = "http://127.0.0.1/image.tiff";
+        Image image = new Image();
+        image.setValue(imageUrl);
+        image.setType("thumbnail");
+        ArrayOfImage images = new ArrayOfImage();
+        images.getImage().add(image);
+        book.setImages(images);
+        File imageFile = new File(conf.getEbookOutputDir(), id + "/" + id + "_thumbnail.tiff");
+        HttpValidators validators = new HttpValidators("\"etag\"", "Wed, 21 Oct 2015 07:28:00 GMT", 13L);
+
+        addStep("Pack the book the first time", "The image is retrieved unconditionally");
+        mockImageRetrieval(httpClient, imageUrl, "image content", validators);
+        packer.packBook(book);
+        Assert.assertEquals(imageFile.length(), 13L);
+        verify(httpClient).processUrlContentIfModified(eq(imageUrl), isNull(), any(HttpClient.ContentProcessor.class));
+
+        addStep("Pack the book again with changed metadata, when the image has not been modified", 
+                "The image is requested with the validators, and the image file is untouched");
+        Assert.assertTrue(imageFile.setLastModified(0L));
+        reset(httpClient);
+        book.setSubscriptionSaleAllowed(true);
+        packer.packBook(book);
+        Assert.assertEquals(imageFile.lastModified(), 0L);
+        Assert.assertEquals(imageFile.length(), 13L);
+        Assert.assertEquals(imageFile.getParentFile().list().length, 2);
+        verify(httpClient).processUrlContentIfModified(eq(imageUrl), 
+                argThat(v -> v != null && v.getETag().equals(validators.getETag()) 
+                        && v.getLastModified().equals(validators.getLastModified())), 
+                any(HttpClient.ContentProcessor.class));
+
+        verifyNoMoreInteractions(httpClient);
+        verifyZeroInteractions(characterizer);
+    }
+
+    /**
+     * Makes the mocked HTTP client deliver the content for the URL, and respond with the validators.
+     * @param httpClient The mocked HTTP client.
+     * @param url The URL.
+     * @param content The content to deliver.
+     * @param validators The validators to respond with.
+     * @throws IOException If the mocking fails.
+     */
+    protected void mockImageRetrieval(HttpClient httpClient, String url, String content, HttpValidators validators) 
+            throws IOException {
+        when(httpClient.processUrlContentIfModified(eq(url), any(), any())).thenAnswer(invocation -> {
+            HttpClient.ContentProcessor<?> processor = invocation.getArgument(2);
+            processor.processContent(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+            return validators;
+        });
+    }
+
     @Test
     public void testPackBookAlreadyExistsDifferent() throws Exception {
         addDescription("Test the packBook method when another different file already exists in the place of the pubhub metadata.");
@@ -232,7 +381,7 @@ public class PubhubPackerTest extends ExtendedTestCase {
                 throw new IOException("THIS TEST MUST FAIL");
             }
             
-        }).when(httpClient).retrieveUrlContent(anyString(), any(OutputStream.class));
+        }).when(httpClient).processUrlContentIfModified(anyString(), any(), any());
         
         String id = UUID.randomUUID().toString();
         Book book = new Book();
@@ -264,12 +413,12 @@ public class PubhubPackerTest extends ExtendedTestCase {
         Assert.assertTrue(bookDir.isDirectory());
         Assert.assertTrue(metadataFile.exists());
         Assert.assertTrue(metadataFile.isFile());
-        Assert.assertTrue(imageFile.exists());
-        Assert.assertTrue(imageFile.isFile());
+        Assert.assertFalse(imageFile.exists());
+        Assert.assertEquals(bookDir.list().length, 1);
 
         verifyZeroInteractions(characterizer);
         
-        verify(httpClient).retrieveUrlContent(eq(imageUrl), any(OutputStream.class));
+        verify(httpClient).processUrlContentIfModified(eq(imageUrl), isNull(), any(HttpClient.ContentProcessor.class));
         verifyNoMoreInteractions(httpClient);
     }
     
@@ -298,6 +447,66 @@ public class PubhubPackerTest extends ExtendedTestCase {
         verifyNoMoreInteractions(characterizer);
     }
 
+    @Test
+    public void testPackBookWithImageDownloader() throws Exception {
+        addDescription("Test that the images are handed to the image downloader, which is awaited for the book.");
+        String serviceNamespace = "test-" + UUID.randomUUID().toString();
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        ImageDownloader imageDownloader = mock(ImageDownloader.class);
+        PubhubPacker packer = new PubhubPacker(conf, serviceNamespace, characterizer, imageDownloader);
+
+        String id = UUID.randomUUID().toString();
+        Book book = new Book();
+        book.setBookId(id);
+        book.setBookType(BookTypeEnum.EBOG);
+        String imageUrl = "http://127.0.0.1/image.tiff";
+        Image image = new Image();
+        image.setValue(imageUrl);
+        image.setType("frontpage");
+        ArrayOfImage images = new ArrayOfImage();
+        images.getImage().add(image);
+        book.setImages(images);
+        File bookDir = new File(conf.getEbookOutputDir(), id);
+
+        packer.packBook(book);
+        verify(imageDownloader).download(eq(imageUrl), eq(new File(bookDir, id + "_frontpage.tiff")));
+
+        packer.awaitImages(bookDir);
+        verify(imageDownloader).awaitDownloads(eq(bookDir));
+
+        packer.saveState();
+        verify(imageDownloader).saveValidators();
+        verifyNoMoreInteractions(imageDownloader);
+    }
+
+    @Test
+    public void testIsPacked() throws Exception {
+        addDescription("Test the isPacked method");
+        String serviceNamespace = "test-" + UUID.randomUUID().toString();
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        PubhubPacker packer = new PubhubPacker(conf, serviceNamespace, characterizer, httpClient);
+
+        String id = UUID.randomUUID().toString();
+        File bookFile = new File(TestFileUtils.getTempDir(), id + ".pdf");
+        TestFileUtils.createFile(bookFile, UUID.randomUUID().toString());
+        File bookDir = new File(conf.getEbookOutputDir(), id);
+        when(characterizer.isCharacterized(eq(bookFile), eq(bookDir))).thenReturn(true);
+
+        addStep("Check before the file is packed", "Not packed");
+        Assert.assertFalse(packer.isPacked(bookFile, BookTypeEnum.EBOG));
+
+        addStep("Pack the file and check again", "Packed");
+        packer.packFileForEbook(bookFile);
+        Assert.assertTrue(packer.isPacked(bookFile, BookTypeEnum.EBOG));
+
+        verifyZeroInteractions(httpClient);
+
+        verify(characterizer).characterize(any(File.class), any(File.class));
+        verify(characterizer).isCharacterized(eq(bookFile), eq(bookDir));
+        verifyNoMoreInteractions(characterizer);
+    }
+
     @Test
     public void testPackFileForEbookWrongExtension() throws Exception {
         addDescription("Test the packFileForEbook method, when the file has a wrong extension");
@@ -24,11 +24,13 @@ import dk.kb.elivagar.config.Configuration;
 import dk.kb.elivagar.pubhub.PubhubMetadataRetriever;
 import dk.kb.elivagar.pubhub.PubhubPacker;
 import dk.kb.elivagar.pubhub.PubhubWorkflow;
+import dk.kb.elivagar.state.SourceFileSnapshot;
 import dk.kb.elivagar.testutils.TestConfigurations;
 import dk.kb.elivagar.testutils.TestFileUtils;
 import dk.kb.elivagar.utils.FileUtils;
 import dk.pubhub.service.ArrayOfBook;
 import dk.pubhub.service.Book;
+import dk.pubhub.service.BookTypeEnum;
 import dk.pubhub.service.ModifiedBookList;
 
 public class PubhubWorkflowTest extends ExtendedTestCase {
@@ -116,6 +118,89 @@ public class PubhubWorkflowTest extends ExtendedTestCase {
         verifyNoMoreInteractions(bookArray);
     }
     
+    @Test
+    public void testRetrieveAllBooksConcurrently() throws Exception {
+        addDescription("Test the retrieveAllBooks method, when the books are packed concurrently.");
+        Configuration concurrentConf = mock(Configuration.class);
+        when(concurrentConf.getPubhubPackingThreads()).thenReturn(2);
+        when(concurrentConf.getPipelineQueueSize()).thenReturn(10);
+        PubhubMetadataRetriever retriever = mock(PubhubMetadataRetriever.class);
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        PubhubPacker packer = mock(PubhubPacker.class);
+        PubhubWorkflow elivagarWorkflow = new PubhubWorkflow(concurrentConf, retriever, characterizer, packer);
+
+        Book testBook1 = mock(Book.class);
+        Book testBook2 = mock(Book.class);
+        ArrayOfBook bookArray = mock(ArrayOfBook.class);
+        when(retriever.downloadAllBookMetadata()).thenReturn(bookArray);
+        when(bookArray.getBook()).thenReturn(Arrays.asList(testBook1, testBook2));
+
+        elivagarWorkflow.retrieveAllBooks(10);
+
+        verify(retriever).downloadAllBookMetadata();
+        verifyNoMoreInteractions(retriever);
+
+        verify(packer).packBook(eq(testBook1));
+        verify(packer).packBook(eq(testBook2));
+        verifyNoMoreInteractions(packer);
+
+        verifyZeroInteractions(characterizer);
+    }
+
+    @Test
+    public void testRetrieveAllBooksWithHandler() throws Exception {
+        addDescription("Test the retrieveAllBooks method with a book handler instead of the packer.");
+        PubhubMetadataRetriever retriever = mock(PubhubMetadataRetriever.class);
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        PubhubPacker packer = mock(PubhubPacker.class);
+        BookHandler handler = mock(BookHandler.class);
+        PubhubWorkflow elivagarWorkflow = new PubhubWorkflow(conf, retriever, characterizer, packer);
+        
+        Book testBook1 = mock(Book.class);
+        Book testBook2 = mock(Book.class);
+        ArrayOfBook bookArray = mock(ArrayOfBook.class);
+        when(retriever.downloadAllBookMetadata()).thenReturn(bookArray);
+        when(bookArray.getBook()).thenReturn(Arrays.asList(testBook1, testBook2));
+        
+        elivagarWorkflow.retrieveAllBooks(10, handler);
+        
+        verifyZeroInteractions(characterizer);
+        verifyZeroInteractions(packer);
+        
+        verify(retriever).downloadAllBookMetadata();
+        verifyNoMoreInteractions(retriever);
+        
+        verify(handler).handleBook(eq(testBook1));
+        verify(handler).handleBook(eq(testBook2));
+        verifyNoMoreInteractions(handler);
+    }
+    
+    @Test
+    public void testRetrieveAllBooksStreaming() throws Exception {
+        addDescription("Test the retrieveAllBooks method, when the books are streamed from Pubhub.");
+        Configuration streamingConf = mock(Configuration.class);
+        when(streamingConf.isPubhubStreaming()).thenReturn(true);
+        PubhubMetadataRetriever retriever = mock(PubhubMetadataRetriever.class);
+        when(retriever.canStreamBooks()).thenReturn(true);
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        PubhubPacker packer = mock(PubhubPacker.class);
+        BookHandler handler = mock(BookHandler.class);
+        PubhubWorkflow elivagarWorkflow = new PubhubWorkflow(streamingConf, retriever, characterizer, packer);
+        
+        elivagarWorkflow.retrieveAllBooks(10, handler);
+        
+        verify(streamingConf).isPubhubStreaming();
+        verifyNoMoreInteractions(streamingConf);
+        
+        verify(retriever).canStreamBooks();
+        verify(retriever).streamAllBookMetadata(eq(10L), eq(handler));
+        verifyNoMoreInteractions(retriever);
+        
+        verifyZeroInteractions(characterizer);
+        verifyZeroInteractions(packer);
+        verifyZeroInteractions(handler);
+    }
+    
     @Test
     public void testRetrieveModifiedBooks() throws Exception {
         addDescription("Test the retrieveModifiedBooks method");
@@ -249,7 +334,46 @@ public class PubhubWorkflowTest extends ExtendedTestCase {
         verify(packer, times(10)).packFileForAudio(any(File.class));
         verifyNoMoreInteractions(packer);
     }
-    
+
+    @Test
+    public void testPackingEbookWithSnapshot() throws Exception {
+        addDescription("Test the packEbookFile method with a snapshot, when the file is unchanged.");
+        PubhubMetadataRetriever retriever = mock(PubhubMetadataRetriever.class);
+        CharacterizationHandler characterizer = mock(CharacterizationHandler.class);
+        PubhubPacker packer = mock(PubhubPacker.class);
+        File stateDir = FileUtils.createDirectory(TestFileUtils.getTempDir().getAbsolutePath() + "/"
+                + UUID.randomUUID().toString());
+        SourceFileSnapshot snapshot = new SourceFileSnapshot(stateDir);
+        PubhubWorkflow elivagarWorkflow = new PubhubWorkflow(conf, retriever, characterizer, packer, snapshot);
+
+        TestFileUtils.createEmptyDirectory(conf.getEbookFileDir().getAbsolutePath());
+        File testFile = new File(conf.getEbookFileDir(), UUID.randomUUID().toString() + conf.getEbookFormats().get(0));
+        TestFileUtils.createFile(testFile, UUID.randomUUID().toString());
+        when(packer.isPacked(eq(testFile), eq(BookTypeEnum.EBOG))).thenReturn(false).thenReturn(true);
+
+        addStep("Pack the file the first time", "The file is packed and registered in the snapshot");
+        elivagarWorkflow.packEbookFile(testFile);
+        Assert.assertTrue(snapshot.isUnchanged(testFile));
+
+        addStep("Pack the file when it is still packed", "The file is skipped");
+        elivagarWorkflow.packEbookFile(testFile);
+
+        addStep("Pack the file when it is no longer packed", "The file is packed again");
+        when(packer.isPacked(eq(testFile), eq(BookTypeEnum.EBOG))).thenReturn(false);
+        elivagarWorkflow.packEbookFile(testFile);
+
+        addStep("Save the snapshot", "The state file is written");
+        elivagarWorkflow.saveSnapshot();
+        Assert.assertEquals(stateDir.list().length, 1);
+
+        verifyZeroInteractions(retriever);
+        verifyZeroInteractions(characterizer);
+
+        verify(packer, times(2)).packFileForEbook(eq(testFile));
+        verify(packer, times(2)).isPacked(eq(testFile), eq(BookTypeEnum.EBOG));
+        verifyNoMoreInteractions(packer);
+    }
+
     @Test
     public void testPackFilesForEbooksFailure() throws Exception {
         addDescription("Test the packFilesForEbooks method, when there the retriever fails to handle the Ebook.");
@@ -0,0 +1,85 @@
+package dk.kb.elivagar.state;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class AlmaNegativeCacheTest extends ExtendedTestCase {
+
+    String isbn = "9788711436981";
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test
+    public void testBackoff() {
+        addDescription("Test that the time before a retry is doubled for each failure, up to the maximum TTL.");
+        AlmaNegativeCache cache = new AlmaNegativeCache(null, "cache.txt", 100L, 350L);
+
+        addStep("Check an ISBN, which has not failed", "It is due, and it is not a hit");
+        Assert.assertTrue(cache.isDue(isbn, 0L));
+        Assert.assertEquals(cache.getHitCount(), 0L);
+
+        addStep("Register the first failure", "It is not due until the TTL has passed");
+        cache.registerFailure(isbn, "Did not receive exactly 1 result from Alma. Received: 0", 0L);
+        Assert.assertFalse(cache.isDue(isbn, 99L));
+        Assert.assertTrue(cache.isDue(isbn, 100L));
+        Assert.assertEquals(cache.getHitCount(), 1L);
+        Assert.assertEquals(cache.getReason(isbn), "Did not receive exactly 1 result from Alma. Received: 0");
+
+        addStep("Register the second failure", "The TTL is doubled");
+        cache.registerFailure(isbn, "reason", 100L);
+        Assert.assertFalse(cache.isDue(isbn, 299L));
+        Assert.assertTrue(cache.isDue(isbn, 300L));
+
+        addStep("Register the third failure", "The TTL is limited by the maximum TTL");
+        cache.registerFailure(isbn, "reason", 300L);
+        Assert.assertFalse(cache.isDue(isbn, 649L));
+        Assert.assertTrue(cache.isDue(isbn, 650L));
+        Assert.assertEquals(cache.getHitCount(), 3L);
+
+        addStep("Register a success", "The ISBN is removed from the cache");
+        cache.registerSuccess(isbn);
+        Assert.assertTrue(cache.isDue(isbn, 0L));
+        Assert.assertNull(cache.getReason(isbn));
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testMaxTtlLessThanTtl() {
+        addDescription("Test that the maximum TTL must not be less than the TTL.");
+        new AlmaNegativeCache(null, "cache.txt", 100L, 99L);
+    }
+
+    @Test
+    public void testSave() throws IOException {
+        addDescription("Test that the entries are kept in the state directory.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        AlmaNegativeCache cache = new AlmaNegativeCache(stateDir, "cache.txt", 100L, 1000L);
+        cache.registerFailure(isbn, "multi\nline\treason", 0L);
+        cache.registerFailure("9788711111111", "reason", 0L);
+        cache.registerSuccess("9788711111111");
+        cache.save();
+
+        AlmaNegativeCache loaded = new AlmaNegativeCache(stateDir, "cache.txt", 100L, 1000L);
+        Assert.assertEquals(loaded.size(), 1);
+        Assert.assertEquals(loaded.getReason(isbn), "multi line reason");
+        Assert.assertFalse(loaded.isDue(isbn, 99L));
+        Assert.assertTrue(loaded.isDue("9788711111111", 0L));
+    }
+}
@@ -0,0 +1,72 @@
+package dk.kb.elivagar.state;
+
+import dk.kb.elivagar.HttpValidators;
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+public class DownloadValidatorsTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test
+    public void testValidators() throws IOException {
+        addDescription("Test registering and retrieving the validators of a downloaded file.");
+        File file = new File(TestFileUtils.createTempDirectory(), UUID.randomUUID().toString());
+        DownloadValidators validators = new DownloadValidators(null, "validators.txt");
+
+        addStep("Retrieve the validators of a file, which has not been downloaded", "No validators");
+        Assert.assertNull(validators.getValidators(file));
+
+        addStep("Register the validators of the downloaded file", "The validators are retrieved");
+        TestFileUtils.createFile(file, "content");
+        validators.register(file, new HttpValidators("\"etag\"", null, HttpValidators.UNKNOWN_CONTENT_LENGTH));
+        HttpValidators registered = validators.getValidators(file);
+        Assert.assertNotNull(registered);
+        Assert.assertEquals(registered.getETag(), "\"etag\"");
+        Assert.assertNull(registered.getLastModified());
+        Assert.assertEquals(registered.getContentLength(), file.length());
+
+        addStep("Change the length of the file", "No validators");
+        TestFileUtils.createFile(file, "other content");
+        Assert.assertNull(validators.getValidators(file));
+
+        addStep("Register validators, which cannot validate", "No validators");
+        validators.register(file, new HttpValidators(null, null, 13L));
+        Assert.assertNull(validators.getValidators(file));
+    }
+
+    @Test
+    public void testSave() throws IOException {
+        addDescription("Test that the validators are kept in the state directory.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        File file = new File(TestFileUtils.createTempDirectory(), UUID.randomUUID().toString());
+        TestFileUtils.createFile(file, "content");
+        String lastModified = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+        DownloadValidators validators = new DownloadValidators(stateDir, "validators.txt");
+        validators.register(file, new HttpValidators(null, lastModified, 7L));
+        validators.save();
+
+        HttpValidators loaded = new DownloadValidators(stateDir, "validators.txt").getValidators(file);
+        Assert.assertNotNull(loaded);
+        Assert.assertNull(loaded.getETag());
+        Assert.assertEquals(loaded.getLastModified(), lastModified);
+    }
+}
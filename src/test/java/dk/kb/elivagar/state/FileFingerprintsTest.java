@@ -0,0 +1,96 @@
+package dk.kb.elivagar.state;
+
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.ChecksumUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+public class FileFingerprintsTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    protected String getChecksum(String content) {
+        return ChecksumUtils.generateMD5Checksum(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testGetChecksum() throws IOException {
+        addDescription("Test retrieving the checksum of a file, with and without a registered fingerprint.");
+        File file = new File(TestFileUtils.createTempDirectory(), UUID.randomUUID().toString());
+        String content = UUID.randomUUID().toString();
+        FileFingerprints fingerprints = new FileFingerprints(null, "fingerprints.txt");
+
+        addStep("Retrieve the checksum of a missing file", "No checksum");
+        Assert.assertNull(fingerprints.getChecksum(file));
+
+        addStep("Retrieve the checksum of a file without a fingerprint", "Calculated from the file");
+        TestFileUtils.createFile(file, content);
+        Assert.assertEquals(fingerprints.getChecksum(file), getChecksum(content));
+
+        addStep("Register another checksum for the file", "The registered checksum is used");
+        fingerprints.register(file, "registered-checksum");
+        Assert.assertEquals(fingerprints.getChecksum(file), "registered-checksum");
+
+        addStep("Change the file", "The checksum is calculated from the file again");
+        String otherContent = UUID.randomUUID().toString() + UUID.randomUUID().toString();
+        TestFileUtils.createFile(file, otherContent);
+        Assert.assertEquals(fingerprints.getChecksum(file), getChecksum(otherContent));
+    }
+
+    @Test
+    public void testSave() throws IOException {
+        addDescription("Test that the fingerprints are kept in the state directory.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        File file = new File(TestFileUtils.createTempDirectory(), UUID.randomUUID().toString());
+        TestFileUtils.createFile(file, UUID.randomUUID().toString());
+
+        FileFingerprints fingerprints = new FileFingerprints(stateDir, "fingerprints.txt");
+        fingerprints.register(file, "registered-checksum");
+        Assert.assertEquals(stateDir.list().length, 0);
+        fingerprints.save();
+        Assert.assertEquals(stateDir.list().length, 1);
+
+        FileFingerprints loadedFingerprints = new FileFingerprints(stateDir, "fingerprints.txt");
+        Assert.assertEquals(loadedFingerprints.getChecksum(file), "registered-checksum");
+    }
+
+    @Test
+    public void testSaveRemovesMissingFiles() throws IOException {
+        addDescription("Test that the fingerprints of the files, which no longer exist, are not kept.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        File dir = TestFileUtils.createTempDirectory();
+        File file = new File(dir, UUID.randomUUID().toString());
+        File deletedFile = new File(dir, UUID.randomUUID().toString());
+        TestFileUtils.createFile(file, UUID.randomUUID().toString());
+        TestFileUtils.createFile(deletedFile, UUID.randomUUID().toString());
+
+        FileFingerprints fingerprints = new FileFingerprints(stateDir, "fingerprints.txt");
+        fingerprints.register(file, "registered-checksum");
+        fingerprints.register(deletedFile, "deleted-checksum");
+        FileUtils.deleteFile(deletedFile);
+        fingerprints.save();
+
+        FileFingerprints loadedFingerprints = new FileFingerprints(stateDir, "fingerprints.txt");
+        Assert.assertEquals(loadedFingerprints.state.size(), 1);
+        Assert.assertEquals(loadedFingerprints.getChecksum(file), "registered-checksum");
+        Assert.assertNull(loadedFingerprints.state.get(deletedFile.getAbsolutePath()));
+    }
+}
@@ -0,0 +1,56 @@
+package dk.kb.elivagar.state;
+
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+public class HighWaterMarkTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test
+    public void testAdvance() throws IOException {
+        addDescription("Test advancing the mark, and retrieving it with an overlap.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        HighWaterMark mark = new HighWaterMark(stateDir, "mark.txt");
+
+        addStep("Retrieve the mark before any synchronization", "No mark");
+        Assert.assertNull(mark.getSince(1000L));
+
+        addStep("Advance the mark", "The mark is moved back by the overlap, and is kept in the state file");
+        mark.advance(new Date(100000L));
+        Assert.assertEquals(mark.getSince(1000L), new Date(99000L));
+        Assert.assertEquals(mark.getSince(0L), new Date(100000L));
+        Assert.assertEquals(new HighWaterMark(stateDir, "mark.txt").getSince(0L), new Date(100000L));
+
+        addStep("Retrieve the mark with an overlap larger than the mark", "The mark is not before the epoch");
+        Assert.assertEquals(mark.getSince(200000L), new Date(0L));
+    }
+
+    @Test
+    public void testAdvanceBackwards() throws IOException {
+        addDescription("Test that the mark is not moved backwards.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        HighWaterMark mark = new HighWaterMark(stateDir, "mark.txt");
+        mark.advance(new Date(100000L));
+        mark.advance(new Date(50000L));
+        Assert.assertEquals(mark.getSince(0L), new Date(100000L));
+        Assert.assertEquals(new HighWaterMark(stateDir, "mark.txt").getSince(0L), new Date(100000L));
+    }
+}
@@ -0,0 +1,77 @@
+package dk.kb.elivagar.state;
+
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+public class RefreshScheduleTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    protected File createFile(File dir, long lastModified) throws IOException {
+        File file = new File(dir, UUID.randomUUID().toString());
+        TestFileUtils.createFile(file, "content");
+        Assert.assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    @Test
+    public void testSelectOldest() throws IOException {
+        addDescription("Test that the files, which have gone the longest without being refreshed, are selected.");
+        File dir = TestFileUtils.createTempDirectory();
+        File newFile = createFile(dir, 3000000L);
+        File oldFile = createFile(dir, 1000000L);
+        File middleFile = createFile(dir, 2000000L);
+        RefreshSchedule schedule = new RefreshSchedule(null, "schedule.txt");
+
+        addStep("Select the files, which have not been refreshed", "Ordered by their last modified timestamp");
+        Assert.assertEquals(schedule.selectOldest(Arrays.asList(newFile, oldFile, middleFile), 2),
+                Arrays.asList(oldFile, middleFile));
+
+        addStep("Refresh the oldest file", "It is selected last");
+        schedule.registerRefreshed(oldFile, 4000000L);
+        Assert.assertEquals(schedule.getLastRefreshed(oldFile), 4000000L);
+        Assert.assertEquals(schedule.selectOldest(Arrays.asList(newFile, oldFile, middleFile), 3),
+                Arrays.asList(middleFile, newFile, oldFile));
+
+        addStep("Select no files", "Nothing is selected");
+        Assert.assertEquals(schedule.selectOldest(Arrays.asList(newFile, oldFile), 0), Collections.emptyList());
+    }
+
+    @Test
+    public void testSave() throws IOException {
+        addDescription("Test that the refresh times of the existing files are kept in the state directory.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        File dir = TestFileUtils.createTempDirectory();
+        File file = createFile(dir, 1000000L);
+        File deletedFile = createFile(dir, 1000000L);
+
+        RefreshSchedule schedule = new RefreshSchedule(stateDir, "schedule.txt");
+        schedule.registerRefreshed(file, 5000000L);
+        schedule.registerRefreshed(deletedFile, 5000000L);
+        FileUtils.deleteFile(deletedFile);
+        schedule.save();
+
+        RefreshSchedule loaded = new RefreshSchedule(stateDir, "schedule.txt");
+        Assert.assertEquals(loaded.getLastRefreshed(file), 5000000L);
+        Assert.assertEquals(loaded.state.size(), 1);
+    }
+}
@@ -0,0 +1,54 @@
+package dk.kb.elivagar.state;
+
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+public class SourceFileSnapshotTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        addDescription("Test that the snapshot recognizes the unchanged files.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        File file = new File(TestFileUtils.createTempDirectory(), UUID.randomUUID().toString());
+        TestFileUtils.createFile(file, UUID.randomUUID().toString());
+        SourceFileSnapshot snapshot = new SourceFileSnapshot(stateDir);
+
+        addStep("Check the file before it is registered", "Not unchanged");
+        Assert.assertFalse(snapshot.isUnchanged(file));
+
+        addStep("Register the file", "The file is unchanged");
+        snapshot.update(file);
+        Assert.assertTrue(snapshot.isUnchanged(file));
+
+        addStep("Save the snapshot and load it again", "The file is still unchanged");
+        snapshot.save();
+        Assert.assertTrue(new SourceFileSnapshot(stateDir).isUnchanged(file));
+
+        addStep("Change the file", "The file is no longer unchanged");
+        TestFileUtils.createFile(file, UUID.randomUUID().toString() + UUID.randomUUID().toString());
+        Assert.assertFalse(snapshot.isUnchanged(file));
+
+        addStep("Delete the file", "The file is no longer unchanged");
+        Assert.assertTrue(file.delete());
+        Assert.assertFalse(snapshot.isUnchanged(file));
+    }
+}
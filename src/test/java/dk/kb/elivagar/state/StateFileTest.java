@@ -0,0 +1,112 @@
+package dk.kb.elivagar.state;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+public class StateFileTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testInstantiationWithoutDirectory() {
+        addDescription("Test the instantiation, when the state directory does not exist.");
+        new StateFile(new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString()), "state.txt");
+    }
+
+    @Test
+    public void testPutAndSave() throws IOException {
+        addDescription("Test putting entries in the state, and loading them again after saving.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        StateFile state = new StateFile(stateDir, "state.txt");
+        Assert.assertEquals(state.size(), 0);
+        Assert.assertNull(state.get("key1"));
+
+        addStep("Put some entries", "The entries are in the state, but not yet in the file");
+        state.put("key1", "value1");
+        state.put("key2", "value with spaces\tand a tab");
+        Assert.assertEquals(state.size(), 2);
+        Assert.assertEquals(state.get("key1"), "value1");
+        Assert.assertFalse(new File(stateDir, "state.txt").exists());
+
+        addStep("Save and load the state again", "Has the same entries");
+        state.save();
+        Assert.assertTrue(new File(stateDir, "state.txt").isFile());
+        Assert.assertFalse(new File(stateDir, "state.txt" + StateFile.TEMPORARY_SUFFIX).exists());
+        StateFile loadedState = new StateFile(stateDir, "state.txt");
+        Assert.assertEquals(loadedState.getKeys(), state.getKeys());
+        Assert.assertEquals(loadedState.get("key2"), "value with spaces\tand a tab");
+
+        addStep("Remove an entry and save", "The entry is also removed from the file");
+        loadedState.remove("key1");
+        loadedState.save();
+        Assert.assertNull(new StateFile(stateDir, "state.txt").get("key1"));
+    }
+
+    @Test
+    public void testSaveWithoutChanges() throws IOException {
+        addDescription("Test that the state file is not written, when the state has not been changed.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        StateFile state = new StateFile(stateDir, "state.txt");
+        state.save();
+        Assert.assertFalse(new File(stateDir, "state.txt").exists());
+
+        addStep("Put the same value again", "The state is not changed");
+        state.put("key", "value");
+        state.save();
+        state.put("key", "value");
+        Assert.assertFalse(state.changed);
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testPutInvalidKey() throws IOException {
+        addDescription("Test that a key with a tab cannot be stored.");
+        StateFile state = new StateFile(TestFileUtils.createTempDirectory(), "state.txt");
+        state.put("key\twith a tab", "value");
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        addDescription("Test that the state is only kept in memory, when no state directory is given.");
+        StateFile state = new StateFile(null, "state.txt");
+        state.put("key", "value");
+        state.save();
+        Assert.assertEquals(state.get("key"), "value");
+        Assert.assertNull(state.stateFile);
+    }
+
+    @Test
+    public void testRemoveKeys() throws IOException {
+        addDescription("Test removing the entries, whose keys match a predicate.");
+        File stateDir = TestFileUtils.createTempDirectory();
+        StateFile state = new StateFile(stateDir, "state.txt");
+        state.put("keep", "value");
+        state.put("remove1", "value");
+        state.put("remove2", "value");
+        state.save();
+
+        state.removeKeys(key -> key.startsWith("remove"));
+        Assert.assertTrue(state.changed);
+        state.save();
+        StateFile loadedState = new StateFile(stateDir, "state.txt");
+        Assert.assertEquals(loadedState.size(), 1);
+        Assert.assertEquals(loadedState.get("keep"), "value");
+    }
+}
@@ -2,8 +2,10 @@ package dk.kb.elivagar.statistics;
 
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.Random;
 import java.util.UUID;
 
@@ -223,4 +225,49 @@ public class ElivagarStatisticsTest extends ExtendedTestCase {
         statistics.checkNewDirectory(dir, 0);
         Assert.assertEquals(statistics.getNewDirCount(), 1);
     }
+
+    @Test
+    public void testPrintStatisticsWithAlmaNegativeCache() {
+        addDescription("Test that the statistics for the negative cache for Alma is only printed, when it is set.");
+        Configuration conf = TestConfigurations.getConfigurationForTest();
+        ElivagarStatistics statistics = new ElivagarStatistics(conf);
+
+        addStep("Print the statistics without the negative cache", "No element for the negative cache");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        statistics.printStatistics(new PrintStream(out));
+        Assert.assertFalse(out.toString().contains("alma_negative_cache"));
+        Assert.assertEquals(statistics.getAlmaNegativeCacheHits(), -1L);
+
+        addStep("Set the statistics for the negative cache", "The hits and the size are printed");
+        statistics.setAlmaNegativeCacheStatistics(42L, 7L);
+        out = new ByteArrayOutputStream();
+        statistics.printStatistics(new PrintStream(out));
+        String output = out.toString();
+        Assert.assertTrue(output.contains("<alma_negative_cache>"));
+        Assert.assertTrue(output.contains("<hits>42</hits>"));
+        Assert.assertTrue(output.contains("<size>7</size>"));
+    }
+
+    @Test
+    public void testPrintStatisticsWithHttpRateLimit() {
+        addDescription("Test that the statistics for the HTTP rate limits is only printed, when it is set.");
+        Configuration conf = TestConfigurations.getConfigurationForTest();
+        ElivagarStatistics statistics = new ElivagarStatistics(conf);
+
+        addStep("Print the statistics without the rate limits", "No element for the rate limits");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        statistics.printStatistics(new PrintStream(out));
+        Assert.assertFalse(out.toString().contains("http_rate_limit"));
+        Assert.assertEquals(statistics.getHttpRateLimitWaitTime(), -1L);
+
+        addStep("Set the statistics for the rate limits", "The wait time and the counts are printed");
+        statistics.setHttpRateLimitStatistics(1234L, 56L, 3L);
+        out = new ByteArrayOutputStream();
+        statistics.printStatistics(new PrintStream(out));
+        String output = out.toString();
+        Assert.assertTrue(output.contains("<http_rate_limit>"));
+        Assert.assertTrue(output.contains("<wait_time_millis>1234</wait_time_millis>"));
+        Assert.assertTrue(output.contains("<waiting_requests>56</waiting_requests>"));
+        Assert.assertTrue(output.contains("<throttled_responses>3</throttled_responses>"));
+    }
 }
@@ -56,6 +56,10 @@ public class TestFileUtils {
         return new File(dirPath);
     }
     
+    public static File createTempDirectory() throws IOException {
+        return createEmptyDirectory(new File(tempDir, UUID.randomUUID().toString()).getAbsolutePath());
+    }
+    
     public static void deleteFile(File file) {
         if(file.isDirectory()) {
             for(File f : file.listFiles()) {
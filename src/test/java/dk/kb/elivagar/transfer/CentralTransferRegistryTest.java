@@ -0,0 +1,127 @@
+package dk.kb.elivagar.transfer;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.FileUtils;
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+public class CentralTransferRegistryTest extends ExtendedTestCase {
+
+    @BeforeClass
+    public void setup() {
+        TestFileUtils.setup();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        TestFileUtils.tearDown();
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testInstantiationWithoutDirectory() {
+        addDescription("Test the instantiation, when the registry directory does not exist.");
+        new CentralTransferRegistry(new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void testAddLines() throws IOException {
+        addDescription("Test adding lines to the central registry, and reading them again.");
+        File registryDir = TestFileUtils.createTempDirectory();
+        CentralTransferRegistry registry = new CentralTransferRegistry(registryDir);
+        Assert.assertTrue(registry.isEmpty());
+        Assert.assertFalse(registry.hasBook("book1"));
+        Assert.assertEquals(registry.getLines("book1").size(), 0);
+
+        addStep("Add lines for two books", "The books are in the registry");
+        registry.addLine("book1", "line1");
+        registry.addLine("book2", "line2");
+        registry.addLine("book1", "line3");
+        Assert.assertFalse(registry.isEmpty());
+        Assert.assertEquals(registry.getBookIds().size(), 2);
+        Assert.assertEquals(registry.getLines("book1"), Arrays.asList("line1", "line3"));
+        Assert.assertEquals(registry.getLineCount("book2"), 1);
+
+        addStep("Load the registry again", "Has the same lines");
+        CentralTransferRegistry loadedRegistry = new CentralTransferRegistry(registryDir);
+        Assert.assertEquals(loadedRegistry.getBookIds(), registry.getBookIds());
+        Assert.assertEquals(loadedRegistry.getLines("book1"), Arrays.asList("line1", "line3"));
+        Assert.assertEquals(loadedRegistry.getLines("book2"), Arrays.asList("line2"));
+    }
+
+    @Test
+    public void testBookRegistry() throws IOException {
+        addDescription("Test the transfer registry of a book, when it uses the central registry.");
+        File registryDir = TestFileUtils.createTempDirectory();
+        File bookDir = TestFileUtils.createTempDirectory();
+        File bookFile = new File(bookDir, bookDir.getName() + ".pdf");
+        TestFileUtils.createFile(bookFile, UUID.randomUUID().toString());
+        CentralTransferRegistry centralRegistry = new CentralTransferRegistry(registryDir);
+
+        TransferRegistry registry = centralRegistry.getRegistry(bookDir);
+        Assert.assertTrue(registry instanceof CentralBookTransferRegistry);
+        Assert.assertFalse(registry.hasBeenIngested());
+        Assert.assertNull(registry.getIngestDate());
+
+        addStep("Ingest the book", "It is registered in the central registry, not in the book directory");
+        registry.setIngestDate(new Date(1000L));
+        registry.setChecksumAndDate(bookFile);
+        Assert.assertTrue(registry.hasBeenIngested());
+        Assert.assertEquals(registry.getIngestDate().getTime(), 1000L);
+        Assert.assertEquals(registry.getLatestUpdateDate().getTime(), 1000L);
+        Assert.assertTrue(registry.hasFileEntry(bookFile));
+        Assert.assertTrue(registry.verifyFile(bookFile));
+        Assert.assertFalse(new File(bookDir, TransferRegistry.REGISTRY_NAME).exists());
+        Assert.assertEquals(centralRegistry.getLineCount(bookDir.getName()), 3);
+
+        addStep("Update the book through another registry for the book", "The first registry has the update");
+        centralRegistry.getRegistry(bookDir).setUpdateDate(new Date(2000L));
+        Assert.assertEquals(registry.getLatestUpdateDate().getTime(), 2000L);
+    }
+
+    @Test
+    public void testImportRegistry() throws IOException {
+        addDescription("Test that the transfer registry of a book is imported, when the book is not in the central "
+                + "registry.");
+        File registryDir = TestFileUtils.createTempDirectory();
+        File baseDir = TestFileUtils.createTempDirectory();
+        File bookDir1 = FileUtils.createDirectory(baseDir.getAbsolutePath() + "/book1");
+        File bookDir2 = FileUtils.createDirectory(baseDir.getAbsolutePath() + "/book2");
+        File bookDir3 = FileUtils.createDirectory(baseDir.getAbsolutePath() + "/book3");
+        new TransferRegistry(bookDir1).setIngestDate(new Date(1000L));
+        TransferRegistry registry2 = new TransferRegistry(bookDir2);
+        registry2.setIngestDate(new Date(2000L));
+        registry2.setUpdateDate(new Date(3000L));
+
+        CentralTransferRegistry centralRegistry = new CentralTransferRegistry(registryDir);
+
+        addStep("Retrieve the registry of the first book", "It is imported");
+        Assert.assertEquals(centralRegistry.getRegistry(bookDir1).getIngestDate().getTime(), 1000L);
+        Assert.assertTrue(centralRegistry.hasBook("book1"));
+        Assert.assertFalse(centralRegistry.hasBook("book2"));
+
+        addStep("Retrieve the registry of the second book, when the central registry is no longer empty", 
+                "It is imported");
+        Assert.assertFalse(centralRegistry.isEmpty());
+        Assert.assertEquals(centralRegistry.getRegistry(bookDir2).getLatestUpdateDate().getTime(), 3000L);
+        Assert.assertEquals(centralRegistry.getLineCount("book2"), 2);
+
+        addStep("Import the registries again", "Nothing is imported, since the books are already there");
+        Assert.assertFalse(centralRegistry.importRegistry(bookDir1));
+        Assert.assertFalse(centralRegistry.importRegistry(bookDir2));
+        Assert.assertEquals(centralRegistry.getLineCount("book2"), 2);
+
+        addStep("Retrieve the registry of a book without a registry", "Nothing is imported");
+        Assert.assertNull(centralRegistry.getRegistry(bookDir3).getIngestDate());
+        Assert.assertFalse(centralRegistry.hasBook("book3"));
+    }
+}
@@ -302,4 +302,64 @@ public class TransferRegistryTest extends ExtendedTestCase {
         Assert.assertTrue(registry.verifyFile(bookFile));
     }
 
+    @Test
+    public void testIndexFollowsWrites() throws IOException {
+        addDescription("Test that the index is updated, when new lines are written after the registry has been read.");
+        File bookDir = FileUtils.createDirectory(TestFileUtils.getTempDir().getAbsoluteFile() + "/" + UUID.randomUUID().toString());
+        TransferRegistry registry = new TransferRegistry(bookDir);
+
+        addStep("Set the ingest date and read it", "The registry file has been read into the index");
+        registry.setIngestDate(new Date(1000L));
+        Assert.assertEquals(registry.getIngestDate().getTime(), 1000L);
+        Assert.assertNotNull(registry.lines);
+        Assert.assertEquals(registry.indexedLength, registry.registryFile.length());
+
+        addStep("Write more lines", "The index has the latest update date, and still the first ingest date");
+        registry.setIngestDate(new Date(2000L));
+        registry.setUpdateDate(new Date(3000L));
+        registry.setUpdateDate(new Date(4000L));
+        Assert.assertEquals(registry.lines.size(), 4);
+        Assert.assertEquals(registry.indexedLength, registry.registryFile.length());
+        Assert.assertEquals(registry.getIngestDate().getTime(), 1000L);
+        Assert.assertEquals(registry.getLatestUpdateDate().getTime(), 4000L);
+    }
+
+    @Test
+    public void testIndexReloadsExternalChanges() throws IOException {
+        addDescription("Test that the index is read again, when the registry file is changed by another registry.");
+        File bookDir = FileUtils.createDirectory(TestFileUtils.getTempDir().getAbsoluteFile() + "/" + UUID.randomUUID().toString());
+        File bookFile = new File(bookDir, bookDir.getName() + ".suffix");
+        TestFileUtils.createFile(bookFile, UUID.randomUUID().toString());
+        TransferRegistry registry = new TransferRegistry(bookDir);
+        TransferRegistry otherRegistry = new TransferRegistry(bookDir);
+
+        addStep("Ingest the book with the first registry", "Only the ingest date is known");
+        registry.setIngestDate(new Date(1000L));
+        Assert.assertEquals(registry.getLatestUpdateDate().getTime(), 1000L);
+        Assert.assertFalse(registry.hasFileEntry(bookFile));
+
+        addStep("Update the book with the other registry", "The first registry also finds the new entries");
+        otherRegistry.setUpdateDate(new Date(2000L));
+        otherRegistry.setChecksumAndDate(bookFile);
+        Assert.assertEquals(registry.getLatestUpdateDate().getTime(), 2000L);
+        Assert.assertTrue(registry.hasFileEntry(bookFile));
+        Assert.assertTrue(registry.verifyFile(bookFile));
+    }
+
+    @Test
+    public void testGetEntryKey() {
+        addDescription("Test the extraction of the entry key from the lines.");
+        Assert.assertEquals(TransferRegistry.getEntryKey(TransferRegistry.LINE_PREFIX_INGEST + "1234"),
+                TransferRegistry.LINE_PREFIX_INGEST);
+        Assert.assertEquals(TransferRegistry.getEntryKey(TransferRegistry.LINE_PREFIX_UPDATE + "1234"),
+                TransferRegistry.LINE_PREFIX_UPDATE);
+        Assert.assertEquals(TransferRegistry.getEntryKey(TransferRegistry.LINE_PREFIX_CHECKSUM + "file"
+                + TransferRegistry.LINE_FILENAME_VALUE_SEPARATOR + "checksum"),
+                TransferRegistry.LINE_PREFIX_CHECKSUM + "file" + TransferRegistry.LINE_FILENAME_VALUE_SEPARATOR);
+        Assert.assertEquals(TransferRegistry.getEntryKey(TransferRegistry.LINE_PREFIX_FILE_DATE + "file"
+                + TransferRegistry.LINE_FILENAME_VALUE_SEPARATOR + "1234"),
+                TransferRegistry.LINE_PREFIX_FILE_DATE + "file" + TransferRegistry.LINE_FILENAME_VALUE_SEPARATOR);
+        Assert.assertNull(TransferRegistry.getEntryKey(TransferRegistry.LINE_PREFIX_CHECKSUM));
+        Assert.assertNull(TransferRegistry.getEntryKey("unknown line"));
+    }
 }
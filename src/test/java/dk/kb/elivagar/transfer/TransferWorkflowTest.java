@@ -1,5 +1,9 @@
 package dk.kb.elivagar.transfer;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
 import org.jaccept.structure.ExtendedTestCase;
 import org.mockito.Mockito;
 import org.testng.Assert;
@@ -7,6 +11,9 @@ import org.testng.annotations.Test;
 
 import dk.kb.elivagar.config.Configuration;
 import dk.kb.elivagar.config.TransferConfiguration;
+import dk.kb.elivagar.testutils.TestFileUtils;
+import dk.kb.elivagar.utils.LinkStrategy;
+import dk.pubhub.service.BookTypeEnum;
 
 @SuppressWarnings("ResultOfMethodCallIgnored")
 public class TransferWorkflowTest extends ExtendedTestCase {
@@ -34,6 +41,7 @@ public class TransferWorkflowTest extends ExtendedTestCase {
         Configuration conf = Mockito.mock(Configuration.class);
         TransferConfiguration transferConf = Mockito.mock(TransferConfiguration.class);
         Mockito.when(conf.getTransferConfiguration()).thenReturn(transferConf);
+        Mockito.when(transferConf.getLinkStrategy()).thenReturn(LinkStrategy.COPY);
         
         TransferWorkflow workflow = new TransferWorkflow(conf);
         
@@ -52,4 +60,75 @@ public class TransferWorkflowTest extends ExtendedTestCase {
         Mockito.verify(conf).getTransferConfiguration();
         Mockito.verifyNoMoreInteractions(conf);
     }
+
+    @Test
+    public void testTransferBookWithNoTransferConfiguration() throws Exception {
+        addDescription("Test the transfer of a single book, when the transfer workflow is missing (null).");
+        Configuration conf = Mockito.mock(Configuration.class);
+        Mockito.when(conf.getTransferConfiguration()).thenReturn(null);
+        
+        TransferWorkflow workflow = new TransferWorkflow(conf);
+        Assert.assertFalse(workflow.isEnabled());
+        
+        workflow.transferBook(new File("."), BookTypeEnum.EBOG);
+        
+        Mockito.verify(conf).getTransferConfiguration();
+        Mockito.verifyNoMoreInteractions(conf);
+    }
+
+    @Test
+    public void testTransferBookWithTransferConfiguration() throws Exception {
+        addDescription("Test the transfer of a single book, when the transfer workflow is enabled.");
+        Configuration conf = Mockito.mock(Configuration.class);
+        TransferConfiguration transferConf = Mockito.mock(TransferConfiguration.class);
+        Mockito.when(conf.getTransferConfiguration()).thenReturn(transferConf);
+        Mockito.when(transferConf.getLinkStrategy()).thenReturn(LinkStrategy.COPY);
+        
+        TransferWorkflow workflow = new TransferWorkflow(conf);
+        Assert.assertTrue(workflow.isEnabled());
+        
+        PreIngestTransfer transfer = Mockito.mock(PreIngestTransfer.class);
+        workflow.transfer = transfer;
+        
+        File bookDir = new File(".");
+        workflow.transferBook(bookDir, BookTypeEnum.LYDBOG);
+        
+        Mockito.verify(transfer).transferBookDir(bookDir, BookTypeEnum.LYDBOG);
+        Mockito.verifyNoMoreInteractions(transfer);
+        
+        Mockito.verify(conf).getTransferConfiguration();
+        Mockito.verifyNoMoreInteractions(conf);
+    }
+
+    @Test
+    public void testWithCentralRegistry() throws IOException {
+        addDescription("Test the transfer workflow, when the central transfer registry is used.");
+        TestFileUtils.setup();
+        try {
+            File outputDir = TestFileUtils.createEmptyDirectory(TestFileUtils.getTempDir().getAbsolutePath() 
+                    + "/output");
+            File registryDir = TestFileUtils.createEmptyDirectory(TestFileUtils.getTempDir().getAbsolutePath() 
+                    + "/registry");
+            File bookDir = TestFileUtils.createEmptyDirectory(outputDir.getAbsolutePath() + "/book");
+            new TransferRegistry(bookDir).setIngestDate(new Date(1000L));
+
+            Configuration conf = Mockito.mock(Configuration.class);
+            TransferConfiguration transferConf = Mockito.mock(TransferConfiguration.class);
+            Mockito.when(conf.getTransferConfiguration()).thenReturn(transferConf);
+            Mockito.when(transferConf.getLinkStrategy()).thenReturn(LinkStrategy.HARDLINK);
+            Mockito.when(transferConf.getCentralRegistryDir()).thenReturn(registryDir);
+            Mockito.when(conf.getEbookOutputDir()).thenReturn(outputDir);
+            Mockito.when(conf.getAudioOutputDir()).thenReturn(outputDir);
+
+            TransferWorkflow workflow = new TransferWorkflow(conf);
+
+            addStep("Check the transfer", "Uses the central registry, with the registry of the book imported");
+            Assert.assertNotNull(workflow.transfer.centralRegistry);
+            Assert.assertEquals(workflow.transfer.linkStrategy, LinkStrategy.HARDLINK);
+            Assert.assertEquals(workflow.transfer.getRegistry(bookDir).getIngestDate().getTime(), 1000L);
+            Assert.assertTrue(workflow.transfer.centralRegistry.hasBook(bookDir.getName()));
+        } finally {
+            TestFileUtils.tearDown();
+        }
+    }
 }
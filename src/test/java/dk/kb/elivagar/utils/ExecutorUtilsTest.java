@@ -0,0 +1,74 @@
+package dk.kb.elivagar.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+public class ExecutorUtilsTest extends ExtendedTestCase {
+
+    @Test
+    public void testInstantiation() {
+        ExecutorUtils e = new ExecutorUtils();
+        Assert.assertNotNull(e);
+    }
+
+    @Test
+    public void testCreateBlockingPool() throws Exception {
+        addDescription("Test that the submission blocks while the queue of the pool is full.");
+        ThreadPoolExecutor pool = ExecutorUtils.createBlockingPool("test", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Thread> worker = new AtomicReference<Thread>();
+        pool.execute(() -> {
+            worker.set(Thread.currentThread());
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        pool.execute(() -> {});
+
+        addStep("Submit a task, while the worker is busy and the queue is full", "The submission blocks");
+        AtomicBoolean submitted = new AtomicBoolean(false);
+        Thread submitter = new Thread(() -> {
+            pool.execute(() -> {});
+            submitted.set(true);
+        });
+        submitter.start();
+        submitter.join(200L);
+        Assert.assertFalse(submitted.get());
+
+        addStep("Release the worker", "The submission completes, and all the tasks are run");
+        release.countDown();
+        submitter.join(10000L);
+        Assert.assertTrue(submitted.get());
+        pool.shutdown();
+        Assert.assertTrue(pool.awaitTermination(10L, TimeUnit.SECONDS));
+        Assert.assertEquals(pool.getCompletedTaskCount(), 3L);
+        Assert.assertTrue(worker.get().isDaemon());
+        Assert.assertTrue(worker.get().getName().startsWith("elivagar-test-"));
+    }
+
+    @Test(expectedExceptions = RejectedExecutionException.class)
+    public void testSubmitAfterShutdown() {
+        addDescription("Test that a task submitted after the pool has been shut down is rejected.");
+        ThreadPoolExecutor pool = ExecutorUtils.createBlockingPool("test", 1, 1);
+        pool.shutdown();
+        pool.execute(() -> {});
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testCreateBlockingPoolWithoutThreads() {
+        addDescription("Test that the pool must have at least one worker thread.");
+        ExecutorUtils.createBlockingPool("test", 0, 1);
+    }
+}
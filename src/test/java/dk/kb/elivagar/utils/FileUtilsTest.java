@@ -3,6 +3,7 @@ package dk.kb.elivagar.utils;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
 import java.util.UUID;
 
@@ -252,4 +253,72 @@ public class FileUtilsTest extends ExtendedTestCase {
         
         FileUtils.moveDirectory(origDir, destDir);
     }
+
+    @Test
+    public void testLinkFileWithCopy() throws Exception {
+        addDescription("Test placing a file with the copy strategy.");
+        File from = TestFileUtils.createTempFile(UUID.randomUUID().toString());
+        File to = new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString());
+
+        FileUtils.linkFile(from, to, LinkStrategy.COPY);
+        Assert.assertTrue(to.isFile());
+        Assert.assertFalse(Files.isSameFile(from.toPath(), to.toPath()));
+        Assert.assertTrue(FileUtils.areFilesIdentical(from, to));
+        Assert.assertEquals(to.lastModified(), from.lastModified());
+
+        addStep("Place the file again", "The copy is up to date, and is not replaced");
+        Assert.assertTrue(FileUtils.isUpToDate(from.toPath(), to.toPath()));
+        Object fileKey = Files.readAttributes(to.toPath(), BasicFileAttributes.class).fileKey();
+        FileUtils.linkFile(from, to, LinkStrategy.COPY);
+        Assert.assertEquals(Files.readAttributes(to.toPath(), BasicFileAttributes.class).fileKey(), fileKey);
+
+        addStep("Change the file and place it again", "The copy is replaced");
+        TestFileUtils.createFile(from, UUID.randomUUID().toString() + UUID.randomUUID().toString());
+        Assert.assertFalse(FileUtils.isUpToDate(from.toPath(), to.toPath()));
+        FileUtils.linkFile(from, to, LinkStrategy.COPY);
+        Assert.assertTrue(FileUtils.areFilesIdentical(from, to));
+    }
+
+    @Test
+    public void testLinkFileWithHardlink() throws Exception {
+        addDescription("Test placing a file with the hard link strategy.");
+        File from = TestFileUtils.createTempFile(UUID.randomUUID().toString());
+        File to = new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString());
+
+        FileUtils.linkFile(from, to, LinkStrategy.HARDLINK);
+        Assert.assertTrue(to.isFile());
+        Assert.assertFalse(Files.isSymbolicLink(to.toPath()));
+        Assert.assertTrue(Files.isSameFile(from.toPath(), to.toPath()));
+    }
+
+    @Test
+    public void testLinkFileWithSymlink() throws Exception {
+        addDescription("Test placing a file with the symbolic link strategy.");
+        File from = TestFileUtils.createTempFile(UUID.randomUUID().toString());
+        File to = new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString());
+
+        FileUtils.linkFile(from, to, LinkStrategy.SYMLINK);
+        Assert.assertTrue(Files.isSymbolicLink(to.toPath()));
+        Assert.assertEquals(Files.readSymbolicLink(to.toPath()), from.toPath().toRealPath());
+        Assert.assertTrue(FileUtils.isUpToDate(from.toPath().toRealPath(), to.toPath()));
+
+        addStep("Replace the symbolic link with a copy", "The link is replaced, not the file it points to");
+        FileUtils.linkFile(from, to, LinkStrategy.COPY);
+        Assert.assertFalse(Files.isSymbolicLink(to.toPath()));
+        Assert.assertTrue(from.isFile());
+        Assert.assertTrue(FileUtils.areFilesIdentical(from, to));
+    }
+
+    @Test
+    public void testLinkFileWithReflink() throws Exception {
+        addDescription("Test placing a file with the reflink strategy. "
+                + "Falls back to a copy, if the file system does not support reflinks.");
+        File from = TestFileUtils.createTempFile(UUID.randomUUID().toString());
+        File to = new File(TestFileUtils.getTempDir(), UUID.randomUUID().toString());
+
+        FileUtils.linkFile(from, to, LinkStrategy.REFLINK);
+        Assert.assertTrue(to.isFile());
+        Assert.assertFalse(Files.isSameFile(from.toPath(), to.toPath()));
+        Assert.assertTrue(FileUtils.areFilesIdentical(from, to));
+    }
 }
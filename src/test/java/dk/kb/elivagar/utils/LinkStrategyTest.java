@@ -0,0 +1,25 @@
+package dk.kb.elivagar.utils;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+public class LinkStrategyTest extends ExtendedTestCase {
+
+    @Test
+    public void testFromName() {
+        addDescription("Test extracting the link strategy from its name.");
+        Assert.assertEquals(LinkStrategy.fromName("hardlink"), LinkStrategy.HARDLINK);
+        Assert.assertEquals(LinkStrategy.fromName("REFLINK"), LinkStrategy.REFLINK);
+        Assert.assertEquals(LinkStrategy.fromName(" SymLink "), LinkStrategy.SYMLINK);
+        Assert.assertEquals(LinkStrategy.fromName("copy"), LinkStrategy.COPY);
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testFromUnknownName() {
+        addDescription("Test extracting an unknown link strategy.");
+        LinkStrategy.fromName("teleport");
+    }
+}
@@ -0,0 +1,63 @@
+package dk.kb.elivagar.utils;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import dk.kb.elivagar.exception.ArgumentCheck;
+
+public class PendingCounterTest extends ExtendedTestCase {
+
+    @Test
+    public void testAddAndAwait() throws Exception {
+        addDescription("Test that waiting for a directory blocks until all its pending tasks have completed.");
+        PendingCounter counter = new PendingCounter("tests");
+        File dir = new File("book");
+        File otherDir = new File("other-book");
+
+        addStep("Add two tasks for the directory", "Only the directory has pending tasks");
+        counter.add(dir, 2);
+        Assert.assertTrue(counter.isPending(dir));
+        Assert.assertTrue(counter.isPending(dir.getAbsoluteFile()));
+        Assert.assertFalse(counter.isPending(otherDir));
+        counter.await(otherDir);
+
+        addStep("Wait for the directory in another thread", "It blocks until the last task has completed");
+        AtomicBoolean completed = new AtomicBoolean(false);
+        Thread waiter = new Thread(() -> {
+            counter.await(dir);
+            completed.set(true);
+        });
+        waiter.start();
+        counter.add(dir, -1);
+        waiter.join(200L);
+        Assert.assertFalse(completed.get());
+        counter.add(dir.getAbsoluteFile(), -1);
+        waiter.join(10000L);
+        Assert.assertTrue(completed.get());
+        Assert.assertFalse(counter.isPending(dir));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testAwaitInterrupted() {
+        addDescription("Test that an interrupted wait fails, and keeps the interrupt status.");
+        PendingCounter counter = new PendingCounter("tests");
+        File dir = new File("book");
+        counter.add(dir, 1);
+        Thread.currentThread().interrupt();
+        try {
+            counter.await(dir);
+        } finally {
+            Assert.assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test(expectedExceptions = ArgumentCheck.class)
+    public void testNoName() {
+        addDescription("Test that the counter must have a name.");
+        new PendingCounter("");
+    }
+}
@@ -0,0 +1,49 @@
+package dk.kb.elivagar.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.jaccept.structure.ExtendedTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+
+public class XmlUtilsTest extends ExtendedTestCase {
+
+    @Test
+    public void testIndentingTransformer() throws Exception {
+        addDescription("Test writing a new document with the indenting transformer.");
+        Document doc = XmlUtils.newDocument();
+        doc.appendChild(doc.createElement("root")).appendChild(doc.createElement("child"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XmlUtils.getIndentingTransformer().transform(new DOMSource(doc), new StreamResult(out));
+
+        String xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(xml.contains("<root>"), xml);
+        Assert.assertTrue(xml.contains("    <child/>"), xml);
+    }
+
+    @Test
+    public void testGetCanonicalForm() throws Exception {
+        addDescription("Test that documents, which only differ in their serialization, have the same canonical form.");
+        String original = "<?xml version=\"1.0\"?><mods xmlns=\"http://www.loc.gov/mods/v3\" version=\"3.5\" "
+                + "ID=\"1\"><titleInfo><title>The  title</title></titleInfo><!-- comment --></mods>";
+        String reserialized = "<m:mods xmlns:m=\"http://www.loc.gov/mods/v3\" ID=\"1\" version=\"3.5\">\n"
+                + "    <m:titleInfo>\n        <m:title>The title</m:title>\n    </m:titleInfo>\n</m:mods>";
+        String changed = original.replace("The  title", "The other title");
+
+        addStep("Compare the original and the reserialized document", "Same canonical form");
+        Assert.assertEquals(getCanonicalForm(reserialized), getCanonicalForm(original));
+
+        addStep("Compare the original and the changed document", "Different canonical forms");
+        Assert.assertNotEquals(getCanonicalForm(changed), getCanonicalForm(original));
+    }
+
+    protected String getCanonicalForm(String xml) throws Exception {
+        return XmlUtils.getCanonicalForm(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+}